@@ -52,6 +52,7 @@ public class DirectoryManager {
     private static File GENOME_CACHE_DIRECTORY;
     private static File GENE_LIST_DIRECTORY;
     private static File BAM_CACHE_DIRECTORY;
+    private static File BLOCK_CACHE_DIRECTORY;
     final public static String IGV_DIR_USERPREF = "igvDir";
 
 
@@ -237,6 +238,22 @@ public class DirectoryManager {
         return BAM_CACHE_DIRECTORY;
     }
 
+    /**
+     * Directory for the persistent cache of remote file blocks,  or null if the IGV directory does not exist
+     */
+    public static synchronized File getBlockCacheDirectory() {
+        if (BLOCK_CACHE_DIRECTORY == null) {
+            File defaultDir = getIgvDirectory();
+            if (defaultDir.exists()) {
+                BLOCK_CACHE_DIRECTORY = new File(defaultDir, "blocks");
+                if (!BLOCK_CACHE_DIRECTORY.exists()) {
+                    BLOCK_CACHE_DIRECTORY.mkdir();
+                }
+            }
+        }
+        return BLOCK_CACHE_DIRECTORY;
+    }
+
     public static synchronized File getSamDirectory() {
 
         File samDir = new File(DirectoryManager.getIgvDirectory(), "sam");
@@ -140,6 +140,9 @@ public class PreferenceManager implements PropertyManager {
     public static final String SAM_COMPLETE_READS_ONLY = "SAM.COMPLETE_READS_ONLY";
 
     public static final String SAM_REDUCED_MEMORY_MODE = "SAM.REDUCED_MEMORY_MODE";
+    public static final String SAM_COMPACT_MEMORY_MODE = "SAM.COMPACT_MEMORY_MODE";
+    public static final String SAM_INTERVAL_CACHE_SIZE = "SAM.INTERVAL_CACHE_SIZE";   // megabytes
+    public static final String SAM_INCREMENTAL_LOADING = "SAM.INCREMENTAL_LOADING";
 
     public static final String SAM_HIDE_SMALL_INDEL_BP = "SAM.HIDE_SMALL_INDEL_BP";
     public static final String SAM_SMALL_INDEL_BP_THRESHOLD = "SAM.MIN_INDEL_BP_THRESHOLD";
@@ -149,6 +152,16 @@ public class PreferenceManager implements PropertyManager {
 
     public static final String SAM_SHOW_ALIGNMENT_TRACK = "SAM.SHOW_ALIGNMENT_TRACK";
 
+    public static final String LOAD_THREAD_COUNT = "LOAD_THREAD_COUNT";
+    public static final String SESSION_LOAD_THREAD_COUNT = "SESSION_LOAD_THREAD_COUNT";
+    public static final String MEMORY_MAP_LOCAL_FILES = "MEMORY_MAP_LOCAL_FILES";
+    public static final String REMOTE_BLOCK_CACHE_SIZE = "REMOTE_BLOCK_CACHE_SIZE";
+    public static final String SUMMARY_TILE_CACHE_SIZE = "SUMMARY_TILE_CACHE_SIZE";
+    public static final String TRACK_IMAGE_CACHE_SIZE = "TRACK_IMAGE_CACHE_SIZE";
+    public static final String RENDER_THREAD_COUNT = "RENDER_THREAD_COUNT";
+    public static final String INDEX_GENOME_ANNOTATIONS = "INDEX_GENOME_ANNOTATIONS";
+    public static final String BGZF_INFLATE_THREAD_COUNT = "BGZF_INFLATE_THREAD_COUNT";
+
     public static final String COLOR_A = "COLOR.A";
     public static final String COLOR_C = "COLOR.C";
     public static final String COLOR_T = "COLOR.T";
@@ -1114,6 +1127,9 @@ public class PreferenceManager implements PropertyManager {
         defaultValues.put(SAM_SHOW_ALL_BASES, "false");
 
         defaultValues.put(SAM_REDUCED_MEMORY_MODE, "false");
+        defaultValues.put(SAM_COMPACT_MEMORY_MODE, "false");
+        defaultValues.put(SAM_INTERVAL_CACHE_SIZE, "500");
+        defaultValues.put(SAM_INCREMENTAL_LOADING, "true");
 
         defaultValues.put(SAM_HIDE_SMALL_INDEL_BP, "false");
         defaultValues.put(SAM_SMALL_INDEL_BP_THRESHOLD, "0");
@@ -1123,6 +1139,16 @@ public class PreferenceManager implements PropertyManager {
 
         defaultValues.put(SAM_SHOW_ALIGNMENT_TRACK, "true");
 
+        defaultValues.put(LOAD_THREAD_COUNT, "4");
+        defaultValues.put(SESSION_LOAD_THREAD_COUNT, "4");
+        defaultValues.put(MEMORY_MAP_LOCAL_FILES, "false");  // Mapped files stay locked on Windows until closed
+        defaultValues.put(REMOTE_BLOCK_CACHE_SIZE, "0");     // MB,  0 to disable
+        defaultValues.put(SUMMARY_TILE_CACHE_SIZE, "4");     // MB per data source
+        defaultValues.put(TRACK_IMAGE_CACHE_SIZE, "64");     // MB,  0 to disable
+        defaultValues.put(RENDER_THREAD_COUNT, "0");         // 0 to render on the event dispatch thread
+        defaultValues.put(INDEX_GENOME_ANNOTATIONS, "true");
+        defaultValues.put(BGZF_INFLATE_THREAD_COUNT, "4");   // 0 to inflate BAM blocks on the reading thread
+
         defaultValues.put(BYPASS_FILE_AUTO_DISCOVERY, "false");
 
         defaultValues.put(NORMALIZE_COVERAGE, "false");
@@ -0,0 +1,262 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
+import org.broad.igv.util.CompressionUtils;
+import org.broad.igv.util.collections.LRUCache;
+import org.broad.igv.util.stream.IGVSeekableMappedStream;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread safe access to the R+ tree nodes and data blocks of a BBFile.
+ * <p/>
+ * Nodes are cached per file,  decompressed data blocks are cached in a memory-bounded cache shared by all open
+ * files.  A data block that is not cached is read together with any following uncached blocks of the hit list
+ * that are adjacent in the file,  so a query over many small blocks costs a few reads rather than one per block.
+ * <p/>
+ * Reads from memory-mapped local files are positional and need no lock,  reads from other streams are
+ * serialized on the stream.
+ */
+public class BBBlockCache {
+
+    private static Logger log = Logger.getLogger(BBBlockCache.class);
+
+    /**
+     * Maximum number of R+ tree nodes cached per file
+     */
+    static final int MAX_NODES = 512;
+
+    /**
+     * Blocks separated by at most this many bytes are read together
+     */
+    static final int MAX_BATCH_GAP = 8192;
+
+    /**
+     * Maximum size of a batched read
+     */
+    static final int MAX_BATCH_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Budget for decompressed data blocks,  across all files:  64 MB,  or 1/16 of the maximum heap if that is smaller
+     */
+    static final long MAX_BLOCK_CACHE_BYTES = Math.min(64L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16);
+
+    // Approximate per-block overhead (key,  array header,  map entry)
+    private static final int BLOCK_OVERHEAD = 96;
+
+    private static final LinkedHashMap<BlockKey, byte[]> blockCache = new LinkedHashMap<BlockKey, byte[]>(16, 0.75f, true);
+    private static long blockCacheBytes = 0;
+
+    private final SeekableStream fis;
+    private final IGVSeekableMappedStream mappedStream;
+    private final LRUCache<Long, RPTreeNode> nodeCache = new LRUCache<Long, RPTreeNode>(MAX_NODES);
+
+    public BBBlockCache(SeekableStream fis) {
+        this.fis = fis;
+        this.mappedStream = fis instanceof IGVSeekableMappedStream ? (IGVSeekableMappedStream) fis : null;
+    }
+
+    public SeekableStream getStream() {
+        return fis;
+    }
+
+    /**
+     * Read {@code size} bytes at {@code offset}
+     */
+    byte[] readBytes(long offset, int size) throws IOException {
+        byte[] buffer = new byte[size];
+        if (mappedStream != null) {
+            int n = 0;
+            while (n < size) {
+                int count = mappedStream.read(offset + n, buffer, n, size - n);
+                if (count < 0) {
+                    throw new IOException("Premature end of file reading " + mappedStream.getSource());
+                }
+                n += count;
+            }
+        } else {
+            synchronized (fis) {
+                fis.seek(offset);
+                fis.readFully(buffer);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Return the R+ tree node at {@code offset},  reading it if it is not cached.  Child nodes of the returned
+     * node are loaded on demand through this cache.
+     */
+    RPTreeNode getNode(long offset, boolean isLowToHigh) {
+        RPTreeNode node = nodeCache.get(offset);
+        if (node == null) {
+            synchronized (fis) {
+                node = RPTree.readRPTreeNode(fis, offset, isLowToHigh, false, this);
+            }
+            nodeCache.put(offset, node);
+        }
+        return node;
+    }
+
+    /**
+     * Return the decompressed data block for the leaf item {@code items[index]}.  On a cache miss,  following
+     * uncached items adjacent in the file are read in the same request and cached as well.
+     *
+     * @param uncompressBufSize decompression buffer size from the file header,  0 for uncompressed data
+     */
+    byte[] getDataBlock(List<RPTreeLeafNodeItem> items, int index, int uncompressBufSize) {
+
+        RPTreeLeafNodeItem item = items.get(index);
+        byte[] block = getCachedBlock(new BlockKey(this, item.getDataOffset()));
+        if (block != null) {
+            return block;
+        }
+
+        long batchStart = item.getDataOffset();
+        long batchEnd = batchStart + item.geDataSize();
+        int last = index;
+        while (last + 1 < items.size()) {
+            RPTreeLeafNodeItem next = items.get(last + 1);
+            long nextStart = next.getDataOffset();
+            long nextEnd = nextStart + next.geDataSize();
+            if (nextStart < batchEnd || nextStart - batchEnd > MAX_BATCH_GAP || nextEnd - batchStart > MAX_BATCH_SIZE ||
+                    isCached(new BlockKey(this, nextStart))) {
+                break;
+            }
+            batchEnd = nextEnd;
+            last++;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = readBytes(batchStart, (int) (batchEnd - batchStart));
+        } catch (IOException ex) {
+            log.error("Error reading data block at " + batchStart, ex);
+            throw new RuntimeException("Error reading data block at " + batchStart, ex);
+        }
+
+        CompressionUtils compressionUtils = uncompressBufSize > 0 ? new CompressionUtils() : null;
+        for (int i = index; i <= last; i++) {
+            RPTreeLeafNodeItem it = items.get(i);
+            int from = (int) (it.getDataOffset() - batchStart);
+            byte[] data = Arrays.copyOfRange(bytes, from, from + (int) it.geDataSize());
+            if (compressionUtils != null) {
+                data = compressionUtils.decompress(data, uncompressBufSize);
+            }
+            putCachedBlock(new BlockKey(this, it.getDataOffset()), data);
+            if (i == index) {
+                block = data;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Remove this file's nodes and data blocks from the caches
+     */
+    public void clear() {
+        nodeCache.clear();
+        synchronized (blockCache) {
+            Iterator<Map.Entry<BlockKey, byte[]>> iter = blockCache.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<BlockKey, byte[]> entry = iter.next();
+                if (entry.getKey().owner == this) {
+                    blockCacheBytes -= entry.getValue().length + BLOCK_OVERHEAD;
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    private static byte[] getCachedBlock(BlockKey key) {
+        synchronized (blockCache) {
+            return blockCache.get(key);
+        }
+    }
+
+    private static boolean isCached(BlockKey key) {
+        synchronized (blockCache) {
+            return blockCache.containsKey(key);
+        }
+    }
+
+    private static void putCachedBlock(BlockKey key, byte[] block) {
+        synchronized (blockCache) {
+            byte[] previous = blockCache.put(key, block);
+            if (previous != null) {
+                blockCacheBytes -= previous.length + BLOCK_OVERHEAD;
+            }
+            blockCacheBytes += block.length + BLOCK_OVERHEAD;
+
+            Iterator<Map.Entry<BlockKey, byte[]>> iter = blockCache.entrySet().iterator();
+            while (blockCacheBytes > MAX_BLOCK_CACHE_BYTES && iter.hasNext()) {
+                Map.Entry<BlockKey, byte[]> entry = iter.next();
+                if (entry.getKey().equals(key)) continue;
+                blockCacheBytes -= entry.getValue().length + BLOCK_OVERHEAD;
+                iter.remove();
+            }
+        }
+    }
+
+    static long getBlockCacheBytes() {
+        synchronized (blockCache) {
+            return blockCacheBytes;
+        }
+    }
+
+
+    private static class BlockKey {
+
+        final BBBlockCache owner;
+        final long offset;
+
+        BlockKey(BBBlockCache owner, long offset) {
+            this.owner = owner;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BlockKey)) return false;
+            BlockKey other = (BlockKey) o;
+            return owner == other.owner && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(owner) + (int) (offset ^ (offset >>> 32));
+        }
+    }
+}
@@ -27,7 +27,6 @@ package org.broad.igv.bbfile;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
-import org.broad.igv.util.stream.IGVSeekableBufferedStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
 
 import java.io.ByteArrayOutputStream;
@@ -84,6 +83,9 @@ import java.util.ArrayList;
 *
 *   13) Provides iterators using chromosome names and data regions to extract
 *       zoom data, Wig data, and Bed data.
+*
+*   14) Iterators may be requested from multiple threads.  R+ tree nodes and decompressed
+*       data blocks are read through a BBBlockCache shared by all queries on the file.
 * 
 * */
 
@@ -94,6 +96,7 @@ public class BBFileReader {
     private static Logger log = Logger.getLogger(BBFileReader.class);
 
     private SeekableStream fis;      // BBFile input stream handle
+    private BBBlockCache blockCache;  // R+ tree nodes and decoded data blocks,  shared by concurrent queries
     private long fileOffset;           // file offset for next item to be read
 
     private BBFileHeader fileHeader; // Big Binary file header
@@ -126,7 +129,9 @@ public class BBFileReader {
 
         log.debug("Opening BBFile source  " + path);
 
-        fis = new IGVSeekableBufferedStream(IGVSeekableStreamFactory.getInstance().getStreamFor(path), 128000);
+        IGVSeekableStreamFactory streamFactory = IGVSeekableStreamFactory.getInstance();
+        fis = streamFactory.getBufferedStream(streamFactory.getStreamFor(path), 128000);
+        blockCache = new BBBlockCache(fis);
 
         // read in file header
         fileOffset = BBFILE_HEADER_OFFSET;
@@ -184,7 +189,7 @@ public class BBFileReader {
         if (chromDataTreeOffset != 0) {
             fileOffset = chromDataTreeOffset;
             boolean forceDescend = false;
-            chromosomeDataTree = new RPTree(fis, fileOffset, isLowToHigh, uncompressBufSize, forceDescend);
+            chromosomeDataTree = new RPTree(fis, fileOffset, isLowToHigh, uncompressBufSize, forceDescend, blockCache);
         }
 
 
@@ -195,6 +200,7 @@ public class BBFileReader {
 
 
     public void close() {
+        blockCache.clear();
         try {
             fis.close();
         } catch (IOException e) {
@@ -314,8 +320,8 @@ public class BBFileReader {
      * 1) An empty iterator is returned if region has no data available
      * 2) A null object is returned if the file is not BigBed.(see isBigBedFile method)
      */
-    synchronized public BigBedIterator getBigBedIterator(String startChromosome, int startBase,
-                                                         String endChromosome, int endBase, boolean contained) {
+    public BigBedIterator getBigBedIterator(String startChromosome, int startBase,
+                                            String endChromosome, int endBase, boolean contained) {
 
         if (!isBigBedFile())
             return null;
@@ -330,7 +336,7 @@ public class BBFileReader {
             return new BigBedIterator();  // an empty iterator
 
         // compose an iterator
-        BigBedIterator bedIterator = new BigBedIterator(fis, chromosomeIDTree, chromosomeDataTree,
+        BigBedIterator bedIterator = new BigBedIterator(blockCache, chromosomeIDTree, chromosomeDataTree,
                 selectionRegion, contained);
 
         return bedIterator;
@@ -356,8 +362,8 @@ public class BBFileReader {
      * 1) An empty iterator is returned if region has no data available
      * 2) A null object is returned if the file is not BigWig.(see isBigWigFile method)
      */
-    synchronized public BigWigIterator getBigWigIterator(String startChromosome, int startBase,
-                                                         String endChromosome, int endBase, boolean contained) {
+    public BigWigIterator getBigWigIterator(String startChromosome, int startBase,
+                                            String endChromosome, int endBase, boolean contained) {
 
 
         if (!isBigWigFile())
@@ -372,7 +378,7 @@ public class BBFileReader {
             return new BigWigIterator();
 
         // compose an iterator
-        BigWigIterator wigIterator = new BigWigIterator(fis, chromosomeIDTree, chromosomeDataTree,
+        BigWigIterator wigIterator = new BigWigIterator(blockCache, chromosomeIDTree, chromosomeDataTree,
                 selectionRegion, contained);
 
         return wigIterator;
@@ -398,8 +404,8 @@ public class BBFileReader {
      * Error conditions:
      * 1) An empty iterator is returned if region has no data available
      */
-    synchronized public ZoomLevelIterator getZoomLevelIterator(int zoomLevel, String startChromosome, int startBase,
-                                                               String endChromosome, int endBase, boolean contained) {
+    public ZoomLevelIterator getZoomLevelIterator(int zoomLevel, String startChromosome, int startBase,
+                                                  String endChromosome, int endBase, boolean contained) {
         // check for valid zoom level
         if (zoomLevel < 1 || zoomLevel > zoomLevelCount)
             throw new RuntimeException("Error: ZoomLevelIterator zoom level is out of range\n");
@@ -417,7 +423,7 @@ public class BBFileReader {
         }
 
         /// compose an iterator
-        ZoomLevelIterator zoomIterator = new ZoomLevelIterator(fis, chromosomeIDTree,
+        ZoomLevelIterator zoomIterator = new ZoomLevelIterator(blockCache, chromosomeIDTree,
                 zoomDataTree, zoomLevel, selectionRegion, contained);
 
         return zoomIterator;
@@ -436,7 +442,7 @@ public class BBFileReader {
      * Error conditions:
      * 1) An empty iterator is returned if region has no data available
      */
-    synchronized public ZoomLevelIterator getZoomLevelIterator(int zoomLevel) {
+    public ZoomLevelIterator getZoomLevelIterator(int zoomLevel) {
 
         // check for valid zoom level
         if (zoomLevel < 1 || zoomLevel > zoomLevelCount)
@@ -450,7 +456,7 @@ public class BBFileReader {
 
         // compose an iterator
         boolean contained = true;   //all regions are contained
-        ZoomLevelIterator zoomIterator = new ZoomLevelIterator(fis, chromosomeIDTree,
+        ZoomLevelIterator zoomIterator = new ZoomLevelIterator(blockCache, chromosomeIDTree,
                 zoomDataTree, zoomLevel, selectionRegion, contained);
 
         return zoomIterator;
@@ -25,9 +25,7 @@
 
 package org.broad.igv.bbfile;
 
-import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
-import org.broad.igv.util.CompressionUtils;
 import htsjdk.tribble.util.LittleEndianInputStream;
 
 import java.io.ByteArrayOutputStream;
@@ -76,41 +74,21 @@ public class BigBedDataBlock {
     *   Constructor for Bed data block reader.
     *
     *   Parameters:
-    *       fis - file input stream handle
+    *       buffer - data block,  decompressed
     *       leafItem - R+ tree leaf item containing chromosome region and file data location
     *       chromIDTree - B+ chromosome index tree returns chromosome ID's for names
     *       isLowToHigh - byte order is low to high if true; else high to low
-    *       uncompressBufSize - byte size for decompression buffer; else 0 for uncompressed
     * */
-    public BigBedDataBlock(SeekableStream fis, RPTreeLeafNodeItem leafHitItem,
-                           HashMap<Integer, String> chromosomeMap, boolean isLowToHigh, int uncompressBufSize) {
+    public BigBedDataBlock(byte[] buffer, RPTreeLeafNodeItem leafHitItem,
+                           HashMap<Integer, String> chromosomeMap, boolean isLowToHigh) {
 
         this.leafHitItem = leafHitItem;
         this.chromosomeMap = chromosomeMap;
         this.isLowToHigh = isLowToHigh;
 
         dataBlockSize = this.leafHitItem.geDataSize();
-        byte[] buffer = new byte[(int) dataBlockSize];
-
         fileOffset = this.leafHitItem.getDataOffset();
-
-        // read Bed data block into a buffer
-        try {
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
-
-            // decompress if necessary - the buffer size is 0 for uncompressed data
-            // Note:  BBFile Table C specifies a decompression buffer size
-            if (uncompressBufSize > 0)
-                bedBuffer = (new CompressionUtils()).decompress(buffer, uncompressBufSize);
-            else
-                bedBuffer = buffer;    // use uncompressed read buffer directly
-
-        } catch (IOException ex) {
-            String error = String.format("Error reading Bed data for leaf item %d \n");
-            log.error(error, ex);
-            throw new RuntimeException(error, ex);
-        }
+        bedBuffer = buffer;
 
         // wrap the bed buffer as an input stream
         if (this.isLowToHigh)
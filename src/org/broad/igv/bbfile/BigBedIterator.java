@@ -25,7 +25,6 @@
 
 package org.broad.igv.bbfile;
 
-import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
 
 import java.util.*;
@@ -46,7 +45,7 @@ public class BigBedIterator implements Iterator<BedFeature> {
     private boolean contained; // if true, features must be fully contained by extraction region
 
     // File access variables for reading Bed data block
-    private SeekableStream fis;  // file input stream handle
+    private BBBlockCache blockCache;  // file input stream handle and decoded block cache
     private BPTree chromIDTree;    // B+ chromosome index tree
     private RPTree chromDataTree;  // R+ chromosome data location tree
 
@@ -59,7 +58,7 @@ public class BigBedIterator implements Iterator<BedFeature> {
      * Constructor for a BigBed iterator over the specified chromosome region
      * <p/>
      * Parameters:
-     * fis - file input stream handle
+     * blockCache - file input stream handle and decoded block cache
      * chromIDTree - B+ index tree returns chromomosme ID's for chromosome names
      * chromDataTree - R+ chromosome data locations tree
      * selectionRegion - chromosome region for selection of Bed feature extraction
@@ -71,14 +70,14 @@ public class BigBedIterator implements Iterator<BedFeature> {
      * contained - specifies bed features must be contained by region, if true;
      * else return any intersecting region features
      */
-    public BigBedIterator(SeekableStream fis, BPTree chromIDTree, RPTree chromDataTree,
+    public BigBedIterator(BBBlockCache blockCache, BPTree chromIDTree, RPTree chromDataTree,
                           RPChromosomeRegion selectionRegion, boolean contained) {
 
         // check for valid selection region
         if (selectionRegion == null)
             throw new RuntimeException("Error: BigBedIterator selection region is null\n");
 
-        this.fis = fis;
+        this.blockCache = blockCache;
         this.chromIDTree = chromIDTree;
         this.chromDataTree = chromDataTree;
         this.selectionRegion = selectionRegion;
@@ -86,8 +85,8 @@ public class BigBedIterator implements Iterator<BedFeature> {
 
         List<RPTreeLeafNodeItem> leafNodeItems = chromDataTree.getChromosomeDataHits(selectionRegion, contained);
         features = new ArrayList<BedFeature>(512 * leafNodeItems.size());
-        for (RPTreeLeafNodeItem item : leafNodeItems) {
-            features.addAll(readBedDataBlock(item));
+        for (int i = 0; i < leafNodeItems.size(); i++) {
+            features.addAll(readBedDataBlock(leafNodeItems, i));
         }
     }
 
@@ -130,12 +129,15 @@ public class BigBedIterator implements Iterator<BedFeature> {
    *   Method sets up a decompressed data block of big bed features for iteration.
    *
    *   Parameters:
+   *       leafHitList - leaf items hit by the selection region
    *       leafItemIndex - leaf item index in the hit list referencing the data block
    *
    *   Returns:
-   *       Successful Bed feature data block set up: true or false.
+   *       Bed features of the data block within the selection region
    * */
-    private List<BedFeature> readBedDataBlock(RPTreeLeafNodeItem leafHitItem) {
+    private List<BedFeature> readBedDataBlock(List<RPTreeLeafNodeItem> leafHitList, int leafItemIndex) {
+
+        RPTreeLeafNodeItem leafHitItem = leafHitList.get(leafItemIndex);
 
         // get the chromosome names associated with the hit region ID's
         int startChromID = leafHitItem.getChromosomeBounds().getStartChromID();
@@ -146,8 +148,8 @@ public class BigBedIterator implements Iterator<BedFeature> {
         int uncompressBufSize = chromDataTree.getUncompressBuffSize();
 
         // decompress leaf item data block for feature extraction
-        BigBedDataBlock bedDataBlock = new BigBedDataBlock(fis, leafHitItem, chromosomeMap, isLowToHigh,
-                uncompressBufSize);
+        byte[] buffer = blockCache.getDataBlock(leafHitList, leafItemIndex, uncompressBufSize);
+        BigBedDataBlock bedDataBlock = new BigBedDataBlock(buffer, leafHitItem, chromosomeMap, isLowToHigh);
 
         // get data block Bed feature list and set next index to first item
         return bedDataBlock.getBedData(selectionRegion, contained);
@@ -25,9 +25,7 @@
 
 package org.broad.igv.bbfile;
 
-import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
-import org.broad.igv.util.CompressionUtils;
 
 import java.util.ArrayList;
 import java.io.IOException;
@@ -69,39 +67,21 @@ public class BigWigDataBlock {
     *   Constructor for Wig data block reader.
     *
     *   Parameters:
-    *       fis - file input stream handle
+    *       buffer - data block,  decompressed
     *       leafHitItem - R+ tree leaf hit item containing data block file location and hit status
     *       chromIDTree - B+ chromosome index tree returns chromosome ID's for names
     *       isLowToHigh - byte order is low to high if true; else high to low
-    *       uncompressBufSize - byte size for decompression buffer; else 0 for uncompressed
     *
     * */
-    public BigWigDataBlock(SeekableStream fis, RPTreeLeafNodeItem leafHitItem,
-                           HashMap<Integer, String> chromosomeMap, boolean isLowToHigh, int uncompressBufSize){
+    public BigWigDataBlock(byte[] buffer, RPTreeLeafNodeItem leafHitItem,
+                           HashMap<Integer, String> chromosomeMap, boolean isLowToHigh){
         this.leafHitItem = leafHitItem;
         this.chromosomeMap = chromosomeMap;
         this.isLowToHigh = isLowToHigh;
 
         fileOffset = this.leafHitItem.getDataOffset();
         leafDataSize = this.leafHitItem.geDataSize();
-        byte[] buffer = new byte[(int) leafDataSize];
-
-        // read Wig data block into a buffer
-        try {
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
-
-            // decompress if necessary - the buffer size is 0 for uncompressed data
-            // Note:  BBFile Table C specifies a decompression buffer size
-            if(uncompressBufSize > 0)
-                wigBuffer = (new CompressionUtils()).decompress(buffer, uncompressBufSize);
-            else
-                wigBuffer = buffer;    // use uncompressed read buffer directly
-        }catch(IOException ex) {
-            log.error("Error reading Wig section for leaf item ", ex);
-            String error = String.format("Error reading Wig section for leaf item %d\n");
-            throw new RuntimeException(error, ex);
-        }
+        wigBuffer = buffer;
 
         // initialize unread data size
         remDataSize = wigBuffer.length;
@@ -105,6 +105,15 @@ public class RPTree {
     * */
 
     public RPTree(SeekableStream fis, long fileOffset, boolean isLowToHigh, int uncompressBuffSize, boolean forceDescend) {
+        this(fis, fileOffset, isLowToHigh, uncompressBuffSize, forceDescend, null);
+    }
+
+    /*
+    *   As above,  nodes below the root that are not read immediately are loaded on demand through the
+    *   block cache,  if not null,  rather than read once and retained.
+    * */
+    public RPTree(SeekableStream fis, long fileOffset, boolean isLowToHigh, int uncompressBuffSize, boolean forceDescend,
+                  BBBlockCache blockCache) {
 
         // save the seekable file handle  and B+ Tree file offset
         // Note: the offset is the file position just after the B+ Tree Header
@@ -133,7 +142,7 @@ public class RPTree {
         RPTreeNode parentNode = null;      // parent node of the root is itself, or null
 
         // start constructing the R+ tree - get the root node
-        rootNode = readRPTreeNode(fis, nodeOffset, isLowToHigh, forceDescend);
+        rootNode = readRPTreeNode(fis, nodeOffset, isLowToHigh, forceDescend, blockCache);
     }
 
     /*
@@ -548,6 +557,11 @@ public class RPTree {
     * */
 
     static RPTreeNode readRPTreeNode(SeekableStream fis, long fileOffset, boolean isLowToHigh, boolean forceDescend) {
+        return readRPTreeNode(fis, fileOffset, isLowToHigh, forceDescend, null);
+    }
+
+    static RPTreeNode readRPTreeNode(SeekableStream fis, long fileOffset, boolean isLowToHigh, boolean forceDescend,
+                                     BBBlockCache blockCache) {
 
         LittleEndianInputStream lbdis = null; // low o high byte stream reader
         DataInputStream bdis = null;    // high to low byte stream reader
@@ -651,11 +665,11 @@ public class RPTree {
 
                     RPTreeChildNodeItem childNodeItem;
                     if (startChromID != endChromID || forceDescend) {
-                        RPTreeNode childNode = readRPTreeNode(fis, nodeOffset, isLowToHigh, forceDescend);
+                        RPTreeNode childNode = readRPTreeNode(fis, nodeOffset, isLowToHigh, forceDescend, blockCache);
                         childNodeItem = new RPTreeChildNodeItem(startChromID, startBase, endChromID,
                                 endBase, childNode);
                     } else {
-                        RPTreeNodeProxy proxy = new RPTreeNodeProxy(fis, nodeOffset, isLowToHigh, startChromID);
+                        RPTreeNodeProxy proxy = new RPTreeNodeProxy(fis, nodeOffset, isLowToHigh, startChromID, blockCache);
                         childNodeItem = new RPTreeChildNodeItem(startChromID, startBase, endChromID,
                                 endBase, proxy);
                     }
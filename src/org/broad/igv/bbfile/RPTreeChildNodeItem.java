@@ -71,11 +71,16 @@ public class RPTreeChildNodeItem extends RPTreeNodeItem {
         this.childNodeProxy = childNodeProxy;
     }
 
-    public RPTreeNode getChildNode() {
+    public synchronized RPTreeNode getChildNode() {
 
         if (childNode == null) {
             RPTreeNodeProxy proxy = childNodeProxy;
-            childNode = RPTree.readRPTreeNode(proxy.fis, proxy.fileOffset, proxy.isLowToHigh, true);
+            if (proxy.blockCache != null) {
+                return proxy.blockCache.getNode(proxy.fileOffset, proxy.isLowToHigh);
+            }
+            synchronized (proxy.fis) {
+                childNode = RPTree.readRPTreeNode(proxy.fis, proxy.fileOffset, proxy.isLowToHigh, true);
+            }
         }
 
         return childNode;
@@ -37,14 +37,22 @@ public class RPTreeNodeProxy  {
     public long fileOffset;
     public boolean isLowToHigh;
 
+    // If not null,  the node is loaded through the cache rather than read once and retained by the parent
+    public BBBlockCache blockCache;
+
     // For debugging
     int chromId;
 
     public RPTreeNodeProxy(SeekableStream fis, long fileOffset, boolean lowToHigh, int chromId) {
+        this(fis, fileOffset, lowToHigh, chromId, null);
+    }
+
+    public RPTreeNodeProxy(SeekableStream fis, long fileOffset, boolean lowToHigh, int chromId, BBBlockCache blockCache) {
         this.fis = fis;
         this.fileOffset = fileOffset;
         isLowToHigh = lowToHigh;
         this.chromId = chromId;
+        this.blockCache = blockCache;
     }
 
 }
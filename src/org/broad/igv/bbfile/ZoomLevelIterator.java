@@ -47,7 +47,7 @@ public class ZoomLevelIterator {
     private RPChromosomeRegion hitRegion;  // hit selection region for iterator
 
     // File access variables for reading zoom level data block
-    private SeekableStream fis;  // file input stream handle
+    private BBBlockCache blockCache;  // file input stream handle and decoded block cache
     private BPTree chromIDTree;    // B+ chromosome index tree
     private RPTree zoomDataTree;  // R+ zoom data locations tree
 
@@ -74,7 +74,7 @@ public class ZoomLevelIterator {
      * Constructs a zoom level iterator over the specified chromosome region
      * <p/>
      * Parameters:
-     * fis - file input stream handle
+     * blockCache - file input stream handle and decoded block cache
      * chromIDTree - B+ index tree returns chromId for chromosome name key
      * zoomLevelTree - zoom level R+ chromosome index tree
      * zoomLevel - zoom level represented by the R+ tree
@@ -87,14 +87,14 @@ public class ZoomLevelIterator {
      * contained - specifies bed features must be contained by region, if true;
      * else return any intersecting region features
      */
-    public ZoomLevelIterator(SeekableStream fis, BPTree chromIDTree, RPTree zoomDataTree,
+    public ZoomLevelIterator(BBBlockCache blockCache, BPTree chromIDTree, RPTree zoomDataTree,
                              int zoomLevel, RPChromosomeRegion selectionRegion, boolean contained) {
 
         // check for valid selection region
         if (selectionRegion == null)
             throw new RuntimeException("Error: ZoomLevelIterator selection region is null\n");
 
-        this.fis = fis;
+        this.blockCache = blockCache;
         this.chromIDTree = chromIDTree;
         this.zoomDataTree = zoomDataTree;
         this.zoomLevel = zoomLevel;
@@ -251,7 +251,7 @@ public class ZoomLevelIterator {
     * */
 
     public SeekableStream getBBFis() {
-        return fis;
+        return blockCache.getStream();
     }
 
     /*
@@ -389,8 +389,8 @@ public class ZoomLevelIterator {
         int uncompressBufSize = zoomDataTree.getUncompressBuffSize();
 
         // decompress leaf item data block for feature extraction
-        zoomDataBlock = new ZoomDataBlock(zoomLevel, fis, leafHitItem, chromosomeMap,
-                isLowToHigh, uncompressBufSize);
+        byte[] buffer = blockCache.getDataBlock(leafHitList, leafItemIndex, uncompressBufSize);
+        zoomDataBlock = new ZoomDataBlock(zoomLevel, buffer, leafHitItem, chromosomeMap, isLowToHigh);
 
         // get data block zoom data record list and set next index to first item
         zoomRecordList = zoomDataBlock.getZoomData(selectionRegion, isContained);
@@ -31,6 +31,7 @@ import org.broad.igv.bbfile.*;
 import org.broad.igv.data.AbstractDataSource;
 import org.broad.igv.data.BasicScore;
 import org.broad.igv.data.DataTile;
+import org.broad.igv.data.SummaryTile;
 import org.broad.igv.feature.*;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.feature.tribble.IGVBEDCodec;
@@ -69,7 +70,7 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
     // Lookup table to support chromosome aliasing.
     private Map<String, String> chrNameMap = new HashMap();
 
-    private RawDataInterval currentInterval = null;
+    private volatile RawDataInterval currentInterval = null;
 
     private double dataMin = 0;
     private double dataMax = 100;
@@ -242,22 +243,81 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
         String tmp = chrNameMap.get(chr);
         String querySeq = tmp == null ? chr : tmp;
 
-        if (reader.isBigBedFile() || bbLevel > 1 || (bbLevel == 1 && (reductionLevel / scale) < 2)) {
-            ArrayList<LocusScore> scores = new ArrayList(1000);
-            ZoomLevelIterator zlIter = reader.getZoomLevelIterator(bbLevel, querySeq, start, querySeq, end, false);
-            while (zlIter.hasNext()) {
-                ZoomDataRecord rec = zlIter.next();
+        if (reader.isBigBedFile()) {
+            return getZoomLevelScores(querySeq, start, end, bbLevel);
+        } else if (reductionLevel > 2 * scale) {
+            // Highest resolution level is too coarse, summarize the raw data.  Below 1 bp / pixel there is
+            // nothing to summarize,  fall back to the raw data path
+            return bbLevel == 1 && scale >= 1 ? getBinnedSummaryScores(chr, querySeq, start, end, zoom, 0) : null;
+        } else if (scale > 2 * reductionLevel) {
+            // Nearest level is much finer than the requested resolution (sparse zoom levels),  summarize its records
+            return getBinnedSummaryScores(chr, querySeq, start, end, zoom, bbLevel);
+        } else {
+            return getZoomLevelScores(querySeq, start, end, bbLevel);
+        }
+    }
+
+    private List<LocusScore> getZoomLevelScores(String querySeq, int start, int end, int bbLevel) {
+        ArrayList<LocusScore> scores = new ArrayList(1000);
+        ZoomLevelIterator zlIter = reader.getZoomLevelIterator(bbLevel, querySeq, start, querySeq, end, false);
+        while (zlIter.hasNext()) {
+            ZoomDataRecord rec = zlIter.next();
 
-                float v = getValue(rec);
-                BasicScore bs = new BasicScore(rec.getChromStart(), rec.getChromEnd(), v);
-                scores.add(bs);
+            float v = getValue(rec);
+            BasicScore bs = new BasicScore(rec.getChromStart(), rec.getChromEnd(), v);
+            scores.add(bs);
+        }
+        return scores;
+    }
+
+    /**
+     * Summarize records into 700 bins per tile,  using the same tile layout as {@link AbstractDataSource}
+     * (2^zoom tiles per chromosome).  Tiles are cached in the summary tile cache.
+     *
+     * @param bbLevel zoom level to summarize,  or 0 to summarize the raw (section) data
+     */
+    private List<LocusScore> getBinnedSummaryScores(String chr, String querySeq, int start, int end, int zoom, int bbLevel) {
+
+        int chrLength = getChrLength(chr);
+        if (chrLength == 0) return Collections.emptyList();
+
+        double tileWidth = ((double) chrLength) / Math.pow(2, zoom);
+        int startTile = (int) (Math.max(0, start) / tileWidth);
+        int endTile = (int) (Math.min(chrLength, end) / tileWidth);
+
+        List<LocusScore> scores = new ArrayList<LocusScore>();
+        for (int t = startTile; t <= endTile; t++) {
+            SummaryTile tile = getCachedSummaryTile(chr, zoom, t);
+            if (tile == null) {
+                int tileStart = (int) (t * tileWidth);
+                int tileEnd = Math.min(chrLength, (int) ((t + 1) * tileWidth));
+                if (tileEnd <= tileStart) continue;
+                tile = new SummaryTile(computeBinnedScores(querySeq, tileStart, tileEnd, bbLevel));
+                putCachedSummaryTile(chr, zoom, t, tile);
             }
-            return scores;
+            scores.addAll(tile.getScores());
+        }
+        return scores;
+    }
+
+    List<LocusScore> computeBinnedScores(String querySeq, int tileStart, int tileEnd, int bbLevel) {
 
+        SummaryBins bins = new SummaryBins(tileStart, tileEnd, 700);
+        if (bbLevel > 0) {
+            ZoomLevelIterator zlIter = reader.getZoomLevelIterator(bbLevel, querySeq, tileStart, querySeq, tileEnd, false);
+            while (zlIter.hasNext()) {
+                ZoomDataRecord rec = zlIter.next();
+                bins.add(rec.getChromStart(), rec.getChromEnd(), rec.getMinVal(), rec.getMaxVal(),
+                        rec.getSumData(), rec.getBasesCovered());
+            }
         } else {
-            // No precomputed scores for this resolution level
-            return null;
+            BigWigIterator iter = reader.getBigWigIterator(querySeq, tileStart, querySeq, tileEnd, false);
+            while (iter.hasNext()) {
+                WigItem item = iter.next();
+                bins.add(item.getStartBase(), item.getEndBase(), item.getWigValue());
+            }
         }
+        return bins.getScores(windowFunction);
     }
 
     private float getValue(ZoomDataRecord rec) {
@@ -277,16 +337,25 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
     }
 
 
+    /**
+     * BBFileReader queries are thread safe,  raw data can be fetched concurrently
+     */
+    @Override
+    protected boolean isConcurrentRawDataSupported() {
+        return true;
+    }
+
     @Override
-    protected synchronized DataTile getRawData(String chr, int start, int end) {
+    protected DataTile getRawData(String chr, int start, int end) {
 
         if (chr.equals(Globals.CHR_ALL)) {
             return null;
         }
 
 
-        if (currentInterval != null && currentInterval.contains(chr, start, end)) {
-            return currentInterval.tile;
+        RawDataInterval interval = currentInterval;
+        if (interval != null && interval.contains(chr, start, end)) {
+            return interval.tile;
         }
 
         // TODO -- fetch data directly in arrays to avoid creation of multiple "WigItem" objects?
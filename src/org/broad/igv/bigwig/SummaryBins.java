@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bigwig;
+
+import org.broad.igv.data.BasicScore;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.track.WindowFunction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed width bins over an interval,  accumulating min, max, and mean of the records added.  Records are
+ * summarized as they are streamed from the file,  one score object is created per non-empty bin.
+ * <p/>
+ * Records spanning bins contribute to each bin in proportion to the overlap.
+ */
+class SummaryBins {
+
+    private final int start;
+    private final int end;
+    private final double binSize;
+    private final int nBins;
+
+    private final float[] min;
+    private final float[] max;
+    private final double[] sum;
+    private final double[] basesCovered;
+    private final int[] dataStart;
+    private final int[] dataEnd;
+
+    SummaryBins(int start, int end, int nBins) {
+        this.start = start;
+        this.end = end;
+        this.nBins = nBins;
+        this.binSize = ((double) (end - start)) / nBins;
+
+        min = new float[nBins];
+        max = new float[nBins];
+        sum = new double[nBins];
+        basesCovered = new double[nBins];
+        dataStart = new int[nBins];
+        dataEnd = new int[nBins];
+        Arrays.fill(min, Float.MAX_VALUE);
+        Arrays.fill(max, -Float.MAX_VALUE);
+        Arrays.fill(dataStart, Integer.MAX_VALUE);
+        Arrays.fill(dataEnd, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Add a record with a single value over its whole extent (e.g. a raw wig item)
+     */
+    void add(int recStart, int recEnd, float value) {
+        add(recStart, recEnd, value, value, (double) value * (recEnd - recStart), recEnd - recStart);
+    }
+
+    /**
+     * Add a summary record (e.g. a zoom level record) covering {@code recBasesCovered} bases of the
+     * interval recStart - recEnd,  with the sum of values {@code recSum}
+     */
+    void add(int recStart, int recEnd, float recMin, float recMax, double recSum, int recBasesCovered) {
+
+        if (recEnd <= start || recStart >= end || recEnd <= recStart || Float.isNaN(recMin) || Float.isNaN(recMax)) {
+            return;
+        }
+
+        int s = Math.max(start, recStart);
+        int e = Math.min(end, recEnd);
+        int firstBin = getBin(s);
+        int lastBin = getBin(e - 1);
+        double length = recEnd - recStart;
+
+        for (int b = firstBin; b <= lastBin; b++) {
+            int bs = Math.max(s, getBinStart(b));
+            int be = Math.min(e, getBinStart(b + 1));
+            if (be <= bs) continue;
+
+            double fraction = (be - bs) / length;
+            sum[b] += fraction * recSum;
+            basesCovered[b] += fraction * recBasesCovered;
+            if (recMin < min[b]) min[b] = recMin;
+            if (recMax > max[b]) max[b] = recMax;
+            if (bs < dataStart[b]) dataStart[b] = bs;
+            if (be > dataEnd[b]) dataEnd[b] = be;
+        }
+    }
+
+    /**
+     * Return a score for each bin with data.  The score extent is the part of the bin covered by records.
+     */
+    List<LocusScore> getScores(WindowFunction windowFunction) {
+
+        List<LocusScore> scores = new ArrayList<LocusScore>();
+        for (int b = 0; b < nBins; b++) {
+            if (dataEnd[b] <= dataStart[b]) continue;
+
+            float v;
+            switch (windowFunction) {
+                case min:
+                    v = min[b];
+                    break;
+                case max:
+                    v = max[b];
+                    break;
+                default:
+                    v = basesCovered[b] > 0 ? (float) (sum[b] / basesCovered[b]) : Float.NaN;
+            }
+            if (!Float.isNaN(v)) {
+                scores.add(new BasicScore(dataStart[b], dataEnd[b], v));
+            }
+        }
+        return scores;
+    }
+
+    private int getBin(int position) {
+        return Math.min(nBins - 1, (int) ((position - start) / binSize));
+    }
+
+    // Bin b covers positions p with b * binSize <= p - start < (b + 1) * binSize,  consistent with getBin
+    private int getBinStart(int bin) {
+        return bin >= nBins ? end : start + (int) Math.ceil(bin * binSize);
+    }
+
+}
@@ -29,15 +29,17 @@ package org.broad.igv.data;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
+import org.broad.igv.PreferenceManager;
 import org.broad.igv.feature.Chromosome;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.tdf.Accumulator;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.ui.panel.FrameManager;
-import org.broad.igv.util.collections.LRUCache;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author jrobinso
@@ -57,10 +59,16 @@ public abstract class AbstractDataSource implements DataSource {
     });
     private static Logger log = Logger.getLogger(AbstractDataSource.class);
 
+    /**
+     * Computes summary tiles in parallel.  Raw data reads can block on I/O (e.g. remote bigwig files),  so they
+     * get their own threads rather than the common fork/join pool.
+     */
+    private static ExecutorService summaryExecutor;
+
     // DataManager dataManager;
     boolean cacheSummaryTiles = true;
     protected WindowFunction windowFunction = WindowFunction.mean;
-    LRUCache<String, SummaryTile> summaryTileCache = new LRUCache(10);
+    SummaryTileCache summaryTileCache = new SummaryTileCache(defaultSummaryCacheBytes());
     protected Genome genome;
 
     public AbstractDataSource(Genome genome) {
@@ -93,6 +101,29 @@ public abstract class AbstractDataSource implements DataSource {
     abstract protected List<LocusScore> getPrecomputedSummaryScores(String chr, int startLocation, int endLocation, int zoom);
 
 
+    /**
+     * Return true if {@link #getRawData(String, int, int)} may be called concurrently,  in which case missing
+     * summary tiles are computed in parallel.  Default is false,  subclasses with thread safe raw data access
+     * should override.
+     */
+    protected boolean isConcurrentRawDataSupported() {
+        return false;
+    }
+
+    /**
+     * Return the cached summary tile for the current window function,  or null if there is none.  Subclasses that
+     * summarize precomputed data themselves can use this to share the memory bounded tile cache.
+     */
+    protected SummaryTile getCachedSummaryTile(String chr, int zoom, int tileNumber) {
+        return cacheSummaryTiles ? summaryTileCache.get(new SummaryTileKey(chr, zoom, tileNumber, getWindowFunction())) : null;
+    }
+
+    protected void putCachedSummaryTile(String chr, int zoom, int tileNumber, SummaryTile tile) {
+        if (cacheSummaryTiles) {
+            summaryTileCache.put(new SummaryTileKey(chr, zoom, tileNumber, getWindowFunction()), tile);
+        }
+    }
+
     public int getChrLength(String chr) {
         if (chr.equals(Globals.CHR_ALL)) {
             return (int) (genome.getNominalLength() / 1000);
@@ -159,7 +190,7 @@ public abstract class AbstractDataSource implements DataSource {
 
     }
 
-    private List<SummaryTile> getSummaryTilesForRange(String chr, int startLocation, int endLocation, int zReq) {
+    List<SummaryTile> getSummaryTilesForRange(String chr, int startLocation, int endLocation, int zReq) {
 
         int chrLength = getChrLength(chr);
         if (chrLength == 0) {
@@ -183,27 +214,39 @@ public abstract class AbstractDataSource implements DataSource {
             double tileWidth = ((double) chrLength) / virtualTileCount;
             int startTile = (int) (adjustedStart / tileWidth);
             int endTile = (int) (Math.min(chrLength, adjustedEnd) / tileWidth) + 1;
-            List<SummaryTile> tiles = null;
+            WindowFunction wf = getWindowFunction();
 
-            tiles = new ArrayList(endTile - startTile + 1);
+            int nTiles = endTile - startTile + 1;
+            SummaryTile[] summaryTiles = new SummaryTile[nTiles];
+            List<Integer> missing = new ArrayList<Integer>();
             for (int t = startTile; t <= endTile; t++) {
-                int tileStart = (int) (t * tileWidth);
-                int tileEnd = Math.min(chrLength, (int) ((t + 1) * tileWidth));
-
-                String key = chr + "_" + z + "_" + t + getWindowFunction();
-                SummaryTile summaryTile = summaryTileCache.get(key);
+                SummaryTile summaryTile = summaryTileCache.get(new SummaryTileKey(chr, z, t, wf));
                 if (summaryTile == null) {
+                    missing.add(t);
+                } else {
+                    summaryTiles[t - startTile] = summaryTile;
+                }
+            }
 
-                    summaryTile = computeSummaryTile(chr, tileStart, tileEnd, 700);
-
-                    if (cacheSummaryTiles && !FrameManager.isGeneListMode()) {
-                        synchronized (summaryTileCache) {
-                            summaryTileCache.put(key, summaryTile);
-                        }
-                    }
+            if (missing.size() > 1 && isConcurrentRawDataSupported()) {
+                computeSummaryTilesParallel(chr, missing, tileWidth, chrLength, summaryTiles, startTile);
+            } else {
+                for (int t : missing) {
+                    int tileStart = (int) (t * tileWidth);
+                    int tileEnd = Math.min(chrLength, (int) ((t + 1) * tileWidth));
+                    summaryTiles[t - startTile] = computeSummaryTile(chr, tileStart, tileEnd, 700);
                 }
+            }
 
+            for (int t : missing) {
+                SummaryTile summaryTile = summaryTiles[t - startTile];
+                if (summaryTile != null) {
+                    summaryTileCache.put(new SummaryTileKey(chr, z, t, wf), summaryTile);
+                }
+            }
 
+            List<SummaryTile> tiles = new ArrayList(nTiles);
+            for (SummaryTile summaryTile : summaryTiles) {
                 if (summaryTile != null) {
                     tiles.add(summaryTile);
                 }
@@ -218,6 +261,58 @@ public abstract class AbstractDataSource implements DataSource {
     }
 
 
+    /**
+     * Compute the summary tiles in {@code tileNumbers} on the summary executor,  one task per tile.  Results
+     * are stored in {@code summaryTiles} at index tile number - {@code firstTile}.
+     */
+    private void computeSummaryTilesParallel(final String chr, List<Integer> tileNumbers, final double tileWidth,
+                                             final int chrLength, SummaryTile[] summaryTiles, int firstTile) {
+
+        List<Callable<SummaryTile>> tasks = new ArrayList<Callable<SummaryTile>>(tileNumbers.size());
+        for (final int t : tileNumbers) {
+            tasks.add(new Callable<SummaryTile>() {
+                public SummaryTile call() throws Exception {
+                    int tileStart = (int) (t * tileWidth);
+                    int tileEnd = Math.min(chrLength, (int) ((t + 1) * tileWidth));
+                    return computeSummaryTile(chr, tileStart, tileEnd, 700);
+                }
+            });
+        }
+
+        List<Future<SummaryTile>> futures;
+        try {
+            futures = getSummaryExecutor().invokeAll(tasks);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                summaryTiles[tileNumbers.get(i) - firstTile] = futures.get(i).get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getSummaryExecutor() {
+        if (summaryExecutor == null) {
+            int nThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            summaryExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "IGV-summary-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return summaryExecutor;
+    }
+
     /**
      * Note:  Package scope used so this method can be unit tested
      *
@@ -376,4 +471,106 @@ public abstract class AbstractDataSource implements DataSource {
         // default is to do nothing
     }
 
+
+    private static long defaultSummaryCacheBytes() {
+        long prefBytes = PreferenceManager.getInstance().getAsInt(PreferenceManager.SUMMARY_TILE_CACHE_SIZE) * 1000000L;
+        return Math.min(prefBytes, Runtime.getRuntime().maxMemory() / 100);
+    }
+
+
+    static class SummaryTileKey {
+
+        final String chr;
+        final int zoom;
+        final int tileNumber;
+        final WindowFunction windowFunction;
+
+        SummaryTileKey(String chr, int zoom, int tileNumber, WindowFunction windowFunction) {
+            this.chr = chr;
+            this.zoom = zoom;
+            this.tileNumber = tileNumber;
+            this.windowFunction = windowFunction;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SummaryTileKey)) return false;
+            SummaryTileKey other = (SummaryTileKey) o;
+            return zoom == other.zoom && tileNumber == other.tileNumber &&
+                    windowFunction == other.windowFunction && chr.equals(other.chr);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = chr.hashCode();
+            result = 31 * result + zoom;
+            result = 31 * result + tileNumber;
+            result = 31 * result + (windowFunction == null ? 0 : windowFunction.hashCode());
+            return result;
+        }
+    }
+
+
+    /**
+     * Least-recently-used cache of summary tiles bounded by the estimated memory of the tiles rather than
+     * the number of entries.
+     */
+    static class SummaryTileCache {
+
+        // Rough cost of a summary score (object,  list slot,  probe name reference)
+        static final int SCORE_BYTES = 48;
+        static final int TILE_BYTES = 64;
+
+        private final long maxBytes;
+        private long currentBytes;
+        private final LinkedHashMap<SummaryTileKey, SummaryTile> map =
+                new LinkedHashMap<SummaryTileKey, SummaryTile>(16, 0.75f, true);
+
+        SummaryTileCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        static long estimateSize(SummaryTile tile) {
+            return TILE_BYTES + (long) tile.getSize() * SCORE_BYTES;
+        }
+
+        synchronized SummaryTile get(SummaryTileKey key) {
+            return map.get(key);
+        }
+
+        /**
+         * Add the tile,  evicting least recently used tiles until the cache is within its memory bound.  The
+         * most recently added tile is always retained.
+         */
+        synchronized void put(SummaryTileKey key, SummaryTile tile) {
+            SummaryTile previous = map.put(key, tile);
+            if (previous != null) {
+                currentBytes -= estimateSize(previous);
+            }
+            currentBytes += estimateSize(tile);
+
+            Iterator<Map.Entry<SummaryTileKey, SummaryTile>> iter = map.entrySet().iterator();
+            while (currentBytes > maxBytes && map.size() > 1 && iter.hasNext()) {
+                Map.Entry<SummaryTileKey, SummaryTile> entry = iter.next();
+                if (entry.getKey().equals(key)) continue;
+                currentBytes -= estimateSize(entry.getValue());
+                iter.remove();
+            }
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized long getSizeInBytes() {
+            return currentBytes;
+        }
+
+        synchronized void clear() {
+            map.clear();
+            currentBytes = 0;
+        }
+    }
+
 }
@@ -0,0 +1,266 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads lines of an ASCII file as bytes and splits them into tokens without creating Strings.  Tokens are
+ * delimited by a single tab or a run of spaces,  as {@link org.broad.igv.Globals#singleTabMultiSpacePattern},
+ * and numeric tokens are parsed in place.
+ */
+class ByteLineReader {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final InputStream is;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int bufferPosition;
+    private int bufferLimit;
+
+    private byte[] line = new byte[1024];
+    private int lineLength;
+
+    private int[] tokenStarts = new int[16];
+    private int[] tokenEnds = new int[16];
+    private int tokenCount;
+
+    ByteLineReader(InputStream is) {
+        this.is = is;
+    }
+
+    /**
+     * Read the next line,  without the line terminator
+     *
+     * @return false at the end of the input
+     */
+    boolean next() throws IOException {
+        lineLength = 0;
+        tokenCount = -1;
+        boolean eol = false;
+        while (!eol) {
+            if (bufferPosition == bufferLimit) {
+                bufferLimit = is.read(buffer, 0, buffer.length);
+                bufferPosition = 0;
+                if (bufferLimit <= 0) {
+                    bufferLimit = 0;
+                    return lineLength > 0;
+                }
+            }
+            int end = bufferPosition;
+            while (end < bufferLimit && buffer[end] != '\n') end++;
+            append(buffer, bufferPosition, end - bufferPosition);
+            eol = end < bufferLimit;
+            bufferPosition = eol ? end + 1 : end;
+        }
+        if (lineLength > 0 && line[lineLength - 1] == '\r') lineLength--;
+        return true;
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        if (lineLength + length > line.length) {
+            byte[] tmp = new byte[Math.max(2 * line.length, lineLength + length)];
+            System.arraycopy(line, 0, tmp, 0, lineLength);
+            line = tmp;
+        }
+        System.arraycopy(bytes, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    String getLine() {
+        return new String(line, 0, lineLength, ASCII);
+    }
+
+    boolean startsWith(String prefix) {
+        if (prefix.length() > lineLength) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    boolean isBlank() {
+        for (int i = 0; i < lineLength; i++) {
+            if ((line[i] & 0xff) > ' ') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Split the current line into tokens.  As with String.split,  trailing empty tokens are dropped.
+     *
+     * @return the number of tokens
+     */
+    int tokenize() {
+        tokenCount = 0;
+        int start = 0;
+        int i = 0;
+        while (i < lineLength) {
+            byte b = line[i];
+            if (b == '\t' || b == ' ') {
+                addToken(start, i);
+                i++;
+                if (b == ' ') {
+                    while (i < lineLength && line[i] == ' ') i++;
+                }
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        addToken(start, lineLength);
+        while (tokenCount > 0 && tokenStarts[tokenCount - 1] == tokenEnds[tokenCount - 1]) {
+            tokenCount--;
+        }
+        return tokenCount;
+    }
+
+    private void addToken(int start, int end) {
+        if (tokenCount == tokenStarts.length) {
+            int[] tmp = new int[2 * tokenCount];
+            System.arraycopy(tokenStarts, 0, tmp, 0, tokenCount);
+            tokenStarts = tmp;
+            tmp = new int[2 * tokenCount];
+            System.arraycopy(tokenEnds, 0, tmp, 0, tokenCount);
+            tokenEnds = tmp;
+        }
+        tokenStarts[tokenCount] = start;
+        tokenEnds[tokenCount] = end;
+        tokenCount++;
+    }
+
+    private void checkToken(int t) {
+        if (t >= tokenCount) throw new ArrayIndexOutOfBoundsException(t);
+    }
+
+    private int trimmedStart(int t) {
+        int s = tokenStarts[t];
+        int e = tokenEnds[t];
+        while (s < e && (line[s] & 0xff) <= ' ') s++;
+        return s;
+    }
+
+    private int trimmedEnd(int t) {
+        int s = tokenStarts[t];
+        int e = tokenEnds[t];
+        while (e > s && (line[e - 1] & 0xff) <= ' ') e--;
+        return e;
+    }
+
+    /**
+     * @return the token,  trimmed
+     */
+    String getToken(int t) {
+        checkToken(t);
+        int s = trimmedStart(t);
+        return new String(line, s, trimmedEnd(t) - s, ASCII);
+    }
+
+    /**
+     * @return true if the trimmed token equals the string
+     */
+    boolean tokenEquals(int t, String str) {
+        checkToken(t);
+        int s = trimmedStart(t);
+        int e = trimmedEnd(t);
+        if (e - s != str.length()) return false;
+        for (int i = s; i < e; i++) {
+            if (line[i] != str.charAt(i - s)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse the trimmed token as an int,  as Integer.parseInt
+     */
+    int getInt(int t) {
+        checkToken(t);
+        int s = trimmedStart(t);
+        int e = trimmedEnd(t);
+        boolean negative = false;
+        if (s < e && (line[s] == '-' || line[s] == '+')) {
+            negative = line[s] == '-';
+            s++;
+        }
+        if (s == e || e - s > 9) {
+            // Empty,  or possibly out of range
+            return Integer.parseInt(getToken(t));
+        }
+        int value = 0;
+        for (int i = s; i < e; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("For input string: \"" + getToken(t) + "\"");
+            value = 10 * value + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse the trimmed token as a float,  as Float.parseFloat.  Plain decimals with up to 7 significant digits
+     * are parsed in place,  where a single float multiply or divide is exact;  anything else falls back to
+     * Float.parseFloat.
+     */
+    float getFloat(int t) {
+        checkToken(t);
+        int s = trimmedStart(t);
+        int e = trimmedEnd(t);
+        boolean negative = false;
+        if (s < e && (line[s] == '-' || line[s] == '+')) {
+            negative = line[s] == '-';
+            s++;
+        }
+
+        int mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        boolean valid = s < e;
+        for (int i = s; i < e && valid; i++) {
+            byte b = line[i];
+            if (b >= '0' && b <= '9') {
+                if (mantissa > 0 || b != '0') digits++;
+                mantissa = 10 * mantissa + (b - '0');
+                if (point) fractionDigits++;
+                valid = digits <= 7 && fractionDigits <= 10;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                valid = false;
+            }
+        }
+        // A lone "." or sign is not a number
+        if (!valid || (point && e - s == 1)) {
+            return Float.parseFloat(getToken(t));
+        }
+
+        float value = fractionDigits == 0 ? mantissa : mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private static final float[] POWERS_OF_TEN = {1f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+}
@@ -53,7 +53,7 @@ public class DatasetDataSource extends AbstractDataSource {
 
     String trackId;
     Dataset dataset;
-    GenomeSummaryData genomeSummaryData;
+    volatile GenomeSummaryData genomeSummaryData;
 
     /**
      * @param trackId
@@ -66,23 +66,55 @@ public class DatasetDataSource extends AbstractDataSource {
         this.dataset = dataset;
 
         // TODO -- remove this "instanceof" hack
+        if (dataset instanceof WiggleDataset && ((WiggleDataset) dataset).isLoading()) {
+            // Still being parsed.  The whole genome view is filled in when the load completes,  tiles computed in
+            // the meantime are discarded.
+            ((WiggleDataset) dataset).addLoadListener(new Runnable() {
+                public void run() {
+                    initGenomeSummary();
+                    summaryTileCache.clear();
+                }
+            });
+        } else {
+            initGenomeSummary();
+        }
+    }
+
+    private void initGenomeSummary() {
         if (genome.getHomeChromosome().equals(Globals.CHR_ALL)) {
             if (dataset instanceof IGVDataset) {
                 genomeSummaryData = ((IGVDataset) dataset).getGenomeSummary();
             } else {
-                genomeSummaryData = new GenomeSummaryData(genome, new String[]{trackId});
+                GenomeSummaryData summaryData = new GenomeSummaryData(genome, new String[]{trackId});
                 for (Chromosome chr : genome.getChromosomes()) {
                     int[] startLocations = dataset.getStartLocations(chr.getName());
                     if (!chr.getName().equals(Globals.CHR_ALL) && (startLocations != null) && (startLocations.length > 0)) {
                         Map<String, float[]> dMap = new HashMap<String, float[]>();
                         dMap.put(trackId, dataset.getData(trackId, chr.getName()));
-                        genomeSummaryData.addData(chr.getName(), startLocations, dMap);
+                        summaryData.addData(chr.getName(), startLocations, dMap);
                     }
                 }
+                genomeSummaryData = summaryData;
             }
         }
     }
 
+    /**
+     * @return true if the dataset is still being loaded in the background
+     */
+    private boolean isLoading() {
+        return dataset instanceof WiggleDataset && ((WiggleDataset) dataset).isLoading();
+    }
+
+
+    /**
+     * WiggleDataset keeps immutable per-chromosome arrays in a concurrent map,  other datasets (e.g.
+     * ExpressionDataset) fill plain maps lazily and must be read by one thread at a time.
+     */
+    @Override
+    protected boolean isConcurrentRawDataSupported() {
+        return dataset instanceof WiggleDataset;
+    }
 
     @Override
     protected DataTile getRawData(String chr, int startLocation, int endLocation) {
@@ -94,8 +126,18 @@ public class DatasetDataSource extends AbstractDataSource {
             return new DataTile(startLocs, endLocs, data, null);
         }
         if (chr.equals(Globals.CHR_ALL)) {
-            return getWGRawData();
+            return isLoading() ? null : getWGRawData();
         } else {
+            if (isLoading()) {
+                // Never wait for the parse,  this can be called on the event dispatch thread.  The load listeners
+                // clear the caches and repaint when it completes.
+                WiggleDataset wiggleDataset = (WiggleDataset) dataset;
+                if (!wiggleDataset.isChromosomeComplete(chr)) {
+                    return null;
+                }
+                DataTile tile = wiggleDataset.getDataTile(chr);
+                return tile == null || tile.isEmpty() ? null : tile;
+            }
             int[] startLocs = dataset.getStartLocations(chr);
             int[] endLocs = dataset.getEndLocations(chr);
             float[] data = dataset.getData(trackId, chr);
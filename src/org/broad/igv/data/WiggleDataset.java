@@ -31,6 +31,7 @@ package org.broad.igv.data;
 
 //~--- non-JDK imports --------------------------------------------------------
 
+import org.apache.log4j.Logger;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.TrackProperties;
 import org.broad.igv.track.TrackType;
@@ -39,30 +40,46 @@ import org.broad.igv.util.IntComparator;
 import org.broad.igv.util.collections.FloatArrayList;
 import org.broad.igv.util.collections.IntArrayList;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Data parsed from a wiggle or "wiggle-like" file.  Data for each chromosome is held in compact primitive arrays,
+ * which are returned without copying and must not be modified.
+ * <p/>
+ * A dataset can be populated by a parser running in the background (see {@link WiggleParser#parseInBackground()}).
+ * While loading,  readers can check whether a chromosome is complete with {@link #isChromosomeComplete(String)},
+ * and be notified when the load completes with {@link #addLoadListener(Runnable)}.
+ *
  * @author jrobinso
  */
 public class WiggleDataset implements Dataset {
 
+    private static Logger log = Logger.getLogger(WiggleDataset.class);
+
     Genome genome;
     private String name;
     private TrackProperties trackProperties;
-    Map<String, IntArrayList> startLocationsMap = new HashMap();
-    Map<String, IntArrayList> endLocationsMap = new HashMap();
-    Map<String, FloatArrayList> dataMap = new HashMap();
+    Map<String, ChromosomeData> chromosomeData = new ConcurrentHashMap<String, ChromosomeData>();
 
-    float dataMin = 0;
-    float dataMax = 0;
+    volatile float dataMin = 0;
+    volatile float dataMax = 0;
     float percent90 = 0;
     float percent10 = 0;
 
     private Map<String, Integer> longestFeatureMap;
     private TrackType type = TrackType.OTHER;
 
+    // Background load state,  guarded by loadLock
+    private final Object loadLock = new Object();
+    private boolean loading = false;
+    private String loadingChr;
+    private Exception loadError;
+    private List<Runnable> loadListeners = new ArrayList<Runnable>();
+
     public WiggleDataset(Genome genome, String name) {
         this.genome = genome;
         this.name = name;
@@ -71,12 +88,13 @@ public class WiggleDataset implements Dataset {
 
     public void sort(Set<String> unsortedChromosomes) {
         for (String c : unsortedChromosomes) {
-            String chr = genome.getCanonicalChrName(c);
+            String chr = genome == null ? c : genome.getCanonicalChrName(c);
 
-            final IntArrayList starts = startLocationsMap.get(chr);
-            int sz = starts.size();
+            ChromosomeData cd = chromosomeData.get(chr);
+            if (cd == null) continue;
 
-            int[] indices = new int[sz];
+            final int[] starts = cd.starts;
+            int[] indices = new int[starts.length];
             for (int i = 0; i < indices.length; i++) {
                 indices[i] = i;
             }
@@ -84,80 +102,173 @@ public class WiggleDataset implements Dataset {
             (new ArrayHeapIntSorter()).sort(indices, new IntComparator() {
 
                 public int compare(int arg0, int arg1) {
-                    return starts.get(arg0) - starts.get(arg1);
+                    return starts[arg0] - starts[arg1];
                 }
             });
 
-
-            int[] sortedStarts = reorder(indices, startLocationsMap.get(chr));
-            int[] sortedEnds = reorder(indices, endLocationsMap.get(chr));
-            float[] sortedData = reorder(indices, dataMap.get(chr));
-
-            startLocationsMap.put(chr, new IntArrayList(sortedStarts));
-            endLocationsMap.put(chr, new IntArrayList(sortedEnds));
-            dataMap.put(chr, new FloatArrayList(sortedData));
+            chromosomeData.put(chr, new ChromosomeData(reorder(indices, starts), reorder(indices, cd.ends),
+                    reorder(indices, cd.data)));
         }
 
     }
 
-    private float[] reorder(int[] indices, FloatArrayList values) {
-        int size = values.size();
-        if (indices.length != size) {
+    private float[] reorder(int[] indices, float[] values) {
+        if (indices.length != values.length) {
             throw new IllegalArgumentException(
                     "Index array length not equal to size");
         }
-        float[] reorderedValues = new float[size];
-        for (int i = 0; i < size; i++) {
-            reorderedValues[i] = values.get(indices[i]);
+        float[] reorderedValues = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            reorderedValues[i] = values[indices[i]];
         }
         return reorderedValues;
     }
 
-    private int[] reorder(int[] indices, IntArrayList values) {
-        int size = values.size();
-        if (indices.length != size) {
+    private int[] reorder(int[] indices, int[] values) {
+        if (values == null) return null;
+        if (indices.length != values.length) {
             throw new IllegalArgumentException(
                     "Index array length not equal to size");
         }
-        int[] reorderedValues = new int[size];
-        for (int i = 0; i < size; i++) {
-            reorderedValues[i] = values.get(indices[i]);
+        int[] reorderedValues = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            reorderedValues[i] = values[indices[i]];
         }
         return reorderedValues;
     }
 
 
     public void addDataChunk(String chr, IntArrayList starts, IntArrayList ends, FloatArrayList data) {
-        IntArrayList startLocations = this.startLocationsMap.get(chr);
-        if (startLocations == null) {
-            this.startLocationsMap.put(chr, starts);
+        addDataChunk(chr, starts.toArray(), ends == null ? null : ends.toArray(), data.toArray());
+    }
+
+    /**
+     * Add data for a chromosome,  appending to any data already added for it.  The arrays are retained,  not copied.
+     */
+    public void addDataChunk(String chr, int[] starts, int[] ends, float[] data) {
+
+        ChromosomeData cd = chromosomeData.get(chr);
+        if (cd == null) {
+            cd = new ChromosomeData(starts, ends, data);
         } else {
-            startLocations.addAll(starts);
+            cd = new ChromosomeData(concat(cd.starts, starts), cd.ends == null || ends == null ? null : concat(cd.ends, ends),
+                    concat(cd.data, data));
+        }
+
+        float min = dataMin;
+        float max = dataMax;
+        for (int i = 0; i < data.length; i++) {
+            max = Math.max(max, data[i]);
+            min = Math.min(min, data[i]);
         }
+        dataMin = min;
+        dataMax = max;
 
-        if (ends != null) {
-            IntArrayList endLocations = this.endLocationsMap.get(chr);
-            if (endLocations == null) {
-                this.endLocationsMap.put(chr, ends);
-            } else {
-                endLocations.addAll(ends);
+        chromosomeData.put(chr, cd);
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] c = new int[a.length + b.length];
+        System.arraycopy(a, 0, c, 0, a.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    private static float[] concat(float[] a, float[] b) {
+        float[] c = new float[a.length + b.length];
+        System.arraycopy(a, 0, c, 0, a.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+
+    /**
+     * @return true if the dataset is still being populated by a background parse
+     */
+    public boolean isLoading() {
+        synchronized (loadLock) {
+            return loading;
+        }
+    }
+
+    /**
+     * Return true if data for the chromosome is complete,  that is if the parser has moved past it or the load has
+     * finished.  Does not wait.  A chromosome can appear again later in an unsorted file,  in which case the data
+     * returned before the load completes is partial.
+     */
+    public boolean isChromosomeComplete(String chr) {
+        synchronized (loadLock) {
+            return !loading || (chromosomeData.containsKey(chr) && !chr.equals(loadingChr));
+        }
+    }
+
+    /**
+     * Wait until the first chromosome has been loaded,  or the load has finished.
+     */
+    void awaitFirstChromosome() throws InterruptedException {
+        synchronized (loadLock) {
+            while (loading && chromosomeData.isEmpty()) {
+                loadLock.wait();
             }
         }
+    }
 
-        FloatArrayList dataArray = this.dataMap.get(chr);
-        if (dataArray == null) {
-            this.dataMap.put(chr, data);
-        } else {
+    /**
+     * Register a listener to be run when a background load completes.  If the dataset is not loading the
+     * listener is run immediately.
+     */
+    public void addLoadListener(Runnable listener) {
+        synchronized (loadLock) {
+            if (loading) {
+                loadListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
 
-            dataArray.addAll(data);
+    /**
+     * @return the exception that terminated a background load,  or null
+     */
+    public Exception getLoadError() {
+        synchronized (loadLock) {
+            return loadError;
         }
-        float[] d = data.toArray();
-        for (int i = 0; i < d.length; i++) {
-            dataMax = Math.max(dataMax, d[i]);
-            dataMin = Math.min(dataMin, d[i]);
+    }
+
+    void loadStarted() {
+        synchronized (loadLock) {
+            loading = true;
         }
+    }
 
+    /**
+     * Called by the parser as it starts reading data for a chromosome
+     */
+    void chromosomeStarted(String chr) {
+        synchronized (loadLock) {
+            loadingChr = chr;
+            loadLock.notifyAll();
+        }
+    }
 
+    void loadFinished(Exception error) {
+        List<Runnable> listeners;
+        synchronized (loadLock) {
+            loading = false;
+            loadingChr = null;
+            loadError = error;
+            listeners = loadListeners;
+            loadListeners = new ArrayList<Runnable>();
+            loadLock.notifyAll();
+        }
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.error("Error notifying load listener", e);
+            }
+        }
     }
 
 
@@ -181,12 +292,12 @@ public class WiggleDataset implements Dataset {
     }
 
     public String[] getChromosomes() {
-        return startLocationsMap.keySet().toArray(new String[]{});
+        return chromosomeData.keySet().toArray(new String[]{});
     }
 
     boolean containsChromosome(String chr){
         String datChr = this.genome != null ? genome.getCanonicalChrName(chr) : chr;
-        return startLocationsMap.containsKey(datChr);
+        return chromosomeData.containsKey(datChr);
     }
 
 
@@ -196,36 +307,33 @@ public class WiggleDataset implements Dataset {
 
 
     public int[] getStartLocations(String chr) {
-        IntArrayList startLocations = this.startLocationsMap.get(chr);
-        if (startLocations == null) {
-            return null;
-        } else {
-            return startLocations.toArray();
-        }
+        ChromosomeData cd = chromosomeData.get(chr);
+        return cd == null ? null : cd.starts;
     }
 
     public int[] getEndLocations(String chr) {
-        IntArrayList endLocations = this.endLocationsMap.get(chr);
-        if (endLocations == null) {
-            return null;
-        } else {
-            return endLocations.toArray();
-        }
+        ChromosomeData cd = chromosomeData.get(chr);
+        return cd == null ? null : cd.ends;
     }
 
     public float[] getData(String heading, String chr) {
-        FloatArrayList data = this.dataMap.get(chr);
-        if (data == null) {
-            return null;
-        } else {
-            return data.toArray();
-        }
+        ChromosomeData cd = chromosomeData.get(chr);
+        return cd == null ? null : cd.data;
     }
 
     public String[] getFeatureNames(String chr) {
         return null;
     }
 
+    /**
+     * @return the data for the chromosome as one tile,  or null if there is none.  Unlike the separate accessors
+     * the arrays are consistent with each other while a background load appends to the chromosome.
+     */
+    DataTile getDataTile(String chr) {
+        ChromosomeData cd = chromosomeData.get(chr);
+        return cd == null ? null : new DataTile(cd.starts, cd.ends, cd.data, null);
+    }
+
     public boolean isLogNormalized() {
         return false;
     }
@@ -266,4 +374,21 @@ public class WiggleDataset implements Dataset {
     public float getPercent90() {
         return percent90;
     }
+
+
+    /**
+     * Immutable data for a single chromosome.  Replaced as a unit so readers always see consistent arrays.
+     */
+    static class ChromosomeData {
+
+        final int[] starts;
+        final int[] ends;
+        final float[] data;
+
+        ChromosomeData(int[] starts, int[] ends, float[] data) {
+            this.starts = starts;
+            this.ends = ends;
+            this.data = data;
+        }
+    }
 }
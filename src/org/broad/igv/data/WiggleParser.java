@@ -27,7 +27,6 @@ package org.broad.igv.data;
 
 import org.apache.commons.math.stat.StatUtils;
 import org.apache.log4j.Logger;
-import org.broad.igv.Globals;
 import org.broad.igv.exceptions.ParserException;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.TrackProperties;
@@ -35,11 +34,12 @@ import org.broad.igv.track.TrackType;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.collections.DownsampledDoubleArrayList;
-import org.broad.igv.util.collections.FloatArrayList;
-import org.broad.igv.util.collections.IntArrayList;
-import htsjdk.tribble.readers.AsciiLineReader;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -79,15 +79,14 @@ public class WiggleParser {
     protected int step = 1;
     protected int windowSpan = 1;
     protected int startBase = 1;   // <- set to zero for zero based coordinates
-    IntArrayList startLocations = null;
-    IntArrayList endLocations = null;
-    FloatArrayList data = null;
+    IntChunks startLocations = null;
+    IntChunks endLocations = null;
+    FloatChunks data = null;
     protected ResourceLocator resourceLocator;
     /**
      * Set of unsorted chromosomes, BEFORE ALIASING
      */
     protected Set<String> unsortedChromosomes;
-    int estArraySize;
     Map<String, Integer> longestFeatureMap = new HashMap();
     // Used to estimate percentiles
     protected static final int maxSamples = 1000;
@@ -102,7 +101,6 @@ public class WiggleParser {
 
         this.resourceLocator = locator;
         this.genome = genome;
-        this.estArraySize = estArraySize(locator, genome);
         this.dataset = new WiggleDataset(genome, locator.getTrackName());
 
         if (locator.getPath().endsWith("CpG.txt")) {
@@ -119,14 +117,6 @@ public class WiggleParser {
         }
     }
 
-    private int estArraySize(ResourceLocator locator, Genome genome) {
-
-        int estLines = ParsingUtils.estimateLineCount(locator.getPath());
-        int nChromosomes = genome == null ? 24 : genome.getAllChromosomeNames().size();
-        return Math.max(1000, (estLines / nChromosomes));
-
-    }
-
     /**
      * Utility method.  Returns true if this looks like a wiggle locator,
      * based on file extension
@@ -145,60 +135,98 @@ public class WiggleParser {
         return this.dataset;
     }
 
+    /**
+     * Parse the file on a background thread,  returning as soon as the first chromosome is available.  The
+     * returned dataset reports {@link WiggleDataset#isLoading()} until the parse completes.  Errors encountered
+     * before any data is loaded are thrown,  later errors are available from {@link WiggleDataset#getLoadError()}.
+     */
+    public WiggleDataset parseInBackground() {
+
+        dataset.loadStarted();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                Exception error = null;
+                try {
+                    parse();
+                } catch (Exception e) {
+                    log.error("Error parsing " + resourceLocator.getPath(), e);
+                    error = e;
+                } finally {
+                    dataset.loadFinished(error);
+                }
+            }
+        }, "IGV-wig-parser");
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            dataset.awaitFirstChromosome();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Exception error = dataset.getLoadError();
+        if (error != null && dataset.getChromosomes().length == 0) {
+            throw error instanceof RuntimeException ? (RuntimeException) error : new RuntimeException(error);
+        }
+        return dataset;
+    }
+
     protected void parseFile(ResourceLocator locator) {
 
         initializeDataHolders();
         unsortedChromosomes = new HashSet();
 
-        AsciiLineReader reader = null;
-        String nextLine = null;
+        InputStream is = null;
+        ByteLineReader reader = null;
         int lineNumber = 0;
         float[] dataArray = null;
 
         try {
-            reader = ParsingUtils.openAsciiReader(locator);
+            // Lines are read and tokenized as bytes,  Strings are only created for headers and chromosome names
+            is = ParsingUtils.openInputStreamGZ(locator);
+            reader = new ByteLineReader(is);
 
             if (type == Type.EXPR) {
-                reader.readLine(); // Skip header line
+                reader.next(); // Skip header line
             }
 
             int position = -1;
 
-            while ((nextLine = reader.readLine()) != null) {
+            while (reader.next()) {
                 lineNumber++;
 
-                if (nextLine.startsWith("#") || nextLine.startsWith("data") || nextLine.startsWith("browser") || nextLine.trim().length() == 0) {
+                if (reader.startsWith("#") || reader.startsWith("data") || reader.startsWith("browser") || reader.isBlank()) {
                     continue;
                     // Skip
                 }
 
 
-                if (nextLine.startsWith("track") && type != Type.CPG) {
+                if (reader.startsWith("track") && type != Type.CPG) {
                     type = Type.BED_GRAPH;
-                    ParsingUtils.parseTrackLine(nextLine, dataset.getTrackProperties());
+                    ParsingUtils.parseTrackLine(reader.getLine(), dataset.getTrackProperties());
                     if (dataset.getTrackProperties().getBaseCoord() == TrackProperties.BaseCoord.ZERO) {
                         this.startBase = 0;
                     }
 
-                } else if (nextLine.startsWith("fixedStep")) {
+                } else if (reader.startsWith("fixedStep")) {
                     type = Type.FIXED;
-                    parseStepLine(nextLine);
+                    parseStepLine(reader.getLine());
                     position = start;
                     if (start < lastPosition) {
                         unsortedChromosomes.add(chr);
                     }
 
-                } else if (nextLine.startsWith("variableStep")) {
+                } else if (reader.startsWith("variableStep")) {
                     type = Type.VARIABLE;
-                    parseStepLine(nextLine);
+                    parseStepLine(reader.getLine());
                     if (start < lastPosition) {
                         unsortedChromosomes.add(chr);
                     }
 
                 } else {
                     // Must be data
-                    String[] tokens = Globals.singleTabMultiSpacePattern.split(nextLine);
-                    int nTokens = tokens.length;
+                    int nTokens = reader.tokenize();
                     if (nTokens == 0) {
                         continue;
                     }
@@ -206,20 +234,20 @@ public class WiggleParser {
                         if (type.equals(Type.CPG)) {
 
                             if (nTokens > 3) {
-                                chr = tokens[1].trim();
-                                if (!chr.equals(lastChr)) {
+                                if (!reader.tokenEquals(1, lastChr)) {
+                                    chr = reader.getToken(1);
                                     changedChromosome(dataset, lastChr);
                                 }
                                 lastChr = chr;
 
                                 int endPosition = -1;
                                 try {
-                                    endPosition = Integer.parseInt(tokens[2].trim());
+                                    endPosition = reader.getInt(2);
                                 } catch (NumberFormatException numberFormatException) {
                                     log.error("Column 2 is not a number");
 
-                                    throw new ParserException("Column 2 must be numeric." + " Found: " + tokens[1],
-                                            lineNumber, nextLine);
+                                    throw new ParserException("Column 2 must be numeric." + " Found: " + reader.getToken(1),
+                                            lineNumber, reader.getLine());
                                 }
                                 int startPosition = endPosition - 1;
 
@@ -228,8 +256,8 @@ public class WiggleParser {
                                 }
                                 lastPosition = startPosition;
 
-                                float value = Float.parseFloat(tokens[4].trim());
-                                if (tokens[3].trim().equals("R")) {
+                                float value = reader.getFloat(4);
+                                if (reader.tokenEquals(3, "R")) {
                                     value = -value;
                                 }
 
@@ -238,8 +266,8 @@ public class WiggleParser {
                         } else if (type.equals(Type.BED_GRAPH) || type.equals(Type.EXPR)) {
 
                             if (nTokens > 3) {
-                                chr = tokens[chrColumn].trim();
-                                if (!chr.equals(lastChr)) {
+                                if (!reader.tokenEquals(chrColumn, lastChr)) {
+                                    chr = reader.getToken(chrColumn);
                                     changedChromosome(dataset, lastChr);
                                     //If we are seeing this chromosome again with something
                                     //in-between, assume it's unsorted
@@ -252,13 +280,13 @@ public class WiggleParser {
 
                                 int startPosition = -1;
                                 try {
-                                    startPosition = Integer.parseInt(tokens[startColumn].trim());
+                                    startPosition = reader.getInt(startColumn);
                                 } catch (NumberFormatException numberFormatException) {
                                     log.error("Column " + (startColumn + 1) + "  is not a number");
 
                                     throw new ParserException("Column (startColumn + 1) must be numeric." + " Found: " +
-                                            tokens[startColumn],
-                                            lineNumber, nextLine);
+                                            reader.getToken(startColumn),
+                                            lineNumber, reader.getLine());
                                 }
 
                                 if (startPosition < lastPosition) {
@@ -269,32 +297,32 @@ public class WiggleParser {
 
                                 int endPosition = -1;
                                 try {
-                                    endPosition = Integer.parseInt(tokens[endColumn].trim());
+                                    endPosition = reader.getInt(endColumn);
                                     int length = endPosition - startPosition;
                                     updateLongestFeature(length);
                                 } catch (NumberFormatException numberFormatException) {
                                     log.error("Column " + (endColumn + 1) + " is not a number");
 
                                     throw new ParserException("Column " + (endColumn + 1) +
-                                            " must be numeric." + " Found: " + tokens[endColumn],
-                                            lineNumber, nextLine);
+                                            " must be numeric." + " Found: " + reader.getToken(endColumn),
+                                            lineNumber, reader.getLine());
                                 }
 
-                                addData(chr, startPosition, endPosition, Float.parseFloat(tokens[dataColumn].trim()));
+                                addData(chr, startPosition, endPosition, reader.getFloat(dataColumn));
                             }
                         } else if (type.equals(Type.VARIABLE)) {
                             if (nTokens > 1) {
 
                                 // Per UCSC specification variable and fixed step coordinates are "1" based.
                                 // We need to subtract 1 to convert to the internal "zero" based coordinates.
-                                int startPosition = Integer.parseInt(tokens[0]) - 1;
+                                int startPosition = reader.getInt(0) - 1;
                                 if (startPosition < lastPosition) {
                                     unsortedChromosomes.add(chr);
                                 }
                                 lastPosition = startPosition;
 
                                 int endPosition = startPosition + windowSpan;
-                                addData(chr, startPosition, endPosition, Float.parseFloat(tokens[1]));
+                                addData(chr, startPosition, endPosition, reader.getFloat(1));
                             }
                         } else {    // Fixed step -- sorting is checked when step line is parsed
                             if (position >= 0) {
@@ -302,7 +330,7 @@ public class WiggleParser {
                                     dataArray = new float[nTokens];
                                 }
                                 for (int ii = 0; ii < dataArray.length; ii++) {
-                                    dataArray[ii] = Float.parseFloat(tokens[ii].trim());
+                                    dataArray[ii] = reader.getFloat(ii);
                                 }
                                 int endPosition = position + windowSpan;
                                 addData(chr, position, endPosition, dataArray);
@@ -313,7 +341,7 @@ public class WiggleParser {
 
                     } catch (NumberFormatException e) {
                         log.error(e);
-                        throw new ParserException(e.getMessage(), lineNumber, nextLine);
+                        throw new ParserException(e.getMessage(), lineNumber, reader.getLine());
                     }
 
 
@@ -327,14 +355,18 @@ public class WiggleParser {
         } catch (ParserException pe) {
             throw (pe);
         } catch (Exception e) {
-            if (nextLine != null && lineNumber != 0) {
-                throw new ParserException(e.getMessage(), e, lineNumber, nextLine);
+            if (reader != null && lineNumber != 0) {
+                throw new ParserException(e.getMessage(), e, lineNumber, reader.getLine());
             } else {
                 throw new RuntimeException(e);
             }
         } finally {
-            if (reader != null) {
-                reader.close();
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    log.error("Error closing " + locator.getPath(), e);
+                }
             }
         }
     }
@@ -399,23 +431,23 @@ public class WiggleParser {
         if (startLocations != null && startLocations.size() > 0) {
 
             String convertedChr = genome == null ? lastChr : genome.getCanonicalChrName(lastChr);
-            dataset.addDataChunk(convertedChr, startLocations, endLocations, data);
-            //sz = startLocations.size();
+            float[] values = data.toArray();
+            dataset.addDataChunk(convertedChr, startLocations.toArray(), endLocations.toArray(), values);
 
-            float[] f = data.toArray();
-            for (float ii : f) {
-                sampledData.add(ii);
+            for (float v : values) {
+                sampledData.add(v);
             }
-
-
+        }
+        if (chr != null) {
+            dataset.chromosomeStarted(genome == null ? chr : genome.getCanonicalChrName(chr));
         }
         initializeDataHolders();
     }
 
     protected void initializeDataHolders() {
-        startLocations = new IntArrayList(estArraySize);
-        endLocations = new IntArrayList(estArraySize);
-        data = new FloatArrayList(estArraySize);
+        startLocations = new IntChunks();
+        endLocations = new IntChunks();
+        data = new FloatChunks();
         lastPosition = -1;
     }
 
@@ -429,4 +461,80 @@ public class WiggleParser {
         this.data.add(value);
     }
 
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Growable int buffer backed by fixed size chunks.  Unlike IntArrayList growing never copies,  the values are
+     * copied once into an exact size array when the chromosome is complete.
+     */
+    static class IntChunks {
+
+        private final List<int[]> chunks = new ArrayList<int[]>();
+        private int[] current;
+        private int currentSize = CHUNK_SIZE;
+        private int size;
+
+        void add(int value) {
+            if (currentSize == CHUNK_SIZE) {
+                current = new int[CHUNK_SIZE];
+                chunks.add(current);
+                currentSize = 0;
+            }
+            current[currentSize++] = value;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            int[] array = new int[size];
+            int offset = 0;
+            for (int[] chunk : chunks) {
+                int n = Math.min(CHUNK_SIZE, size - offset);
+                System.arraycopy(chunk, 0, array, offset, n);
+                offset += n;
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Float counterpart of {@link IntChunks}
+     */
+    static class FloatChunks {
+
+        private final List<float[]> chunks = new ArrayList<float[]>();
+        private float[] current;
+        private int currentSize = CHUNK_SIZE;
+        private int size;
+
+        void add(float value) {
+            if (currentSize == CHUNK_SIZE) {
+                current = new float[CHUNK_SIZE];
+                chunks.add(current);
+                currentSize = 0;
+            }
+            current[currentSize++] = value;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        float[] toArray() {
+            float[] array = new float[size];
+            int offset = 0;
+            for (float[] chunk : chunks) {
+                int n = Math.min(CHUNK_SIZE, size - offset);
+                System.arraycopy(chunk, 0, array, offset, n);
+                offset += n;
+            }
+            return array;
+        }
+    }
+
 }
@@ -35,7 +35,13 @@ import org.broad.igv.feature.genome.GenomeManager;
 import org.broad.igv.util.collections.MultiMap;
 import htsjdk.tribble.Feature;
 
+import javax.swing.*;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * This is a placeholder class for a true "feature database" wrapper.  Its purpose
@@ -50,39 +56,67 @@ public class FeatureDB {
      * Map for all features other than genes.
      */
     //private static Map<String, NamedFeature> featureMap = new HashMap(10000);
-    private static Map<String, List<NamedFeature>> featureMap = Collections.synchronizedSortedMap(new TreeMap<String, List<NamedFeature>>());
-    private static final int MAX_DUPLICATE_COUNT = 20;
+    // Reads do not lock,  writes hold LOCK.  Lists are replaced,  never modified,  once they are in the map,  and
+    // clearFeatures replaces the map,  so a search sees all of the features or none of them.
+    private static volatile Map<String, List<NamedFeature>> featureMap =
+            new ConcurrentSkipListMap<String, List<NamedFeature>>();
+    private static final Object LOCK = new Object();
+    static final int MAX_DUPLICATE_COUNT = 20;
+
+    /**
+     * Persistent name indexes,  e.g. for the genome's gene annotations.  Searched along with featureMap,  reads
+     * do not lock.  Searches acquire an index while reading it,  a cleared index is closed after the last one.
+     */
+    private static List<FeatureNameIndex> nameIndexes = new CopyOnWriteArrayList<FeatureNameIndex>();
+
+    /**
+     * Features being added in the background,  e.g. the names for an index-backed gene track.  Lookups off the
+     * event dispatch thread wait for them to finish,  lookups on it return what has been added so far.
+     */
+    private static volatile Future<?> pendingFeatures;
 
     public static void addFeature(NamedFeature feature, Genome genome) {
+        for (String name : getSearchNames(feature)) {
+            put(name, feature, genome);
+        }
+    }
+
+    /**
+     * @return the names a feature can be searched by:  name,  identifier,  and short attribute values of the
+     * feature and its exons.  Names may be repeated.
+     */
+    static List<String> getSearchNames(NamedFeature feature) {
 
+        List<String> names = new ArrayList<String>();
         final String name = feature.getName();
         if (name != null && name.length() > 0 && !name.equals(".")) {
-            put(name, feature, genome);
+            names.add(name);
         }
         if (feature instanceof IGVFeature) {
             final IGVFeature igvFeature = (IGVFeature) feature;
             final String id = igvFeature.getIdentifier();
             if (id != null && id.length() > 0) {
-                put(id, feature, genome);
+                names.add(id);
             }
 
-            addByAttributes(igvFeature, genome);
+            addAttributeNames(igvFeature, names);
 
             List<Exon> exons = igvFeature.getExons();
             if (exons != null) {
                 for (Exon exon : exons) {
-                    addByAttributes(exon, genome);
+                    addAttributeNames(exon, names);
                 }
             }
         }
+        return names;
     }
 
-    private static void addByAttributes(IGVFeature igvFeature, Genome genome) {
+    private static void addAttributeNames(IGVFeature igvFeature, List<String> names) {
         MultiMap<String, String> attributes = igvFeature.getAttributes();
         if (attributes != null) {
             for (String value : attributes.values()) {
                 if (value.length() < 20) {
-                    put(value, igvFeature, genome);
+                    names.add(value);
                 }
             }
         }
@@ -106,25 +140,22 @@ public class FeatureDB {
             }
         }
 
-        synchronized (featureMap) {
+        synchronized (LOCK) {
             List<NamedFeature> currentList = featureMap.get(key);
-            if (currentList == null) {
-                List<NamedFeature> newList = new SortedList<NamedFeature>(
-                        new ArrayList<NamedFeature>(), FeatureComparator.get(true));
-                boolean added = newList.add(feature);
-                if (added) {
-                    featureMap.put(key, newList);
-                }
-                return added;
-            } else {
-                // Don't let list grow without bounds
-                if (currentList.size() > MAX_DUPLICATE_COUNT) {
-                    return false;
-                }
-
-                return currentList.add(feature);
+            // Don't let list grow without bounds
+            if (currentList != null && currentList.size() > MAX_DUPLICATE_COUNT) {
+                return false;
+            }
 
+            // Copy the list,  searches may be reading it
+            List<NamedFeature> newList = new SortedList<NamedFeature>(currentList == null ?
+                    new ArrayList<NamedFeature>() : new ArrayList<NamedFeature>(currentList),
+                    FeatureComparator.get(true));
+            boolean added = newList.add(feature);
+            if (added) {
+                featureMap.put(key, newList);
             }
+            return added;
         }
     }
 
@@ -181,10 +212,62 @@ public class FeatureDB {
 
 
     public static void clearFeatures() {
-        featureMap.clear();
+        synchronized (LOCK) {
+            featureMap = new ConcurrentSkipListMap<String, List<NamedFeature>>();
+            // Closed when searches in progress finish
+            for (FeatureNameIndex index : nameIndexes) {
+                index.retire();
+            }
+            nameIndexes.clear();
+        }
+    }
+
+    /**
+     * Add a persistent name index to be searched along with the features added to the database.
+     */
+    public static void addNameIndex(FeatureNameIndex index) {
+        nameIndexes.add(index);
+    }
+
+    /**
+     * Register a task adding features in the background.  Lookups off the event dispatch thread block until it
+     * completes.
+     *
+     * @param future the task,  or null to clear
+     */
+    public static void setPendingFeatures(Future<?> future) {
+        pendingFeatures = future;
+    }
+
+    /**
+     * @return true if features are still being added in the background,  so a lookup on the event dispatch thread
+     * may have missed them
+     */
+    public static boolean isLoadingFeatures() {
+        Future<?> future = pendingFeatures;
+        return future != null && !future.isDone();
+    }
+
+    private static void waitForPendingFeatures() {
+        Future<?> future = pendingFeatures;
+        // Never wait holding LOCK,  the pending task needs it.  Never block the UI for the parse of a
+        // whole gene file,  the search box gets the names loaded so far.
+        if (future != null && !future.isDone() && !Thread.holdsLock(LOCK) &&
+                !SwingUtilities.isEventDispatchThread()) {
+            try {
+                future.get();
+            } catch (CancellationException e) {
+                // Genome changed,  nothing to wait for
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                log.error("Error loading feature names", e.getCause());
+            }
+        }
     }
 
     static int size() {
+        waitForPendingFeatures();
         return featureMap.size();
     }
 
@@ -192,8 +275,9 @@ public class FeatureDB {
      * Return a feature with the given name.
      */
     public static NamedFeature getFeature(String name) {
+        waitForPendingFeatures();
         String nm = name.trim().toUpperCase();
-        List<NamedFeature> features = featureMap.get(nm);
+        List<NamedFeature> features = getFeatures(nm);
 
         if (features != null) {
             return features.get(0);
@@ -202,23 +286,68 @@ public class FeatureDB {
         }
     }
 
+    /**
+     * @param nm upper case name
+     * @return the features with exactly this name,  or null if there are none
+     */
+    private static List<NamedFeature> getFeatures(String nm) {
+        List<NamedFeature> features = featureMap.get(nm);
+        for (FeatureNameIndex index : nameIndexes) {
+            if (!index.acquire()) continue;
+            try {
+                features = merge(features, index.getFeatures(nm));
+            } finally {
+                index.release();
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Merge features with the same name from featureMap and the name indexes,  ordered and limited as
+     * {@link #put} orders and limits them.
+     *
+     * @param features features found so far,  may be null
+     * @return the merged features,  or null if there are none
+     */
+    private static List<NamedFeature> merge(List<NamedFeature> features, List<NamedFeature> moreFeatures) {
+        if (moreFeatures.isEmpty()) {
+            return features;
+        }
+        List<NamedFeature> merged = new SortedList<NamedFeature>(features == null ?
+                new ArrayList<NamedFeature>() : new ArrayList<NamedFeature>(features), FeatureComparator.get(true));
+        for (NamedFeature f : moreFeatures) {
+            merged.add(f);
+        }
+        if (merged.size() > MAX_DUPLICATE_COUNT + 1) {
+            merged = new ArrayList<NamedFeature>(merged.subList(0, MAX_DUPLICATE_COUNT + 1));
+        }
+        return merged;
+    }
+
     /**
      * Get all features which match nm. Not necessarily
      * an exact match. Current implementation will match anything
      * for which name is at the beginning, including but not limited to
      * exact matches.
      * <p/>
-     * NOTE: "It is imperative that the user manually synchronize
-     * on [this sorted map] when iterating over any of its
-     * collection views, or the collections views of any of its
-     * subMap, headMap or tailMap views". See
-     * <a href="http://docs.oracle.com/javase/6/docs/api/java/util/Collections.html#synchronizedSortedMap%28java.util.SortedMap%29> here</a>
+     * The result is a view of the map,  which may be iterated without locking.  Features added during the
+     * iteration may or may not be seen.  If there are name indexes the result is a copy,  merged with the index
+     * results.
      *
      * @param name : Search string. Features which begin with this
      *             string will be found.
      * @return
      */
     static Map<String, List<NamedFeature>> getFeaturesMap(String name) {
+        waitForPendingFeatures();
+        if (nameIndexes.size() > 0) {
+            return searchAll(name, Integer.MAX_VALUE);
+        }
+        return getFeatureMapView(name);
+    }
+
+    private static Map<String, List<NamedFeature>> getFeatureMapView(String name) {
         String nm = name.trim().toUpperCase();
         SortedMap<String, List<NamedFeature>> treeMap = (SortedMap) featureMap;
         //Search is inclusive to first argument, exclusive to second
@@ -248,25 +377,56 @@ public class FeatureDB {
      */
     public static List<NamedFeature> getFeaturesList(String name, int limit, boolean longestOnly) {
 
-        //Note: We are iterating over submap, this needs
-        //to be synchronized over the main map.
-        synchronized (featureMap) {
-            Map<String, List<NamedFeature>> resultMap = getFeaturesMap(name);
-            Set<String> names = resultMap.keySet();
-            Iterator<String> nameIter = names.iterator();
-            ArrayList<NamedFeature> features = new ArrayList<NamedFeature>((Math.min(limit, names.size())));
-            int ii = 0;
-            while (nameIter.hasNext() && ii < limit) {
-                List<NamedFeature> subFeats = resultMap.get(nameIter.next());
-                if (longestOnly) {
-                    features.add(subFeats.get(0));
-                } else {
-                    features.addAll(subFeats);
+        waitForPendingFeatures();
+
+        if (nameIndexes.size() > 0) {
+            return getFeaturesList(searchAll(name, limit), limit, longestOnly);
+        }
+
+        return getFeaturesList(getFeatureMapView(name), limit, longestOnly);
+    }
+
+    private static List<NamedFeature> getFeaturesList(Map<String, List<NamedFeature>> resultMap, int limit,
+                                                      boolean longestOnly) {
+        Set<String> names = resultMap.keySet();
+        Iterator<String> nameIter = names.iterator();
+        ArrayList<NamedFeature> features = new ArrayList<NamedFeature>((Math.min(limit, names.size())));
+        int ii = 0;
+        while (nameIter.hasNext() && ii < limit) {
+            List<NamedFeature> subFeats = resultMap.get(nameIter.next());
+            if (longestOnly) {
+                features.add(subFeats.get(0));
+            } else {
+                features.addAll(subFeats);
+            }
+            ii++;
+        }
+        return features;
+    }
+
+
+    /**
+     * Prefix search of featureMap and the name indexes,  merged in name order.  Features with the same name are
+     * merged as {@link #getFeatures(String)} merges them.
+     */
+    private static SortedMap<String, List<NamedFeature>> searchAll(String name, int limit) {
+        String nm = name.trim().toUpperCase();
+        SortedMap<String, List<NamedFeature>> results = new TreeMap<String, List<NamedFeature>>();
+        for (Map.Entry<String, List<NamedFeature>> entry : getFeatureMapView(nm).entrySet()) {
+            if (results.size() >= limit) break;
+            results.put(entry.getKey(), entry.getValue());
+        }
+        for (FeatureNameIndex index : nameIndexes) {
+            if (!index.acquire()) continue;
+            try {
+                for (Map.Entry<String, List<NamedFeature>> entry : index.search(nm, limit).entrySet()) {
+                    results.put(entry.getKey(), merge(results.get(entry.getKey()), entry.getValue()));
                 }
-                ii++;
+            } finally {
+                index.release();
             }
-            return features;
         }
+        return results;
     }
 
 
@@ -284,6 +444,7 @@ public class FeatureDB {
      */
     public static Map<Integer, BasicFeature> getMutationAA(String name, int proteinPosition, String refAA,
                                                            String mutAA, Genome currentGenome) {
+        waitForPendingFeatures();
         String nm = name.toUpperCase();
 
         if (!Globals.isHeadless() && currentGenome == null) {
@@ -291,29 +452,26 @@ public class FeatureDB {
         }
 
         Map<Integer, BasicFeature> results = new HashMap<Integer, BasicFeature>();
-        List<NamedFeature> possibles = featureMap.get(nm);
+        List<NamedFeature> possibles = getFeatures(nm);
 
         if (possibles != null) {
-            synchronized (featureMap) {
-                for (NamedFeature f : possibles) {
-                    if (!(f instanceof BasicFeature)) {
-                        continue;
-                    }
+            for (NamedFeature f : possibles) {
+                if (!(f instanceof BasicFeature)) {
+                    continue;
+                }
 
-                    BasicFeature bf = (BasicFeature) f;
-                    Codon c = bf.getCodon(currentGenome, proteinPosition);
-                    if (c == null) {
-                        continue;
-                    }
-                    if (c.getAminoAcid().equalsByName(refAA)) {
-                        Set<String> snps = AminoAcidManager.getInstance().getMappingSNPs(c.getSequence(),
-                                AminoAcidManager.getAminoAcidByName(mutAA));
-                        if (snps.size() >= 1) {
-                            results.put(c.getGenomePositions()[0], bf);
-                        }
+                BasicFeature bf = (BasicFeature) f;
+                Codon c = bf.getCodon(currentGenome, proteinPosition);
+                if (c == null) {
+                    continue;
+                }
+                if (c.getAminoAcid().equalsByName(refAA)) {
+                    Set<String> snps = AminoAcidManager.getInstance().getMappingSNPs(c.getSequence(),
+                            AminoAcidManager.getAminoAcidByName(mutAA));
+                    if (snps.size() >= 1) {
+                        results.put(c.getGenomePositions()[0], bf);
                     }
                 }
-
             }
         }
 
@@ -334,43 +492,41 @@ public class FeatureDB {
      * @return
      */
     public static Map<Integer, BasicFeature> getMutationNT(String name, int startPosition, String refNT, Genome currentGenome) {
+        waitForPendingFeatures();
         String nm = name.toUpperCase();
         if (!Globals.isHeadless() && currentGenome == null) {
             currentGenome = GenomeManager.getInstance().getCurrentGenome();
         }
 
         Map<Integer, BasicFeature> results = new HashMap<Integer, BasicFeature>();
-        List<NamedFeature> possibles = featureMap.get(nm);
+        List<NamedFeature> possibles = getFeatures(nm);
         String tempNT;
         String brefNT = refNT.toUpperCase();
 
         if (possibles != null) {
-            synchronized (featureMap) {
-                for (NamedFeature f : possibles) {
-                    if (!(f instanceof BasicFeature)) {
-                        continue;
-                    }
+            for (NamedFeature f : possibles) {
+                if (!(f instanceof BasicFeature)) {
+                    continue;
+                }
 
-                    BasicFeature bf = (BasicFeature) f;
+                BasicFeature bf = (BasicFeature) f;
 
-                    int genomePosition = bf.featureToGenomePosition(new int[]{startPosition - 1})[0];
-                    if (genomePosition < 0) {
-                        continue;
-                    }
-                    final byte[] nuclSequence = currentGenome.getSequence(bf.getChr(), genomePosition, genomePosition + 1);
-                    if (nuclSequence == null) {
-                        continue;
-                    }
-                    tempNT = new String(nuclSequence);
-                    if (bf.getStrand() == Strand.NEGATIVE) {
-                        tempNT = AminoAcidManager.getNucleotideComplement(tempNT);
-                    }
-
-                    if (tempNT.toUpperCase().equals(brefNT)) {
-                        results.put(genomePosition, bf);
-                    }
+                int genomePosition = bf.featureToGenomePosition(new int[]{startPosition - 1})[0];
+                if (genomePosition < 0) {
+                    continue;
+                }
+                final byte[] nuclSequence = currentGenome.getSequence(bf.getChr(), genomePosition, genomePosition + 1);
+                if (nuclSequence == null) {
+                    continue;
+                }
+                tempNT = new String(nuclSequence);
+                if (bf.getStrand() == Strand.NEGATIVE) {
+                    tempNT = AminoAcidManager.getNucleotideComplement(tempNT);
                 }
 
+                if (tempNT.toUpperCase().equals(brefNT)) {
+                    results.put(genomePosition, bf);
+                }
             }
         }
 
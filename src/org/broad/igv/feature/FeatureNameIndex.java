@@ -0,0 +1,428 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.feature;
+
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.FeatureCodec;
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.LineIteratorImpl;
+import org.apache.log4j.Logger;
+import org.broad.igv.Globals;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.feature.tribble.CodecFactory;
+import org.broad.igv.feature.tribble.UCSCCodec;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.stream.IGVSeekableMappedStream;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent,  memory-mapped index of feature names for a line oriented feature file (bed, UCSC gene tables,
+ * etc).  Names are stored sorted,  each with the file offset of the line defining its feature,  so that exact and
+ * prefix searches are a binary search over the mapped file.  Features are decoded from the data file on demand.
+ * <p/>
+ * The index is immutable once written,  searches do not lock and may be run concurrently.  File format:
+ * <pre>
+ *   int magic,  int version,  int count
+ *   int[count]  record offsets,  relative to the first record
+ *   records:  short name length,  byte[] name (upper case,  UTF-8),  long line offset
+ * </pre>
+ * Records with the same name are ordered as {@link FeatureDB} orders them,  preferred feature first.  All
+ * duplicates are indexed,  they are limited after features on other chromosomes are dropped.
+ */
+public class FeatureNameIndex {
+
+    private static Logger log = Logger.getLogger(FeatureNameIndex.class);
+
+    private static final int MAGIC = 0x49474e49;   // "IGNI"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int MAX_NAME_LENGTH = 0xffff;
+
+    private final File dataFile;
+    private final Genome genome;
+    private final int count;
+    private final int recordStart;
+    private MappedByteBuffer buffer;
+    private IGVSeekableMappedStream dataStream;
+
+    // Codecs reuse buffers while decoding,  each searching thread gets its own
+    private final ThreadLocal<UCSCCodec> codecs = new ThreadLocal<UCSCCodec>();
+
+    // The number of searches in progress,  n >= 0,  or -1 - n once the index has been retired.  A retired index
+    // is closed when the last search finishes,  reading an unmapped buffer would crash the VM.
+    private final AtomicInteger users = new AtomicInteger();
+
+    /**
+     * @return true if names can be indexed for files decoded by this codec
+     */
+    public static boolean isSupported(FeatureCodec codec) {
+        return codec instanceof UCSCCodec;
+    }
+
+    /**
+     * @return true if the file is an index in the current format
+     */
+    public static boolean isCurrentVersion(File indexFile) {
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            return dis.readInt() == MAGIC && dis.readInt() == VERSION;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (dis != null) {
+                try {
+                    dis.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Index the names of all features in the data file.
+     *
+     * @param codec codec for the data file,  see {@link #isSupported}
+     */
+    public static void create(File dataFile, FeatureCodec codec, File indexFile) throws IOException {
+
+        UCSCCodec ucscCodec = (UCSCCodec) codec;
+        readHeader(dataFile, ucscCodec);
+        List<Entry> entries = new ArrayList<Entry>();
+        AsciiLineReader reader = new AsciiLineReader(new BufferedInputStream(new FileInputStream(dataFile)));
+        try {
+            long offset = reader.getPosition();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Name index creation interrupted");
+                }
+                Feature f = ucscCodec.decode(line);
+                if (f instanceof NamedFeature) {
+                    // A name may be listed more than once for a feature,  e.g. name and identifier
+                    for (String name : new LinkedHashSet<String>(FeatureDB.getSearchNames((NamedFeature) f))) {
+                        Entry e = new Entry(name.toUpperCase(), offset, f);
+                        if (e.nameBytes.length <= MAX_NAME_LENGTH) entries.add(e);
+                    }
+                }
+                offset = reader.getPosition();
+            }
+        } finally {
+            reader.close();
+        }
+
+        Collections.sort(entries);
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(entries.size());
+            long recordOffset = 0;
+            for (Entry e : entries) {
+                if (recordOffset > Integer.MAX_VALUE) {
+                    throw new IOException("Too many names to index: " + dataFile.getAbsolutePath());
+                }
+                dos.writeInt((int) recordOffset);
+                recordOffset += 2 + e.nameBytes.length + 8;
+            }
+            for (Entry e : entries) {
+                dos.writeShort(e.nameBytes.length);
+                dos.write(e.nameBytes);
+                dos.writeLong(e.offset);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Open the index for a data file.  The data file's codec must be supported,  see {@link #isSupported}.
+     *
+     * @param genome genome for chromosome names,  may be null
+     */
+    public FeatureNameIndex(File indexFile, File dataFile, Genome genome) throws IOException {
+
+        this.dataFile = dataFile;
+        this.genome = genome;
+
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Name index too large: " + indexFile.getAbsolutePath());
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        try {
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a name index: " + indexFile.getAbsolutePath());
+            }
+            count = buffer.getInt(8);
+            recordStart = HEADER_SIZE + 4 * count;
+
+            getCodec();
+            dataStream = new IGVSeekableMappedStream(dataFile);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Register a search of the index,  which must be followed by {@link #release()}.
+     *
+     * @return false if the index has been retired and must not be searched
+     */
+    public boolean acquire() {
+        while (true) {
+            int n = users.get();
+            if (n < 0) return false;
+            if (users.compareAndSet(n, n + 1)) return true;
+        }
+    }
+
+    /**
+     * End a search registered with {@link #acquire()}
+     */
+    public void release() {
+        while (true) {
+            int n = users.get();
+            // Retired counts go up towards -1
+            int next = n > 0 ? n - 1 : n + 1;
+            if (users.compareAndSet(n, next)) {
+                if (next == -1) close();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop new searches,  and close the index once searches in progress finish
+     */
+    public void retire() {
+        while (true) {
+            int n = users.get();
+            if (n < 0) return;
+            if (users.compareAndSet(n, -1 - n)) {
+                if (n == 0) close();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of names in the index
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param name upper case name
+     * @return the features with exactly this name,  preferred feature first,  no more than {@link FeatureDB} keeps
+     */
+    public List<NamedFeature> getFeatures(String name) {
+        List<NamedFeature> features = new ArrayList<NamedFeature>();
+        for (int i = lowerBound(name); i < count && getName(i).equals(name); i++) {
+            if (features.size() > FeatureDB.MAX_DUPLICATE_COUNT) break;
+            addFeature(i, features);
+        }
+        return features;
+    }
+
+    /**
+     * Search for names starting with a prefix.
+     *
+     * @param prefix upper case prefix
+     * @param limit  the maximum number of names to return
+     * @return map of name -> features,  in name order
+     */
+    public LinkedHashMap<String, List<NamedFeature>> search(String prefix, int limit) {
+        LinkedHashMap<String, List<NamedFeature>> results = new LinkedHashMap<String, List<NamedFeature>>();
+        for (int i = lowerBound(prefix); i < count; i++) {
+            String name = getName(i);
+            if (!name.startsWith(prefix)) break;
+            List<NamedFeature> features = results.get(name);
+            if (features == null) {
+                if (results.size() >= limit) break;
+                features = new ArrayList<NamedFeature>();
+                results.put(name, features);
+            }
+            if (features.size() <= FeatureDB.MAX_DUPLICATE_COUNT) addFeature(i, features);
+        }
+        // Names whose features could not be decoded
+        Iterator<List<NamedFeature>> iter = results.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().isEmpty()) iter.remove();
+        }
+        return results;
+    }
+
+    /**
+     * Unmap the index and data file.  The index must not be in use,  see {@link #retire()}.
+     */
+    public synchronized void close() {
+        if (buffer != null) {
+            IGVSeekableMappedStream.unmap(buffer);
+            buffer = null;
+        }
+        if (dataStream != null) {
+            try {
+                dataStream.close();
+            } catch (IOException e) {
+                log.error("Error closing " + dataFile.getAbsolutePath(), e);
+            }
+            dataStream = null;
+        }
+    }
+
+    /**
+     * @return the codec for the calling thread
+     */
+    private UCSCCodec getCodec() throws IOException {
+        UCSCCodec codec = codecs.get();
+        if (codec == null) {
+            codec = (UCSCCodec) CodecFactory.getCodec(new ResourceLocator(dataFile.getAbsolutePath()), genome);
+            readHeader(dataFile, codec);
+            codecs.set(codec);
+        }
+        return codec;
+    }
+
+    /**
+     * Header lines (track,  #gffTags,  etc) can change how lines are decoded
+     */
+    private static void readHeader(File dataFile, UCSCCodec codec) throws IOException {
+        LineIteratorImpl lines = new LineIteratorImpl(new AsciiLineReader(new FileInputStream(dataFile)));
+        try {
+            codec.readActualHeader(lines);
+        } finally {
+            lines.close();
+        }
+    }
+
+    /**
+     * @return the index of the first name >= key
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getName(mid).compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int getRecordPosition(int i) {
+        return recordStart + buffer.getInt(HEADER_SIZE + 4 * i);
+    }
+
+    private String getName(int i) {
+        int pos = getRecordPosition(i);
+        byte[] bytes = new byte[buffer.getShort(pos) & 0xffff];
+        for (int j = 0; j < bytes.length; j++) {
+            bytes[j] = buffer.get(pos + 2 + j);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void addFeature(int i, List<NamedFeature> features) {
+        int pos = getRecordPosition(i);
+        long offset = buffer.getLong(pos + 2 + (buffer.getShort(pos) & 0xffff));
+        try {
+            Feature f = getCodec().decode(readLine(offset));
+            if (!(f instanceof NamedFeature)) return;
+            if (!Globals.isHeadless() && genome != null && genome.getChromosome(f.getChr()) == null) return;
+            features.add((NamedFeature) f);
+        } catch (IOException e) {
+            log.error("Error reading feature from " + dataFile.getAbsolutePath(), e);
+        }
+    }
+
+    private String readLine(long offset) throws IOException {
+        byte[] bytes = new byte[1024];
+        int length = 0;
+        while (true) {
+            int n = dataStream.read(offset + length, bytes, length, bytes.length - length);
+            if (n <= 0) break;
+            for (int j = length; j < length + n; j++) {
+                if (bytes[j] == '\n') {
+                    int end = j > 0 && bytes[j - 1] == '\r' ? j - 1 : j;
+                    return new String(bytes, 0, end, "UTF-8");
+                }
+            }
+            length += n;
+            if (length == bytes.length) bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+        }
+        return new String(bytes, 0, length, "UTF-8");
+    }
+
+
+    private static class Entry implements Comparable<Entry> {
+
+        final String name;
+        final byte[] nameBytes;
+        final long offset;
+        final int chrLength;
+        final int length;
+
+        Entry(String name, long offset, Feature f) throws UnsupportedEncodingException {
+            this.name = name;
+            this.nameBytes = name.getBytes("UTF-8");
+            this.offset = offset;
+            this.chrLength = f.getChr().length();
+            this.length = f.getEnd() - f.getStart();
+        }
+
+        /**
+         * By name,  then as FeatureDB orders duplicates:  shortest chromosome name,  then longest feature
+         */
+        public int compareTo(Entry o) {
+            int c = name.compareTo(o.name);
+            if (c != 0) return c;
+            if (chrLength != o.chrLength) return chrLength - o.chrLength;
+            return o.length - length;
+        }
+    }
+}
@@ -62,6 +62,23 @@ public class SpliceJunctionFeature extends BasicFeature {
         junctionEnd = end;
     }
 
+    /**
+     * Copy a junction,  including its depth arrays,  so that reads can be added to the copy independently.
+     */
+    public SpliceJunctionFeature(SpliceJunctionFeature other) {
+        super(other);
+        exons = null;   // Created from the flanking regions,  which may grow
+        junctionDepth = other.junctionDepth;
+        junctionStart = other.junctionStart;
+        junctionEnd = other.junctionEnd;
+        if (other.startFlankingRegionDepthArray != null) {
+            startFlankingRegionDepthArray = other.startFlankingRegionDepthArray.clone();
+        }
+        if (other.endFlankingRegionDepthArray != null) {
+            endFlankingRegionDepthArray = other.endFlankingRegionDepthArray.clone();
+        }
+    }
+
 
     /**
      * Does this splice junction feature represent the same splice junction as another feature? This is used for
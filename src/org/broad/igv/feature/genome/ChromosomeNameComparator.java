@@ -25,10 +25,10 @@
 
 package org.broad.igv.feature.genome;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
-
 import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Comparator for chromosome names. All pure string comparisons are case insensitive.
@@ -49,12 +49,14 @@ public class ChromosomeNameComparator implements Comparator<String> {
 
     private static ChromosomeNameComparator instance;
 
-    private Table<String, String, Integer> cache = HashBasedTable.create();
+    // Comparisons are cached by first and second name.  Thread safe,  sorts may compare concurrently
+    private final ConcurrentHashMap<String, Map<String, Integer>> cache = new ConcurrentHashMap<String, Map<String, Integer>>();
+    private final AtomicInteger cacheSize = new AtomicInteger();
 
     private ChromosomeNameComparator() {
     }
 
-    public static ChromosomeNameComparator get() {
+    public static synchronized ChromosomeNameComparator get() {
         if (instance == null) {
             instance = new ChromosomeNameComparator();
         }
@@ -66,22 +68,36 @@ public class ChromosomeNameComparator implements Comparator<String> {
     }
 
     public int compare(String chr0, String chr1) {
-        if (cache.contains(chr0, chr1)) {
-            return cache.get(chr0, chr1);
+        Map<String, Integer> row = cache.get(chr0);
+        if (row != null) {
+            Integer cached = row.get(chr1);
+            if (cached != null) {
+                return cached;
+            }
         }
         int comparison = compareNonCache(chr0, chr1);
 
         //Just to make sure cache size doesn't go crazy.
         //In general don't expect more than ~50 chromosomes,
         //which would be 50 choose 2 ~= 1250 mappings
-        if (cache.size() < 10000) {
-            cache.put(chr0, chr1, comparison);
+        if (cacheSize.get() < 10000) {
+            if (row == null) {
+                row = new ConcurrentHashMap<String, Integer>();
+                Map<String, Integer> existing = cache.putIfAbsent(chr0, row);
+                if (existing != null) {
+                    row = existing;
+                }
+            }
+            if (row.put(chr1, comparison) == null) {
+                cacheSize.incrementAndGet();
+            }
         }
         return comparison;
     }
 
     public void resetCache() {
         cache.clear();
+        cacheSize.set(0);
     }
 
     public int compareNonCache(String chr0, String chr1) {
@@ -27,10 +27,14 @@ package org.broad.igv.feature.genome;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
+import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.ParsingUtils;
+import org.broad.igv.util.stream.IGVSeekableMappedStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -51,6 +55,12 @@ public class FastaIndexedSequence implements Sequence {
 
     private final ArrayList<String> chromoNamesList;
 
+    /**
+     * Shared mapping of a local fasta file,  opened on first use.  Null for remote files.
+     */
+    private IGVSeekableMappedStream mappedStream;
+    private boolean mappedStreamChecked = false;
+
     public FastaIndexedSequence(String path) throws IOException {
 
         this.path = path;
@@ -172,6 +182,21 @@ public class FastaIndexedSequence implements Sequence {
      */
     private byte[] readBytes(long posStart, long posEnd) throws IOException {
 
+        IGVSeekableMappedStream mapped = getMappedStream();
+        if (mapped != null) {
+            int nBytes = (int) (posEnd - posStart);
+            byte[] bytes = new byte[nBytes];
+            int offset = 0;
+            while (offset < nBytes) {
+                int n = mapped.read(posStart + offset, bytes, offset, nBytes - offset);
+                if (n < 0) {
+                    throw new EOFException("Premature end of file: " + path);
+                }
+                offset += n;
+            }
+            return bytes;
+        }
+
         SeekableStream ss = null;
         try {
             ss = IGVSeekableStreamFactory.getInstance().getStreamFor(path);
@@ -187,6 +212,21 @@ public class FastaIndexedSequence implements Sequence {
         }
     }
 
+    private synchronized IGVSeekableMappedStream getMappedStream() throws IOException {
+        if (!mappedStreamChecked) {
+            mappedStreamChecked = true;
+            File file = new File(path);
+            if (!FileUtils.isRemote(path) && IGVSeekableStreamFactory.isMemoryMapEnabled() && file.isFile()) {
+                try {
+                    mappedStream = new IGVSeekableMappedStream(file);
+                } catch (IOException e) {
+                    log.warn("Could not memory map " + path + ",  reading it as a stream: " + e.getMessage());
+                }
+            }
+        }
+        return mappedStream;
+    }
+
     @Override
     public List<String> getChromosomeNames() {
         return chromoNamesList;
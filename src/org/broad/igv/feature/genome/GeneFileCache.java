@@ -0,0 +1,184 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.feature.genome;
+
+import htsjdk.tribble.FeatureCodec;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
+import org.apache.log4j.Logger;
+import org.broad.igv.DirectoryManager;
+import org.broad.igv.feature.FeatureNameIndex;
+import org.broad.igv.feature.tribble.CodecFactory;
+import org.broad.igv.feature.tribble.IGVBEDCodec;
+import org.broad.igv.feature.tribble.UCSCGeneTableCodec;
+import org.broad.igv.tools.IgvTools;
+import org.broad.igv.tools.sort.BedSorter;
+import org.broad.igv.tools.sort.GFFSorter;
+import org.broad.igv.tools.sort.GenericSorter;
+import org.broad.igv.tools.sort.Sorter;
+import org.broad.igv.track.GFFFeatureSource;
+
+import java.io.*;
+
+/**
+ * Sorted,  indexed copies of the gene (annotation) files of .genome archives,  kept in the genome cache
+ * directory.  The gene track of a genome with a cached copy is served from the index on demand,  rather than
+ * parsing the entire file when the genome is loaded.
+ * <p/>
+ * Supported for UCSC gene tables (refGene, refFlat, etc), bed, and gff/gtf files.
+ */
+class GeneFileCache {
+
+    private static Logger log = Logger.getLogger(GeneFileCache.class);
+
+    /**
+     * @return true if gene files of this type can be sorted and indexed
+     */
+    static boolean isIndexable(String geneFileName) {
+        String fn = getCachedFileName(geneFileName);
+        FeatureCodec codec = CodecFactory.getCodec(fn, null);
+        return codec instanceof UCSCGeneTableCodec || codec instanceof IGVBEDCodec || GFFFeatureSource.isGFF(fn);
+    }
+
+    /**
+     * @return the cached copy of the gene file for the genome.  The file may not exist.
+     */
+    static File getCachedFile(String genomeId, String geneFileName) {
+        return new File(DirectoryManager.getGenomeCacheDirectory(), genomeId + "_" + getCachedFileName(geneFileName));
+    }
+
+    static File getIndexFile(File cachedFile) {
+        return new File(cachedFile.getAbsolutePath() + ".idx");
+    }
+
+    /**
+     * @return the name index of the cached copy,  see {@link FeatureNameIndex}.  Not all formats have one.
+     */
+    static File getNameIndexFile(File cachedFile) {
+        return new File(cachedFile.getAbsolutePath() + ".names");
+    }
+
+    /**
+     * @return true if the cached copy is complete and not older than the genome archive,  and its name index,  if
+     * any,  is in the current format
+     */
+    static boolean isCurrent(File cachedFile, File archiveFile) {
+        File idxFile = getIndexFile(cachedFile);
+        File namesFile = getNameIndexFile(cachedFile);
+        return cachedFile.exists() && idxFile.exists() && idxFile.lastModified() >= archiveFile.lastModified() &&
+                (!namesFile.exists() || FeatureNameIndex.isCurrentVersion(namesFile));
+    }
+
+    /**
+     * Write a sorted,  indexed copy of the gene file,  and an index of feature names where the format allows.
+     * The feature index is written last,  so that a partial copy is never used.
+     *
+     * @param geneStream the gene file contents,  uncompressed
+     */
+    static void create(InputStream geneStream, File cachedFile) throws IOException {
+
+        File idxFile = getIndexFile(cachedFile);
+        File unsortedFile = new File(cachedFile.getAbsolutePath() + ".unsorted");
+        File tmpIdxFile = new File(idxFile.getAbsolutePath() + ".tmp");
+        File namesFile = getNameIndexFile(cachedFile);
+        File tmpNamesFile = new File(namesFile.getAbsolutePath() + ".tmp");
+        idxFile.delete();
+        namesFile.delete();
+
+        try {
+            copy(geneStream, unsortedFile);
+
+            Sorter sorter = getSorter(unsortedFile, cachedFile);
+            sorter.setTmpDir(cachedFile.getParentFile());
+            sorter.run();
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Gene file indexing interrupted");
+            }
+
+            // Don't do chromosome conversion,  names must match the file
+            FeatureCodec codec = CodecFactory.getCodec(cachedFile.getAbsolutePath(), null);
+            Index index = IndexFactory.createLinearIndex(cachedFile, codec, IgvTools.LINEAR_BIN_SIZE);
+            IgvTools.writeTribbleIndex(index, tmpIdxFile.getAbsolutePath());
+
+            if (FeatureNameIndex.isSupported(codec)) {
+                FeatureNameIndex.create(cachedFile, codec, tmpNamesFile);
+                if (!tmpNamesFile.renameTo(namesFile)) {
+                    throw new IOException("Error renaming " + tmpNamesFile.getAbsolutePath());
+                }
+            }
+
+            if (!tmpIdxFile.renameTo(idxFile)) {
+                throw new IOException("Error renaming " + tmpIdxFile.getAbsolutePath());
+            }
+            log.info("Created gene index " + idxFile.getAbsolutePath());
+        } finally {
+            unsortedFile.delete();
+            tmpIdxFile.delete();
+            tmpNamesFile.delete();
+        }
+    }
+
+    private static Sorter getSorter(File inputFile, File outputFile) throws IOException {
+        String fn = outputFile.getName().toLowerCase();
+        FeatureCodec codec = CodecFactory.getCodec(fn, null);
+        if (GFFFeatureSource.isGFF(fn)) {
+            return new GFFSorter(inputFile, outputFile);
+        } else if (codec instanceof IGVBEDCodec) {
+            return new BedSorter(inputFile, outputFile);
+        } else if (codec instanceof UCSCGeneTableCodec) {
+            // Sort on the columns the codec decodes,  they differ by table type
+            UCSCGeneTableCodec tableCodec = (UCSCGeneTableCodec) codec;
+            return new GenericSorter(inputFile, outputFile, tableCodec.getChrColumn(), tableCodec.getStartColumn());
+        } else {
+            throw new IOException("Unsupported gene file format: " + outputFile.getName());
+        }
+    }
+
+    /**
+     * Copy the stream to a file.  The copy is abandoned if the thread is interrupted,  e.g. because
+     * another genome is being loaded.
+     */
+    private static void copy(InputStream is, File file) throws IOException {
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            byte[] buffer = new byte[64000];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Gene file copy interrupted");
+                }
+                os.write(buffer, 0, n);
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    private static String getCachedFileName(String geneFileName) {
+        String fn = new File(geneFileName).getName();
+        return fn.endsWith(".gz") ? fn.substring(0, fn.length() - 3) : fn;
+    }
+}
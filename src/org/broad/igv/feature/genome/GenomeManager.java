@@ -40,6 +40,7 @@ import org.broad.igv.DirectoryManager;
 import org.broad.igv.Globals;
 import org.broad.igv.PreferenceManager;
 import org.broad.igv.feature.*;
+import org.broad.igv.feature.tribble.FeatureFileHeader;
 import org.broad.igv.track.*;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.IGVMenuBar;
@@ -58,6 +59,10 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.*;
 
 /**
@@ -94,6 +99,10 @@ public class GenomeManager {
      */
     private Map<String, GenomeListItem> genomeItemMap = new CI.CILinkedHashMap<GenomeListItem>();
 
+    private ExecutorService geneTaskExecutor;
+    private Future geneNameTask;
+    private Future geneCacheTask;
+
     public static void main(String[] args) {
         if (args.length >= 1 && args[0].equals("genList")) {
             if (args.length != 4)
@@ -151,6 +160,7 @@ public class GenomeManager {
             }
 
             // Clear Feature DB
+            cancelGeneTasks();
             FeatureDB.clearFeatures();
 
             if (genomePath.endsWith(".genome")) {
@@ -418,6 +428,24 @@ public class GenomeManager {
         InputStream geneStream = null;
         String geneFileName = genomeDescriptor.getGeneFileName();
         if (geneFileName != null) {
+
+            // Serve the gene track from a sorted, indexed copy if there is one,  otherwise load the gene file
+            // and create the copy in the background for next time.
+            File cachedGeneFile = null;
+            if (PreferenceManager.getInstance().getAsBoolean(PreferenceManager.INDEX_GENOME_ANNOTATIONS) &&
+                    GeneFileCache.isIndexable(geneFileName)) {
+                cachedGeneFile = GeneFileCache.getCachedFile(id, geneFileName);
+                if (GeneFileCache.isCurrent(cachedGeneFile, archiveFile)) {
+                    FeatureTrack geneFeatureTrack = createIndexedGeneTrack(newGenome, cachedGeneFile,
+                            genomeDescriptor.getGeneTrackName(), genomeDescriptor.getUrl());
+                    if (geneFeatureTrack != null) {
+                        newGenome.setGeneTrack(geneFeatureTrack);
+                        genomeDescriptor.close();
+                        return newGenome;
+                    }
+                }
+            }
+
             try {
                 geneStream = genomeDescriptor.getGeneStream();
                 if (geneFileName.endsWith(".gbk")) {
@@ -436,12 +464,161 @@ public class GenomeManager {
             } finally {
                 if (geneStream != null) geneStream.close();
             }
+
+            if (cachedGeneFile != null) {
+                createGeneFileCache(archiveFile, cachedGeneFile);
+            }
         }
 
         genomeDescriptor.close();
         return newGenome;
     }
 
+    /**
+     * Create the gene track from a sorted,  indexed copy of the gene file.  Features are loaded on demand.  The
+     * names used for search come from the copy's name index,  or are loaded in the background if it has none.
+     *
+     * @return the track,  or null if the copy could not be opened
+     */
+    private FeatureTrack createIndexedGeneTrack(Genome genome, File geneFile, String geneTrackName,
+                                                String annotationURL) {
+
+        FeatureTrack geneFeatureTrack;
+        try {
+            ResourceLocator locator = new ResourceLocator(geneFile.getAbsolutePath());
+            TribbleFeatureSource tribbleFeatureSource = TribbleFeatureSource.getFeatureSource(locator, genome);
+            FeatureSource src = GFFFeatureSource.isGFF(locator.getPath()) ?
+                    new GFFFeatureSource(tribbleFeatureSource) : tribbleFeatureSource;
+
+            String name = geneTrackName == null ? "Genes" : geneTrackName;
+            String id = genome.getId() + "_genes";
+            geneFeatureTrack = new FeatureTrack(id, name, src);
+            geneFeatureTrack.setMinimumHeight(5);
+            geneFeatureTrack.setHeight(35);
+            geneFeatureTrack.setTrackType(TrackType.GENE);
+            geneFeatureTrack.setColor(Color.BLUE.darker());
+            geneFeatureTrack.setVisibilityWindow(-1);  // Genes are shown at all zoom levels
+            Object header = tribbleFeatureSource.getHeader();
+            if (header instanceof FeatureFileHeader && ((FeatureFileHeader) header).getTrackProperties() != null) {
+                geneFeatureTrack.setProperties(((FeatureFileHeader) header).getTrackProperties());
+            }
+            geneFeatureTrack.setUrl(annotationURL);
+        } catch (Exception e) {
+            log.error("Error opening gene file " + geneFile.getAbsolutePath(), e);
+            return null;
+        }
+
+        File nameIndexFile = GeneFileCache.getNameIndexFile(geneFile);
+        if (nameIndexFile.exists()) {
+            try {
+                FeatureDB.addNameIndex(new FeatureNameIndex(nameIndexFile, geneFile, genome));
+                return geneFeatureTrack;
+            } catch (IOException e) {
+                log.error("Error opening name index " + nameIndexFile.getAbsolutePath(), e);
+            }
+        }
+        loadGeneNames(genome, geneFile);
+        return geneFeatureTrack;
+    }
+
+    /**
+     * Parse the gene file in the background to add gene names to the FeatureDB.  Lookups wait for it to finish.
+     */
+    private void loadGeneNames(final Genome genome, final File geneFile) {
+
+        Runnable runnable = new Runnable() {
+            public void run() {
+                String path = geneFile.getAbsolutePath();
+                BufferedReader reader = null;
+                try {
+                    reader = new BufferedReader(new FileReader(geneFile)) {
+                        @Override
+                        public String readLine() throws IOException {
+                            // Stop early if another genome is being loaded
+                            return Thread.currentThread().isInterrupted() ? null : super.readLine();
+                        }
+                    };
+                    FeatureParser parser = GFFFeatureSource.isGFF(path) ? new GFFParser() :
+                            AbstractFeatureParser.getInstanceFor(new ResourceLocator(path), genome);
+                    parser.loadFeatures(reader, genome);    // Adds the features to FeatureDB
+                } catch (IOException e) {
+                    log.error("Error loading gene names from " + path, e);
+                } finally {
+                    if (reader != null) try {
+                        reader.close();
+                    } catch (IOException e) {
+                        log.error("Error closing " + path, e);
+                    }
+                }
+            }
+        };
+        geneNameTask = getGeneTaskExecutor().submit(runnable);
+        FeatureDB.setPendingFeatures(geneNameTask);
+    }
+
+    /**
+     * Create a sorted,  indexed copy of the genome's gene file in the background.
+     */
+    private void createGeneFileCache(final File archiveFile, final File cachedGeneFile) {
+
+        Runnable runnable = new Runnable() {
+            public void run() {
+                GenomeDescriptor descriptor = null;
+                InputStream is = null;
+                try {
+                    descriptor = parseGenomeArchiveFile(archiveFile);
+                    is = descriptor.getGeneStream();
+                    GeneFileCache.create(is, cachedGeneFile);
+                } catch (Exception e) {
+                    log.error("Error creating gene index for " + archiveFile.getAbsolutePath(), e);
+                } finally {
+                    if (is != null) try {
+                        is.close();
+                    } catch (IOException e) {
+                        log.error("Error closing gene file", e);
+                    }
+                    if (descriptor != null) descriptor.close();
+                }
+            }
+        };
+        geneCacheTask = getGeneTaskExecutor().submit(runnable);
+    }
+
+    /**
+     * Stop the background gene file tasks for the current genome,  and wait for them to finish.
+     */
+    private void cancelGeneTasks() {
+        if (geneTaskExecutor == null) return;
+
+        if (geneNameTask != null) geneNameTask.cancel(true);
+        if (geneCacheTask != null) geneCacheTask.cancel(true);
+        try {
+            // Tasks run on a single thread,  when this one runs the others are done
+            geneTaskExecutor.submit(new Runnable() {
+                public void run() {
+                }
+            }).get();
+        } catch (Exception e) {
+            log.error("Error waiting for gene file tasks", e);
+        }
+        geneNameTask = null;
+        geneCacheTask = null;
+        FeatureDB.setPendingFeatures(null);
+    }
+
+    private synchronized ExecutorService getGeneTaskExecutor() {
+        if (geneTaskExecutor == null) {
+            geneTaskExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "IGV-gene-file");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return geneTaskExecutor;
+    }
+
     /**
      * Returns a File of the provided genomePath. If the genomePath is a URL, it will be downloaded
      * and saved in the genome cache directory.
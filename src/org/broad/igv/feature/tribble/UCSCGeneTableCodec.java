@@ -89,6 +89,20 @@ public class UCSCGeneTableCodec extends UCSCCodec<BasicFeature> {
 
     }
 
+    /**
+     * @return the (0-based) column of the chromosome name for this table type
+     */
+    public int getChrColumn() {
+        return chrColumn;
+    }
+
+    /**
+     * @return the (0-based) column of the transcript start for this table type
+     */
+    public int getStartColumn() {
+        return startColumn;
+    }
+
     /**
      * Decode a line as a Feature.
      *
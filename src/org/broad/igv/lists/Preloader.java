@@ -31,6 +31,7 @@ import org.broad.igv.track.*;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.panel.FrameManager;
 import org.broad.igv.ui.panel.ReferenceFrame;
+import org.broad.igv.util.LoadScheduler;
 
 import java.util.Collection;
 
@@ -55,11 +56,9 @@ public class Preloader {
                     if (track == null) continue;
                     if (track.isVisible()) {
                         if (track instanceof DataTrack) {
-                            DataTrack dt = (DataTrack) track;
-                            RenderContext context = new RenderContext(null, null, frame, null);
-                           // int start = Math.max(0, locus.getStart() - flankingRegion);
-                           // int end = locus.getEnd() + flankingRegion;
-                            dt.loadScores(context.getReferenceFrame());
+                            // Same task key as a paint of the frame,  which promotes this prefetch if it is still
+                            // queued
+                            ((DataTrack) track).scheduleLoad(frame, LoadScheduler.Priority.PREFETCH);
                         }
                     }
                 }
@@ -25,6 +25,7 @@
 
 package org.broad.igv.sam;
 
+import htsjdk.tribble.Feature;
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
 import org.broad.igv.PreferenceManager;
@@ -40,7 +41,7 @@ import org.broad.igv.ui.event.IGVEventObserver;
 import org.broad.igv.ui.panel.FrameManager;
 import org.broad.igv.ui.panel.ReferenceFrame;
 import org.broad.igv.ui.util.ProgressMonitor;
-import org.broad.igv.util.LongRunningTask;
+import org.broad.igv.util.LoadScheduler;
 import org.broad.igv.util.NamedRunnable;
 import org.broad.igv.util.ResourceLocator;
 
@@ -53,6 +54,9 @@ public class AlignmentDataManager implements IGVEventObserver {
 
     private static Logger log = Logger.getLogger(AlignmentDataManager.class);
 
+    // Intervals larger than this use sparse counts,  see AlignmentTileLoader.AlignmentTile
+    private static final int DENSE_COUNTS_LIMIT = 10000000;
+
     private IntervalCache loadedIntervalCache;
     private ResourceLocator locator;
     private HashMap<String, String> chrMappings = new HashMap();
@@ -173,6 +177,19 @@ public class AlignmentDataManager implements IGVEventObserver {
         return this.loadedIntervalCache.values();
     }
 
+    /**
+     * Return the loaded intervals covering the current frames.  The cache can hold other intervals,  for example
+     * from previously viewed loci,  which should not affect the track layout.
+     */
+    private Collection<AlignmentInterval> getVisibleIntervals() {
+        Set<AlignmentInterval> intervals = new LinkedHashSet<>();
+        for (ReferenceFrame frame : FrameManager.getFrames()) {
+            AlignmentInterval interval = loadedIntervalCache.getIntervalForRange(frame.getCurrentRange());
+            if (interval != null) intervals.add(interval);
+        }
+        return intervals;
+    }
+
     public AlignmentInterval getLoadedInterval(Range range) {
         return loadedIntervalCache.getIntervalForRange(range);
     }
@@ -213,15 +230,19 @@ public class AlignmentDataManager implements IGVEventObserver {
     }
 
     /**
-     * Repack currently loaded alignments across frames
-     * All relevant intervals must be loaded
+     * Repack the loaded alignments in view across frames.  Other cached intervals are marked stale and repacked
+     * when they are next displayed.
      *
      * @param renderOptions
-     * @return Whether repacking was performed
      */
     void packAlignments(AlignmentTrack.RenderOptions renderOptions) {
+        Collection<AlignmentInterval> visibleIntervals = getVisibleIntervals();
         for (AlignmentInterval interval : loadedIntervalCache.values()) {
-            interval.packAlignments(renderOptions);
+            if (visibleIntervals.contains(interval)) {
+                interval.packAlignments(renderOptions);
+            } else {
+                interval.markPackStale(renderOptions);
+            }
         }
     }
 
@@ -233,7 +254,7 @@ public class AlignmentDataManager implements IGVEventObserver {
             final String chr = referenceFrame.getChrName();
             final int start = (int) referenceFrame.getOrigin();
             final int end = (int) referenceFrame.getEnd();
-            AlignmentInterval loadedInterval = loadedIntervalCache.getIntervalForRange(referenceFrame.getCurrentRange());
+            AlignmentInterval loadedInterval = loadedIntervalCache.lookup(referenceFrame.getCurrentRange());
 
             int adjustedStart = start;
             int adjustedEnd = end;
@@ -302,16 +323,30 @@ public class AlignmentDataManager implements IGVEventObserver {
 
                 log.debug("Loading alignments: " + chr + ":" + start + "-" + end + " for " + AlignmentDataManager.this);
 
-                AlignmentInterval loadedInterval = loadInterval(chr, start, end, renderOptions);
+                AlignmentInterval loadedInterval = null;
+                if (PreferenceManager.getInstance().getAsBoolean(PreferenceManager.SAM_INCREMENTAL_LOADING)) {
+                    AlignmentInterval overlappingInterval = loadedIntervalCache.getOverlappingInterval(chr, start, end);
+                    if (overlappingInterval != null) {
+                        loadedInterval = extendInterval(overlappingInterval, start, end, renderOptions);
+                        if (loadedInterval != null) {
+                            loadedIntervalCache.remove(overlappingInterval);
+                        }
+                    }
+                }
+                if (loadedInterval == null) {
+                    loadedInterval = loadInterval(chr, start, end, renderOptions);
+                }
                 loadedIntervalCache.add(loadedInterval);
+                if (log.isDebugEnabled()) log.debug(loadedIntervalCache);
 
-                packAlignments(renderOptions);
+                // Other cached intervals are unchanged,  only the new one needs packing
+                loadedInterval.packAlignments(renderOptions);
                 IGVEventBus.getInstance().post(new DataLoadedEvent(frame));
 
                 isLoading = false;
             }
         };
-        LongRunningTask.submit(runnable);
+        LoadScheduler.getInstance().submit(this, chr + ":" + start + "-" + end, LoadScheduler.Priority.VISIBLE, runnable);
     }
 
     AlignmentInterval loadInterval(String chr, int start, int end, AlignmentTrack.RenderOptions renderOptions) {
@@ -344,6 +379,99 @@ public class AlignmentDataManager implements IGVEventObserver {
         return new AlignmentInterval(chr, start, end, alignments, t.getCounts(), spliceJunctionHelper, downsampledIntervals);
     }
 
+    /**
+     * Create a new interval covering {@code start - end} from an interval which overlaps one end of it.  Only the
+     * newly exposed flank is queried,  alignments and coverage outside the new range are trimmed.
+     *
+     * @return the new interval,  or null if the interval cannot be extended (e.g. the new range extends past
+     * both ends,  or the interval uses sparse or bisulfite counts).
+     */
+    AlignmentInterval extendInterval(AlignmentInterval interval, int start, int end,
+                                     AlignmentTrack.RenderOptions renderOptions) {
+
+        final int loadedStart = interval.getStart();
+        final int loadedEnd = interval.getEnd();
+        final boolean extendRight = end > loadedEnd && start >= loadedStart && start < loadedEnd;
+        final boolean extendLeft = start < loadedStart && end <= loadedEnd && end > loadedStart;
+        if (!(extendRight || extendLeft) || (end - start) > DENSE_COUNTS_LIMIT) {
+            return null;
+        }
+
+        AlignmentCounts loadedCounts = interval.getCounts();
+        if (!(loadedCounts instanceof DenseAlignmentCounts) || loadedCounts.getBisulfiteCounts() != null ||
+                PreferenceManager.getInstance().getAsBoolean(PreferenceManager.SAM_REDUCED_MEMORY_MODE)) {
+            return null;
+        }
+
+        // Don't bother if most of the new range is new
+        int flankStart = extendRight ? loadedEnd : start;
+        int flankEnd = extendRight ? end : loadedStart;
+        if (flankEnd - flankStart > (end - start) / 2) {
+            return null;
+        }
+
+        final String chr = interval.getChr();
+        String sequence = chrMappings.containsKey(chr) ? chrMappings.get(chr) : chr;
+        final AlignmentTrack.BisulfiteContext bisulfiteContext =
+                renderOptions != null ? renderOptions.bisulfiteContext : null;
+
+        log.debug("Extending interval " + interval.toString() + " to " + chr + ":" + start + "-" + end);
+
+        // Junctions from the new alignments are added to a copy of the loaded interval's junctions,  less those
+        // trimmed from the far side
+        SpliceJunctionHelper spliceJunctionHelper =
+                new SpliceJunctionHelper(interval.getSpliceJunctionHelper(), start, end);
+        AlignmentTileLoader.AlignmentTile t = reader.loadTile(sequence, flankStart, flankEnd, interval.getRange(),
+                spliceJunctionHelper, new DownsampleOptions(), readStats, peStats, bisulfiteContext, showAlignments, null);
+        if (t == null || !(t.getCounts() instanceof DenseAlignmentCounts)) {
+            return null;
+        }
+
+        DenseAlignmentCounts counts = new DenseAlignmentCounts(start, end, null);
+        counts.copyFrom((DenseAlignmentCounts) loadedCounts);
+        counts.copyFrom((DenseAlignmentCounts) t.getCounts());
+        counts.finish();
+
+        List<Alignment> alignments = new ArrayList<>();
+        for (Alignment a : interval.getAlignments()) {
+            if (a.getAlignmentEnd() > start && a.getAlignmentStart() < end) {
+                alignments.add(a);
+            }
+        }
+        alignments = mergeByStart(alignments, t.getAlignments());
+
+        List<DownsampledInterval> downsampledIntervals = new ArrayList<>();
+        if (interval.getDownsampledIntervals() != null) {
+            for (DownsampledInterval di : interval.getDownsampledIntervals()) {
+                if (di.getEnd() > start && di.getStart() < end) {
+                    downsampledIntervals.add(di);
+                }
+            }
+        }
+        downsampledIntervals = mergeByStart(downsampledIntervals, t.getDownsampledIntervals());
+
+        return new AlignmentInterval(chr, start, end, alignments, counts, spliceJunctionHelper, downsampledIntervals);
+    }
+
+    /**
+     * Merge two lists,  each sorted by start position.
+     */
+    private static <T extends Feature> List<T> mergeByStart(List<T> list1, List<T> list2) {
+        if (list2 == null || list2.isEmpty()) return list1;
+        List<T> merged = new ArrayList<>(list1.size() + list2.size());
+        int i = 0, j = 0;
+        while (i < list1.size() && j < list2.size()) {
+            if (list2.get(j).getStart() < list1.get(i).getStart()) {
+                merged.add(list2.get(j++));
+            } else {
+                merged.add(list1.get(i++));
+            }
+        }
+        while (i < list1.size()) merged.add(list1.get(i++));
+        while (j < list2.size()) merged.add(list2.get(j++));
+        return merged;
+    }
+
     /**
      * Find the first loaded interval for the specified chromosome and genomic {@code positon},
      * return the grouped alignments
@@ -373,7 +501,7 @@ public class AlignmentDataManager implements IGVEventObserver {
     public int getNLevels() {
         int nLevels = 0;
 
-        for (AlignmentInterval interval : loadedIntervalCache.values()) {
+        for (AlignmentInterval interval : getVisibleIntervals()) {
             PackedAlignments packedAlignments = interval.getPackedAlignments();
             if (packedAlignments != null) {
                 int intervalNLevels = packedAlignments.getNLevels();
@@ -384,12 +512,12 @@ public class AlignmentDataManager implements IGVEventObserver {
     }
 
     /**
-     * Get the maximum group count among all the loaded intervals.  Normally there is one interval, but there
+     * Get the maximum group count among the intervals in view.  Normally there is one interval, but there
      * can be multiple if viewing split screen.
      */
     public int getMaxGroupCount() {
         int groupCount = 0;
-        for (AlignmentInterval interval : loadedIntervalCache.values()) {
+        for (AlignmentInterval interval : getVisibleIntervals()) {
             PackedAlignments packedAlignments = interval.getPackedAlignments();
             if (packedAlignments != null) {
                 groupCount = Math.max(groupCount, packedAlignments.size());
@@ -487,69 +615,206 @@ public class AlignmentDataManager implements IGVEventObserver {
 
     }
 
+    /**
+     * Cache of loaded alignment intervals.  Several intervals per chromosome are retained so that panning back
+     * and forth,  or switching between gene list frames,  does not re-read the file.  The cache is bounded by an
+     * estimate of the memory used by the intervals rather than by count,  but will always retain at least one
+     * interval per frame.  Intervals are evicted in least-recently-used order.
+     */
     static class IntervalCache {
 
-        private int maxSize;
-        ArrayList<AlignmentInterval> intervals;
+        // Rough per-object costs used to estimate interval size
+        static final int ALIGNMENT_BYTES = 400;
+        static final int COMPACT_ALIGNMENT_BYTES = 100;   // CompactAlignmentStore columns + view
+        static final int BASE_BYTES = 2;           // read base + quality
+        static final int COUNTS_BYTES = 90;        // DenseAlignmentCounts arrays,  per genomic position
+
+        // Upper bound on the number of intervals,  regardless of size,  unless more frames are open
+        static final int MAX_INTERVALS = 50;
+
+        private long maxBytes;
+        private int minSize;
+        private long currentBytes;
+        private long hitCount;
+        private long missCount;
+
+        private Map<String, List<AlignmentInterval>> intervalsByChr = new HashMap<>();
+        private LinkedHashMap<AlignmentInterval, Long> lru = new LinkedHashMap<>(16, 0.75f, true);
 
         public IntervalCache() {
             this(1);
         }
 
-        public IntervalCache(int ms) {
-            this.maxSize = Math.max(1, ms);
-            intervals = new ArrayList<>(maxSize);
-        }
-
-        void setMaxSize(int ms, List<ReferenceFrame> frames) {
-            this.maxSize = Math.max(1, ms);
-            if (intervals.size() > maxSize) {
-                // Reduce size.  Try to keep intervals that cover frame ranges.  This involves a linear search
-                // of potentially (intervals.size X frames.size) elements.  Don't attempt if this number is too large
-                if (frames.size() * intervals.size() < 25) {
-                    ArrayList<AlignmentInterval> tmp = new ArrayList<>(maxSize);
-                    for (AlignmentInterval interval : intervals) {
-                        if (tmp.size() == maxSize) break;
-                        for (ReferenceFrame frame : frames) {
-                            Range range = frame.getCurrentRange();
-                            if (interval.contains(range.getChr(), range.getStart(), range.getEnd())) {
-                                tmp.add(interval);
-                                break;
-                            }
-                        }
-                    }
-                    intervals = tmp;
-                } else {
-                    intervals = new ArrayList(intervals.subList(0, maxSize));
-                    intervals.trimToSize();
-                }
+        public IntervalCache(int minSize) {
+            this(minSize, defaultMaxBytes());
+        }
+
+        IntervalCache(int minSize, long maxBytes) {
+            this.minSize = Math.max(1, minSize);
+            this.maxBytes = maxBytes;
+        }
+
+        private static long defaultMaxBytes() {
+            long prefBytes = PreferenceManager.getInstance().getAsInt(PreferenceManager.SAM_INTERVAL_CACHE_SIZE) * 1000000L;
+            return Math.min(prefBytes, Runtime.getRuntime().maxMemory() / 4);
+        }
+
+        static long estimateSize(AlignmentInterval interval) {
+            long size = (long) (interval.getEnd() - interval.getStart()) * COUNTS_BYTES;
+            Iterator<Alignment> iter = interval.getAlignmentIterator();
+            while (iter.hasNext()) {
+                Alignment a = iter.next();
+                int alignmentBytes = a instanceof CompactAlignmentStore.CompactAlignment ?
+                        COMPACT_ALIGNMENT_BYTES : ALIGNMENT_BYTES;
+                size += alignmentBytes + BASE_BYTES * (a.getAlignmentEnd() - a.getAlignmentStart());
             }
+            return size;
         }
 
-        public void add(AlignmentInterval interval) {
-            if (intervals.size() >= maxSize) {
-                intervals.remove(0);
+        /**
+         * Set the minimum number of intervals to retain,  typically the number of frames.  Intervals
+         * covering the current frames are retained in preference to others.
+         */
+        synchronized void setMaxSize(int ms, List<ReferenceFrame> frames) {
+            this.minSize = Math.max(1, ms);
+            // Touch intervals covering current frames so they are evicted last
+            for (ReferenceFrame frame : frames) {
+                AlignmentInterval interval = getIntervalForRange(frame.getCurrentRange());
+                if (interval != null) lru.get(interval);
             }
-            intervals.add(interval);
+            evict();
         }
 
-        public AlignmentInterval getIntervalForRange(Range range) {
+        public synchronized void add(AlignmentInterval interval) {
 
-            for (AlignmentInterval interval : intervals) {
-                if (interval.contains(range.getChr(), range.getStart(), range.getEnd())) {
-                    return interval;
+            // Drop intervals on the same chromosome subsumed by the new one
+            List<AlignmentInterval> chrIntervals = intervalsByChr.get(interval.getChr());
+            if (chrIntervals == null) {
+                chrIntervals = new ArrayList<>();
+                intervalsByChr.put(interval.getChr(), chrIntervals);
+            }
+            Iterator<AlignmentInterval> iter = chrIntervals.iterator();
+            while (iter.hasNext()) {
+                AlignmentInterval i = iter.next();
+                if (interval.contains(i.getChr(), i.getStart(), i.getEnd())) {
+                    iter.remove();
+                    currentBytes -= lru.remove(i);
+                }
+            }
+
+            long size = estimateSize(interval);
+            chrIntervals.add(interval);
+            lru.put(interval, size);
+            currentBytes += size;
+            evict();
+        }
+
+        private void evict() {
+            Iterator<Map.Entry<AlignmentInterval, Long>> iter = lru.entrySet().iterator();
+            while ((currentBytes > maxBytes || lru.size() > MAX_INTERVALS) && lru.size() > minSize && iter.hasNext()) {
+                Map.Entry<AlignmentInterval, Long> eldest = iter.next();
+                AlignmentInterval interval = eldest.getKey();
+                iter.remove();
+                currentBytes -= eldest.getValue();
+                List<AlignmentInterval> chrIntervals = intervalsByChr.get(interval.getChr());
+                chrIntervals.remove(interval);
+                if (chrIntervals.isEmpty()) intervalsByChr.remove(interval.getChr());
+            }
+        }
+
+        public synchronized AlignmentInterval getIntervalForRange(Range range) {
+            List<AlignmentInterval> chrIntervals = intervalsByChr.get(range.getChr());
+            if (chrIntervals != null) {
+                for (AlignmentInterval interval : chrIntervals) {
+                    if (interval.contains(range.getChr(), range.getStart(), range.getEnd())) {
+                        return interval;
+                    }
                 }
             }
             return null;
+        }
+
+        /**
+         * Return the interval with the largest overlap with the given range,  or null if there is none.
+         */
+        public synchronized AlignmentInterval getOverlappingInterval(String chr, int start, int end) {
+            AlignmentInterval best = null;
+            int bestOverlap = 0;
+            List<AlignmentInterval> chrIntervals = intervalsByChr.get(chr);
+            if (chrIntervals != null) {
+                for (AlignmentInterval interval : chrIntervals) {
+                    int overlap = Math.min(end, interval.getEnd()) - Math.max(start, interval.getStart());
+                    if (overlap > bestOverlap) {
+                        best = interval;
+                        bestOverlap = overlap;
+                    }
+                }
+            }
+            return best;
+        }
+
+        public synchronized void remove(AlignmentInterval interval) {
+            Long size = lru.remove(interval);
+            if (size != null) {
+                currentBytes -= size;
+                List<AlignmentInterval> chrIntervals = intervalsByChr.get(interval.getChr());
+                chrIntervals.remove(interval);
+                if (chrIntervals.isEmpty()) intervalsByChr.remove(interval.getChr());
+            }
+        }
+
+        /**
+         * Lookup an interval for a load request,  recording a hit or miss.  A hit marks the interval as recently used.
+         */
+        synchronized AlignmentInterval lookup(Range range) {
+            AlignmentInterval interval = getIntervalForRange(range);
+            if (interval == null) {
+                missCount++;
+            } else {
+                hitCount++;
+                lru.get(interval);
+            }
+            return interval;
+        }
+
+        /**
+         * @return a snapshot of the cached intervals,  least recently used first
+         */
+        public synchronized Collection<AlignmentInterval> values() {
+            return new ArrayList<>(lru.keySet());
+        }
+
+        public synchronized int size() {
+            return lru.size();
+        }
+
+        public synchronized long getSizeInBytes() {
+            return currentBytes;
+        }
+
+        public synchronized long getHitCount() {
+            return hitCount;
+        }
+
+        public synchronized long getMissCount() {
+            return missCount;
+        }
 
+        public synchronized double getHitRate() {
+            long total = hitCount + missCount;
+            return total == 0 ? 0 : ((double) hitCount) / total;
         }
 
-        public Collection<AlignmentInterval> values() {
-            return intervals;
+        public synchronized void clear() {
+            intervalsByChr.clear();
+            lru.clear();
+            currentBytes = 0;
         }
 
-        public void clear() {
-            intervals.clear();
+        @Override
+        public synchronized String toString() {
+            return String.format("IntervalCache: %d intervals, %d KB, hits=%d, misses=%d (%.1f%%)",
+                    lru.size(), currentBytes / 1000, hitCount, missCount, 100 * getHitRate());
         }
     }
 }
@@ -48,6 +48,7 @@ public class AlignmentInterval extends Locus {
     private SpliceJunctionHelper spliceJunctionHelper;
     private List<DownsampledInterval> downsampledIntervals;
     private PackedAlignments packedAlignments;
+    private volatile AlignmentTrack.RenderOptions stalePackOptions;
 
     public AlignmentInterval(String chr, int start, int end,
                              List<Alignment> alignments,
@@ -166,13 +167,30 @@ public class AlignmentInterval extends Locus {
         return new Range(getChr(), getStart(), getEnd());
     }
 
-    public void packAlignments(AlignmentTrack.RenderOptions renderOptions) {
+    public synchronized void packAlignments(AlignmentTrack.RenderOptions renderOptions) {
 
         final AlignmentPacker alignmentPacker = new AlignmentPacker();
         this.packedAlignments = alignmentPacker.packAlignments(this, renderOptions);
+        this.stalePackOptions = null;
+    }
+
+    /**
+     * Mark the packing out of date,  the interval is repacked with the given options the next time the packed
+     * alignments are requested.  Used for intervals that are not in view when the options change.
+     */
+    public void markPackStale(AlignmentTrack.RenderOptions renderOptions) {
+        this.stalePackOptions = renderOptions;
     }
 
     public PackedAlignments getPackedAlignments() {
+        if (stalePackOptions != null) {
+            synchronized (this) {
+                AlignmentTrack.RenderOptions renderOptions = stalePackOptions;
+                if (renderOptions != null) {
+                    packAlignments(renderOptions);
+                }
+            }
+        }
         return packedAlignments;
     }
 
@@ -59,6 +59,19 @@ public class AlignmentPacker {
     private static final String NULL_GROUP_VALUE = "";
     public static final int tenMB = 10000000;
 
+    /**
+     * If true pack with the original bucket implementation,  retained for comparison.
+     */
+    private final boolean bucketPacking;
+
+    public AlignmentPacker() {
+        this(false);
+    }
+
+    AlignmentPacker(boolean bucketPacking) {
+        this.bucketPacking = bucketPacking;
+    }
+
     /**
      * Allocates each alignment to row such that there is no overlap.
      */
@@ -121,6 +134,198 @@ public class AlignmentPacker {
 
 
     private void pack(List<Alignment> alList, AlignmentTrack.RenderOptions renderOptions, List<Row> alignmentRows) {
+        if (bucketPacking) {
+            packBuckets(alList, renderOptions, alignmentRows);
+        } else {
+            packIntervals(alList, renderOptions, alignmentRows);
+        }
+    }
+
+    /**
+     * Allocate alignments to rows by greedy interval partitioning.  Alignments are visited in start order and each
+     * is placed in the first (lowest) row whose last alignment ends at least MIN_ALIGNMENT_SPACING before it starts,
+     * or in a new row if none does.
+     * <p/>
+     * This produces the same rows as {@link #packBuckets(List, AlignmentTrack.RenderOptions, List)},  which fills one
+     * row at a time from left to right,  without allocating a queue per start position or rescanning the buckets for
+     * every row.  Alignments with the same start are visited longest first,  as in the bucket queues.  The first
+     * fitting row is found with a tree of row end positions,  see {@link RowEndTree}.
+     */
+    private void packIntervals(List<Alignment> alList, AlignmentTrack.RenderOptions renderOptions, List<Row> alignmentRows) {
+
+        if (alList == null || alList.size() == 0) return;
+
+        boolean isPairedAlignments = renderOptions.isViewPairs();
+        Map<String, PairedAlignment> pairs = isPairedAlignments ? new HashMap<String, PairedAlignment>(1000) : null;
+
+        Range curRange = getAlignmentListRange(alList);
+        int curRangeStart = curRange.getStart();
+
+        // Positions are offsets from the start of the range,  the bucket numbers of the bucket implementation
+        int bpLength = curRange.getLength();
+        int maxOffset = bpLength < tenMB ? bpLength : Integer.MAX_VALUE;
+
+        int n = 0;
+        Alignment[] alignments = new Alignment[alList.size()];
+        int[] starts = new int[alList.size()];
+        for (Alignment al : alList) {
+
+            if (al.isMapped()) {
+                Alignment alignment = al;
+
+                // Pair alignments -- do not pair secondaryalignments
+                if (isPairedAlignments && isPairable(al)) {
+                    String readName = al.getReadName();
+                    PairedAlignment pair = pairs.get(readName);
+                    if (pair == null) {
+                        pair = new PairedAlignment(al);
+                        pairs.put(readName, pair);
+                        alignment = pair;
+                    } else {
+                        // Add second alignment to pair.
+                        pair.setSecondAlignment(al);
+                        pairs.remove(readName);
+                        continue;
+                    }
+                }
+
+                // Negative offsets can arise with soft clips at the left edge of the chromosome. Pack these
+                // alignments as if they start at the range start.
+                int offset = Math.max(0, al.getStart() - curRangeStart);
+                if (offset < maxOffset) {
+                    alignments[n] = alignment;
+                    starts[n] = offset;
+                    n++;
+                } else {
+                    log.debug("Alignment out of bounds. name: " + alignment.getReadName() + " startPos:" + alignment.getStart());
+                }
+            }
+        }
+        if (n == 0) return;
+
+        // Ends are taken after pairing is complete,  a pair's extent grows when its second alignment is added
+        int[] ends = new int[n];
+        for (int i = 0; i < n; i++) {
+            ends[i] = alignments[i].getEnd() - curRangeStart;
+        }
+
+        long t0 = System.currentTimeMillis();
+        int[] order = sortByStart(starts, ends, n);
+
+        RowEndTree rowEnds = new RowEndTree();
+        for (int i = 0; i < n; i++) {
+            int idx = order[i];
+            int row = rowEnds.firstRowEndingBefore(starts[idx]);
+            if (row < 0) {
+                row = alignmentRows.size();
+                alignmentRows.add(new Row());
+            }
+            alignmentRows.get(row).addAlignment(alignments[idx]);
+            rowEnds.set(row, ends[idx] + MIN_ALIGNMENT_SPACING);
+        }
+
+        if (log.isDebugEnabled()) {
+            long dt = System.currentTimeMillis() - t0;
+            log.debug("Packed alignments in " + dt);
+        }
+    }
+
+    /**
+     * Return the indices of the first {@code n} alignments ordered by start,  then by end descending.
+     */
+    static int[] sortByStart(int[] starts, int[] ends, int n) {
+
+        // Sort on start,  with the index in the low bits so the sort is stable
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = ((long) starts[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keys[i];
+        }
+
+        // Order runs of equal start by end,  longest first
+        long[] runKeys = null;
+        int runStart = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i == n || starts[order[i]] != starts[order[runStart]]) {
+                int runLength = i - runStart;
+                if (runLength > 1) {
+                    if (runKeys == null || runKeys.length < runLength) {
+                        runKeys = new long[Math.max(runLength, 16)];
+                    }
+                    for (int j = 0; j < runLength; j++) {
+                        int idx = order[runStart + j];
+                        runKeys[j] = ((long) -ends[idx] << 32) | idx;
+                    }
+                    Arrays.sort(runKeys, 0, runLength);
+                    for (int j = 0; j < runLength; j++) {
+                        order[runStart + j] = (int) runKeys[j];
+                    }
+                }
+                runStart = i;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * The position after which each row is free,  as a complete binary tree of minimums over an int array
+     * (rows are the leaves).  Finding the lowest row that is free at a position descends from the root,  always
+     * preferring the left subtree,  in O(log rows).  A min-heap of row ends would find a free row equally fast but
+     * not the lowest one,  which would change the row assignment.
+     */
+    static class RowEndTree {
+
+        private int capacity = 64;
+        private int[] tree = newTree(64);
+
+        private static int[] newTree(int capacity) {
+            int[] tree = new int[2 * capacity];
+            Arrays.fill(tree, Integer.MAX_VALUE);
+            return tree;
+        }
+
+        /**
+         * @return the lowest row whose end is <= position,  or -1 if there is none
+         */
+        int firstRowEndingBefore(int position) {
+            if (tree[1] > position) {
+                return -1;
+            }
+            int node = 1;
+            while (node < capacity) {
+                node = tree[2 * node] <= position ? 2 * node : 2 * node + 1;
+            }
+            return node - capacity;
+        }
+
+        void set(int row, int end) {
+            if (row >= capacity) {
+                int[] leaves = Arrays.copyOfRange(tree, capacity, 2 * capacity);
+                capacity *= 2;
+                tree = newTree(capacity);
+                System.arraycopy(leaves, 0, tree, capacity, leaves.length);
+                for (int node = capacity - 1; node > 0; node--) {
+                    tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
+                }
+            }
+            int node = row + capacity;
+            tree[node] = end;
+            for (node >>= 1; node > 0; node >>= 1) {
+                tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+    }
+
+    /**
+     * The original packing implementation.  Alignments are allocated to a priority queue per start position,  then
+     * rows are filled one at a time by repeatedly taking the next alignment starting after the end of the last one.
+     */
+    private void packBuckets(List<Alignment> alList, AlignmentTrack.RenderOptions renderOptions, List<Row> alignmentRows) {
 
         Map<String, PairedAlignment> pairs = null;
 
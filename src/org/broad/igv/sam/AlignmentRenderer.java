@@ -689,7 +689,8 @@ public class AlignmentRenderer implements FeatureRenderer {
         /* Clipping */
         boolean flagClipping = prefs.getAsBoolean(PreferenceManager.SAM_FLAG_CLIPPING);
         int clippingThreshold = prefs.getAsInt(PreferenceManager.SAM_CLIPPING_THRESHOLD);
-        int[] clipping = SAMAlignment.getClipping(alignment.getCigarString());
+        int[] clipping = alignment instanceof SAMAlignment ? ((SAMAlignment) alignment).getClipping() :
+                SAMAlignment.getClipping(alignment.getCigarString());
         boolean leftClipped = flagClipping && ((clipping[0] + clipping[1]) > clippingThreshold);
         boolean rightClipped = flagClipping && ((clipping[2] + clipping[3]) > clippingThreshold);
 
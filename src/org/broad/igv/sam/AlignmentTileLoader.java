@@ -30,6 +30,7 @@ import htsjdk.samtools.util.CloseableIterator;
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
 import org.broad.igv.PreferenceManager;
+import org.broad.igv.feature.Range;
 import org.broad.igv.sam.reader.AlignmentReader;
 import org.broad.igv.sam.reader.ReadGroupFilter;
 import org.broad.igv.ui.IGV;
@@ -53,6 +54,11 @@ public class AlignmentTileLoader {
 
     private static Set<WeakReference<AlignmentTileLoader>> activeLoaders = Collections.synchronizedSet(new HashSet());
 
+    /**
+     * Number of records per load checked for the 10X barcode tag
+     */
+    private static final int TENX_SAMPLE_SIZE = 1000;
+
     /**
      * Flag to mark a corrupt index.  Without this attempted reads will continue in an infinite loop
      */
@@ -116,6 +122,25 @@ public class AlignmentTileLoader {
                            AlignmentTrack.BisulfiteContext bisulfiteContext,
                            boolean showAlignments,
                            ProgressMonitor monitor) {
+        return loadTile(chr, start, end, null, spliceJunctionHelper, downsampleOptions, readStats, peStats,
+                bisulfiteContext, showAlignments, monitor);
+    }
+
+    /**
+     * Load a tile for the given interval.  If {@code loadedRange} is not null it is the range of an interval
+     * already loaded,  and records overlapping it contribute to coverage counts only.  This supports extending a
+     * loaded interval by a flanking region without duplicating alignments.
+     */
+    AlignmentTile loadTile(String chr,
+                           int start,
+                           int end,
+                           Range loadedRange,
+                           SpliceJunctionHelper spliceJunctionHelper,
+                           AlignmentDataManager.DownsampleOptions downsampleOptions,
+                           ReadStats readStats, Map<String, PEStats> peStats,
+                           AlignmentTrack.BisulfiteContext bisulfiteContext,
+                           boolean showAlignments,
+                           ProgressMonitor monitor) {
 
         final PreferenceManager prefMgr = PreferenceManager.getInstance();
         boolean filterFailedReads = prefMgr.getAsBoolean(PreferenceManager.SAM_FILTER_FAILED_READS);
@@ -157,7 +182,11 @@ public class AlignmentTileLoader {
 
                 Alignment record = iter.next();
 
-                if(readStats != null) {
+                final boolean countOnly = loadedRange != null &&
+                        record.getAlignmentStart() < loadedRange.getEnd() &&
+                        record.getAlignmentEnd() > loadedRange.getStart();
+
+                if(readStats != null && !countOnly) {
                     readStats.addAlignment(record);
                 };
 
@@ -192,14 +221,8 @@ public class AlignmentTileLoader {
                     }
                 }
 
-                // TODO -- this is not reliable tests for TenX.  Other platforms might use BX
-                if (!tenX && record.getAttribute("BX") != null) {
-                    tenX = true;
-                }
-                if (tenX && !phased && record.getAttribute("HP") != null) {
-                    phased = true;
-                }
-
+                // Filter on the fixed fields first.  Alignments decode their blocks and tags lazily,  so records
+                // rejected here are never fully decoded.
                 if (!record.isMapped() || (!showDuplicates && record.isDuplicate()) ||
                         (filterFailedReads && record.isVendorFailedRead()) ||
                         (filterSecondaryAlignments && !record.isPrimary()) ||
@@ -209,7 +232,16 @@ public class AlignmentTileLoader {
                     continue;
                 }
 
-                t.addRecord(record, reducedMemory);
+                // TODO -- this is not reliable tests for TenX.  Other platforms might use BX
+                // Looking up a tag decodes all tags of the record,  so only sample the first records of each load
+                if (!tenX && alignmentCount < TENX_SAMPLE_SIZE && record.getAttribute("BX") != null) {
+                    tenX = true;
+                }
+                if (tenX && !phased && record.getAttribute("HP") != null) {
+                    phased = true;
+                }
+
+                t.addRecord(record, reducedMemory, countOnly);
 
                 alignmentCount++;
                 int interval = Globals.isTesting() ? 100000 : 1000;
@@ -229,7 +261,7 @@ public class AlignmentTileLoader {
                 }
 
                 // Update pe stats
-                if (peStats != null && record.isPaired() && record.isProperPair()) {
+                if (peStats != null && !countOnly && record.isPaired() && record.isProperPair()) {
                     String lb = record.getLibrary();
                     if (lb == null) lb = "null";
                     PEStats stats = peStats.get(lb);
@@ -381,6 +413,11 @@ public class AlignmentTileLoader {
         private int offset = 0;
         private int indelLimit;
 
+        /**
+         * Columnar storage for retained alignments,  null unless compact memory mode is on
+         */
+        private CompactAlignmentStore compactStore;
+
         AlignmentTile(int start,
                       int end,
                       SpliceJunctionHelper spliceJunctionHelper,
@@ -420,6 +457,11 @@ public class AlignmentTileLoader {
 
             this.spliceJunctionHelper = spliceJunctionHelper;
 
+            if (showAlignments && !reducedMemory &&
+                    PreferenceManager.getInstance().getAsBoolean(PreferenceManager.SAM_COMPACT_MEMORY_MODE)) {
+                compactStore = new CompactAlignmentStore(this.downsample ? 8000 : 16000);
+            }
+
             if (this.downsample) {
                 imAlignments = new IndexableMap<String, Alignment>(8000);
             } else {
@@ -443,6 +485,14 @@ public class AlignmentTileLoader {
          * // * @param alignment
          */
         public void addRecord(Alignment alignment, boolean reducedMemory) {
+            addRecord(alignment, reducedMemory, false);
+        }
+
+        /**
+         * Add an alignment record to this tile.  If {@code countOnly} is true the record contributes to coverage
+         * counts but is otherwise ignored.
+         */
+        public void addRecord(Alignment alignment, boolean reducedMemory, boolean countOnly) {
 
             if (reducedMemory) {
                 alignment = new ReducedMemoryAlignment(alignment, this.indelLimit);
@@ -450,6 +500,10 @@ public class AlignmentTileLoader {
 
             counts.incCounts(alignment);
 
+            if (countOnly) {
+                return;
+            }
+
             if (spliceJunctionHelper != null) {
                 spliceJunctionHelper.addAlignment(alignment);
             }
@@ -465,13 +519,21 @@ public class AlignmentTileLoader {
                     attemptAddRecordDownsampled(alignment);
 
                 } else {
-                    alignments.add(alignment);
+                    alignments.add(retain(alignment));
                 }
             }
 
             alignment.finish();
         }
 
+        /**
+         * Return the alignment to keep in this tile,  a copy in the compact store if one is in use.  Called
+         * only for records that are actually retained so rejected reads do not take space in the store.
+         */
+        private Alignment retain(Alignment alignment) {
+            return compactStore == null ? alignment : compactStore.add(alignment);
+        }
+
         /**
          * Attempt to add this alignment. The alignment is definitely added if there is another
          * read with the same name. Typically this other read is a mate pair, but it could also be a secondary alignment
@@ -495,13 +557,13 @@ public class AlignmentTileLoader {
                 boolean haveOther = mateAlignments != null;
                 if (haveOther) {
                     //We keep the alignment if others have been kept
-                    imAlignments.append(readName, alignment);
+                    imAlignments.append(readName, retain(alignment));
                 } else {
                     currentDownsampledInterval.incCount();
                 }
             } else {
                 if (curEffSamplingWindowDepth < samplingDepth) {
-                    imAlignments.append(readName, alignment);
+                    imAlignments.append(readName, retain(alignment));
                     curEffSamplingWindowDepth++;
                 } else {
                     double samplingProb = ((double) samplingDepth) / (samplingDepth + downsampledCount + 1);
@@ -509,7 +571,7 @@ public class AlignmentTileLoader {
                         int rndInt = (int) (RAND.nextDouble() * (samplingDepth - 1));
                         int idx = offset + rndInt;
                         // Replace random record with this one
-                        List<Alignment> removedValues = imAlignments.replace(idx, readName, alignment);
+                        List<Alignment> removedValues = imAlignments.replace(idx, readName, retain(alignment));
                         incrementDownsampledIntervals(removedValues);
                     } else {
                         //Mark that record was not kept
@@ -619,6 +681,14 @@ public class AlignmentTileLoader {
             }
             finalizeSpliceJunctions();
             counts.finish();
+            if (compactStore != null) {
+                if (downsample && compactStore.size() > alignments.size()) {
+                    // Drop the reads replaced while sampling
+                    compactStore = compactStore.compact(alignments);
+                } else {
+                    compactStore.trimToSize();
+                }
+            }
         }
 
         public AlignmentCounts getCounts() {
@@ -56,6 +56,7 @@ import org.broad.igv.ui.panel.IGVPopupMenu;
 import org.broad.igv.ui.panel.ReferenceFrame;
 import org.broad.igv.ui.util.MessageUtils;
 import org.broad.igv.ui.util.UIUtilities;
+import org.broad.igv.util.LoadScheduler;
 import org.broad.igv.util.Pair;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.StringUtils;
@@ -956,6 +957,7 @@ public class AlignmentTrack extends AbstractTrack implements AlignmentTrackEvent
     @Override
     public void dispose() {
         super.dispose();
+        LoadScheduler.getInstance().cancel(dataManager);
         clearCaches();
         dataManager.dumpAlignments();
         dataManager = null;
@@ -116,6 +116,12 @@ abstract public class BaseAlignmentCounts implements AlignmentCounts {
             bisulfiteCounts.incrementCounts(alignment);
         }
 
+        // Reads that have not built their alignment blocks are counted from the record,  so reads that are never
+        // rendered never build them
+        if (alignment instanceof PicardAlignment && ((PicardAlignment) alignment).incCounts(this)) {
+            return;
+        }
+
         int alignmentStart = alignment.getAlignmentStart();
         int alignmentEnd = alignment.getAlignmentEnd();
         Strand strand = alignment.getReadStrand();
@@ -157,7 +163,7 @@ abstract public class BaseAlignmentCounts implements AlignmentCounts {
                     if (insBlock.getEnd() < start) continue;
                     if (insBlock.getStart() > end) break;
 
-                    incrementInsertion(insBlock);
+                    incrementInsertion(insBlock.getStart());
                 }
             }
         } else {
@@ -291,9 +297,35 @@ abstract public class BaseAlignmentCounts implements AlignmentCounts {
 
     }
 
+    /**
+     * Increment counts for the {@code nBases} read bases starting at {@code fromIdx},  aligned at {@code blockStart}.
+     * Equivalent to {@link #incBlockCounts(AlignmentBlock, boolean)} for the block SAMAlignment would build from
+     * the same read,  including the placeholders used for missing bases and qualities.
+     */
+    void incBlockCounts(int blockStart, byte[] readBases, byte[] readBaseQualities, int fromIdx, int nBases,
+                        boolean isNegativeStrand) {
+
+        if (blockStart + nBases < start || blockStart > end) {
+            return;
+        }
+
+        boolean noBases = readBases == null || readBases.length == 0;
+        boolean basesAvailable = !noBases && readBases.length - fromIdx >= nBases;
+        boolean qualitiesAvailable = readBaseQualities != null && readBaseQualities.length > 0 &&
+                readBaseQualities.length - fromIdx >= nBases;
+        for (int i = 0; i < nBases; i++) {
+            byte n = noBases ? (byte) '=' : (basesAvailable ? readBases[fromIdx + i] : (byte) '?');
+            byte q = qualitiesAvailable ? readBaseQualities[fromIdx + i] : (byte) 126;
+            incPositionCount(blockStart + i, n, q, isNegativeStrand);
+        }
+    }
+
     protected abstract void incPositionCount(int pos, byte n, byte q, boolean negativeStrand);
 
-    protected abstract void incrementInsertion(AlignmentBlock insBlock);
+    /**
+     * Increment the insertion count for an insertion following genomic position {@code pos}
+     */
+    protected abstract void incrementInsertion(int pos);
 
     protected abstract void incrementDeletion(int pos, boolean negativeStrand);
 
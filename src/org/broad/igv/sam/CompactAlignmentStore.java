@@ -0,0 +1,873 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import org.broad.igv.Globals;
+import org.broad.igv.PreferenceManager;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.feature.Strand;
+import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.collections.ByteArrayList;
+import org.broad.igv.util.collections.IntArrayList;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Columnar storage for the alignments of a single {@link AlignmentTileLoader.AlignmentTile}.  Rather than retaining
+ * a {@link PicardAlignment} object graph per read (SAMRecord, blocks, byte arrays, strings) the fields needed for
+ * display are copied into packed int arrays and shared byte pools,  and each read is represented by a small
+ * {@link CompactAlignment} view holding only an index into the store.  Read group,  sample,  library,  chromosome
+ * and tag values are interned.
+ * <p/>
+ * Only a fixed set of tags is retained,  see {@link #RETAINED_TAGS},  plus the color-by,  group-by,  and link
+ * tags from preferences.  Soft clipped bases that are not shown are not retained.
+ * <p/>
+ * Stores are written by a single loader thread and are read-only once the tile is finished.
+ */
+public class CompactAlignmentStore {
+
+    static final String[] RETAINED_TAGS = {"XS", "HP", "BX", "NM", "SA"};
+
+    // Flag bits.  The low 12 bits follow the SAM spec
+    private static final int PAIRED = 0x1;
+    private static final int PROPER_PAIR = 0x2;
+    private static final int MATE_UNMAPPED = 0x8;
+    private static final int NEGATIVE_STRAND = 0x10;
+    private static final int MATE_NEGATIVE_STRAND = 0x20;
+    private static final int FIRST_OF_PAIR = 0x40;
+    private static final int SECOND_OF_PAIR = 0x80;
+    private static final int SECONDARY = 0x100;
+    private static final int VENDOR_FAILED = 0x200;
+    private static final int DUPLICATE = 0x400;
+    private static final int SUPPLEMENTARY = 0x800;
+    private static final int HAS_MATE = 0x1000;
+    private static final int FOP_STRAND_SHIFT = 16;        // 2 bits
+    private static final int SOP_STRAND_SHIFT = 18;        // 2 bits
+    private static final int MAPQ_SHIFT = 24;              // 8 bits
+
+    private static final byte SOFT_CLIPPED = 0x1;
+    private static final Strand[] STRANDS = Strand.values();
+    private static final AlignmentBlock[] NO_BLOCKS = new AlignmentBlock[0];
+
+    // Per read columns
+    private final IntArrayList starts;
+    private final IntArrayList ends;
+    private final IntArrayList alignmentStarts;
+    private final IntArrayList alignmentEnds;
+    private final IntArrayList flags;           // SAM flags, pair strands, and mapping quality
+    private final IntArrayList insertSizes;
+    private final IntArrayList chrs;
+    private final IntArrayList mateChrs;
+    private final IntArrayList mateStarts;
+    private final IntArrayList pairOrientations;
+    private final IntArrayList readGroups;
+    private final IntArrayList nameOffsets;
+    private final IntArrayList cigarOffsets;
+    private final IntArrayList blockOffsets;
+    private final IntArrayList insertionOffsets;
+    private final IntArrayList gapOffsets;
+
+    // Per block columns.  Blocks for a read are followed by its insertions
+    private final IntArrayList blockStarts;
+    private final IntArrayList blockLengths;
+    private final IntArrayList blockBaseOffsets;     // -1 if the block has no bases
+    private final ByteArrayList blockFlags;
+    private IntArrayList pixelStarts;
+    private IntArrayList pixelEnds;
+
+    // Per gap columns
+    private final IntArrayList gapStarts;
+    private final IntArrayList gapLengths;
+    private final IntArrayList gapTypes;
+    private final IntArrayList gapFlankingLeft;      // -1 for a non-splice gap
+    private final IntArrayList gapFlankingRight;
+
+    // Pools
+    private final ByteArrayList text;                // read names and cigar strings
+    private final ByteArrayList bases;
+    private final ByteArrayList qualities;
+
+    // Interned values
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+    private final List<String[]> readGroupInfo = new ArrayList<String[]>();
+    private final Map<List<String>, Integer> readGroupIndex = new HashMap<List<String>, Integer>();
+    private final List<Object> tagValues = new ArrayList<Object>();
+    private final Map<Object, Integer> tagValueIndex = new HashMap<Object, Integer>();
+
+    // Retained tags -> column of (tag value index + 1),  0 == absent
+    private final String[] tags;
+    private final IntArrayList[] tagColumns;
+
+    // Rarely set,  kept sparse
+    private final Map<Integer, Color> colors = new HashMap<Integer, Color>();
+
+    private int size;
+
+    public CompactAlignmentStore() {
+        this(1000);
+    }
+
+    public CompactAlignmentStore(int initialCapacity) {
+        this(initialCapacity, null);
+    }
+
+    /**
+     * @param retainedTags the tags to retain,  or null for {@link #RETAINED_TAGS} and the tags from preferences
+     */
+    private CompactAlignmentStore(int initialCapacity, String[] retainedTags) {
+
+        initialCapacity = Math.max(10, initialCapacity);
+        starts = new IntArrayList(initialCapacity);
+        ends = new IntArrayList(initialCapacity);
+        alignmentStarts = new IntArrayList(initialCapacity);
+        alignmentEnds = new IntArrayList(initialCapacity);
+        flags = new IntArrayList(initialCapacity);
+        insertSizes = new IntArrayList(initialCapacity);
+        chrs = new IntArrayList(initialCapacity);
+        mateChrs = new IntArrayList(initialCapacity);
+        mateStarts = new IntArrayList(initialCapacity);
+        pairOrientations = new IntArrayList(initialCapacity);
+        readGroups = new IntArrayList(initialCapacity);
+        nameOffsets = new IntArrayList(initialCapacity);
+        cigarOffsets = new IntArrayList(initialCapacity);
+        blockOffsets = new IntArrayList(initialCapacity);
+        insertionOffsets = new IntArrayList(initialCapacity);
+        gapOffsets = new IntArrayList(initialCapacity);
+
+        blockStarts = new IntArrayList(initialCapacity);
+        blockLengths = new IntArrayList(initialCapacity);
+        blockBaseOffsets = new IntArrayList(initialCapacity);
+        blockFlags = new ByteArrayList(initialCapacity);
+
+        gapStarts = new IntArrayList();
+        gapLengths = new IntArrayList();
+        gapTypes = new IntArrayList();
+        gapFlankingLeft = new IntArrayList();
+        gapFlankingRight = new IntArrayList();
+
+        text = new ByteArrayList(initialCapacity * 40);
+        bases = new ByteArrayList(initialCapacity * 100);
+        qualities = new ByteArrayList(initialCapacity * 100);
+
+        if (retainedTags == null) {
+            PreferenceManager prefMgr = PreferenceManager.getInstance();
+            LinkedHashSet<String> tagSet = new LinkedHashSet<String>(Arrays.asList(RETAINED_TAGS));
+            for (String key : new String[]{PreferenceManager.SAM_COLOR_BY_TAG, PreferenceManager.SAM_GROUP_BY_TAG,
+                    PreferenceManager.SAM_LINK_TAG}) {
+                String tag = prefMgr.get(key);
+                if (tag != null && tag.trim().length() > 0) {
+                    tagSet.add(tag.trim());
+                }
+            }
+            retainedTags = tagSet.toArray(new String[tagSet.size()]);
+        }
+        tags = retainedTags;
+        tagColumns = new IntArrayList[tags.length];
+    }
+
+    /**
+     * Copy the alignment into the store.
+     *
+     * @return a view of the stored alignment
+     */
+    public CompactAlignment add(Alignment alignment) {
+
+        final int idx = size;
+
+        starts.add(alignment.getStart());
+        ends.add(alignment.getEnd());
+        alignmentStarts.add(alignment.getAlignmentStart());
+        alignmentEnds.add(alignment.getAlignmentEnd());
+        insertSizes.add(alignment.getInferredInsertSize());
+        chrs.add(intern(alignment.getChr()));
+        pairOrientations.add(intern(alignment.getPairOrientation()));
+        readGroups.add(internReadGroup(alignment.getReadGroup(), alignment.getSample(), alignment.getLibrary()));
+
+        int f = 0;
+        if (alignment.isPaired()) f |= PAIRED;
+        if (alignment.isProperPair()) f |= PROPER_PAIR;
+        if (alignment.isNegativeStrand()) f |= NEGATIVE_STRAND;
+        if (alignment.isFirstOfPair()) f |= FIRST_OF_PAIR;
+        if (alignment.isSecondOfPair()) f |= SECOND_OF_PAIR;
+        if (!alignment.isPrimary()) f |= SECONDARY;
+        if (alignment.isVendorFailedRead()) f |= VENDOR_FAILED;
+        if (alignment.isDuplicate()) f |= DUPLICATE;
+        if (alignment.isSupplementary()) f |= SUPPLEMENTARY;
+
+        ReadMate mate = alignment.getMate();
+        if (mate != null) {
+            f |= HAS_MATE;
+            if (!mate.isMapped()) f |= MATE_UNMAPPED;
+            if (mate.isNegativeStrand()) f |= MATE_NEGATIVE_STRAND;
+            mateChrs.add(intern(mate.getChr()));
+            mateStarts.add(mate.getStart());
+        } else {
+            mateChrs.add(-1);
+            mateStarts.add(0);
+        }
+
+        f |= strandOrdinal(alignment.getFirstOfPairStrand()) << FOP_STRAND_SHIFT;
+        f |= strandOrdinal(alignment.getSecondOfPairStrand()) << SOP_STRAND_SHIFT;
+        f |= Math.max(0, Math.min(255, alignment.getMappingQuality())) << MAPQ_SHIFT;
+        flags.add(f);
+
+        nameOffsets.add(text.size());
+        addText(alignment.getReadName());
+        cigarOffsets.add(text.size());
+        addText(alignment.getCigarString());
+
+        blockOffsets.add(blockStarts.size());
+        addBlocks(alignment.getAlignmentBlocks());
+        insertionOffsets.add(blockStarts.size());
+        addBlocks(alignment.getInsertions());
+
+        gapOffsets.add(gapStarts.size());
+        List<Gap> gaps = alignment.getGaps();
+        if (gaps != null) {
+            for (Gap gap : gaps) {
+                gapStarts.add(gap.getStart());
+                gapLengths.add(gap.getnBases());
+                gapTypes.add(gap.getType());
+                if (gap instanceof SpliceGap) {
+                    gapFlankingLeft.add(((SpliceGap) gap).getFlankingLeft());
+                    gapFlankingRight.add(((SpliceGap) gap).getFlankingRight());
+                } else {
+                    gapFlankingLeft.add(-1);
+                    gapFlankingRight.add(-1);
+                }
+            }
+        }
+
+        for (int t = 0; t < tags.length; t++) {
+            Object value = alignment.getAttribute(tags[t]);
+            if (value != null) {
+                if (tagColumns[t] == null) {
+                    tagColumns[t] = new IntArrayList();
+                }
+                tagColumns[t].set(idx, internTagValue(value) + 1);
+            }
+        }
+
+        Color color = alignment.getColor();
+        if (color != null) {
+            colors.put(idx, color);
+        }
+
+        size++;
+        return new CompactAlignment(this, idx);
+    }
+
+    /**
+     * Copy the given alignments,  which must be views of this store,  into a new store and replace them in the list
+     * with views of the copy.  Called after downsampling,  so that reads which were replaced in the sampling
+     * reservoir do not keep taking space.  The new store is trimmed.
+     *
+     * @return the new store
+     */
+    public CompactAlignmentStore compact(List<Alignment> alignments) {
+        CompactAlignmentStore copy = new CompactAlignmentStore(alignments.size(), tags);
+        for (ListIterator<Alignment> iter = alignments.listIterator(); iter.hasNext(); ) {
+            iter.set(copy.add(iter.next()));
+        }
+        copy.trimToSize();
+        return copy;
+    }
+
+    /**
+     * Release unused capacity.  Called when the tile is complete.
+     */
+    public void trimToSize() {
+        for (IntArrayList column : new IntArrayList[]{starts, ends, alignmentStarts, alignmentEnds, flags,
+                insertSizes, chrs, mateChrs, mateStarts, pairOrientations, readGroups, nameOffsets, cigarOffsets,
+                blockOffsets, insertionOffsets, gapOffsets, blockStarts, blockLengths, blockBaseOffsets,
+                gapStarts, gapLengths, gapTypes, gapFlankingLeft, gapFlankingRight}) {
+            column.trimToSize();
+        }
+        for (IntArrayList column : tagColumns) {
+            if (column != null) column.trimToSize();
+        }
+        blockFlags.trimToSize();
+        text.trimToSize();
+        bases.trimToSize();
+        qualities.trimToSize();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return an estimate of the heap used by the store,  excluding the views
+     */
+    public long getSizeInBytes() {
+        long bytes = 16L * 4 * size + 5L * 4 * blockStarts.size() + 5L * 4 * gapStarts.size() +
+                text.size() + bases.size() + qualities.size();
+        if (pixelStarts != null) {
+            bytes += 2L * 4 * pixelStarts.size();
+        }
+        for (IntArrayList column : tagColumns) {
+            if (column != null) bytes += 4L * column.size();
+        }
+        return bytes;
+    }
+
+    private void addText(String s) {
+        if (s != null) {
+            int len = s.length();
+            for (int i = 0; i < len; i++) {
+                text.add((byte) s.charAt(i));
+            }
+        }
+    }
+
+    private String getText(int offset, int end) {
+        int len = end - offset;
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i++) {
+            chars[i] = (char) (text.get(offset + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private void addBlocks(AlignmentBlock[] blocks) {
+        if (blocks == null) return;
+        for (AlignmentBlock block : blocks) {
+            blockStarts.add(block.getStart());
+            blockLengths.add(block.getLength());
+            blockFlags.add(block.isSoftClipped() ? SOFT_CLIPPED : 0);
+            byte[] b = block.hasBases() ? block.getBases() : null;
+            if (b == null) {
+                blockBaseOffsets.add(-1);
+            } else {
+                blockBaseOffsets.add(bases.size());
+                bases.addAll(b);
+                byte[] q = block.getQualities();
+                for (int i = 0; i < b.length; i++) {
+                    qualities.add(q != null && i < q.length ? q[i] : (byte) 126);
+                }
+            }
+        }
+    }
+
+    private int intern(String s) {
+        if (s == null) return -1;
+        Integer idx = stringIndex.get(s);
+        if (idx == null) {
+            idx = strings.size();
+            strings.add(s);
+            stringIndex.put(s, idx);
+        }
+        return idx;
+    }
+
+    private String getString(int idx) {
+        return idx < 0 ? null : strings.get(idx);
+    }
+
+    private int internReadGroup(String readGroup, String sample, String library) {
+        if (readGroup == null && sample == null && library == null) return -1;
+        List<String> key = Arrays.asList(readGroup, sample, library);
+        Integer idx = readGroupIndex.get(key);
+        if (idx == null) {
+            idx = readGroupInfo.size();
+            readGroupInfo.add(new String[]{readGroup, sample, library});
+            readGroupIndex.put(key, idx);
+        }
+        return idx;
+    }
+
+    private int internTagValue(Object value) {
+        Integer idx = tagValueIndex.get(value);
+        if (idx == null) {
+            idx = tagValues.size();
+            tagValues.add(value);
+            tagValueIndex.put(value, idx);
+        }
+        return idx;
+    }
+
+    private static int strandOrdinal(Strand strand) {
+        return strand == null ? Strand.NONE.ordinal() : strand.ordinal();
+    }
+
+    private int nextOffset(IntArrayList offsets, int idx, int total) {
+        return idx + 1 < size ? offsets.get(idx + 1) : total;
+    }
+
+    private int blockEnd(int idx) {
+        return nextOffset(blockOffsets, idx, blockStarts.size());
+    }
+
+    private AlignmentBlock[] getBlocks(int from, int to) {
+        if (from == to) {
+            return NO_BLOCKS;
+        }
+        AlignmentBlock[] blocks = new AlignmentBlock[to - from];
+        for (int i = from; i < to; i++) {
+            blocks[i - from] = new CompactAlignmentBlock(this, i);
+        }
+        return blocks;
+    }
+
+    private void setPixelRange(int blockIdx, int s, int e) {
+        if (pixelStarts == null) {
+            pixelStarts = new IntArrayList(blockStarts.size());
+            pixelEnds = new IntArrayList(blockStarts.size());
+        }
+        pixelStarts.set(blockIdx, s);
+        pixelEnds.set(blockIdx, e);
+    }
+
+    private boolean containsPixel(int blockIdx, int x) {
+        if (pixelStarts == null || blockIdx >= pixelStarts.size()) return false;
+        return x >= pixelStarts.get(blockIdx) && x <= pixelEnds.get(blockIdx);
+    }
+
+
+    /**
+     * View of a single alignment in a {@link CompactAlignmentStore}.
+     */
+    public static class CompactAlignment implements Alignment {
+
+        private final CompactAlignmentStore store;
+        private final int index;
+
+        // Created on first use,  they are requested on every repaint
+        private AlignmentBlock[] blocks;
+        private AlignmentBlock[] insertions;
+
+        CompactAlignment(CompactAlignmentStore store, int index) {
+            this.store = store;
+            this.index = index;
+        }
+
+        private int flags() {
+            return store.flags.get(index);
+        }
+
+        private boolean isSet(int flag) {
+            return (store.flags.get(index) & flag) != 0;
+        }
+
+        public String getReadName() {
+            return store.getText(store.nameOffsets.get(index), store.cigarOffsets.get(index));
+        }
+
+        /**
+         * Return the sequence of the blocks and insertions of this alignment.  Soft clipped bases are only
+         * included if they were displayed when the alignment was loaded.
+         */
+        public String getReadSequence() {
+            int blockStart = store.blockOffsets.get(index);
+            int insertionStart = store.insertionOffsets.get(index);
+            int insertionEnd = store.blockEnd(index);
+            StringBuilder buf = new StringBuilder();
+            int ins = insertionStart;
+            for (int b = blockStart; b < insertionStart; b++) {
+                while (ins < insertionEnd && store.blockStarts.get(ins) <= store.blockStarts.get(b)) {
+                    appendBases(buf, ins++);
+                }
+                appendBases(buf, b);
+            }
+            while (ins < insertionEnd) {
+                appendBases(buf, ins++);
+            }
+            return buf.toString();
+        }
+
+        private void appendBases(StringBuilder buf, int blockIdx) {
+            int offset = store.blockBaseOffsets.get(blockIdx);
+            if (offset >= 0) {
+                int len = store.blockLengths.get(blockIdx);
+                for (int i = 0; i < len; i++) {
+                    buf.append((char) store.bases.get(offset + i));
+                }
+            }
+        }
+
+        public String getChr() {
+            return store.getString(store.chrs.get(index));
+        }
+
+        @Override
+        public String getContig() {
+            return getChr();
+        }
+
+        public int getStart() {
+            return store.starts.get(index);
+        }
+
+        public void setStart(int start) {
+            store.starts.set(index, start);
+        }
+
+        public int getEnd() {
+            return store.ends.get(index);
+        }
+
+        public void setEnd(int end) {
+            store.ends.set(index, end);
+        }
+
+        public int getAlignmentStart() {
+            return store.alignmentStarts.get(index);
+        }
+
+        public int getAlignmentEnd() {
+            return store.alignmentEnds.get(index);
+        }
+
+        public boolean contains(double location) {
+            return location >= getStart() && location < getEnd();
+        }
+
+        public AlignmentBlock[] getAlignmentBlocks() {
+            if (blocks == null) {
+                blocks = store.getBlocks(store.blockOffsets.get(index), store.insertionOffsets.get(index));
+            }
+            return blocks;
+        }
+
+        public AlignmentBlock[] getInsertions() {
+            if (insertions == null) {
+                insertions = store.getBlocks(store.insertionOffsets.get(index), store.blockEnd(index));
+            }
+            return insertions;
+        }
+
+        public String getCigarString() {
+            int end = store.nextOffset(store.nameOffsets, index, store.text.size());
+            return store.getText(store.cigarOffsets.get(index), end);
+        }
+
+        public List<Gap> getGaps() {
+            int from = store.gapOffsets.get(index);
+            int to = store.nextOffset(store.gapOffsets, index, store.gapStarts.size());
+            if (to == from) {
+                return null;
+            }
+            List<Gap> gaps = new ArrayList<Gap>(to - from);
+            for (int i = from; i < to; i++) {
+                int start = store.gapStarts.get(i);
+                int nBases = store.gapLengths.get(i);
+                char type = (char) store.gapTypes.get(i);
+                int flankingLeft = store.gapFlankingLeft.get(i);
+                if (flankingLeft < 0) {
+                    gaps.add(new Gap(start, nBases, type));
+                } else {
+                    gaps.add(new SpliceGap(start, nBases, type, flankingLeft, store.gapFlankingRight.get(i)));
+                }
+            }
+            return gaps;
+        }
+
+        public int getInferredInsertSize() {
+            return store.insertSizes.get(index);
+        }
+
+        public int getMappingQuality() {
+            return flags() >>> MAPQ_SHIFT;
+        }
+
+        public ReadMate getMate() {
+            if (!isSet(HAS_MATE)) {
+                return null;
+            }
+            return new ReadMate(store.getString(store.mateChrs.get(index)), store.mateStarts.get(index),
+                    isSet(MATE_NEGATIVE_STRAND), isSet(MATE_UNMAPPED));
+        }
+
+        public Strand getReadStrand() {
+            return isNegativeStrand() ? Strand.NEGATIVE : Strand.POSITIVE;
+        }
+
+        public boolean isProperPair() {
+            return isSet(PROPER_PAIR);
+        }
+
+        public boolean isMapped() {
+            return true;
+        }
+
+        public boolean isPaired() {
+            return isSet(PAIRED);
+        }
+
+        public boolean isFirstOfPair() {
+            return isSet(FIRST_OF_PAIR);
+        }
+
+        public boolean isSecondOfPair() {
+            return isSet(SECOND_OF_PAIR);
+        }
+
+        public boolean isNegativeStrand() {
+            return isSet(NEGATIVE_STRAND);
+        }
+
+        public boolean isDuplicate() {
+            return isSet(DUPLICATE);
+        }
+
+        public boolean isPrimary() {
+            return !isSet(SECONDARY);
+        }
+
+        public boolean isSupplementary() {
+            return isSet(SUPPLEMENTARY);
+        }
+
+        public boolean isVendorFailedRead() {
+            return isSet(VENDOR_FAILED);
+        }
+
+        public byte getBase(double position) {
+            int blockIdx = findBlock((int) position);
+            if (blockIdx < 0) return 0;
+            int offset = store.blockBaseOffsets.get(blockIdx);
+            return offset < 0 ? 0 : store.bases.get(offset + (int) position - store.blockStarts.get(blockIdx));
+        }
+
+        public byte getPhred(double position) {
+            int blockIdx = findBlock((int) position);
+            if (blockIdx < 0) return 0;
+            int offset = store.blockBaseOffsets.get(blockIdx);
+            return offset < 0 ? 0 : store.qualities.get(offset + (int) position - store.blockStarts.get(blockIdx));
+        }
+
+        private int findBlock(int position) {
+            int to = store.insertionOffsets.get(index);
+            for (int b = store.blockOffsets.get(index); b < to; b++) {
+                int offset = position - store.blockStarts.get(b);
+                if (offset >= 0 && offset < store.blockLengths.get(b)) {
+                    return b;
+                }
+            }
+            return -1;
+        }
+
+        public Object getAttribute(String key) {
+            for (int t = 0; t < store.tags.length; t++) {
+                if (store.tags[t].equals(key)) {
+                    IntArrayList column = store.tagColumns[t];
+                    if (column == null || index >= column.size()) {
+                        return null;
+                    }
+                    int v = column.get(index);
+                    return v == 0 ? null : store.tagValues.get(v - 1);
+                }
+            }
+            return null;
+        }
+
+        public void setMateSequence(String sequence) {
+            // Not retained
+        }
+
+        public String getPairOrientation() {
+            String po = store.getString(store.pairOrientations.get(index));
+            return po == null ? "" : po;
+        }
+
+        public Strand getFirstOfPairStrand() {
+            return STRANDS[(flags() >> FOP_STRAND_SHIFT) & 0x3];
+        }
+
+        public Strand getSecondOfPairStrand() {
+            return STRANDS[(flags() >> SOP_STRAND_SHIFT) & 0x3];
+        }
+
+        public Color getColor() {
+            return store.colors.isEmpty() ? null : store.colors.get(index);
+        }
+
+        private String[] readGroupInfo() {
+            int idx = store.readGroups.get(index);
+            return idx < 0 ? null : store.readGroupInfo.get(idx);
+        }
+
+        public String getReadGroup() {
+            String[] info = readGroupInfo();
+            return info == null ? null : info[0];
+        }
+
+        public String getSample() {
+            String[] info = readGroupInfo();
+            return info == null ? null : info[1];
+        }
+
+        public String getLibrary() {
+            String[] info = readGroupInfo();
+            return info == null ? null : info[2];
+        }
+
+        public float getScore() {
+            return getMappingQuality();
+        }
+
+        public LocusScore copy() {
+            return this;
+        }
+
+        public void finish() {
+        }
+
+        public String getClipboardString(double location, int mouseX) {
+            return getValueString(location, mouseX, null);
+        }
+
+        public String getValueString(double position, int mouseX, WindowFunction windowFunction) {
+
+            for (AlignmentBlock block : getInsertions()) {
+                if (block.containsPixel(mouseX)) {
+                    return "Insertion: " + (block.hasBases() ? new String(block.getBases()) :
+                            block.getLength() + " bases");
+                }
+            }
+
+            StringBuffer buf = new StringBuffer();
+            buf.append("Read name = " + getReadName() + "<br>");
+            String sample = getSample();
+            if (sample != null) {
+                buf.append("Sample = " + sample + "<br>");
+            }
+            String library = getLibrary();
+            if (library != null) {
+                buf.append("Library = " + library + "<br>");
+            }
+            String readGroup = getReadGroup();
+            if (readGroup != null) {
+                buf.append("Read group = " + readGroup + "<br>");
+            }
+            buf.append("----------------------" + "<br>");
+            buf.append("Mapping = " + (isPrimary() ? (isSupplementary() ? "Supplementary" : "Primary") : "Secondary") +
+                    (isDuplicate() ? " Duplicate" : "") + (isVendorFailedRead() ? " Failed QC" : "") +
+                    " @ MAPQ " + Globals.DECIMAL_FORMAT.format(getMappingQuality()) + "<br>");
+            buf.append("Reference span = " + getChr() + ":" + Globals.DECIMAL_FORMAT.format(getAlignmentStart() + 1) +
+                    "-" + Globals.DECIMAL_FORMAT.format(getAlignmentEnd()) + " (" + (isNegativeStrand() ? "-" : "+") +
+                    ")<br>");
+            buf.append("Cigar = " + getCigarString() + "<br>");
+
+            if (isPaired()) {
+                ReadMate mate = getMate();
+                buf.append("----------------------" + "<br>");
+                buf.append("Mate is mapped = " + (mate != null && mate.isMapped() ? "yes" : "no") + "<br>");
+                if (mate != null && mate.isMapped()) {
+                    buf.append("Mate start = " + mate.positionString() + "<br>");
+                    buf.append("Insert size = " + getInferredInsertSize() + "<br>");
+                }
+                if (getPairOrientation().length() > 0) {
+                    buf.append("Pair orientation = " + getPairOrientation() + "<br>");
+                }
+            }
+
+            byte base = getBase(position);
+            if (base != 0) {
+                buf.append("----------------------" + "<br>");
+                buf.append("Location = " + getChr() + ":" + Globals.DECIMAL_FORMAT.format(1 + (long) position) + "<br>");
+                buf.append("Base = " + (char) base + " @ QV " + getPhred(position) + "<br>");
+            }
+            return buf.toString();
+        }
+
+        @Override
+        public String toString() {
+            return getReadName() + " " + getChr() + ":" + (getAlignmentStart() + 1) + "-" + getAlignmentEnd();
+        }
+    }
+
+
+    /**
+     * View of a single alignment block or insertion in a {@link CompactAlignmentStore}.
+     */
+    static class CompactAlignmentBlock implements AlignmentBlock {
+
+        private final CompactAlignmentStore store;
+        private final int index;
+
+        CompactAlignmentBlock(CompactAlignmentStore store, int index) {
+            this.store = store;
+            this.index = index;
+        }
+
+        public boolean contains(int position) {
+            int offset = position - getStart();
+            return offset >= 0 && offset < getLength();
+        }
+
+        public int getLength() {
+            return store.blockLengths.get(index);
+        }
+
+        public byte getBase(int offset) {
+            int baseOffset = store.blockBaseOffsets.get(index);
+            return baseOffset < 0 || offset >= getLength() ? 0 : store.bases.get(baseOffset + offset);
+        }
+
+        public byte[] getBases() {
+            int baseOffset = store.blockBaseOffsets.get(index);
+            return baseOffset < 0 ? null : store.bases.get(baseOffset, getLength());
+        }
+
+        public int getStart() {
+            return store.blockStarts.get(index);
+        }
+
+        public byte getQuality(int offset) {
+            int baseOffset = store.blockBaseOffsets.get(index);
+            return baseOffset < 0 || offset >= getLength() ? (byte) 126 : store.qualities.get(baseOffset + offset);
+        }
+
+        public byte[] getQualities() {
+            int baseOffset = store.blockBaseOffsets.get(index);
+            return baseOffset < 0 ? null : store.qualities.get(baseOffset, getLength());
+        }
+
+        public int getEnd() {
+            return getStart() + getLength();
+        }
+
+        public boolean isSoftClipped() {
+            return (store.blockFlags.get(index) & SOFT_CLIPPED) != 0;
+        }
+
+        public boolean hasBases() {
+            return store.blockBaseOffsets.get(index) >= 0;
+        }
+
+        public void setPixelRange(int s, int e) {
+            store.setPixelRange(index, s, e);
+        }
+
+        public boolean containsPixel(int x) {
+            return store.containsPixel(index, x);
+        }
+    }
+}
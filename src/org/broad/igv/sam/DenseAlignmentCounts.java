@@ -119,6 +119,55 @@ public class DenseAlignmentCounts extends BaseAlignmentCounts {
         // Noop
     }
 
+    /**
+     * Copy counts for the positions shared with {@code other}.  Used to build the counts for an interval extended
+     * by a newly loaded flank without recounting the alignments already loaded.
+     *
+     * @param other
+     */
+    void copyFrom(DenseAlignmentCounts other) {
+
+        int s = Math.max(start, other.start);
+        int e = Math.min(end, other.end);
+        if (e <= s) return;
+
+        int srcOffset = s - other.start;
+        int destOffset = s - start;
+        int n = e - s;
+        copy(other.posA, posA, srcOffset, destOffset, n);
+        copy(other.posT, posT, srcOffset, destOffset, n);
+        copy(other.posC, posC, srcOffset, destOffset, n);
+        copy(other.posG, posG, srcOffset, destOffset, n);
+        copy(other.posN, posN, srcOffset, destOffset, n);
+        copy(other.posTotal, posTotal, srcOffset, destOffset, n);
+        copy(other.negA, negA, srcOffset, destOffset, n);
+        copy(other.negT, negT, srcOffset, destOffset, n);
+        copy(other.negC, negC, srcOffset, destOffset, n);
+        copy(other.negG, negG, srcOffset, destOffset, n);
+        copy(other.negN, negN, srcOffset, destOffset, n);
+        copy(other.negTotal, negTotal, srcOffset, destOffset, n);
+        copy(other.qA, qA, srcOffset, destOffset, n);
+        copy(other.qT, qT, srcOffset, destOffset, n);
+        copy(other.qC, qC, srcOffset, destOffset, n);
+        copy(other.qG, qG, srcOffset, destOffset, n);
+        copy(other.qN, qN, srcOffset, destOffset, n);
+        copy(other.del, del, srcOffset, destOffset, n);
+        copy(other.ins, ins, srcOffset, destOffset, n);
+        copy(other.totalQ, totalQ, srcOffset, destOffset, n);
+
+        for (int offset = destOffset; offset < destOffset + n; offset++) {
+            int tmp = posTotal[offset] + negTotal[offset];
+            int maxCountInt = offset / MAX_COUNT_INTERVAL;
+            if (tmp > maxCounts[maxCountInt]) {
+                maxCounts[maxCountInt] = tmp;
+            }
+        }
+    }
+
+    private static void copy(int[] src, int[] dest, int srcOffset, int destOffset, int n) {
+        System.arraycopy(src, srcOffset, dest, destOffset, n);
+    }
+
     public int getTotalCount(int pos) {
         int offset = pos - start;
         if (offset < 0 || offset >= posA.length) {
@@ -302,8 +351,7 @@ public class DenseAlignmentCounts extends BaseAlignmentCounts {
         }
     }
 
-    protected void incrementInsertion(AlignmentBlock insBlock) {
-        int pos = insBlock.getStart();
+    protected void incrementInsertion(int pos) {
         int offset = pos - start;
         // Insertions are between bases.  increment count at position just before insertion
         if (offset >= 0 && offset < ins.length) {
@@ -27,15 +27,20 @@ package org.broad.igv.sam;
 
 //~--- non-JDK imports --------------------------------------------------------
 
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
 import org.apache.log4j.Logger;
 import org.broad.igv.PreferenceManager;
 import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.feature.Strand;
 import org.broad.igv.feature.genome.GenomeManager;
+import org.broad.igv.track.WindowFunction;
 import org.broad.igv.ui.color.ColorUtilities;
 
+import java.awt.*;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -61,8 +66,17 @@ public class PicardAlignment extends SAMAlignment implements Alignment {
     private static final int SUPPLEMENTARY_ALIGNMENT_FLAG = 0x800;
 
     private SAMReadGroupRecord readGroupRecord;
+    private boolean readGroupDecoded = false;
+    private boolean colorDecoded = false;
     private int flags;
 
+    /**
+     * Decoding happens in two stages,  see {@link #decodeBounds()} and {@link #decode()}.
+     */
+    private volatile boolean boundsDecoded = false;
+    private volatile boolean decoded = false;
+    private boolean decoding = false;
+
     /**
      * Picard object upon which this PicardAlignment is based
      */
@@ -79,12 +93,6 @@ public class PicardAlignment extends SAMAlignment implements Alignment {
         Genome genome = GenomeManager.getInstance().getCurrentGenome();
         this.chr = genome == null ? refName : genome.getCanonicalChrName(refName);
 
-        // SAMRecord is 1 based inclusive.  IGV is 0 based exclusive.
-
-        this.end = record.getAlignmentEnd();   // might be modified later for soft clipping
-        this.start = record.getAlignmentStart() - 1;   // might be modified later for soft clipping
-
-
         if (record.getReadPairedFlag()) {
             String mateReferenceName = record.getMateReferenceName();
             String mateChr = genome == null ? mateReferenceName : genome.getCanonicalChrName(mateReferenceName);
@@ -94,35 +102,273 @@ public class PicardAlignment extends SAMAlignment implements Alignment {
                     record.getMateUnmappedFlag()));
         }
 
-        SAMFileHeader header = record.getHeader();
-        String keySequence = null;
-        String flowOrder = null;
-        if (header != null) {
-            String readGroup = (String) record.getAttribute("RG");
-            if (readGroup != null) {
-                this.readGroupRecord = header.getReadGroup(readGroup);
-                if(this.readGroupRecord != null) {
-                    keySequence = this.readGroupRecord.getKeySequence();
-                    flowOrder = this.readGroupRecord.getFlowOrder();
+        // Everything else is decoded on first use.  Until then only the fixed fields of the record (position,
+        // flags, mapping quality, mate) have been read,  so reads dropped by the loader's filters never pay for
+        // building alignment blocks and reads that are not displayed never decode their tags.
+    }      // End constructor
+
+    /**
+     * Compute the soft clipped bounds,  pair orientation and strands.  These are needed to pack every retained
+     * read,  but unlike the alignment blocks only require a pass over the cigar.
+     */
+    private void decodeBounds() {
+        if (boundsDecoded) {
+            return;
+        }
+        synchronized (this) {
+            if (boundsDecoded || decoding) {
+                return;
+            }
+            decoding = true;
+            try {
+                // SAMRecord is 1 based inclusive.  IGV is 0 based exclusive.
+                this.end = record.getAlignmentEnd();
+                this.start = record.getAlignmentStart() - 1;
+
+                Cigar cigar = record.getCigar();
+                if (cigar != null && !cigar.isEmpty() && prefMgr.getAsBoolean(PreferenceManager.SAM_SHOW_SOFT_CLIPPED)) {
+                    // Same adjustments as createAlignmentBlocks:  leading soft clips (ignoring hard clips and
+                    // padding) extend the start,  a soft clip as the last operator extends the end
+                    List<CigarElement> elements = cigar.getCigarElements();
+                    for (CigarElement element : elements) {
+                        htsjdk.samtools.CigarOperator op = element.getOperator();
+                        if (op == htsjdk.samtools.CigarOperator.S) {
+                            this.start -= element.getLength();
+                        } else if (op != htsjdk.samtools.CigarOperator.H && op != htsjdk.samtools.CigarOperator.P) {
+                            break;
+                        }
+                    }
+                    for (int i = elements.size() - 1; i >= 0; i--) {
+                        htsjdk.samtools.CigarOperator op = elements.get(i).getOperator();
+                        if (op == htsjdk.samtools.CigarOperator.S) {
+                            this.end += elements.get(i).getLength();
+                        } else if (op != htsjdk.samtools.CigarOperator.P) {
+                            break;
+                        }
+                    }
                 }
+
+                setPairOrientation();
+                setPairStrands();
+            } finally {
+                decoding = false;
+                boundsDecoded = true;
             }
         }
+    }
 
-        Object colorTag = record.getAttribute("YC");
-        if (colorTag != null) {
+    /**
+     * Build the alignment blocks,  insertions and gaps.  Reads that are only counted for coverage,  or are never
+     * rendered or clicked on,  skip this entirely,  see {@link #incCounts(BaseAlignmentCounts)}.
+     */
+    private void decode() {
+        if (decoded) {
+            return;
+        }
+        decodeBounds();
+        synchronized (this) {
+            // The builders call back into overridden accessors,  ignore those calls while decoding
+            if (decoded || decoding) {
+                return;
+            }
+            decoding = true;
             try {
-                color = ColorUtilities.stringToColor(colorTag.toString(), null);
-            } catch (Exception e) {
-                log.error("Error interpreting color tag: " + colorTag, e);
+                // Build from the cigar elements rather than the CIGAR string,  for BAM records this skips formatting
+                // the binary cigar to text only to parse it again
+                Cigar cigar = record.getCigar();
+                List<CigarOperator> operators = (cigar == null || cigar.isEmpty()) ? null : buildOperators(cigar);
+
+                // Blocks are positioned from the record.  The bounds were set by decodeBounds and other threads may
+                // be reading them without the lock,  so they are not touched here.
+                int blockStart = record.getAlignmentStart() - 1;
+                if (operators != null && prefMgr.getAsBoolean(PreferenceManager.SAM_SHOW_SOFT_CLIPPED)) {
+                    blockStart -= getLeadingSoftClipCount(operators);
+                }
+                createAlignmentBlocks(operators, record.getReadBases(), record.getBaseQualities(), blockStart);
+            } finally {
+                decoding = false;
+                decoded = true;
             }
         }
+    }
 
-        setPairOrientation();
-        setPairStrands();
-        createAlignmentBlocks(record.getCigarString(), record.getReadBases(), record.getBaseQualities());
+    /**
+     * Increment coverage counts directly from the record,  without building alignment blocks.  This walks the cigar
+     * exactly as createAlignmentBlocks and BaseAlignmentCounts.incCounts do,  skipping soft clips which are not
+     * counted.
+     *
+     * @return false if the blocks have already been built,  or the read has no cigar,  in which case the caller
+     * should count from the blocks
+     */
+    boolean incCounts(BaseAlignmentCounts counts) {
 
+        Cigar cigar = record.getCigar();
+        if (decoded || cigar == null || cigar.isEmpty()) {
+            return false;
+        }
 
-    }      // End constructor
+        boolean countBases = getReadStrand() != Strand.NONE;
+        boolean isNegativeStrand = isNegativeStrand();
+        boolean showSoftClipped = prefMgr.getAsBoolean(PreferenceManager.SAM_SHOW_SOFT_CLIPPED);
+        byte[] readBases = record.getReadBases();
+        byte[] readBaseQualities = record.getBaseQualities();
+
+        int blockStart = record.getAlignmentStart() - 1;
+        int fromIdx = 0;
+        boolean firstOperator = true;
+        for (CigarElement element : cigar.getCigarElements()) {
+            char op = (char) htsjdk.samtools.CigarOperator.enumToCharacter(element.getOperator());
+            int nBases = element.getLength();
+            if (op == HARD_CLIP || op == PADDING) {
+                continue;
+            }
+            if (op == SOFT_CLIP) {
+                if (firstOperator) {
+                    fromIdx += nBases;
+                } else if (showSoftClipped) {
+                    fromIdx += nBases;
+                    blockStart += nBases;
+                }
+                continue;
+            }
+            firstOperator = false;
+
+            if (op == MATCH || op == PERFECT_MATCH || op == MISMATCH) {
+                if (countBases) {
+                    counts.incBlockCounts(blockStart, readBases, readBaseQualities, fromIdx, nBases, isNegativeStrand);
+                }
+                fromIdx += nBases;
+                blockStart += nBases;
+            } else if (op == DELETION) {
+                for (int pos = blockStart; pos < blockStart + nBases; pos++) {
+                    counts.incrementDeletion(pos, isNegativeStrand);
+                }
+                blockStart += nBases;
+            } else if (op == SKIPPED_REGION) {
+                blockStart += nBases;
+            } else if (op == INSERTION) {
+                if (blockStart + nBases >= counts.getStart() && blockStart <= counts.getEnd()) {
+                    counts.incrementInsertion(blockStart);
+                }
+                fromIdx += nBases;
+            }
+        }
+        return true;
+    }
+
+    private synchronized SAMReadGroupRecord getReadGroupRecord() {
+        if (!readGroupDecoded) {
+            SAMFileHeader header = record.getHeader();
+            if (header != null) {
+                String readGroup = (String) record.getAttribute("RG");
+                if (readGroup != null) {
+                    this.readGroupRecord = header.getReadGroup(readGroup);
+                }
+            }
+            readGroupDecoded = true;
+        }
+        return readGroupRecord;
+    }
+
+    @Override
+    public synchronized Color getColor() {
+        if (!colorDecoded) {
+            Object colorTag = record.getAttribute("YC");
+            if (colorTag != null) {
+                try {
+                    color = ColorUtilities.stringToColor(colorTag.toString(), null);
+                } catch (Exception e) {
+                    log.error("Error interpreting color tag: " + colorTag, e);
+                }
+            }
+            colorDecoded = true;
+        }
+        return color;
+    }
+
+    @Override
+    public AlignmentBlock[] getAlignmentBlocks() {
+        decode();
+        return super.getAlignmentBlocks();
+    }
+
+    @Override
+    public AlignmentBlockImpl[] getInsertions() {
+        decode();
+        return super.getInsertions();
+    }
+
+    @Override
+    public List<Gap> getGaps() {
+        decode();
+        return super.getGaps();
+    }
+
+    @Override
+    public int getStart() {
+        decodeBounds();
+        return super.getStart();
+    }
+
+    @Override
+    public void setStart(int start) {
+        decodeBounds();
+        super.setStart(start);
+    }
+
+    @Override
+    public int getEnd() {
+        decodeBounds();
+        return super.getEnd();
+    }
+
+    @Override
+    public void setEnd(int end) {
+        decodeBounds();
+        super.setEnd(end);
+    }
+
+    @Override
+    public byte getBase(double position) {
+        decode();
+        return super.getBase(position);
+    }
+
+    @Override
+    public byte getPhred(double position) {
+        decode();
+        return super.getPhred(position);
+    }
+
+    @Override
+    public String getPairOrientation() {
+        decodeBounds();
+        return super.getPairOrientation();
+    }
+
+    @Override
+    public Strand getFirstOfPairStrand() {
+        decodeBounds();
+        return super.getFirstOfPairStrand();
+    }
+
+    @Override
+    public Strand getSecondOfPairStrand() {
+        decodeBounds();
+        return super.getSecondOfPairStrand();
+    }
+
+    @Override
+    public String getClipboardString(double location, int mouseX) {
+        decode();
+        return super.getClipboardString(location, mouseX);
+    }
+
+    @Override
+    public String getValueString(double position, int mouseX, WindowFunction windowFunction) {
+        decode();
+        return super.getValueString(position, mouseX, windowFunction);
+    }
 
     /**
      * @return The SAMRecord which created this PicardAlignment
@@ -207,6 +453,12 @@ public class PicardAlignment extends SAMAlignment implements Alignment {
         return record.getCigarString();
     }
 
+    @Override
+    public int[] getClipping() {
+        Cigar cigar = record.getCigar();
+        return cigar == null ? new int[4] : getClipping(cigar);
+    }
+
     @Override
     public int getReadLength() {
         return record.getReadString().length();
@@ -296,14 +548,17 @@ public class PicardAlignment extends SAMAlignment implements Alignment {
     }
 
     public String getSample() {
+        SAMReadGroupRecord readGroupRecord = getReadGroupRecord();
         return readGroupRecord == null ? null : readGroupRecord.getSample();
     }
 
     public String getReadGroup() {
+        SAMReadGroupRecord readGroupRecord = getReadGroupRecord();
         return readGroupRecord == null ? null : readGroupRecord.getId();
     }
 
     public String getLibrary() {
+        SAMReadGroupRecord readGroupRecord = getReadGroupRecord();
         return readGroupRecord == null ? null : readGroupRecord.getLibrary();
     }
 }
@@ -29,6 +29,8 @@
  */
 package org.broad.igv.sam;
 
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
 import org.broad.igv.PreferenceManager;
@@ -240,16 +242,47 @@ public abstract class SAMAlignment implements Alignment {
      * @param flowOrderStart
      */
     protected void createAlignmentBlocks(String cigarString, byte[] readBases, byte[] readBaseQualities) {
+        createAlignmentBlocks(cigarString.equals("*") ? null : buildOperators(cigarString), readBases, readBaseQualities);
+    }
+
+    /**
+     * Create the alignment blocks from a list of cigar operators,  as returned by one of the
+     * {@code buildOperators} methods.  Start and end are extended to include soft clipped bases if they are shown.
+     *
+     * @param operators         the cigar operators,  null if the read has no CIGAR ("*")
+     * @param readBases
+     * @param readBaseQualities
+     */
+    protected void createAlignmentBlocks(List<CigarOperator> operators, byte[] readBases, byte[] readBaseQualities) {
 
-        if (cigarString.equals("*")) {
+        if (operators != null && PreferenceManager.getInstance().getAsBoolean(PreferenceManager.SAM_SHOW_SOFT_CLIPPED)) {
+            start -= getLeadingSoftClipCount(operators);
+            CigarOperator last = operators.get(operators.size() - 1);
+            if (last.operator == SOFT_CLIP) {
+                end += last.nBases;
+            }
+        }
+        createAlignmentBlocks(operators, readBases, readBaseQualities, operators == null ? getStart() : start);
+    }
+
+    /**
+     * Create the alignment blocks from a list of cigar operators,  without changing start or end.
+     *
+     * @param operators         the cigar operators,  null if the read has no CIGAR ("*")
+     * @param readBases
+     * @param readBaseQualities
+     * @param blockStart        start of the first block,  i.e. the alignment start extended to include leading
+     *                          soft clipped bases if they are shown
+     */
+    protected void createAlignmentBlocks(List<CigarOperator> operators, byte[] readBases, byte[] readBaseQualities,
+                                         int blockStart) {
+
+        if (operators == null) {
             alignmentBlocks = new AlignmentBlockImpl[1];
-            alignmentBlocks[0] = new AlignmentBlockImpl(getStart(), readBases, readBaseQualities);
+            alignmentBlocks[0] = new AlignmentBlockImpl(blockStart, readBases, readBaseQualities);
             return;
         }
 
-        // Create list of cigar operators
-        java.util.List<CigarOperator> operators = buildOperators(cigarString);
-
         boolean showSoftClipped = PreferenceManager.getInstance().getAsBoolean(PreferenceManager.SAM_SHOW_SOFT_CLIPPED);
 
         int nInsertions = 0;
@@ -300,12 +333,7 @@ public abstract class SAMAlignment implements Alignment {
             gaps = new ArrayList<Gap>();
         }
 
-        // Adjust start to include soft clipped bases a
-        if (showSoftClipped) {
-            start -= softClippedBaseCount;
-        }
         int fromIdx = showSoftClipped ? 0 : softClippedBaseCount;
-        int blockStart = start;
 
         // Create blocks
         int blockIdx = 0;
@@ -374,14 +402,21 @@ public abstract class SAMAlignment implements Alignment {
             }
             prevOp = op.operator;
         }
+    }
 
-        // Check for soft clipping at end
-        if (showSoftClipped && operators.size() > 0) {
-            CigarOperator last = operators.get(operators.size() - 1);
-            if (last.operator == SOFT_CLIP) {
-                end += last.nBases;
+    /**
+     * @return the number of soft clipped bases before the first aligned base,  ignoring hard clips
+     */
+    protected static int getLeadingSoftClipCount(List<CigarOperator> operators) {
+        int count = 0;
+        for (CigarOperator op : operators) {
+            if (op.operator == SOFT_CLIP) {
+                count += op.nBases;
+            } else if (op.operator != HARD_CLIP) {
+                break;
             }
         }
+        return count;
     }
 
 
@@ -424,6 +459,38 @@ public abstract class SAMAlignment implements Alignment {
 
     }
 
+    /**
+     * Build a list of cigar operators directly from htsjdk cigar elements,  avoiding the format / parse round trip
+     * through the CIGAR string.  As with {@link #buildOperators(String)} padding operators are removed and
+     * consecutive operators of the same type concatenated.
+     *
+     * @param cigar
+     * @return
+     */
+    public static List<CigarOperator> buildOperators(Cigar cigar) {
+
+        List<CigarElement> elements = cigar.getCigarElements();
+        List<CigarOperator> operators = new ArrayList<CigarOperator>(elements.size());
+
+        CigarOperator prevOp = null;
+        for (int i = 0; i < elements.size(); i++) {
+            CigarElement element = elements.get(i);
+            char op = (char) htsjdk.samtools.CigarOperator.enumToCharacter(element.getOperator());
+            int nBases = element.getLength();
+
+            if (op == PADDING) {
+                // Just skip padding for now
+                continue;
+            } else if (prevOp != null && prevOp.operator == op) {
+                prevOp.nBases += nBases;
+            } else {
+                prevOp = new CigarOperator(nBases, op);
+                operators.add(prevOp);
+            }
+        }
+        return operators;
+    }
+
     private static AlignmentBlockImpl buildAlignmentBlock(byte[] readBases, byte[] readBaseQualities, int blockStart,
                                                           int fromIdx, int nBases, boolean checkNBasesAvailable) {
 
@@ -912,7 +979,7 @@ public abstract class SAMAlignment implements Alignment {
         String numMismatches = nm == null ? "?" : nm.toString();
         int lenOnRef = getAlignmentEnd() - getAlignmentStart();
 
-        int[] clipping = getClipping(getCigarString());
+        int[] clipping = getClipping();
         String clippingString = "";
         if (clipping[0] + clipping[1] + clipping[2] + clipping[3] > 0) {
             if (clipping[0] > 0) clippingString += clipping[0] + "H";
@@ -930,6 +997,42 @@ public abstract class SAMAlignment implements Alignment {
     }
 
 
+    /**
+     * @return the number of hard and soft clipped bases at each end of this alignment,  in the order
+     * {left hard, left soft, right hard, right soft}
+     */
+    public int[] getClipping() {
+        return getClipping(getCigarString());
+    }
+
+    /**
+     * Count hard and soft clipped bases at each end of an alignment from its cigar elements.
+     *
+     * @param cigar
+     * @return {left hard, left soft, right hard, right soft}
+     */
+    public static int[] getClipping(Cigar cigar) {
+        List<CigarElement> elements = cigar.getCigarElements();
+        int lclipHard = 0, lclipSoft = 0, rclipHard = 0, rclipSoft = 0;
+        int n = elements.size();
+        int i = 0;
+        if (i < n && elements.get(i).getOperator() == htsjdk.samtools.CigarOperator.H) {
+            lclipHard = elements.get(i++).getLength();
+        }
+        if (i < n && elements.get(i).getOperator() == htsjdk.samtools.CigarOperator.S) {
+            lclipSoft = elements.get(i++).getLength();
+        }
+        // Matching the string version,  a read that is entirely clipped reports its clipping on both ends
+        int j = n - 1;
+        if (j >= 0 && elements.get(j).getOperator() == htsjdk.samtools.CigarOperator.H) {
+            rclipHard = elements.get(j--).getLength();
+        }
+        if (j >= 0 && elements.get(j).getOperator() == htsjdk.samtools.CigarOperator.S) {
+            rclipSoft = elements.get(j).getLength();
+        }
+        return new int[]{lclipHard, lclipSoft, rclipHard, rclipSoft};
+    }
+
     public static int[] getClipping(String cigarString) {
         // Identify the number of hard and soft clipped bases.
         Matcher lclipMatcher = Pattern.compile("^(([0-9]+)H)?(([0-9]+)S)?").matcher(cigarString);
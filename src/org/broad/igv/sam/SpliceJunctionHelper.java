@@ -62,6 +62,28 @@ public class SpliceJunctionHelper {
         this.loadOptions = loadOptions;
     }
 
+    /**
+     * Create a helper with copies of the junctions of {@code other} which overlap {@code start - end},  including
+     * their flanking regions.  Reads added to this helper do not change {@code other}.
+     */
+    public SpliceJunctionHelper(SpliceJunctionHelper other, int start, int end) {
+        this.loadOptions = other.loadOptions;
+        copyJunctions(other.posStartEndJunctionsMap, posStartEndJunctionsMap, start, end);
+        copyJunctions(other.negStartEndJunctionsMap, negStartEndJunctionsMap, start, end);
+    }
+
+    private void copyJunctions(Table<Integer, Integer, SpliceJunctionFeature> from,
+                               Table<Integer, Integer, SpliceJunctionFeature> to, int start, int end) {
+        for (Table.Cell<Integer, Integer, SpliceJunctionFeature> cell : from.cellSet()) {
+            SpliceJunctionFeature junction = cell.getValue();
+            if (junction.getEnd() > start && junction.getStart() < end) {
+                junction = new SpliceJunctionFeature(junction);
+                to.put(cell.getRowKey(), cell.getColumnKey(), junction);
+                allSpliceJunctionFeatures.add(junction);
+            }
+        }
+    }
+
     public List<SpliceJunctionFeature> getFilteredJunctions(SpliceJunctionTrack.StrandOption strandOption) {
 
         List<SpliceJunctionFeature> junctions;
@@ -37,7 +37,11 @@ import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.HttpUtils;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.stream.IGVSeekableBufferedStream;
+import org.broad.igv.util.stream.IGVSeekableCachedStream;
+import org.broad.igv.util.stream.IGVSeekableHTTPStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+import org.broad.igv.util.stream.ParallelBlockCompressedInputStream;
+import org.broad.igv.util.stream.RemoteBlockCache;
 
 import java.io.*;
 import java.net.MalformedURLException;
@@ -61,6 +65,17 @@ public class BAMReader implements AlignmentReader<PicardAlignment> {
     List<String> sequenceNames;
     private boolean indexed = false; // False until proven otherwise
 
+    /**
+     * Maximum compressed size of a BGZF block
+     */
+    private static final int MAX_BGZF_BLOCK_SIZE = 0x10000;
+
+    /**
+     * Underlying stream for remote BAM files read through the block cache (on disk or in memory),  used to
+     * prefetch query ranges
+     */
+    private IGVSeekableCachedStream cachedStream;
+
     public BAMReader(ResourceLocator locator, boolean requireIndex) throws IOException {
         this.locator = locator;
         reader = getSamReader(locator, requireIndex);
@@ -86,11 +101,20 @@ public class BAMReader implements AlignmentReader<PicardAlignment> {
         SamInputResource resource;
 
         if (isLocal) {
-            resource = SamInputResource.of(new File(locator.getPath()));
+            File file = new File(locator.getPath());
+            if (requireIndex && IGVSeekableStreamFactory.isMemoryMapEnabled() && file.isFile()) {
+                resource = SamInputResource.of(IGVSeekableStreamFactory.getInstance().getStreamFor(file.getAbsolutePath()));
+            } else {
+                resource = SamInputResource.of(file);
+            }
         } else {
             URL url = new URL(locator.getPath());
             if (requireIndex) {
-                resource = SamInputResource.of(new IGVSeekableBufferedStream(IGVSeekableStreamFactory.getInstance().getStreamFor(url), 128000));
+                SeekableStream stream = getRemoteStream(url);
+                if (stream instanceof IGVSeekableCachedStream) {
+                    cachedStream = (IGVSeekableCachedStream) stream;
+                }
+                resource = SamInputResource.of(new IGVSeekableBufferedStream(stream, 128000));
             } else {
                 resource = SamInputResource.of(HttpUtils.getInstance().openConnectionStream(url));
             }
@@ -159,14 +183,103 @@ public class BAMReader implements AlignmentReader<PicardAlignment> {
 
 
     public CloseableIterator<PicardAlignment> iterator() {
+        if (isPipelined() && locator.isLocal()) {
+            try {
+                SeekableStream stream = IGVSeekableStreamFactory.getInstance().getStreamFor(locator.getPath());
+                return new WrappedIterator(PipelinedBAMIterator.iterate(getFileHeader(),
+                        IGVSeekableStreamFactory.getInstance().getBufferedStream(stream)));
+            } catch (IOException e) {
+                log.error("Error opening " + locator.getPath() + ",  reading without parallel inflation", e);
+            }
+        }
         return new WrappedIterator(reader.iterator());
     }
 
+    /**
+     * Open a stream on a remote BAM file that reads through the block cache,  so query ranges can be prefetched.
+     * Other formats are not prefetched,  and get the factory's stream.
+     */
+    private SeekableStream getRemoteStream(URL url) throws IOException {
+        SeekableStream stream = IGVSeekableStreamFactory.getInstance().getStreamFor(url);
+        if (stream instanceof IGVSeekableHTTPStream && isBAMPath(url.getPath())) {
+            stream = RemoteBlockCache.getInstance().getMemoryCachedStream(url, stream);
+        }
+        return stream;
+    }
+
+    private static boolean isBAMPath(String path) {
+        return path.toLowerCase().endsWith(".bam");
+    }
+
     public CloseableIterator<PicardAlignment> query(String sequence, int start, int end, boolean contained) {
+        if (cachedStream != null && indexed && reader.type() == SamReader.Type.BAM_TYPE) {
+            prefetch(sequence, start, end);
+        }
+        if (isPipelined() && indexed) {
+            int refIndex = getFileHeader().getSequenceIndex(sequence);
+            BAMFileSpan span = refIndex < 0 ? null : getSpanOverlapping(refIndex, start, end);
+            if (span != null) {
+                try {
+                    // Remote streams read through the same block cache as cachedStream,  i.e. the prefetched blocks
+                    SeekableStream stream = locator.isLocal() ?
+                            IGVSeekableStreamFactory.getInstance().getStreamFor(locator.getPath()) :
+                            getRemoteStream(new URL(locator.getPath()));
+                    return new WrappedIterator(PipelinedBAMIterator.query(getFileHeader(),
+                            IGVSeekableStreamFactory.getInstance().getBufferedStream(stream),
+                            span, refIndex, start + 1, end, contained));
+                } catch (IOException e) {
+                    log.error("Error opening " + locator.getPath() + ",  reading without parallel inflation", e);
+                }
+            }
+        }
         CloseableIterator<SAMRecord> iter = reader.query(sequence, start + 1, end, contained);
         return new WrappedIterator(iter);
     }
 
+    /**
+     * @return true if BGZF blocks are inflated on the worker pool,  see {@link ParallelBlockCompressedInputStream}.
+     * Only BAM files are read this way,  CRAM and SAM files are read by htsjdk.
+     */
+    private boolean isPipelined() {
+        return ParallelBlockCompressedInputStream.isEnabled() && reader.type() == SamReader.Type.BAM_TYPE;
+    }
+
+    /**
+     * @return the index chunks for the interval (0-based start),  or null if not available
+     */
+    private BAMFileSpan getSpanOverlapping(int refIndex, int start, int end) {
+        BAMIndex index = reader.indexing().getIndex();
+        return index.getSpanOverlapping(refIndex, start + 1, end);
+    }
+
+    /**
+     * Fetch the file ranges the index lists for the query interval in parallel,  so the sequential reads of the
+     * query are served from the block cache rather than one range request per buffer refill.  BAM only,  the
+     * ranges assume BGZF blocks.  The query waits for the fetch,  see {@link IGVSeekableCachedStream#prefetch}.
+     */
+    private void prefetch(String sequence, int start, int end) {
+        try {
+            int refIndex = getFileHeader().getSequenceIndex(sequence);
+            if (refIndex < 0) {
+                return;
+            }
+            BAMFileSpan span = getSpanOverlapping(refIndex, start, end);
+            if (span == null) {
+                return;
+            }
+            List<long[]> ranges = new ArrayList<long[]>();
+            for (Chunk chunk : span.getChunks()) {
+                // Virtual file offsets,  the upper 48 bits are the offset of the BGZF block
+                long blockStart = chunk.getChunkStart() >>> 16;
+                long blockEnd = (chunk.getChunkEnd() >>> 16) + MAX_BGZF_BLOCK_SIZE;
+                ranges.add(new long[]{blockStart, blockEnd});
+            }
+            cachedStream.prefetch(ranges);
+        } catch (Exception e) {
+            log.error("Error prefetching " + sequence + ":" + start + "-" + end, e);
+        }
+    }
+
 
     /**
      * Fetch an explicitly set index path, either via the ResourceLocator or as a parameter in a URL
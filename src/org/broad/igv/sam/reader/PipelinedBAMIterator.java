@@ -0,0 +1,209 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam.reader;
+
+import htsjdk.samtools.*;
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.CloseableIterator;
+import org.apache.log4j.Logger;
+import org.broad.igv.util.stream.ParallelBlockCompressedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over BAM records read through a {@link ParallelBlockCompressedInputStream},  so BGZF blocks are
+ * inflated on worker threads while records are decoded and consumed on the calling thread.  Query results match
+ * those of the htsjdk reader:  the chunks from the index are read and records outside the interval are filtered.
+ */
+class PipelinedBAMIterator implements CloseableIterator<SAMRecord> {
+
+    private static Logger log = Logger.getLogger(PipelinedBAMIterator.class);
+
+    private final ParallelBlockCompressedInputStream is;
+    private final BAMRecordCodec codec;
+
+    private final int referenceIndex;
+    private final int start;
+    private final int end;
+    private final boolean contained;
+
+    private SAMRecord next;
+    private boolean done;
+
+    private PipelinedBAMIterator(SAMFileHeader header, ParallelBlockCompressedInputStream is,
+                                 int referenceIndex, int start, int end, boolean contained) {
+        this.is = is;
+        this.referenceIndex = referenceIndex;
+        this.start = start;
+        this.end = end <= 0 ? Integer.MAX_VALUE : end;
+        this.contained = contained;
+        this.codec = new BAMRecordCodec(header, new DefaultSAMRecordFactory());
+        codec.setInputStream(is);
+    }
+
+    /**
+     * Iterate over the records overlapping (or contained in) an interval.
+     *
+     * @param span  the chunks listed by the index for the interval
+     * @param start 1-based start,  inclusive
+     * @param end   1-based end,  inclusive
+     */
+    static PipelinedBAMIterator query(SAMFileHeader header, SeekableStream stream,
+                                      BAMFileSpan span, int referenceIndex, int start, int end, boolean contained) {
+        List<Chunk> chunks = span.getChunks();
+        long[] ranges = new long[2 * chunks.size()];
+        int i = 0;
+        for (Chunk chunk : chunks) {
+            ranges[i++] = chunk.getChunkStart();
+            ranges[i++] = chunk.getChunkEnd();
+        }
+        PipelinedBAMIterator iter = new PipelinedBAMIterator(header, new ParallelBlockCompressedInputStream(stream, ranges),
+                referenceIndex, start, end, contained);
+        iter.advance();
+        return iter;
+    }
+
+    /**
+     * Iterate over all records in the file
+     */
+    static PipelinedBAMIterator iterate(SAMFileHeader header, SeekableStream stream) throws IOException {
+        ParallelBlockCompressedInputStream is = new ParallelBlockCompressedInputStream(stream,
+                new long[]{0, ParallelBlockCompressedInputStream.EOF});
+        try {
+            skipHeader(is);
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+        PipelinedBAMIterator iter = new PipelinedBAMIterator(header, is, -1, 0, 0, false);
+        iter.advance();
+        return iter;
+    }
+
+    /**
+     * Skip the BAM header (magic,  text and reference sequence dictionary)
+     */
+    private static void skipHeader(InputStream is) throws IOException {
+        byte[] magic = new byte[4];
+        readFully(is, magic);
+        if (magic[0] != 'B' || magic[1] != 'A' || magic[2] != 'M' || magic[3] != 1) {
+            throw new IOException("Invalid BAM file header");
+        }
+        skipFully(is, readInt(is));
+        int nRef = readInt(is);
+        for (int i = 0; i < nRef; i++) {
+            skipFully(is, readInt(is) + 4);
+        }
+    }
+
+    private static int readInt(InputStream is) throws IOException {
+        byte[] b = new byte[4];
+        readFully(is, b);
+        return (b[0] & 0xff) | (b[1] & 0xff) << 8 | (b[2] & 0xff) << 16 | (b[3] & 0xff) << 24;
+    }
+
+    private static void readFully(InputStream is, byte[] b) throws IOException {
+        int n = 0;
+        while (n < b.length) {
+            int k = is.read(b, n, b.length - n);
+            if (k < 0) throw new IOException("Unexpected end of BAM header");
+            n += k;
+        }
+    }
+
+    private static void skipFully(InputStream is, long n) throws IOException {
+        if (is.skip(n) != n) throw new IOException("Unexpected end of BAM header");
+    }
+
+    private void advance() {
+        next = null;
+        while (!done) {
+            SAMRecord record = codec.decode();
+            if (record == null) {
+                done = true;
+                break;
+            }
+            record.setValidationStringency(ValidationStringency.SILENT);
+            if (referenceIndex < 0) {
+                next = record;
+                return;
+            }
+
+            int recordReferenceIndex = record.getReferenceIndex();
+            if (recordReferenceIndex != referenceIndex) {
+                // Coordinate sorted,  unplaced reads (index -1) are at the end of the file
+                if (recordReferenceIndex > referenceIndex || recordReferenceIndex < 0) {
+                    done = true;
+                }
+                continue;
+            }
+
+            int alignmentStart = record.getAlignmentStart();
+            if (alignmentStart > end) {
+                done = true;
+                break;
+            }
+            int alignmentEnd = record.getReadUnmappedFlag() ? alignmentStart : record.getAlignmentEnd();
+            boolean matches = contained ?
+                    alignmentStart >= start && alignmentEnd <= end :
+                    alignmentEnd >= start && alignmentStart <= end;
+            if (matches) {
+                next = record;
+                return;
+            }
+        }
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    public SAMRecord next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        SAMRecord record = next;
+        advance();
+        return record;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("Remove not supported");
+    }
+
+    public void close() {
+        done = true;
+        next = null;
+        try {
+            is.close();
+        } catch (IOException e) {
+            log.error("Error closing BAM stream", e);
+        }
+    }
+}
@@ -27,6 +27,7 @@ package org.broad.igv.session;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
+import org.broad.igv.PreferenceManager;
 import org.broad.igv.feature.Locus;
 import org.broad.igv.feature.RegionOfInterest;
 import org.broad.igv.feature.genome.Genome;
@@ -120,6 +121,17 @@ public class IGVSessionReader implements SessionReader {
     private Track seqTrack = null;
     private boolean hasTrackElments;
 
+    /**
+     * Load priority of track ids,  in the order they appear in the session.  Hidden tracks follow visible ones.
+     */
+    private final Map<String, Integer> trackPriorities = new HashMap<String, Integer>();
+
+    /**
+     * Resources loading in the background,  and errors from those loads
+     */
+    private ResourceLoadQueue loadQueue;
+    private final List<String> loadErrors = Collections.synchronizedList(new ArrayList<String>());
+
     //Temporary holder for generating tracks
     protected static AbstractTrack nextTrack;
 
@@ -312,6 +324,7 @@ public class IGVSessionReader implements SessionReader {
 
         NodeList tracks = document.getElementsByTagName("Track");
         hasTrackElments = tracks.getLength() > 0;
+        initTrackPriorities(tracks);
 
         HashMap additionalInformation = new HashMap();
         additionalInformation.put(INPUT_FILE_KEY, sessionPath);
@@ -323,7 +336,11 @@ public class IGVSessionReader implements SessionReader {
 
         this.rootPath = sessionPath;
 
-        processRootNode(session, nodes.item(0), additionalInformation, sessionPath);
+        try {
+            processRootNode(session, nodes.item(0), additionalInformation, sessionPath);
+        } finally {
+            finishResourceLoads();
+        }
 
         // Add tracks not explicitly allocated to panels.  It is legal to define sessions with the Resources
         // section only (no Panel or Track elements).
@@ -344,6 +361,56 @@ public class IGVSessionReader implements SessionReader {
     }
 
 
+    private void initTrackPriorities(NodeList tracks) {
+        int nTracks = tracks.getLength();
+        for (int i = 0; i < nTracks; i++) {
+            Element element = (Element) tracks.item(i);
+            String id = getAttribute(element, SessionAttribute.ID.getText());
+            if (id == null || trackPriorities.containsKey(id)) continue;
+            boolean visible = !"false".equalsIgnoreCase(getAttribute(element, SessionAttribute.VISIBLE.getText()));
+            trackPriorities.put(id, visible ? i : nTracks + i);
+        }
+    }
+
+    /**
+     * @return the load priority of a resource,  that of its first track in the session.  Resources without
+     * track elements are loaded last.
+     */
+    private int getPriority(List<String> resourcePaths) {
+        int priority = Integer.MAX_VALUE;
+        for (Map.Entry<String, Integer> entry : trackPriorities.entrySet()) {
+            for (String path : resourcePaths) {
+                if (entry.getKey().startsWith(path)) {
+                    priority = Math.min(priority, entry.getValue());
+                }
+            }
+        }
+        return priority;
+    }
+
+    /**
+     * Wait for resources loading in the background and report errors
+     */
+    private void finishResourceLoads() {
+        if (loadQueue != null) {
+            loadQueue.waitForAll();
+            loadQueue.logTimings();
+            loadQueue = null;
+        }
+
+        if (loadErrors.size() > 0) {
+            StringBuffer buf = new StringBuffer();
+            buf.append("<html>Errors were encountered loading the session:<br>");
+            synchronized (loadErrors) {
+                for (String msg : loadErrors) {
+                    buf.append(msg);
+                }
+                loadErrors.clear();
+            }
+            MessageUtils.showMessage(buf.toString());
+        }
+    }
+
     private void processRootNode(Session session, Node node, HashMap additionalInformation, String rootPath) {
 
         if ((node == null) || (session == null)) {
@@ -568,6 +635,11 @@ public class IGVSessionReader implements SessionReader {
 
         process(session, elements, additionalInformation, rootPath, alternateRootPath);
 
+        // All resources are queued,  start loading them in priority order
+        if (loadQueue != null) {
+            loadQueue.start();
+        }
+
         if (missingDataFiles.size() > 0) {
             StringBuffer message = new StringBuffer();
             message.append("<html>The following data file(s) could not be located.<ul>");
@@ -594,12 +666,9 @@ public class IGVSessionReader implements SessionReader {
         }
         if (dataFiles.size() > 0) {
 
-            final List<String> errors = new ArrayList<String>();
-
-            // Load files concurrently -- TODO, put a limit on # of threads?
-            List<Thread> threads = new ArrayList(dataFiles.size());
+            // Load files concurrently on a bounded pool,  tracks at the top of the session first.  Tracks are
+            // placed in panels as their resources finish, see processTrack.
             long t0 = System.currentTimeMillis();
-            int i = 0;
             List<Runnable> synchronousLoads = new ArrayList<Runnable>();
             for (final ResourceLocator locator : dataFiles) {
 
@@ -638,7 +707,7 @@ public class IGVSessionReader implements SessionReader {
                         } catch (Exception e) {
                             log.error("Error loading resource " + locator.getPath(), e);
                             String ms = "<b>" + locator.getPath() + "</b><br>&nbs;p&nbsp;" + e.toString() + "<br>";
-                            errors.add(ms);
+                            loadErrors.add(ms);
                         }
                     }
                 };
@@ -653,38 +722,19 @@ public class IGVSessionReader implements SessionReader {
                 if (isAlignment || Globals.isBatch() || !hasTrackElments) {
                     synchronousLoads.add(runnable);
                 } else {
-                    Thread t = new Thread(runnable);
-                    threads.add(t);
-                    t.start();
-                }
-                i++;
-            }
-            // Wait for all threads to complete
-            for (Thread t : threads) {
-                try {
-                    t.join();
-                } catch (InterruptedException ignore) {
+                    List<String> paths = relPath == null ? Arrays.asList(suppliedPath) :
+                            Arrays.asList(suppliedPath, relPath);
+                    getLoadQueue().submit(locator, paths, getPriority(paths), runnable);
                 }
             }
 
-
             // Now load data that must be loaded synchronously
             for (Runnable runnable : synchronousLoads) {
                 runnable.run();
             }
 
             long dt = System.currentTimeMillis() - t0;
-            log.debug("Total load time = " + dt);
-
-            if (errors.size() > 0) {
-                StringBuffer buf = new StringBuffer();
-                buf.append("<html>Errors were encountered loading the session:<br>");
-                for (String msg : errors) {
-                    buf.append(msg);
-                }
-                MessageUtils.showMessage(buf.toString());
-            }
-
+            log.debug("Synchronous load time = " + dt);
         }
         dataFiles = null;
     }
@@ -812,6 +862,22 @@ public class IGVSessionReader implements SessionReader {
         return absolutePath;
     }
 
+    private ResourceLoadQueue getLoadQueue() {
+        if (loadQueue == null) {
+            int nThreads = PreferenceManager.getInstance().getAsInt(PreferenceManager.SESSION_LOAD_THREAD_COUNT);
+            loadQueue = new ResourceLoadQueue(nThreads);
+            loadQueue.setListener(new ResourceLoadQueue.Listener() {
+                public void loaded(ResourceLocator locator, int completed, int total) {
+                    if (IGV.hasInstance()) {
+                        IGV.getInstance().setStatusBarMessage("Loaded " + completed + " of " + total + ": " +
+                                locator.getTrackName());
+                    }
+                }
+            });
+        }
+        return loadQueue;
+    }
+
     private void processRegions(Session session, Element element, HashMap additionalInformation, String rootPath, String alternateRootPath) {
 
         session.clearRegionsOfInterest();
@@ -1004,6 +1070,8 @@ public class IGVSessionReader implements SessionReader {
             panelName = "Panel" + panelCounter++;
         }
 
+        // Tracks are added as their resources finish loading
+        TrackPanel panel = IGV.getInstance().getTrackPanel(panelName);
         List<Track> panelTracks = new ArrayList();
         NodeList elements = element.getChildNodes();
         for (int i = 0; i < elements.getLength(); i++) {
@@ -1012,6 +1080,11 @@ public class IGVSessionReader implements SessionReader {
                 List<Track> tracks = processTrack(session, (Element) childNode, additionalInformation, rootPath, alternateRootPath);
                 if (tracks != null) {
                     panelTracks.addAll(tracks);
+                    panel.addTracks(tracks);
+                    if (loadQueue != null) {
+                        panel.getScrollPane().revalidate();
+                        IGV.getInstance().repaintNamePanels();
+                    }
                 }
             } else {
                 process(session, childNode, additionalInformation, rootPath, alternateRootPath);
@@ -1031,8 +1104,6 @@ public class IGVSessionReader implements SessionReader {
             }
         }
 
-        TrackPanel panel = IGV.getInstance().getTrackPanel(panelName);
-        panel.addTracks(panelTracks);
     }
 
     private void processPanelLayout(Session session, Element element, HashMap additionalInformation) {
@@ -1076,12 +1147,7 @@ public class IGVSessionReader implements SessionReader {
         String id = getAttribute(element, SessionAttribute.ID.getText());
 
         // Get matching tracks.
-        List<Track> matchedTracks = allTracks.get(id);
-
-        if (matchedTracks == null) {
-            //Try creating an "absolute" path for the id
-            matchedTracks = allTracks.get(getAbsolutePath(id, rootPath, alternateRootPath));
-        }
+        List<Track> matchedTracks = getLoadedTracks(id, rootPath, alternateRootPath);
 
         if (matchedTracks == null) {
 
@@ -1147,6 +1213,35 @@ public class IGVSessionReader implements SessionReader {
         return matchedTracks;
     }
 
+    /**
+     * Get the tracks with the given id,  waiting for the resources that might contain them to load.  If those
+     * don't have the track,  or there is no such resource,  wait for all loads.
+     */
+    private List<Track> getLoadedTracks(String id, String rootPath, String alternateRootPath) {
+
+        String absoluteId = id == null ? null : getAbsolutePath(id, rootPath, alternateRootPath);
+        List<Track> matchedTracks = getTracks(id, absoluteId);
+        if (matchedTracks == null && loadQueue != null && id != null) {
+            if (loadQueue.waitFor(id) | loadQueue.waitFor(absoluteId)) {
+                matchedTracks = getTracks(id, absoluteId);
+            }
+            if (matchedTracks == null) {
+                loadQueue.waitForAll();
+                matchedTracks = getTracks(id, absoluteId);
+            }
+        }
+        return matchedTracks;
+    }
+
+    private List<Track> getTracks(String id, String absoluteId) {
+        List<Track> matchedTracks = allTracks.get(id);
+        if (matchedTracks == null && absoluteId != null) {
+            //Try creating an "absolute" path for the id
+            matchedTracks = allTracks.get(absoluteId);
+        }
+        return matchedTracks;
+    }
+
     /**
      * Recursively loop through children of {@code element}, and process them as tracks iff they are determined
      * to be so
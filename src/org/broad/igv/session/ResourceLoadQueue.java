@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.session;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.util.ResourceLocator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded,  prioritized pool for loading the resources of a session.  Resources are loaded on a fixed number of
+ * threads,  lowest priority value first,  so that tracks near the top of the session are available before the rest.
+ * Load times are recorded for each resource.
+ * <p/>
+ * No load runs until {@link #start()},  so that every resource of the session is queued and ordered first.  A
+ * pool would otherwise hand the first submissions straight to its threads,  whatever their priority.
+ */
+class ResourceLoadQueue {
+
+    private static Logger log = Logger.getLogger(ResourceLoadQueue.class);
+
+    private final ThreadPoolExecutor executor;
+
+    private final List<LoadTask> tasks = new ArrayList<LoadTask>();
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final AtomicInteger completed = new AtomicInteger();
+
+    private Listener listener;
+
+    interface Listener {
+        void loaded(ResourceLocator locator, int completed, int total);
+    }
+
+    ResourceLoadQueue(int nThreads) {
+        nThreads = Math.max(1, nThreads);
+        executor = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new SessionThreadFactory());
+    }
+
+    /**
+     * Start the loading threads.  Loads submitted before this run in priority order,  later loads are queued
+     * behind the ones running.  Called implicitly by the waitFor methods.
+     */
+    void start() {
+        executor.prestartAllCoreThreads();
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queue a load.  Loads with equal priority run in the order submitted.
+     *
+     * @param ids paths identifying tracks of the resource,  see {@link #waitFor(String)}
+     */
+    Future submit(ResourceLocator locator, List<String> ids, int priority, Runnable runnable) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Session load queue has been shut down");
+        }
+        LoadTask task;
+        synchronized (tasks) {
+            task = new LoadTask(locator, ids, priority, tasks.size(), runnable);
+            tasks.add(task);
+        }
+        // Always through the priority queue,  the core threads are started (or already waiting) on it
+        executor.getQueue().add(task);
+        return task;
+    }
+
+    /**
+     * Wait for the loads of resources that may contain the track.  Track ids begin with the path of their resource.
+     *
+     * @return false if no resource matched,  in which case nothing was waited for
+     */
+    boolean waitFor(String trackId) {
+        start();
+        boolean matched = false;
+        for (LoadTask task : getTasks()) {
+            for (String id : task.ids) {
+                if (trackId.startsWith(id)) {
+                    matched = true;
+                    waitFor(task);
+                    break;
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Wait for all loads,  then shut down the pool.
+     */
+    void waitForAll() {
+        start();
+        for (LoadTask task : getTasks()) {
+            waitFor(task);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Log the time spent queued and loading for each resource,  slowest first.
+     */
+    void logTimings() {
+        List<LoadTask> sorted = getTasks();
+        Collections.sort(sorted, new Comparator<LoadTask>() {
+            public int compare(LoadTask t1, LoadTask t2) {
+                long d = t2.getLoadTime() - t1.getLoadTime();
+                return d < 0 ? -1 : (d > 0 ? 1 : 0);
+            }
+        });
+        log.info("Loaded " + sorted.size() + " session resources in " +
+                (System.currentTimeMillis() - startTime) + " ms");
+        for (LoadTask task : sorted) {
+            log.info("  " + task.locator.getPath() + ": " + task.getLoadTime() + " ms loading,  " +
+                    task.getQueueTime() + " ms queued");
+        }
+    }
+
+    private List<LoadTask> getTasks() {
+        synchronized (tasks) {
+            return new ArrayList<LoadTask>(tasks);
+        }
+    }
+
+    private static void waitFor(LoadTask task) {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Errors are handled by the load
+            log.error("Error loading " + task.locator.getPath(), e.getCause());
+        }
+    }
+
+
+    private class LoadTask extends FutureTask<Object> implements Comparable<LoadTask> {
+
+        final ResourceLocator locator;
+        final List<String> ids;
+        final int priority;
+        final int seq;
+        final long submitTime = System.currentTimeMillis();
+        volatile long loadStart;
+        volatile long loadEnd;
+
+        LoadTask(ResourceLocator locator, List<String> ids, int priority, int seq, Runnable runnable) {
+            super(runnable, null);
+            this.locator = locator;
+            this.ids = ids;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            loadStart = System.currentTimeMillis();
+            try {
+                super.run();
+            } finally {
+                loadEnd = System.currentTimeMillis();
+                int n = completed.incrementAndGet();
+                if (listener != null) {
+                    listener.loaded(locator, n, getTasks().size());
+                }
+            }
+        }
+
+        long getQueueTime() {
+            return loadStart == 0 ? 0 : loadStart - submitTime;
+        }
+
+        long getLoadTime() {
+            return loadEnd == 0 ? 0 : loadEnd - loadStart;
+        }
+
+        public int compareTo(LoadTask o) {
+            if (priority != o.priority) return priority < o.priority ? -1 : 1;
+            return seq - o.seq;
+        }
+    }
+
+
+    private static class SessionThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "IGV-session-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -37,16 +37,24 @@ import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.TrackType;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.CompressionUtils;
+import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.StringUtils;
 import org.broad.igv.util.collections.LRUCache;
+import org.broad.igv.util.stream.IGVSeekableMappedStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * @author jrobinso
@@ -56,7 +64,45 @@ public class TDFReader {
     static final Logger log = Logger.getLogger(TDFReader.class);
     public static final int GZIP_FLAG = 0x1;
 
-    private SeekableStream seekableStream = null;
+    /**
+     * Maximum number of open streams per remote file
+     */
+    static final int MAX_STREAMS = 4;
+
+    /**
+     * Maximum number of decompressed tiles retained, across all datasets
+     */
+    static final int TILE_CACHE_SIZE = 200;
+
+    /**
+     * Marker for an empty (or missing) tile in the tile cache
+     */
+    private static final Object EMPTY_TILE = new Object();
+
+    /**
+     * Inflaters are not thread safe,  and CompressionUtils synchronizes on the instance.  Use one per thread so
+     * tiles can be decompressed in parallel.
+     */
+    private static final ThreadLocal<CompressionUtils> compressionUtils = new ThreadLocal<CompressionUtils>() {
+        @Override
+        protected CompressionUtils initialValue() {
+            return new CompressionUtils();
+        }
+    };
+
+    /**
+     * Mapping or channel for positional reads of local files,  both are safe for concurrent use.  Null for remote files.
+     */
+    private IGVSeekableMappedStream mappedStream;
+    private FileChannel channel;
+
+    /**
+     * Streams for remote files.  A stream is checked out for the duration of a read.
+     */
+    private final LinkedList<SeekableStream> idleStreams = new LinkedList<SeekableStream>();
+    private int openStreamCount = 0;
+    private boolean closed = false;
+
     private int version;
     private Map<String, IndexEntry> datasetIndex;
     private Map<String, IndexEntry> groupIndex;
@@ -68,14 +114,19 @@ public class TDFReader {
     LRUCache<String, TDFDataset> datasetCache = new LRUCache(20);
     TDFTile wgTile;
 
-    Map<WindowFunction, Double> valueCache = new HashMap();
+    /**
+     * Decompressed tiles keyed by dataset name and tile number,  and tiles currently being read
+     */
+    private final LRUCache<TileKey, Object> tileCache = new LRUCache<TileKey, Object>(TILE_CACHE_SIZE);
+    private final Map<TileKey, FutureTask<TDFTile>> pendingTiles = new HashMap<TileKey, FutureTask<TDFTile>>();
+
+    Map<WindowFunction, Double> valueCache = Collections.synchronizedMap(new HashMap<WindowFunction, Double>());
     private List<WindowFunction> windowFunctions;
     ResourceLocator locator;
 
     boolean compressed = false;
 
     Set<String> chrNames;
-    private final CompressionUtils compressionUtils;
 
     //private String path;
 
@@ -91,8 +142,26 @@ public class TDFReader {
         //this.path = path;
         this.locator = locator;
         try {
-            log.debug("Getting stream");
-            seekableStream = IGVSeekableStreamFactory.getInstance().getStreamFor(locator.getPath());
+            String path = locator.getPath();
+            File file = new File(path);
+            if (!FileUtils.isRemote(path) && !path.endsWith(".list") && file.isFile()) {
+                if (IGVSeekableStreamFactory.isMemoryMapEnabled()) {
+                    log.debug("Mapping file");
+                    try {
+                        mappedStream = new IGVSeekableMappedStream(file);
+                    } catch (IOException e) {
+                        log.warn("Could not memory map " + path + ",  reading it through a channel: " + e.getMessage());
+                    }
+                }
+                if (mappedStream == null) {
+                    log.debug("Opening channel");
+                    channel = new RandomAccessFile(file, "r").getChannel();
+                }
+            } else {
+                log.debug("Getting stream");
+                idleStreams.add(IGVSeekableStreamFactory.getInstance().getStreamFor(path));
+                openStreamCount = 1;
+            }
             log.debug("Reading header");
             readHeader();
             log.debug("Done reading header");
@@ -101,12 +170,24 @@ public class TDFReader {
             log.error("Error loading file: " + locator.getPath(), ex);
             throw new DataLoadException("Error loading file: " + ex.toString(), locator.getPath());
         }
-        compressionUtils = new CompressionUtils();
     }
 
     public void close() {
         try {
-            seekableStream.close();
+            if (mappedStream != null) {
+                mappedStream.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            synchronized (idleStreams) {
+                closed = true;
+                for (SeekableStream stream : idleStreams) {
+                    stream.close();
+                }
+                idleStreams.clear();
+                idleStreams.notifyAll();
+            }
         } catch (IOException e) {
             log.error("Error closing reader for: " + getPath(), e);
         }
@@ -243,10 +324,13 @@ public class TDFReader {
         return ds;
     }
 
-    public synchronized TDFDataset getDataset(String name) {
+    public TDFDataset getDataset(String name) {
 
-        if (datasetCache.containsKey(name)) {
-            return datasetCache.get(name);
+        // Not synchronized,  concurrent misses may each read the dataset.  Get before containsKey,  missing
+        // datasets are cached as null and an entry can be evicted between the two calls.
+        TDFDataset cached = datasetCache.get(name);
+        if (cached != null || datasetCache.containsKey(name)) {
+            return cached;
         }
 
         try {
@@ -284,9 +368,10 @@ public class TDFReader {
         return groupIndex.keySet();
     }
 
-    public synchronized TDFGroup getGroup(String name) {
-        if (groupCache.containsKey(name)) {
-            return groupCache.get(name);
+    public TDFGroup getGroup(String name) {
+        TDFGroup cached = groupCache.get(name);
+        if (cached != null) {
+            return cached;
         }
 
         try {
@@ -313,6 +398,68 @@ public class TDFReader {
         }
     }
 
+    /**
+     * Return the tile,  reading and decompressing it if it is not cached.  Concurrent requests for the same tile
+     * wait for a single read,  requests for different tiles proceed in parallel.
+     */
+    TDFTile getTile(TDFDataset ds, final int tileNumber) {
+
+        final TileKey key = new TileKey(ds.getName(), tileNumber);
+        Object cached = tileCache.get(key);
+        if (cached != null) {
+            return cached == EMPTY_TILE ? null : (TDFTile) cached;
+        }
+
+        final TDFDataset dataset = ds;
+        FutureTask<TDFTile> task;
+        boolean owner = false;
+        synchronized (pendingTiles) {
+            task = pendingTiles.get(key);
+            if (task == null) {
+                task = new FutureTask<TDFTile>(new Callable<TDFTile>() {
+                    public TDFTile call() throws Exception {
+                        TDFTile tile = readTile(dataset, tileNumber);
+                        tileCache.put(key, tile == null ? EMPTY_TILE : tile);
+                        return tile;
+                    }
+                });
+                pendingTiles.put(key, task);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            try {
+                task.run();
+            } finally {
+                synchronized (pendingTiles) {
+                    pendingTiles.remove(key);
+                }
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while reading tile: " + ds.getName() + "[" + tileNumber + "]");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Remove all cached tiles for the dataset
+     */
+    void clearTileCache(TDFDataset ds) {
+        String name = ds.getName();
+        for (TileKey key : tileCache.keys()) {
+            if (key.datasetName.equals(name)) {
+                tileCache.remove(key);
+            }
+        }
+    }
+
     // TODO -- move to dataset class
 
     public TDFTile readTile(TDFDataset ds, int tileNumber) {
@@ -337,7 +484,7 @@ public class TDFReader {
             //readFully(buffer);
             byte[] buffer = readBytes(position, nBytes);
             if (compressed) {
-                buffer = compressionUtils.decompress(buffer);
+                buffer = compressionUtils.get().decompress(buffer);
 
             }
 
@@ -432,13 +579,104 @@ public class TDFReader {
     }
 
 
-    public synchronized byte[] readBytes(long position, int nBytes) throws IOException {
-        seekableStream.seek(position);
+    /**
+     * Read {@code nBytes} starting at {@code position}.  Safe to call from multiple threads,  local files use
+     * positional reads on a shared mapping (or channel) and remote files use a small pool of streams.
+     */
+    public byte[] readBytes(long position, int nBytes) throws IOException {
+
         byte[] buffer = new byte[nBytes];
-        int read = seekableStream.read(buffer, 0, nBytes);
+
+        if (mappedStream != null) {
+            int offset = 0;
+            while (offset < nBytes) {
+                int n = mappedStream.read(position + offset, buffer, offset, nBytes - offset);
+                if (n < 0) break;
+                offset += n;
+            }
+            return buffer;
+        }
+
+        if (channel != null) {
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            while (bb.hasRemaining()) {
+                int n = channel.read(bb, position + bb.position());
+                if (n < 0) break;
+            }
+            return buffer;
+        }
+
+        SeekableStream stream = checkoutStream();
+        boolean ok = false;
+        try {
+            stream.seek(position);
+            int offset = 0;
+            while (offset < nBytes) {
+                int n = stream.read(buffer, offset, nBytes - offset);
+                if (n < 0) break;
+                offset += n;
+            }
+            ok = true;
+        } finally {
+            returnStream(stream, ok);
+        }
         return buffer;
     }
 
+    private SeekableStream checkoutStream() throws IOException {
+        synchronized (idleStreams) {
+            while (true) {
+                if (closed) {
+                    throw new IOException("Reader is closed: " + getPath());
+                }
+                if (!idleStreams.isEmpty()) {
+                    return idleStreams.removeFirst();
+                }
+                if (openStreamCount < MAX_STREAMS) {
+                    openStreamCount++;
+                    break;
+                }
+                try {
+                    idleStreams.wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted waiting for stream: " + getPath());
+                }
+            }
+        }
+        try {
+            return IGVSeekableStreamFactory.getInstance().getStreamFor(getPath());
+        } catch (IOException e) {
+            synchronized (idleStreams) {
+                openStreamCount--;
+                idleStreams.notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return a stream to the pool.  Streams that failed mid-read are closed rather than reused,  their position
+     * is unknown.
+     */
+    private void returnStream(SeekableStream stream, boolean reuse) {
+        synchronized (idleStreams) {
+            if (reuse && !closed) {
+                idleStreams.addFirst(stream);
+                stream = null;
+            } else {
+                openStreamCount--;
+            }
+            idleStreams.notifyAll();
+        }
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                log.error("Error closing stream for: " + getPath(), e);
+            }
+        }
+    }
+
     /**
      * @return the windowFunctions
      */
@@ -468,6 +706,30 @@ public class TDFReader {
         return chrNames;
     }
 
+    static class TileKey {
+
+        final String datasetName;
+        final int tileNumber;
+
+        TileKey(String datasetName, int tileNumber) {
+            this.datasetName = datasetName;
+            this.tileNumber = tileNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TileKey)) return false;
+            TileKey other = (TileKey) o;
+            return tileNumber == other.tileNumber && datasetName.equals(other.datasetName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * datasetName.hashCode() + tileNumber;
+        }
+    }
+
     class IndexEntry {
 
         long position;
@@ -25,6 +25,8 @@
 
 package org.broad.igv.tools;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.Chromosome;
@@ -38,10 +40,11 @@ import org.broad.igv.tools.parsers.DataConsumer;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Class to compute coverage on an alignment or feature file.  This class is designed to be instantiated and executed
- * from a single thread.
+ * from a single thread,  though {@link #parse()} may use worker threads internally (see {@link #setThreadCount(int)}).
  */
 public class CoverageCounter {
 
@@ -152,19 +155,29 @@ public class CoverageCounter {
      */
     private float[] buffer;
 
-    private final static Set<Byte> nucleotidesKeep = new HashSet<Byte>();
     public static final byte DEL = 126;
     public static final byte INS = 127;
     private final static byte[] nucleotides = new byte[]{'A', 'C', 'G', 'T', 'N', DEL, INS};
 
+    /**
+     * Map of byte value -> index of nucleotide in counts.  Anything not in {@code nucleotides} is counted as "other".
+     */
+    private final static int[] BASE_INDEX = new int[256];
+
     /**
      * Whether to write wig data to standard out (stdout)
      */
     private boolean writeStdOut;
 
+    /**
+     * Number of threads used to count chromosomes in parallel.  Only applies to indexed, coordinate sorted files.
+     */
+    private int nThreads = 1;
+
     static {
-        for (byte b : nucleotides) {
-            nucleotidesKeep.add(b);
+        Arrays.fill(BASE_INDEX, nucleotides.length);
+        for (int i = 0; i < nucleotides.length; i++) {
+            BASE_INDEX[nucleotides[i] & 0xFF] = i;
         }
     }
 
@@ -272,15 +285,22 @@ public class CoverageCounter {
     /**
      * Parse and "count" the alignment file.  The main method.
      * <p/>
-     * This method is not thread safe due to the use of the member variable "buffer".
+     * If more than one thread is requested,  the file is indexed and coordinate sorted,  and no query interval
+     * is set,  chromosomes are counted in parallel.  Otherwise the file is read serially.
      *
      * @throws IOException
      */
     public synchronized void parse() throws IOException {
 
-        int maxExtFactor = Math.max(extFactor, Math.max(preExtFactor, postExtFactor));
+        if (nThreads > 1 && queryInterval == null) {
+            List<String> sequences = getParallelSequences();
+            if (sequences != null) {
+                parseParallel(sequences);
+                return;
+            }
+        }
 
-        int tolerance = (int) (windowSize * (Math.floor(maxExtFactor / windowSize) + 2));
+        int tolerance = getTolerance();
         consumer.setSortTolerance(tolerance);
 
         AlignmentReader reader = null;
@@ -293,6 +313,7 @@ public class CoverageCounter {
         if (wigFile != null || writeStdOut) {
             wigWriter = new WigWriter(wigFile, windowSize);
         }
+        BucketWriter bucketWriter = new ConsumerBucketWriter(wigWriter);
 
         try {
 
@@ -307,22 +328,11 @@ public class CoverageCounter {
             while (iter != null && iter.hasNext()) {
                 Alignment alignment = iter.next();
                 if (passFilter(alignment)) {
-                    //Sort into the read strand or first-in-pair strand,
-                    //depending on input flag. Note that this can
-                    //be very unreliable depending on data
-                    Strand strand;
-                    if (firstInPair) {
-                        strand = alignment.getFirstOfPairStrand();
-                    } else if (secondInPair) {
-                        strand = alignment.getSecondOfPairStrand();
-                    } else {
-                        strand = alignment.getReadStrand();
-                    }
+                    Strand strand = getCountStrand(alignment);
                     if (strand.equals(Strand.NONE)) {
                         //TODO move this into passFilter, or move passFilter here
                         continue;
                     }
-                    boolean readNegStrand = alignment.isNegativeStrand();
 
                     totalCount++;
 
@@ -331,151 +341,409 @@ public class CoverageCounter {
                     // Close all counters with position < alignment.getStart()
                     if (alignmentChr.equals(lastChr)) {
                         if (counter != null) {
-                            counter.closeBucketsBefore(alignment.getAlignmentStart() - tolerance, wigWriter);
+                            counter.closeBucketsBefore(alignment.getAlignmentStart() - tolerance);
                         }
                     } else {  // New chromosome
                         if (counter != null) {
-                            counter.closeBucketsBefore(Integer.MAX_VALUE, wigWriter);
+                            counter.closeBucketsBefore(Integer.MAX_VALUE);
                         }
-                        counter = new ReadCounter(alignmentChr);
+                        counter = new ReadCounter(alignmentChr, bucketWriter);
                         lastChr = alignmentChr;
                     }
 
-                    AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
+                    countAlignment(alignment, strand, counter);
+                }
 
-                    if (blocks != null && !pairedCoverage) {
-                        for (AlignmentBlock block : blocks) {
+            }
+            consumer.setAttribute("totalCount", String.valueOf(totalCount));
+            consumer.parsingComplete();
 
-                            if (!block.isSoftClipped()) {
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
 
-                                int blockStart = block.getStart();
-                                int blockEnd = block.getEnd();
+            if (counter != null) {
+                counter.closeBucketsBefore(Integer.MAX_VALUE);
+            }
+            if (iter != null) {
+                iter.close();
+            }
+            if (reader != null) {
+                reader.close();
+            }
+            if (wigWriter != null) {
+                wigWriter.close();
+            }
 
+        }
+    }
 
-                                int adjustedStart = block.getStart();
-                                int adjustedEnd = block.getEnd();
+    private int getTolerance() {
+        int maxExtFactor = Math.max(extFactor, Math.max(preExtFactor, postExtFactor));
+        return (int) (windowSize * (Math.floor(maxExtFactor / windowSize) + 2));
+    }
 
+    /**
+     * Sort into the read strand or first-in-pair strand, depending on input flag. Note that this can
+     * be very unreliable depending on data
+     */
+    private Strand getCountStrand(Alignment alignment) {
+        if (firstInPair) {
+            return alignment.getFirstOfPairStrand();
+        } else if (secondInPair) {
+            return alignment.getSecondOfPairStrand();
+        } else {
+            return alignment.getReadStrand();
+        }
+    }
 
-                                if (preExtFactor > 0) {
-                                    if (readNegStrand) {
-                                        adjustedEnd = blockEnd + preExtFactor;
-                                    } else {
-                                        adjustedStart = Math.max(0, blockStart - preExtFactor);
-                                    }
-                                }
+    /**
+     * Increment the counts covered by a single alignment that has passed filters.
+     */
+    private void countAlignment(Alignment alignment, Strand strand, ReadCounter counter) {
 
-                                // If both postExtFactor and extFactor are specified, postExtFactor takes precedence
-                                if (postExtFactor > 0) {
-                                    if (readNegStrand) {
-                                        adjustedStart = Math.max(0, blockEnd - postExtFactor);
-                                    } else {
-                                        adjustedEnd = blockStart + postExtFactor;
-                                    }
-
-                                } else if (extFactor > 0) {
-                                    // Standard extension option -- extend read on 3' end
-                                    if (readNegStrand) {
-                                        adjustedStart = Math.max(0, adjustedStart - extFactor);
-                                    } else {
-                                        adjustedEnd += extFactor;
-                                    }
-                                }
+        boolean readNegStrand = alignment.isNegativeStrand();
+        AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
 
+        if (blocks != null && !pairedCoverage) {
+            for (AlignmentBlock block : blocks) {
 
-                                if (queryInterval != null) {
-                                    adjustedStart = Math.max(queryInterval.getStart() - 1, adjustedStart);
-                                    adjustedEnd = Math.min(queryInterval.getEnd(), adjustedEnd);
-                                }
+                if (!block.isSoftClipped()) {
 
-                                byte[] bases = block.getBases();
-                                for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-                                    byte base = 0;
-                                    int baseIdx = pos - blockStart;
-                                    if (bases != null && baseIdx >= 0 && baseIdx < bases.length) {
-                                        base = bases[baseIdx];
-                                    }
-                                    //int idx = pos - blockStart;
-                                    //byte quality = (idx >= 0 && idx < block.qualities.length) ?
-                                    //block.qualities[pos - blockStart] : (byte) 0;
-                                    counter.incrementCount(pos, base, strand);
-                                }
-                            }
-                        }
+                    int blockStart = block.getStart();
+                    int blockEnd = block.getEnd();
 
-                        final AlignmentBlock[] insertions = alignment.getInsertions();
-                        if (insertions != null) {
-                            for (AlignmentBlock insBlock : insertions) {
-                                int pos = insBlock.getStart();
-                                if (queryInterval == null || (pos >= queryInterval.getStart() && pos <= queryInterval.getEnd()))
-                                    counter.incrementInsertion(pos);
-                            }
-                        }
 
-                        // Count deletions
-                        List<Gap> gaps = alignment.getGaps();
-                        if (gaps != null) {
-                            for (Gap gap : gaps) {
-                                if (gap.getType() == SAMAlignment.DELETION) {
-                                    int adjustedStart = gap.getStart();
-                                    int adjustedEnd = gap.getStart() + gap.getnBases();
-                                    if (queryInterval != null) {
-                                        adjustedStart = Math.max(queryInterval.getStart() - 1, adjustedStart);
-                                        adjustedEnd = Math.min(queryInterval.getEnd(), adjustedEnd);
-                                    }
-                                    for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-                                        counter.incrementDeletion(pos, strand);
-                                    }
-                                }
-                            }
-                        }
+                    int adjustedStart = block.getStart();
+                    int adjustedEnd = block.getEnd();
 
 
-                    } else {
-                        int adjustedStart = alignment.getAlignmentStart();
-                        int adjustedEnd = pairedCoverage ?
-                                adjustedStart + Math.abs(alignment.getInferredInsertSize()) :
-                                alignment.getAlignmentEnd();
+                    if (preExtFactor > 0) {
+                        if (readNegStrand) {
+                            adjustedEnd = blockEnd + preExtFactor;
+                        } else {
+                            adjustedStart = Math.max(0, blockStart - preExtFactor);
+                        }
+                    }
+
+                    // If both postExtFactor and extFactor are specified, postExtFactor takes precedence
+                    if (postExtFactor > 0) {
+                        if (readNegStrand) {
+                            adjustedStart = Math.max(0, blockEnd - postExtFactor);
+                        } else {
+                            adjustedEnd = blockStart + postExtFactor;
+                        }
 
+                    } else if (extFactor > 0) {
+                        // Standard extension option -- extend read on 3' end
                         if (readNegStrand) {
                             adjustedStart = Math.max(0, adjustedStart - extFactor);
                         } else {
                             adjustedEnd += extFactor;
                         }
+                    }
+
+
+                    if (queryInterval != null) {
+                        adjustedStart = Math.max(queryInterval.getStart() - 1, adjustedStart);
+                        adjustedEnd = Math.min(queryInterval.getEnd(), adjustedEnd);
+                    }
+
+                    byte[] bases = block.getBases();
+                    for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
+                        byte base = 0;
+                        int baseIdx = pos - blockStart;
+                        if (bases != null && baseIdx >= 0 && baseIdx < bases.length) {
+                            base = bases[baseIdx];
+                        }
+                        counter.incrementCount(pos, base, strand);
+                    }
+                }
+            }
 
+            final AlignmentBlock[] insertions = alignment.getInsertions();
+            if (insertions != null) {
+                for (AlignmentBlock insBlock : insertions) {
+                    int pos = insBlock.getStart();
+                    if (queryInterval == null || (pos >= queryInterval.getStart() && pos <= queryInterval.getEnd()))
+                        counter.incrementInsertion(pos);
+                }
+            }
+
+            // Count deletions
+            List<Gap> gaps = alignment.getGaps();
+            if (gaps != null) {
+                for (Gap gap : gaps) {
+                    if (gap.getType() == SAMAlignment.DELETION) {
+                        int adjustedStart = gap.getStart();
+                        int adjustedEnd = gap.getStart() + gap.getnBases();
                         if (queryInterval != null) {
                             adjustedStart = Math.max(queryInterval.getStart() - 1, adjustedStart);
                             adjustedEnd = Math.min(queryInterval.getEnd(), adjustedEnd);
                         }
-
-
                         for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-                            counter.incrementCount(pos, (byte) 'N', strand);
+                            counter.incrementDeletion(pos, strand);
                         }
                     }
-
                 }
+            }
+
 
+        } else {
+            int adjustedStart = alignment.getAlignmentStart();
+            int adjustedEnd = pairedCoverage ?
+                    adjustedStart + Math.abs(alignment.getInferredInsertSize()) :
+                    alignment.getAlignmentEnd();
+
+            if (readNegStrand) {
+                adjustedStart = Math.max(0, adjustedStart - extFactor);
+            } else {
+                adjustedEnd += extFactor;
             }
-            consumer.setAttribute("totalCount", String.valueOf(totalCount));
-            consumer.parsingComplete();
 
+            if (queryInterval != null) {
+                adjustedStart = Math.max(queryInterval.getStart() - 1, adjustedStart);
+                adjustedEnd = Math.min(queryInterval.getEnd(), adjustedEnd);
+            }
+
+
+            for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
+                counter.incrementCount(pos, (byte) 'N', strand);
+            }
+        }
+    }
+
+
+    /**
+     * Return the sequences to count in parallel,  in file order,  or null if the file does not support it.
+     * Parallel counting requires an index and a coordinate sorted file so that the output order,  which
+     * follows the sequence dictionary,  matches the serial path.
+     */
+    private List<String> getParallelSequences() {
+        AlignmentReader reader = null;
+        try {
+            reader = AlignmentReaderFactory.getReader(alignmentFile, true);
+            SAMFileHeader header = reader.getFileHeader();
+            List<String> sequences = reader.getSequenceNames();
+            if (!reader.hasIndex() || header == null || header.getSortOrder() != SAMFileHeader.SortOrder.coordinate ||
+                    sequences == null || sequences.isEmpty()) {
+                log.info("Alignment file is not indexed and coordinate sorted,  counting serially");
+                return null;
+            }
+            return new ArrayList<String>(sequences);
         } catch (Exception e) {
-            e.printStackTrace();
+            log.info("Could not open index for parallel counting,  counting serially: " + e.getMessage());
+            return null;
         } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.error("Error closing reader", e);
+                }
+            }
+        }
+    }
 
-            if (counter != null) {
-                counter.closeBucketsBefore(Integer.MAX_VALUE, wigWriter);
+    /**
+     * Count each sequence on a pool of threads.  Each worker writes its closed windows to a temporary file,
+     * which are then replayed to the consumer (and wig writer) on this thread in sequence dictionary order.
+     */
+    private void parseParallel(List<String> sequences) throws IOException {
+
+        final int tolerance = getTolerance();
+        consumer.setSortTolerance(tolerance);
+
+        WigWriter wigWriter = null;
+        if (wigFile != null || writeStdOut) {
+            wigWriter = new WigWriter(wigFile, windowSize);
+        }
+        BucketWriter bucketWriter = new ConsumerBucketWriter(wigWriter);
+
+        log.info("Counting " + sequences.size() + " sequences on " + nThreads + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        List<Future<SequenceResult>> futures = new ArrayList<Future<SequenceResult>>(sequences.size());
+        try {
+            for (String sequence : sequences) {
+                futures.add(executor.submit(new SequenceCounter(sequence, tolerance)));
             }
-            if (iter != null) {
-                iter.close();
+
+            for (Future<SequenceResult> future : futures) {
+                SequenceResult result;
+                try {
+                    result = future.get();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while counting " + alignmentFile, e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Error counting " + alignmentFile, e.getCause());
+                }
+                totalCount += result.count;
+                result.replay(bucketWriter);
+                result.delete();
             }
-            if (reader != null) {
-                reader.close();
+
+            consumer.setAttribute("totalCount", String.valueOf(totalCount));
+            consumer.parsingComplete();
+
+        } finally {
+            executor.shutdownNow();
+            for (Future<SequenceResult> future : futures) {
+                if (future.isDone() && !future.isCancelled()) {
+                    try {
+                        future.get().delete();
+                    } catch (Exception e) {
+                        // Already reported
+                    }
+                }
             }
             if (wigWriter != null) {
                 wigWriter.close();
             }
+        }
+    }
+
+    /**
+     * Counts a single sequence.  Each instance opens its own reader.
+     */
+    private class SequenceCounter implements Callable<SequenceResult> {
+
+        private final String sequence;
+        private final int tolerance;
+
+        SequenceCounter(String sequence, int tolerance) {
+            this.sequence = sequence;
+            this.tolerance = tolerance;
+        }
+
+        public SequenceResult call() throws Exception {
+
+            AlignmentReader reader = null;
+            CloseableIterator<Alignment> iter = null;
+            SequenceResult result = new SequenceResult();
+            ReadCounter counter = null;
+
+            try {
+                reader = AlignmentReaderFactory.getReader(alignmentFile, true);
+                SAMSequenceRecord rec = reader.getFileHeader().getSequence(sequence);
+                int end = rec == null || rec.getSequenceLength() <= 0 ? Integer.MAX_VALUE : rec.getSequenceLength();
+                iter = reader.query(sequence, 0, end, false);
+
+                String lastChr = "";
+                while (iter != null && iter.hasNext()) {
+                    Alignment alignment = iter.next();
+                    if (passFilter(alignment)) {
+                        Strand strand = getCountStrand(alignment);
+                        if (strand.equals(Strand.NONE)) {
+                            continue;
+                        }
+
+                        result.count++;
+
+                        String alignmentChr = alignment.getChr();
+                        if (alignmentChr.equals(lastChr)) {
+                            counter.closeBucketsBefore(alignment.getAlignmentStart() - tolerance);
+                        } else {
+                            if (counter != null) {
+                                counter.closeBucketsBefore(Integer.MAX_VALUE);
+                            }
+                            counter = new ReadCounter(alignmentChr, result.open());
+                            lastChr = alignmentChr;
+                        }
+
+                        countAlignment(alignment, strand, counter);
+                    }
+                }
+                if (counter != null) {
+                    counter.closeBucketsBefore(Integer.MAX_VALUE);
+                }
+                result.close();
+                return result;
+
+            } catch (Exception e) {
+                result.close();
+                result.delete();
+                throw e;
+            } finally {
+                if (iter != null) {
+                    iter.close();
+                }
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+        }
+    }
 
+    /**
+     * Closed windows for a single sequence,  spooled to a temporary file.  Records are the chromosome,  start,
+     * end,  and the data columns.  Floats are stored as raw bits so replay is exact.
+     */
+    private class SequenceResult implements BucketWriter {
+
+        int count;
+        File file;
+        DataOutputStream dos;
+
+        BucketWriter open() throws IOException {
+            if (dos == null) {
+                file = File.createTempFile("igvtools-count", ".bin");
+                file.deleteOnExit();
+                dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            }
+            return this;
+        }
+
+        public void addData(String chr, int start, int end, float[] data) {
+            try {
+                dos.writeUTF(chr);
+                dos.writeInt(start);
+                dos.writeInt(end);
+                for (float f : data) {
+                    dos.writeFloat(f);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error writing temporary count file", e);
+            }
+        }
+
+        void close() throws IOException {
+            if (dos != null) {
+                dos.close();
+                dos = null;
+            }
+        }
+
+        void replay(BucketWriter writer) throws IOException {
+            if (file == null) {
+                return;
+            }
+            float[] data = new float[buffer.length];
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                while (true) {
+                    String chr;
+                    try {
+                        chr = dis.readUTF();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int start = dis.readInt();
+                    int end = dis.readInt();
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = dis.readFloat();
+                    }
+                    writer.addData(chr, start, end, data);
+                }
+            } finally {
+                dis.close();
+            }
+        }
+
+        void delete() {
+            if (file != null) {
+                file.delete();
+                file = null;
+            }
         }
     }
 
@@ -520,16 +788,74 @@ public class CoverageCounter {
         this.writeStdOut = writeStdOut;
     }
 
+    public void setThreadCount(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    /**
+     * Destination for closed windows
+     */
+    interface BucketWriter {
+        void addData(String chr, int start, int end, float[] data);
+    }
+
+    /**
+     * Writes closed windows to the consumer,  and optionally a wig file
+     */
+    private class ConsumerBucketWriter implements BucketWriter {
+
+        private final WigWriter wigWriter;
+
+        ConsumerBucketWriter(WigWriter wigWriter) {
+            this.wigWriter = wigWriter;
+        }
+
+        public void addData(String chr, int start, int end, float[] data) {
+            consumer.addData(chr, start, end, data, null);
+            if (wigWriter != null) {
+                wigWriter.addData(chr, start, end, data);
+            }
+        }
+    }
+
+
+    /**
+     * Counts for the open windows of a single chromosome.  Windows are held in a ring of primitive arrays indexed
+     * by window index,  which is valid because alignments arrive in start order and only windows within the
+     * sort tolerance of the current alignment are open at once.
+     */
+    // Layout of a ReadCounter window slot
+    private static final int TOUCHED = 0;
+    private static final int TOTAL = 1;
+    private static final int STRAND_COUNTS = 2;
+    private static final int BASE_COUNTS = STRAND_COUNTS + NUM_STRANDS;
+    private static final int N_BASE_TYPES = 8;       // nucleotides + "other"
+    private static final int STRIDE = BASE_COUNTS + NUM_STRANDS * N_BASE_TYPES;
+
     class ReadCounter {
 
         String chr;
-        /**
-         * Map of window index -> counter
-         */
-        TreeMap<Integer, Counter> counts = new TreeMap<Integer, Counter>();
+        private final BucketWriter writer;
+        private final float[] buffer;
+        private final int chrLength;
 
-        ReadCounter(String chr) {
+        private int[] slots;
+        private int mask;
+        private int firstIdx;    // Window index of the first open window
+        private int nOpen;       // Number of windows from firstIdx through the last touched window
+
+        ReadCounter(String chr, BucketWriter writer) {
             this.chr = chr;
+            this.writer = writer;
+            this.buffer = new float[CoverageCounter.this.buffer.length];
+            Chromosome chromosome = genome == null ? null : genome.getChromosome(chr);
+            this.chrLength = chromosome == null ? -1 : chromosome.getLength();
+            allocate(64);
+        }
+
+        private void allocate(int capacity) {
+            slots = new int[capacity * STRIDE];
+            mask = capacity - 1;
         }
 
         /**
@@ -538,42 +864,73 @@ public class CoverageCounter {
          * @param strand   - which strand to increment count. Should be POSITIVE or NEGATIVE
          */
         void incrementCount(int position, byte base, Strand strand) {
-            final Counter counter = getCounterForPosition(position);
+            final int slot = getSlotForPosition(position);
             int strandNum = strand.equals(Strand.POSITIVE) ? 0 : 1;
-            counter.increment(base, strandNum);
+            if (outputBases) {
+                slots[slot + BASE_COUNTS + strandNum * N_BASE_TYPES + BASE_INDEX[base & 0xFF]]++;
+            }
+            if (outputSeparate) {
+                slots[slot + STRAND_COUNTS + strandNum]++;
+            }
+            slots[slot + TOTAL]++;
         }
 
         void incrementDeletion(int position, Strand strand) {
-            final Counter counter = getCounterForPosition(position);
+            final int slot = getSlotForPosition(position);
             int strandNum = strand.equals(Strand.POSITIVE) ? 0 : 1;
             if (outputBases) {
-                counter.incrementNucleotide(DEL, strandNum);
+                slots[slot + BASE_COUNTS + strandNum * N_BASE_TYPES + BASE_INDEX[DEL & 0xFF]]++;
             }
         }
 
         void incrementInsertion(int position) {
             // Insertions are between 2 bases, we increment the counter for the position preceding the insertion
-            final Counter counter = getCounterForPosition(position-1);
+            final int slot = getSlotForPosition(position - 1);
             int strandNum = 0;
             if (outputBases) {
-                counter.incrementNucleotide(INS, strandNum);
+                slots[slot + BASE_COUNTS + strandNum * N_BASE_TYPES + BASE_INDEX[INS & 0xFF]]++;
             }
-
         }
 
-
-        private Counter getCounterForPosition(int position) {
+        /**
+         * Return the offset of the slot for the window containing {@code position},  opening it if needed.
+         */
+        private int getSlotForPosition(int position) {
             int idx = position / windowSize;
-            return getCounter(idx);
+            if (nOpen == 0) {
+                firstIdx = idx;
+                nOpen = 1;
+            } else if (idx < firstIdx) {
+                ensureCapacity(firstIdx + nOpen - idx);
+                nOpen += firstIdx - idx;
+                firstIdx = idx;
+            } else if (idx >= firstIdx + nOpen) {
+                ensureCapacity(idx - firstIdx + 1);
+                nOpen = idx - firstIdx + 1;
+            }
+            int slot = (idx & mask) * STRIDE;
+            slots[slot + TOUCHED] = 1;
+            return slot;
         }
 
-        private Counter getCounter(int idx) {
-            if (!counts.containsKey(idx)) {
-                counts.put(idx, new Counter());
+        private void ensureCapacity(int n) {
+            int capacity = mask + 1;
+            if (n <= capacity) return;
+            while (capacity < n) {
+                capacity *= 2;
+            }
+            int[] oldSlots = slots;
+            int oldMask = mask;
+            allocate(capacity);
+            for (int i = 0; i < nOpen; i++) {
+                int idx = firstIdx + i;
+                System.arraycopy(oldSlots, (idx & oldMask) * STRIDE, slots, (idx & mask) * STRIDE, STRIDE);
             }
-            return counts.get(idx);
         }
 
+        private int getBaseCount(int slot, byte base, int strand) {
+            return slots[slot + BASE_COUNTS + strand * N_BASE_TYPES + BASE_INDEX[base & 0xFF]];
+        }
 
         /**
          * Close (finalize) all buckets before the given position.  Called when we are sure this position will not be
@@ -581,27 +938,23 @@ public class CoverageCounter {
          *
          * @param position - genomic position
          */
-        void closeBucketsBefore(int position, WigWriter wigWriter) {
-            List<Integer> bucketsToClose = new ArrayList<Integer>();
+        void closeBucketsBefore(int position) {
 
             int bucket = position / windowSize;
-            for (Map.Entry<Integer, Counter> entry : counts.entrySet()) {
-                if (entry.getKey() < bucket) {
+            while (nOpen > 0 && firstIdx < bucket) {
+
+                int slot = (firstIdx & mask) * STRIDE;
+                if (slots[slot + TOUCHED] != 0) {
 
                     // Divide total count by window size.  This is the average count per
                     // base over the window,  so for example 30x coverage remains 30x irrespective of window size.
-                    int bucketStartPosition = entry.getKey() * windowSize;
+                    int bucketStartPosition = firstIdx * windowSize;
                     int bucketEndPosition = bucketStartPosition + windowSize;
-                    if (genome != null) {
-                        Chromosome chromosome = genome.getChromosome(chr);
-                        if (chromosome != null) {
-                            bucketEndPosition = Math.min(bucketEndPosition, chromosome.getLength());
-                        }
+                    if (chrLength >= 0) {
+                        bucketEndPosition = Math.min(bucketEndPosition, chrLength);
                     }
                     int bucketSize = bucketEndPosition - bucketStartPosition;
 
-                    final Counter counter = entry.getValue();
-
                     int col = 0;
 
                     //Not outputting base info, just totals
@@ -609,12 +962,12 @@ public class CoverageCounter {
                         if (outputSeparate) {
                             //Output strand specific information, if applicable
                             for (int strandNum : output_strands) {
-                                buffer[col] = ((float) counter.getCount(strandNum)) / bucketSize;
+                                buffer[col] = ((float) slots[slot + STRAND_COUNTS + strandNum]) / bucketSize;
                                 col++;
                             }
 
                         } else {
-                            buffer[col] = ((float) counter.getTotalCounts()) / bucketSize;
+                            buffer[col] = ((float) slots[slot + TOTAL]) / bucketSize;
                             col++;
                         }
 
@@ -623,138 +976,34 @@ public class CoverageCounter {
                         if (outputSeparate) {
                             for (int strandNum : output_strands) {
                                 for (byte base : nucleotides) {
-                                    buffer[col] = ((float) counter.getBaseCount(base, strandNum)) / bucketSize;
+                                    buffer[col] = ((float) getBaseCount(slot, base, strandNum)) / bucketSize;
                                     col++;
                                 }
                             }
                         } else {
                             for (byte base : nucleotides) {
-                                buffer[col] = ((float) counter.getBaseCount(base)) / bucketSize;
+                                int count = 0;
+                                for (int strand = 0; strand < NUM_STRANDS; strand++) {
+                                    count += getBaseCount(slot, base, strand);
+                                }
+                                buffer[col] = ((float) count) / bucketSize;
                                 col++;
                             }
                         }
                     }
 
-
-                    consumer.addData(chr, bucketStartPosition, bucketEndPosition, buffer, null);
-
-                    if (wigWriter != null) {
-                        wigWriter.addData(chr, bucketStartPosition, bucketEndPosition, buffer);
-                    }
-
-
-                    bucketsToClose.add(entry.getKey());
+                    writer.addData(chr, bucketStartPosition, bucketEndPosition, buffer);
                 }
-            }
 
-            for (Integer key : bucketsToClose) {
-                counts.remove(key);
+                Arrays.fill(slots, slot, slot + STRIDE, 0);
+                firstIdx++;
+                nOpen--;
             }
-
-
         }
 
     }
 
 
-    /**
-     * Class for counting nucleotides and strands over an interval.
-     */
-
-    class Counter {
-        /**
-         * The total number of counts on this Counter. Will
-         * be the sum of baseCount over the second index.
-         */
-        int[] strandCount;
-        int totalCount = 0;
-        //int qualityCount = 0;
-
-        //String chr;
-        //int start;
-        //int end;
-        //byte[] ref;
-        /**
-         * The number of times a particular base has been encountered (ie # of reads of that base)
-         */
-        //int[][] baseCount = new int[NUM_STRANDS][];
-
-        private Map<Byte, Integer>[] baseTypeCounts;
-
-        Counter() {
-            //this.chr = chr;
-            //this.start = start;
-            //this.end = end;
-
-            if (outputBases) {
-                baseTypeCounts = new HashMap[NUM_STRANDS];
-                for (int ii = 0; ii < NUM_STRANDS; ii++) {
-                    baseTypeCounts[ii] = new HashMap<Byte, Integer>();
-                }
-            }
-
-            if (outputSeparate) {
-                strandCount = new int[NUM_STRANDS];
-            }
-        }
-
-
-        int getCount(int strand) {
-            return strandCount[strand];
-        }
-
-        public int getTotalCounts() {
-            return totalCount;
-        }
-
-        void increment(byte base, int strand) {
-
-            if (outputBases) {
-                incrementNucleotide(base, strand);
-            }
-
-            if (outputSeparate) {
-                this.strandCount[strand]++;
-            }
-
-            this.totalCount++;
-        }
-
-        /**
-         * Increment the nucleotide counts.
-         *
-         * @param base   65, 67, 71, 84, 78, 126, 127
-         *               aka A, C, G, T, N, deletion, insertion.
-         *               Anything else is stored as 0
-         * @param strand index of strand, 0 for positive and 1 for negative
-         */
-        private void incrementNucleotide(byte base, int strand) {
-            Map<Byte, Integer> btc = baseTypeCounts[strand];
-            if (!nucleotidesKeep.contains(base)) {
-                base = 0;
-            }
-
-            int orig = 0;
-            if (btc.containsKey(base)) {
-                orig = btc.get(base);
-            }
-            btc.put(base, orig + 1);
-        }
-
-        public int getBaseCount(byte base, int strand) {
-            return baseTypeCounts[strand].containsKey(base) ? baseTypeCounts[strand].get(base) : 0;
-        }
-
-        public int getBaseCount(byte base) {
-            int count = 0;
-            for (int strand = 0; strand < NUM_STRANDS; strand++) {
-                count += getBaseCount(base, strand);
-            }
-            return count;
-        }
-    }
-
-
     /**
      * Creates a vary step wig file
      */
@@ -153,6 +153,7 @@ public class IgvTools {
 
     // options for sort
     private static CmdLineParser.Option maxRecordsOption = null;
+    private static CmdLineParser.Option maxMemoryOption = null;
 
     // options for gct files
     private static CmdLineParser.Option probeFileOption = null;
@@ -170,6 +171,7 @@ public class IgvTools {
     private static CmdLineParser.Option minMapQualityOpt = null;
     private static CmdLineParser.Option includeDupsOpt = null;
     private static CmdLineParser.Option pairedCoverageOpt = null;
+    private static CmdLineParser.Option threadsOption = null;
 
     // options for index
     private static CmdLineParser.Option indexTypeOption = null;
@@ -373,9 +375,10 @@ public class IgvTools {
                     int minMapQuality = (Integer) parser.getOptionValue(minMapQualityOpt, 0);
 
                     int windowSizeValue = (Integer) parser.getOptionValue(windowSizeOption, WINDOW_SIZE);
+                    int nThreads = (Integer) parser.getOptionValue(threadsOption, 1);
                     doCount(ifile, ofile, genomeId, maxZoomValue, wfList, windowSizeValue, extFactorValue,
                             preFactorValue, posFactorValue,
-                            trackLine, queryString, minMapQuality, countFlags);
+                            trackLine, queryString, minMapQuality, countFlags, nThreads);
                 } else {
                     String probeFile = (String) parser.getOptionValue(probeFileOption, PROBE_FILE);
                     toTDF(typeString, ifile, ofile, probeFile, genomeId, maxZoomValue, wfList, tmpDirName, maxRecords);
@@ -384,7 +387,11 @@ public class IgvTools {
             } else if (command.equals(CMD_SORT)) {
                 validateArgsLength(nonOptionArgs, 3, basic_syntax);
                 String ofile = nonOptionArgs[2];
-                doSort(ifile, ofile, tmpDirName, maxRecords);
+                // Runs are bounded by memory unless a record count is given explicitly
+                Integer sortMaxRecords = (Integer) parser.getOptionValue(maxRecordsOption);
+                Integer maxMemoryMB = (Integer) parser.getOptionValue(maxMemoryOption);
+                doSort(ifile, ofile, tmpDirName, sortMaxRecords == null ? -1 : sortMaxRecords,
+                        maxMemoryMB == null ? -1 : maxMemoryMB * 1000000L);
             } else if (command.equals(CMD_INDEX)) {
                 int indexType = (Integer) parser.getOptionValue(indexTypeOption, LINEAR_INDEX);
                 int defaultBinSize = indexType == LINEAR_INDEX ? LINEAR_BIN_SIZE : INTERVAL_SIZE;
@@ -560,6 +567,9 @@ public class IgvTools {
         if (command.equals(CMD_SORT) || command.equals(CMD_TOTDF) || command.equals(CMD_TILE)) {
             maxRecordsOption = parser.addIntegerOption('m', "maxRecords");
             tmpDirOption = parser.addStringOption('t', "tmpDir");
+            if (command.equals(CMD_SORT)) {
+                maxMemoryOption = parser.addIntegerOption("maxMemory");
+            }
         }
 
         if (command.equals(CMD_COUNT) || command.equals(CMD_TOTDF) || command.equals(CMD_TILE)) {
@@ -582,6 +592,7 @@ public class IgvTools {
                 minMapQualityOpt = parser.addIntegerOption("minMapQuality");
                 includeDupsOpt = parser.addBooleanOption("includeDuplicates");
                 pairedCoverageOpt = parser.addBooleanOption("pairs");
+                threadsOption = parser.addIntegerOption("threads");
 
                 // Trackline
                 colorOption = parser.addStringOption("color");
@@ -824,6 +835,18 @@ public class IgvTools {
                         Collection<WindowFunction> windowFunctions, int windowSizeValue,
                         int extFactorValue, int preExtFactorValue, int postExtFactorValue,
                         String trackLine, String queryString, int minMapQuality, int countFlags) throws IOException {
+        doCount(ifile, ofile, genomeId, maxZoomValue, windowFunctions, windowSizeValue, extFactorValue,
+                preExtFactorValue, postExtFactorValue, trackLine, queryString, minMapQuality, countFlags, 1);
+    }
+
+    /**
+     * @param nThreads number of threads used to count chromosomes in parallel,  see {@link CoverageCounter#setThreadCount(int)}
+     */
+    public void doCount(String ifile, String ofile, String genomeId, int maxZoomValue,
+                        Collection<WindowFunction> windowFunctions, int windowSizeValue,
+                        int extFactorValue, int preExtFactorValue, int postExtFactorValue,
+                        String trackLine, String queryString, int minMapQuality, int countFlags,
+                        int nThreads) throws IOException {
 
 
         log.info("Computing coverage.  File = " + ifile);
@@ -873,6 +896,7 @@ public class IgvTools {
             counter.setWriteStdOut(wigStdOut);
             counter.setPreExtFactor(preExtFactorValue);
             counter.setPosExtFactor(postExtFactorValue);
+            counter.setThreadCount(nThreads);
 
             String prefix = FilenameUtils.getName(ifile);
             String[] tracknames = counter.getTrackNames(prefix + " ");
@@ -1106,6 +1130,14 @@ public class IgvTools {
     }
 
     public void doSort(String ifile, String ofile, String tmpDirName, int maxRecords) {
+        doSort(ifile, ofile, tmpDirName, maxRecords, -1);
+    }
+
+    /**
+     * @param maxRecords maximum number of records in memory,  or <= 0 for the sorter default
+     * @param maxMemory  memory budget in bytes for records in memory,  or <= 0 for the sorter default
+     */
+    public void doSort(String ifile, String ofile, String tmpDirName, int maxRecords, long maxMemory) {
 
         userMessageWriter.println("Sorting " + ifile + "  -> " + ofile);
         File inputFile = new File(ifile);
@@ -1122,7 +1154,12 @@ public class IgvTools {
             sorter.setTmpDir(tmpDir);
         }
 
-        sorter.setMaxRecords(maxRecords);
+        if (maxMemory > 0) {
+            sorter.setMaxMemory(maxMemory);
+        }
+        if (maxRecords > 0) {
+            sorter.setMaxRecords(maxRecords);
+        }
 
         try {
             sorter.run();
@@ -26,7 +26,6 @@
 package org.broad.igv.tools.sort;
 
 import htsjdk.samtools.util.CloseableIterator;
-import htsjdk.samtools.util.SortingCollection;
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.genome.ChromosomeNameComparator;
 import org.broad.igv.feature.tribble.MUTCodec;
@@ -47,12 +46,18 @@ public abstract class AsciiSorter implements Sorter {
 
     static private Logger log = Logger.getLogger(AsciiSorter.class);
 
-    static int MAX_RECORDS_IN_RAM = 500000;
+    /**
+     * Default memory budget for records held in memory during the sort
+     */
+    static long DEFAULT_MAX_MEMORY = Runtime.getRuntime().maxMemory() / 2;
+
     protected File inputFile;
 
     private File outputFile;
     private boolean writeStdOut = false;
-    private int maxRecords = MAX_RECORDS_IN_RAM;
+    private int maxRecords = -1;
+    private long maxMemory = DEFAULT_MAX_MEMORY;
+    private int nThreads = Math.min(8, Runtime.getRuntime().availableProcessors());
 
     /**
      * Directory used for storing temporary data files
@@ -62,6 +67,12 @@ public abstract class AsciiSorter implements Sorter {
 
     protected Comparator<SortableRecord> comparator = getDefaultComparator();
 
+    /**
+     * Stream runs of records that are already sorted,  see {@link PresortedSortingCollection}.  Requires the default
+     * (chromosome,  start) comparator.
+     */
+    private boolean streamSortedRuns = true;
+
     /**
      * @param inputFile
      * @param outputFile If null, we write to stdout
@@ -82,50 +93,73 @@ public abstract class AsciiSorter implements Sorter {
 
         FileInputStream fis = null;
         PrintWriter writer = null;
+        ParallelSortingCollection cltn = null;
 
         try {
             fis = new FileInputStream(inputFile);
-            Writer rawWriter;
-            if (writeStdOut) {
-                rawWriter = new OutputStreamWriter(System.out);
-            } else {
-                rawWriter = new FileWriter(this.outputFile);
-            }
-            writer = new PrintWriter(new BufferedWriter(rawWriter));
+            OutputStream os = new BufferedOutputStream(writeStdOut ? System.out : new FileOutputStream(this.outputFile));
 
-            SortableRecordCodec codec = new SortableRecordCodec();
-
-            SortingCollection cltn = SortingCollection.newInstance(SortableRecord.class, codec, comparator, maxRecords, tmpDir);
+            // Header and records are both written as UTF-8,  the encoding records are held in
+            writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(os, SortableRecord.UTF8)));
 
             Parser parser = getParser();
+            cltn = streamSortedRuns ?
+                    new PresortedSortingCollection(parser, comparator, tmpDir, maxMemory, maxRecords, nThreads) :
+                    new ParallelSortingCollection(parser, comparator, tmpDir, maxMemory, maxRecords, nThreads);
+
             AsciiLineReader reader = new AsciiLineReader(fis);
 
             String firstDataRow = writeHeader(reader, writer);
             if (firstDataRow != null) {
-                cltn.add(parser.createRecord(firstDataRow));
+                cltn.add(firstDataRow);
             }
 
-            SortableRecord next = null;
-            while ((next = parser.readNextRecord(reader)) != null) {
-                cltn.add(next);
+            String nextLine;
+            while ((nextLine = reader.readLine()) != null) {
+                checkInterrupted();
+                if (!parser.isSkipped(nextLine)) {
+                    cltn.add(nextLine);
+                }
             }
 
-
             CloseableIterator<SortableRecord> iter = cltn.iterator();
             while (iter.hasNext()) {
+                checkInterrupted();
                 SortableRecord al = iter.next();
                 writer.println(al.getText());
-
             }
             iter.close();
+            if (writer.checkError()) {
+                throw new IOException("Error writing sorted output");
+            }
         } finally {
+            if (cltn != null) cltn.cleanup();
             if (fis != null) fis.close();
             if (writer != null) writer.close();
         }
     }
 
+    /**
+     * Abandon the sort if the thread is interrupted,  e.g. because the genome whose gene file is being sorted is
+     * no longer needed
+     */
+    static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Sort interrupted");
+        }
+    }
+
     public void setComparator(Comparator<SortableRecord> comparator) {
         this.comparator = comparator;
+        this.streamSortedRuns = false;
+    }
+
+    /**
+     * Enable or disable streaming of sorted runs.  This is disabled when a comparator is set,  and should only be
+     * re-enabled for comparators that order by chromosome and then start.
+     */
+    public void setStreamSortedRuns(boolean streamSortedRuns) {
+        this.streamSortedRuns = streamSortedRuns;
     }
 
     public static Comparator<SortableRecord> getDefaultComparator() {
@@ -166,6 +200,14 @@ public abstract class AsciiSorter implements Sorter {
         this.maxRecords = maxRecords;
     }
 
+    public void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    public void setThreadCount(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
     public void setWriteStdOut(boolean writeStdOut) {
         this.writeStdOut = writeStdOut;
     }
@@ -44,6 +44,9 @@ public class BAMSorter implements Sorter {
     private File tmpDir;
     private int maxRecords = -1;
 
+    // Rough in-memory size of a SAMRecord,  used to convert a memory budget to the record count htsjdk expects
+    private static final int ESTIMATED_RECORD_BYTES = 1000;
+
     public BAMSorter(File inputFile, File outputFile) {
         this.inputFile = inputFile;
         this.outputFile = outputFile;
@@ -96,6 +99,11 @@ public class BAMSorter implements Sorter {
         this.maxRecords = maxRecords;
     }
 
+    @Override
+    public void setMaxMemory(long maxMemory) {
+        this.maxRecords = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxMemory / ESTIMATED_RECORD_BYTES));
+    }
+
     @Override
     public void setComparator(Comparator<SortableRecord> comparator) {
         throw new RuntimeException("Not implemented");
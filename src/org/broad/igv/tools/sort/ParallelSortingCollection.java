@@ -0,0 +1,467 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.tools.sort;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * External merge sort of text lines,  used by {@link AsciiSorter}.  Lines are collected into runs bounded by a
+ * memory budget.  Each run is parsed and sorted on a worker thread,  then spilled to a compressed temporary file.
+ * The sorted output is a k-way merge of the spilled runs and the final in-memory run.
+ * <p/>
+ * Records that compare equal are returned in input order.
+ */
+public class ParallelSortingCollection {
+
+    private static Logger log = Logger.getLogger(ParallelSortingCollection.class);
+
+    /**
+     * Maximum number of run files open at once.  If there are more runs,  groups of runs are first merged into
+     * intermediate files.  Groups are merged concurrently,  so the limit is divided between the merge threads.
+     */
+    static int MAX_MERGE_RUNS = 128;
+
+    // Estimated memory for a buffered line in addition to its characters (String and char[] headers,  list slot)
+    static final int LINE_OVERHEAD = 64;
+
+    private static final int BUFFER_SIZE = 64000;
+
+    final Parser parser;
+    final Comparator<SortableRecord> comparator;
+    final File tmpDir;
+    private final long maxRunBytes;
+    private final int maxRunRecords;
+    private final int nThreads;
+    private final ExecutorService executor;
+
+    private List<String> lines = new ArrayList<String>();
+    private long runBytes = 0;
+
+    // Runs being sorted and spilled,  in input order
+    private final LinkedList<Future<File>> pending = new LinkedList<Future<File>>();
+    private final List<File> spillFiles = new ArrayList<File>();
+
+    // Every temporary file created and not yet deleted,  including outputs of tasks still running
+    private final Set<File> tempFiles = new HashSet<File>();
+    private boolean cleanedUp = false;
+
+    /**
+     * @param maxMemory  memory budget for lines held in memory,  shared by the run being filled and the runs
+     *                   being sorted
+     * @param maxRecords maximum number of records per run,  or <= 0 for no limit
+     * @param nThreads   number of runs sorted concurrently
+     */
+    public ParallelSortingCollection(Parser parser, Comparator<SortableRecord> comparator, File tmpDir,
+                                     long maxMemory, int maxRecords, int nThreads) {
+        this.parser = parser;
+        this.comparator = comparator;
+        this.tmpDir = tmpDir;
+        this.nThreads = Math.max(1, nThreads);
+        this.maxRunBytes = Math.max(1, maxMemory / (this.nThreads + 1));
+        this.maxRunRecords = maxRecords > 0 ? maxRecords : Integer.MAX_VALUE;
+        this.executor = Executors.newFixedThreadPool(this.nThreads, new SortThreadFactory());
+    }
+
+    /**
+     * Add a line.  The line is parsed when its run is sorted.
+     */
+    public void add(String line) throws IOException {
+        lines.add(line);
+        runBytes += 2L * line.length() + LINE_OVERHEAD;
+        if (runBytes >= maxRunBytes || lines.size() >= maxRunRecords) {
+            submitRun();
+        }
+    }
+
+    private void submitRun() throws IOException {
+
+        // Bound the number of runs in memory
+        while (pending.size() >= nThreads) {
+            spillFiles.add(getResult(pending.removeFirst()));
+        }
+
+        final List<String> runLines = lines;
+        lines = new ArrayList<String>();
+        runBytes = 0;
+
+        pending.add(executor.submit(new Callable<File>() {
+            public File call() throws Exception {
+                return spill(sortLines(runLines));
+            }
+        }));
+    }
+
+    /**
+     * Return an iterator over all records in sorted order.  The collection cannot be added to after this is called.
+     */
+    public CloseableIterator<SortableRecord> iterator() throws IOException {
+
+        final SortableRecord[] lastRun = sortLines(lines);
+        lines = null;
+
+        while (pending.size() > 0) {
+            spillFiles.add(getResult(pending.removeFirst()));
+        }
+
+        List<RecordSource> sources = new ArrayList<RecordSource>();
+        for (File file : mergeSpillFiles()) {
+            sources.add(new FileSource(file));
+        }
+        sources.add(new ArraySource(lastRun));
+
+        return new MergingIterator(sources, comparator);
+    }
+
+    /**
+     * Wait for the runs being sorted and spilled to finish,  without collecting them
+     */
+    void awaitPendingRuns() throws IOException {
+        for (Future<File> future : pending) {
+            getResult(future);
+        }
+    }
+
+    /**
+     * Delete temporary files and stop the worker threads
+     */
+    public void cleanup() {
+        executor.shutdownNow();
+        for (Future<File> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        spillFiles.clear();
+        synchronized (tempFiles) {
+            cleanedUp = true;
+            for (File file : tempFiles) {
+                file.delete();
+            }
+            tempFiles.clear();
+        }
+    }
+
+
+    SortableRecord[] sortLines(List<String> runLines) {
+        SortableRecord[] records = new SortableRecord[runLines.size()];
+        for (int i = 0; i < records.length; i++) {
+            String line = runLines.get(i);
+            try {
+                records[i] = parser.createRecord(line);
+            } catch (RuntimeException e) {
+                log.error("Error parsing line: " + line);
+                throw e;
+            }
+            runLines.set(i, null);    // Release the String as we go,  the record has a copy
+        }
+        Arrays.sort(records, comparator);   // Stable
+        return records;
+    }
+
+    private File spill(SortableRecord[] records) throws IOException {
+        File file = createTempFile();
+        RunWriter writer = new RunWriter(file);
+        try {
+            for (SortableRecord record : records) {
+                writer.write(record);
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * If there are more spilled runs than can be merged at once,  merge groups of consecutive runs (in parallel)
+     * until the number is under the limit.  Grouping consecutive runs keeps equal records in input order.
+     */
+    private List<File> mergeSpillFiles() throws IOException {
+
+        List<File> files = new ArrayList<File>(spillFiles);
+        while (files.size() >= MAX_MERGE_RUNS) {
+            int groupSize = Math.max(2, MAX_MERGE_RUNS / nThreads);
+            List<Future<File>> merged = new ArrayList<Future<File>>();
+            for (int i = 0; i < files.size(); i += groupSize) {
+                final List<File> group = files.subList(i, Math.min(files.size(), i + groupSize));
+                merged.add(executor.submit(new Callable<File>() {
+                    public File call() throws Exception {
+                        return mergeFiles(group);
+                    }
+                }));
+            }
+            List<File> next = new ArrayList<File>();
+            for (Future<File> future : merged) {
+                File file = getResult(future);
+                spillFiles.add(file);
+                next.add(file);
+            }
+            for (File file : files) {
+                deleteTempFile(file);
+            }
+            spillFiles.removeAll(files);
+            files = next;
+        }
+        return files;
+    }
+
+    private File mergeFiles(List<File> files) throws IOException {
+        List<RecordSource> sources = new ArrayList<RecordSource>();
+        for (File file : files) {
+            sources.add(new FileSource(file));
+        }
+        MergingIterator iter = new MergingIterator(sources, comparator);
+        File file = createTempFile();
+        RunWriter writer = new RunWriter(file);
+        try {
+            while (iter.hasNext()) {
+                AsciiSorter.checkInterrupted();
+                writer.write(iter.next());
+            }
+        } finally {
+            writer.close();
+            iter.close();
+        }
+        return file;
+    }
+
+    File createTempFile() throws IOException {
+        synchronized (tempFiles) {
+            if (cleanedUp) {
+                throw new IOException("Sort cancelled");
+            }
+            File file = File.createTempFile("igvtools.sort.", ".tmp", tmpDir);
+            file.deleteOnExit();
+            tempFiles.add(file);
+            return file;
+        }
+    }
+
+    void deleteTempFile(File file) {
+        synchronized (tempFiles) {
+            tempFiles.remove(file);
+        }
+        file.delete();
+    }
+
+    private static File getResult(Future<File> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Sort interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+
+    /**
+     * Writes records to a spill file compressed at the fastest deflate level
+     */
+    static class RunWriter {
+
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final DataOutputStream dos;
+
+        RunWriter(File file) throws IOException {
+            dos = new DataOutputStream(new BufferedOutputStream(
+                    new DeflaterOutputStream(new FileOutputStream(file), deflater, BUFFER_SIZE), BUFFER_SIZE));
+        }
+
+        void write(SortableRecord record) throws IOException {
+            SortableRecordCodec.write(dos, record);
+        }
+
+        void close() throws IOException {
+            try {
+                dos.close();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    interface RecordSource {
+
+        /**
+         * @return the next record,  or null if there are no more
+         */
+        SortableRecord next() throws IOException;
+
+        void close();
+    }
+
+    static class ArraySource implements RecordSource {
+
+        private SortableRecord[] records;
+        private int index = 0;
+
+        ArraySource(SortableRecord[] records) {
+            this.records = records;
+        }
+
+        public SortableRecord next() {
+            if (index < records.length) {
+                SortableRecord record = records[index];
+                records[index++] = null;
+                return record;
+            }
+            return null;
+        }
+
+        public void close() {
+            records = null;
+        }
+    }
+
+    static class FileSource implements RecordSource {
+
+        private final Inflater inflater = new Inflater();
+        private final DataInputStream dis;
+        private final File file;
+        private boolean closed = false;
+
+        FileSource(File file) throws IOException {
+            this.file = file;
+            dis = new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(new FileInputStream(file), inflater, BUFFER_SIZE), BUFFER_SIZE));
+        }
+
+        public SortableRecord next() throws IOException {
+            if (closed) return null;
+            try {
+                return SortableRecordCodec.read(dis);
+            } catch (EOFException e) {
+                close();
+                return null;
+            }
+        }
+
+        public void close() {
+            if (!closed) {
+                closed = true;
+                try {
+                    dis.close();
+                } catch (IOException e) {
+                    log.error("Error closing " + file.getAbsolutePath(), e);
+                }
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * K-way merge of sorted sources.  Ties are broken by source order.
+     */
+    static class MergingIterator implements CloseableIterator<SortableRecord> {
+
+        private final PriorityQueue<Head> queue;
+        private final List<RecordSource> sources;
+        private final Comparator<SortableRecord> comparator;
+
+        MergingIterator(List<RecordSource> sources, Comparator<SortableRecord> comparator) throws IOException {
+            this.sources = sources;
+            this.comparator = comparator;
+            queue = new PriorityQueue<Head>(Math.max(1, sources.size()));
+            for (int i = 0; i < sources.size(); i++) {
+                SortableRecord record = sources.get(i).next();
+                if (record != null) {
+                    queue.add(new Head(i, record));
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        public SortableRecord next() {
+            Head head = queue.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            SortableRecord record = head.record;
+            try {
+                head.record = sources.get(head.source).next();
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading sort run", e);
+            }
+            if (head.record != null) {
+                queue.add(head);
+            }
+            return record;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            queue.clear();
+            for (RecordSource source : sources) {
+                source.close();
+            }
+        }
+
+        private class Head implements Comparable<Head> {
+
+            final int source;
+            SortableRecord record;
+
+            Head(int source, SortableRecord record) {
+                this.source = source;
+                this.record = record;
+            }
+
+            public int compareTo(Head o) {
+                int c = comparator.compare(record, o.record);
+                return c != 0 ? c : source - o.source;
+            }
+        }
+    }
+
+    private static class SortThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "igvtools-sort-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -66,7 +66,7 @@ public class Parser {
         }
         if (nextLine == null) {
             return null;
-        } else if (nextLine.trim().length() == 0 || nextLine.startsWith(commentPrefix)) {
+        } else if (isSkipped(nextLine)) {
             return readNextRecord(reader);
         }
 
@@ -79,6 +79,13 @@ public class Parser {
         }
     }
 
+    /**
+     * @return true if the line is blank or a comment,  i.e. not a record
+     */
+    public boolean isSkipped(String nextLine) {
+        return nextLine.trim().length() == 0 || nextLine.startsWith(commentPrefix);
+    }
+
     public SortableRecord createRecord(String nextLine) {
         String[] fields = splitOnWhiteSpace ?
                 Globals.singleTabMultiSpacePattern.split(nextLine) :
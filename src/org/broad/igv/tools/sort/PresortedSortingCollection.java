@@ -0,0 +1,317 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.tools.sort;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Sorting collection for input that is mostly sorted,  e.g. a concatenation of sorted per-chromosome files.
+ * <p/>
+ * Records that continue the sorted run of their chromosome are streamed to a per-chromosome file as they are read,
+ * without sorting.  Only out-of-order records are sorted,  by the parent {@link ParallelSortingCollection}.  The
+ * output is produced in a single pass over the chromosome files,  in chromosome order,  merged with the sorted
+ * out-of-order records.
+ * <p/>
+ * If the input turns out not to be mostly sorted all further lines are passed to the parent collection.  This
+ * requires a comparator that orders records by chromosome and then start,  such as
+ * {@link AsciiSorter#getDefaultComparator()}.
+ */
+public class PresortedSortingCollection extends ParallelSortingCollection {
+
+    private static Logger log = Logger.getLogger(PresortedSortingCollection.class);
+
+    /**
+     * Number of records read before the input is checked for sortedness
+     */
+    static int MIN_RECORDS = 10000;
+
+    /**
+     * Fraction of records which can be out of order,  or start a new chromosome segment,  before streaming is
+     * abandoned
+     */
+    static double MAX_UNSORTED_FRACTION = 0.1;
+
+    /**
+     * Maximum number of segment files per chromosome,  and in total.  Records that would start a segment past
+     * either limit are passed to the parent collection.
+     */
+    static int MAX_CHROMOSOME_SEGMENTS = 64;
+    static int MAX_SEGMENTS = 4096;
+
+    private final Map<String, ChromosomeRun> chromosomeRuns = new HashMap<String, ChromosomeRun>();
+    private ChromosomeRun currentRun;
+    private RunWriter currentWriter;
+
+    private boolean streaming = true;
+    private long recordCount = 0;
+    private long unsortedCount = 0;
+    private int segmentCount = 0;
+
+    public PresortedSortingCollection(Parser parser, Comparator<SortableRecord> comparator, File tmpDir,
+                                      long maxMemory, int maxRecords, int nThreads) {
+        super(parser, comparator, tmpDir, maxMemory, maxRecords, nThreads);
+    }
+
+    @Override
+    public void add(String line) throws IOException {
+
+        if (!streaming) {
+            super.add(line);
+            return;
+        }
+
+        SortableRecord record = parser.createRecord(line);
+        recordCount++;
+
+        ChromosomeRun run = chromosomeRuns.get(record.getChromosome());
+        if (run == null) {
+            run = new ChromosomeRun(record.getChromosome());
+            chromosomeRuns.put(run.chr, run);
+        }
+
+        if (record.getStart() < run.lastStart) {
+            unsortedCount++;
+            super.add(line);
+        } else if (run != currentRun &&
+                (run.segments.size() >= MAX_CHROMOSOME_SEGMENTS || segmentCount >= MAX_SEGMENTS)) {
+            // Too many segments,  sort the record instead
+            unsortedCount++;
+            super.add(line);
+        } else {
+            if (run != currentRun) {
+                // Start a new segment for this chromosome
+                closeCurrentWriter();
+                File file = createTempFile();
+                run.segments.add(file);
+                segmentCount++;
+                currentWriter = new RunWriter(file);
+                currentRun = run;
+                if (run.segments.size() > 1) {
+                    unsortedCount++;
+                }
+            }
+            currentWriter.write(record);
+            run.lastStart = record.getStart();
+        }
+        checkSorted();
+    }
+
+    private void checkSorted() throws IOException {
+        if (recordCount >= MIN_RECORDS && unsortedCount > MAX_UNSORTED_FRACTION * recordCount) {
+            log.info("Input is not sorted by chromosome segments,  sorting all remaining records");
+            closeCurrentWriter();
+            streaming = false;
+        }
+    }
+
+    @Override
+    public CloseableIterator<SortableRecord> iterator() throws IOException {
+
+        closeCurrentWriter();
+
+        List<ChromosomeRun> runs = new ArrayList<ChromosomeRun>(chromosomeRuns.values());
+        Collections.sort(runs, new Comparator<ChromosomeRun>() {
+            public int compare(ChromosomeRun o1, ChromosomeRun o2) {
+                return comparator.compare(o1.firstRecord(), o2.firstRecord());
+            }
+        });
+
+        // Group chromosomes the comparator does not distinguish,  their records are merged by start
+        List<List<ChromosomeRun>> groups = new ArrayList<List<ChromosomeRun>>();
+        for (ChromosomeRun run : runs) {
+            if (run.segments.isEmpty()) continue;
+            List<ChromosomeRun> last = groups.isEmpty() ? null : groups.get(groups.size() - 1);
+            if (last != null && comparator.compare(last.get(0).firstRecord(), run.firstRecord()) == 0) {
+                last.add(run);
+            } else {
+                groups.add(new ArrayList<ChromosomeRun>(Arrays.asList(run)));
+            }
+        }
+
+        // Equal records are taken from the chromosome runs first,  they precede out-of-order records in the input
+        List<RecordSource> sources = new ArrayList<RecordSource>();
+        sources.add(new ChromosomeRunsSource(groups));
+        sources.add(new IteratorSource(super.iterator()));
+        return new MergingIterator(sources, comparator);
+    }
+
+    @Override
+    public void cleanup() {
+        try {
+            closeCurrentWriter();
+        } catch (IOException e) {
+            log.error("Error closing sort run", e);
+        }
+        for (ChromosomeRun run : chromosomeRuns.values()) {
+            for (File file : run.segments) {
+                file.delete();
+            }
+        }
+        super.cleanup();
+    }
+
+    /**
+     * @return the number of chromosome segment files created
+     */
+    int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return true if records are still being streamed to chromosome runs
+     */
+    boolean isStreaming() {
+        return streaming;
+    }
+
+    private void closeCurrentWriter() throws IOException {
+        if (currentWriter != null) {
+            currentWriter.close();
+            currentWriter = null;
+            currentRun = null;
+        }
+    }
+
+
+    private static class ChromosomeRun {
+
+        final String chr;
+        final List<File> segments = new ArrayList<File>();
+        int lastStart = Integer.MIN_VALUE;
+
+        ChromosomeRun(String chr) {
+            this.chr = chr;
+        }
+
+        SortableRecord firstRecord() {
+            return new SortableRecord(chr, Integer.MIN_VALUE, new byte[0]);
+        }
+    }
+
+    /**
+     * Records of the chromosome runs in order,  one chromosome group open at a time
+     */
+    private class ChromosomeRunsSource implements RecordSource {
+
+        private final Iterator<List<ChromosomeRun>> groups;
+        private RecordSource current;
+
+        ChromosomeRunsSource(List<List<ChromosomeRun>> groups) {
+            this.groups = groups.iterator();
+        }
+
+        public SortableRecord next() throws IOException {
+            while (true) {
+                if (current == null) {
+                    if (!groups.hasNext()) {
+                        return null;
+                    }
+                    List<ChromosomeRun> group = groups.next();
+                    if (group.size() == 1) {
+                        current = new SegmentSource(group.get(0).segments);
+                    } else {
+                        List<RecordSource> sources = new ArrayList<RecordSource>();
+                        for (ChromosomeRun run : group) {
+                            sources.add(new SegmentSource(run.segments));
+                        }
+                        current = new IteratorSource(new MergingIterator(sources, comparator));
+                    }
+                }
+                SortableRecord record = current.next();
+                if (record != null) {
+                    return record;
+                }
+                current.close();
+                current = null;
+            }
+        }
+
+        public void close() {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Concatenation of the segment files of a chromosome,  opened one at a time
+     */
+    private static class SegmentSource implements RecordSource {
+
+        private final Iterator<File> files;
+        private FileSource current;
+
+        SegmentSource(List<File> files) {
+            this.files = files.iterator();
+        }
+
+        public SortableRecord next() throws IOException {
+            while (true) {
+                if (current == null) {
+                    if (!files.hasNext()) {
+                        return null;
+                    }
+                    current = new FileSource(files.next());
+                }
+                SortableRecord record = current.next();
+                if (record != null) {
+                    return record;
+                }
+                current = null;     // FileSource closes itself at the end of the file
+            }
+        }
+
+        public void close() {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    private static class IteratorSource implements RecordSource {
+
+        private final CloseableIterator<SortableRecord> iterator;
+
+        IteratorSource(CloseableIterator<SortableRecord> iterator) {
+            this.iterator = iterator;
+        }
+
+        public SortableRecord next() {
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        public void close() {
+            iterator.close();
+        }
+    }
+}
@@ -25,15 +25,26 @@
 
 package org.broad.igv.tools.sort;
 
+import java.nio.charset.Charset;
+
 /**
+ * The line is held as UTF-8 bytes,  roughly half the memory of a String for the ASCII text of most formats.
+ *
  * @author mnazaire
  */
 public class SortableRecord {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
     private String chromosome;
     private int start;
-    private String text;
+    private byte[] text;
 
     public SortableRecord(String chromosome, int start, String text) {
+        this(chromosome, start, text.getBytes(UTF8));
+    }
+
+    public SortableRecord(String chromosome, int start, byte[] text) {
         this.chromosome = chromosome;
         this.start = start;
         this.text = text;
@@ -48,6 +59,13 @@ public class SortableRecord {
     }
 
     public String getText() {
+        return new String(text, UTF8);
+    }
+
+    /**
+     * @return the UTF-8 encoded text,  not copied
+     */
+    public byte[] getTextBytes() {
         return text;
     }
 }
@@ -49,16 +49,7 @@ public class SortableRecordCodec implements SortingCollection.Codec<SortableReco
 
     public void encode(SortableRecord record) {
         try {
-            outputStream.writeUTF(record.getChromosome());
-            outputStream.writeInt(record.getStart());
-
-            // Code below contributed by Eric Smith to deal with lines > 64k characters (VCF files), which causes
-            // writeUTF to blow up since it uses 16-bit length.  The workaround is to write a 32-bit
-            // length followed by the UTF8-encoded bytes.
-            String s = record.getText();
-            byte[] textBytes = s.getBytes("utf-8");
-            outputStream.writeInt(textBytes.length);
-            outputStream.write(textBytes, 0, textBytes.length);
+            write(outputStream, record);
         } catch (IOException ex) {
             log.error("Error encoding alignment", ex);
         }
@@ -66,17 +57,7 @@ public class SortableRecordCodec implements SortingCollection.Codec<SortableReco
 
     public SortableRecord decode() {
         try {
-
-            String chr = inputStream.readUTF();
-            int start = inputStream.readInt();
-
-            // See comment in encode re long lines and writeUTF
-            int textLen = inputStream.readInt();
-            byte[] textBytes = new byte[textLen];
-            inputStream.readFully(textBytes);
-            String text = new String(textBytes, "utf-8");
-
-            return new SortableRecord(chr, start, text);
+            return read(inputStream);
         } catch (EOFException ex) {
             return null;
         } catch (IOException ex) {
@@ -85,6 +66,33 @@ public class SortableRecordCodec implements SortingCollection.Codec<SortableReco
         }
     }
 
+    static void write(DataOutputStream outputStream, SortableRecord record) throws IOException {
+        outputStream.writeUTF(record.getChromosome());
+        outputStream.writeInt(record.getStart());
+
+        // Code below contributed by Eric Smith to deal with lines > 64k characters (VCF files), which causes
+        // writeUTF to blow up since it uses 16-bit length.  The workaround is to write a 32-bit
+        // length followed by the UTF8-encoded bytes.
+        byte[] textBytes = record.getTextBytes();
+        outputStream.writeInt(textBytes.length);
+        outputStream.write(textBytes, 0, textBytes.length);
+    }
+
+    /**
+     * @throws EOFException at the end of the stream
+     */
+    static SortableRecord read(DataInputStream inputStream) throws IOException {
+        String chr = inputStream.readUTF();
+        int start = inputStream.readInt();
+
+        // See comment in write re long lines and writeUTF
+        int textLen = inputStream.readInt();
+        byte[] textBytes = new byte[textLen];
+        inputStream.readFully(textBytes);
+
+        return new SortableRecord(chr, start, textBytes);
+    }
+
     public SortingCollection.Codec<SortableRecord> clone() {
         SortableRecordCodec other = new SortableRecordCodec();
         return other;
@@ -43,4 +43,9 @@ public interface Sorter {
 
     void setMaxRecords(int maxRecords);
 
+    /**
+     * Set the memory budget,  in bytes,  for records held in memory during the sort
+     */
+    void setMaxMemory(long maxMemory);
+
 }
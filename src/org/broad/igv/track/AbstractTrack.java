@@ -46,6 +46,7 @@ import org.broad.igv.ui.panel.IGVPopupMenu;
 import org.broad.igv.ui.panel.MouseableRegion;
 import org.broad.igv.ui.panel.ReferenceFrame;
 import org.broad.igv.ui.util.UIUtilities;
+import org.broad.igv.util.LoadScheduler;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.Utilities;
 import htsjdk.tribble.Feature;
@@ -1038,8 +1039,8 @@ public abstract class AbstractTrack implements Track {
 
     @Override
     public void dispose() {
-        // Default is to do nothing.  Override in subclasses
-
+        // Drop any loads still queued for this track.  Override in subclasses to release resources
+        LoadScheduler.getInstance().cancel(this);
     }
 
 
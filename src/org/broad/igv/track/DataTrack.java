@@ -48,8 +48,12 @@ import org.broad.igv.session.SubtlyImportant;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.panel.FrameManager;
 import org.broad.igv.ui.panel.ReferenceFrame;
+import org.broad.igv.ui.panel.TrackImageCache;
+import org.broad.igv.util.LoadScheduler;
+import org.broad.igv.util.NamedRunnable;
 import org.broad.igv.util.ResourceLocator;
 
+import javax.swing.SwingUtilities;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlType;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
@@ -70,8 +74,10 @@ public abstract class DataTrack extends AbstractTrack implements ScalableTrack {
     private DataRenderer renderer;
 
     // TODO -- memory leak.  This needs to get cleared when the gene list changes
-    private HashMap<String, LoadedDataInterval> loadedIntervalCache = new HashMap(200);
-    private boolean featuresLoading = false;
+    // Synchronized,  intervals can be loaded by the preloader while the track is painted
+    private Map<String, LoadedDataInterval> loadedIntervalCache =
+            Collections.synchronizedMap(new HashMap<String, LoadedDataInterval>(200));
+    private volatile boolean featuresLoading = false;
 
 
     public DataTrack(ResourceLocator locator, String id, String name) {
@@ -126,6 +132,10 @@ public abstract class DataTrack extends AbstractTrack implements ScalableTrack {
         LoadedDataInterval interval = loadedIntervalCache.get(referenceFrame.getName());
         if (interval != null && interval.contains(chr, start, end, zoom)) {
             inViewScores = interval.getScores();
+        } else if (SwingUtilities.isEventDispatchThread() && !Globals.isBatch()) {
+            // Don't load on the event dispatch thread,  the panel is repainted when the load completes
+            scheduleLoad(referenceFrame, LoadScheduler.Priority.VISIBLE);
+            return Collections.EMPTY_LIST;
         } else {
             inViewScores = loadScores(referenceFrame);
         }
@@ -187,13 +197,53 @@ public abstract class DataTrack extends AbstractTrack implements ScalableTrack {
         }
     }
 
-    public List<LocusScore> loadScores(final ReferenceFrame referenceFrame) {
+    /**
+     * Load the scores for the frame on a {@link LoadScheduler} worker,  then repaint the data panels.  Paints and
+     * the gene list preloader use the same task key,  so a paint of an interval that is queued for prefetch
+     * promotes the queued task rather than loading the interval again.
+     */
+    public void scheduleLoad(final ReferenceFrame referenceFrame, LoadScheduler.Priority priority) {
+        NamedRunnable runnable = new NamedRunnable() {
+            public void run() {
+                load(referenceFrame);
+                if (!Globals.isHeadless() && !Globals.isBatch() && IGV.hasInstance()) {
+                    TrackImageCache.getInstance().invalidate(DataTrack.this, referenceFrame);
+                    IGV.getInstance().getContentPane().repaintDataPanelOverlays();
+                }
+            }
+
+            public String getName() {
+                return "Load " + DataTrack.this.getName();
+            }
+        };
+        LoadScheduler.getInstance().submit(this, getLoadKey(referenceFrame), priority, runnable);
+    }
+
+    /**
+     * @return the {@link LoadScheduler} key for loading the frame's current view
+     */
+    static String getLoadKey(ReferenceFrame referenceFrame) {
+        return referenceFrame.getName() + ":" + referenceFrame.getChrName() + ":" + (int) referenceFrame.getOrigin() +
+                "-" + ((int) referenceFrame.getEnd() + 1) + ":" + referenceFrame.getZoom();
+    }
+
+    /**
+     * Load scores for the frame.  Synchronized with {@link #load(ReferenceFrame)},  so concurrent loads of the same
+     * interval off the event dispatch thread load it once.  Paints on the event dispatch thread never call this,
+     * see {@link #scheduleLoad(ReferenceFrame, LoadScheduler.Priority)}.
+     */
+    public synchronized List<LocusScore> loadScores(final ReferenceFrame referenceFrame) {
 
         String chr = referenceFrame.getChrName();
         int start = (int) referenceFrame.getOrigin();
         int end = (int) referenceFrame.getEnd() + 1;
         int zoom = referenceFrame.getZoom();
 
+        LoadedDataInterval loaded = loadedIntervalCache.get(referenceFrame.getName());
+        if (loaded != null && loaded.contains(chr, start, end, zoom)) {
+            return loaded.getScores();
+        }
+
         try {
             featuresLoading = true;
             int maxEnd = end;
@@ -46,6 +46,7 @@ import org.broad.igv.ui.event.IGVEventBus;
 import org.broad.igv.ui.event.IGVEventObserver;
 import org.broad.igv.ui.event.ViewChange;
 import org.broad.igv.ui.panel.ReferenceFrame;
+import org.broad.igv.ui.panel.TrackImageCache;
 import org.broad.igv.ui.util.MessageUtils;
 import org.broad.igv.util.*;
 import org.broad.igv.variant.VariantTrack;
@@ -138,7 +139,8 @@ public class FeatureTrack extends AbstractTrack implements IGVEventObserver {
     private static final String PLUGIN_SOURCE = "PluginSource";
     private static final String SEQUENCE_MATCH_SOURCE = "SequenceMatchSource";
 
-    private static Object loadLock = new Object();
+    // Per-track lock,  loads for different tracks may run concurrently on the LoadScheduler workers
+    private final Object loadLock = new Object();
 
     //Force this track to load data synchronously.
     //With this set to false, it chooses depending on the source
@@ -937,6 +939,7 @@ public class FeatureTrack extends AbstractTrack implements IGVEventObserver {
 
                     //Now that features are loaded, we may need to repaint
                     //to accommodate.
+                    TrackImageCache.getInstance().invalidate(FeatureTrack.this, referenceFrame);
                     referenceFrame.getEventBus().post(new DataLoadedEvent(referenceFrame));
                 } catch (Exception e) {
                     // Mark the interval with an empty feature list to prevent an endless loop of load
@@ -958,7 +961,8 @@ public class FeatureTrack extends AbstractTrack implements IGVEventObserver {
 
         if (aSync) {
             referenceFrame.getEventBus().subscribe(DataLoadedEvent.class, FeatureTrack.this);
-            LongRunningTask.submit(runnable);
+            String key = referenceFrame.getName() + ":" + chr + ":" + start + "-" + end;
+            LoadScheduler.getInstance().submit(this, key, LoadScheduler.Priority.VISIBLE, runnable);
         } else {
             runnable.run();
         }
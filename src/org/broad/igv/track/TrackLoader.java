@@ -27,6 +27,7 @@ package org.broad.igv.track;
 
 import htsjdk.tribble.Feature;
 import org.apache.log4j.Logger;
+import org.broad.igv.Globals;
 import org.broad.igv.PreferenceManager;
 import org.broad.igv.bbfile.BBFileReader;
 import org.broad.igv.bigwig.BigWigDataSource;
@@ -87,6 +88,7 @@ import org.broad.igv.ui.util.ConfirmDialog;
 import org.broad.igv.ui.util.MessageUtils;
 import org.broad.igv.ui.util.ConvertFileDialog;
 import org.broad.igv.ui.util.ConvertOptions;
+import org.broad.igv.ui.util.UIUtilities;
 import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.HttpUtils;
 import org.broad.igv.util.ParsingUtils;
@@ -668,7 +670,7 @@ public class TrackLoader {
 
     }
 
-    private void loadWigFile(ResourceLocator locator, List<Track> newTracks, Genome genome) {
+    private void loadWigFile(final ResourceLocator locator, List<Track> newTracks, Genome genome) {
 
         if (locator.isLocal()) {
             if (!checkSize(locator)) {
@@ -676,7 +678,10 @@ public class TrackLoader {
             }
         }
 
-        WiggleDataset ds = (new WiggleParser(locator, genome)).parse();
+        // In the interactive application the file is parsed in the background,  the tracks are usable as soon
+        // as the first chromosome is loaded
+        WiggleParser parser = new WiggleParser(locator, genome);
+        final WiggleDataset ds = IGV.hasInstance() && !Globals.isBatch() ? parser.parseInBackground() : parser.parse();
         TrackProperties props = ds.getTrackProperties();
 
         // In case of conflict between the resource locator display name and the track properties name,
@@ -691,6 +696,7 @@ public class TrackLoader {
 
         String path = locator.getPath();
         boolean multiTrack = ds.getTrackNames().length > 1;
+        final List<DataSourceTrack> wigTracks = new ArrayList<DataSourceTrack>();
 
         for (String heading : ds.getTrackNames()) {
 
@@ -714,6 +720,27 @@ public class TrackLoader {
 
 
             newTracks.add(track);
+            wigTracks.add(track);
+        }
+
+        if (ds.isLoading()) {
+            // Refresh the tracks when the rest of the file has been loaded
+            ds.addLoadListener(new Runnable() {
+                public void run() {
+                    UIUtilities.invokeOnEventThread(new Runnable() {
+                        public void run() {
+                            Exception error = ds.getLoadError();
+                            if (error != null) {
+                                MessageUtils.showMessage("<html>Error loading " + locator.getPath() + ": " + error.getMessage());
+                            }
+                            for (DataSourceTrack track : wigTracks) {
+                                track.clearCaches();
+                            }
+                            IGV.getInstance().repaint();
+                        }
+                    });
+                }
+            });
         }
     }
 
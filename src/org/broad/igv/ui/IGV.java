@@ -346,6 +346,7 @@ public class IGV implements IGVEventObserver {
 
 
     public void repaint() {
+        TrackImageCache.getInstance().invalidate();
         mainFrame.repaint();
     }
 
@@ -444,6 +445,7 @@ public class IGV implements IGVEventObserver {
      * @param updateCommandBar
      */
     public void repaintDataAndHeaderPanels(boolean updateCommandBar) {
+        TrackImageCache.getInstance().invalidate();
         if (Globals.isBatch()) {
             Runnable r = new Runnable() {
                 public void run() {
@@ -879,6 +881,7 @@ public class IGV implements IGVEventObserver {
     }
 
     public void resetFrames() {
+        TrackImageCache.getInstance().clear();
         contentPane.getMainPanel().headerPanelContainer.createHeaderPanels();
         for (TrackPanel tp : getTrackPanels()) {
             tp.createDataPanels();
@@ -993,6 +996,7 @@ public class IGV implements IGVEventObserver {
 
     final public void doRefresh() {
 
+        TrackImageCache.getInstance().invalidate();
         contentPane.getMainPanel().revalidate();
         mainFrame.repaint();
         //getContentPane().repaint();
@@ -1291,6 +1295,7 @@ public class IGV implements IGVEventObserver {
 
         alignmentTrackListeners.clear();
         groupListeners.clear();
+        TrackImageCache.getInstance().clear();
 
         contentPane.getMainPanel().resetPanels();
 
@@ -2230,6 +2235,7 @@ public class IGV implements IGVEventObserver {
         for (Track t : tracksToRemove) {
             t.dispose();
         }
+        TrackImageCache.getInstance().clear();
     }
 
     /**
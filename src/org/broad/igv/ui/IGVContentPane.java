@@ -110,6 +110,15 @@ public class IGVContentPane extends JPanel {
         }
     }
 
+    /**
+     * Repaint the data panels for a change to the ruler or region of interest highlight,  keeping cached track images.
+     */
+    public void repaintDataPanelOverlays() {
+        for (TrackPanel tp : mainPanel.getTrackPanels()) {
+            tp.getScrollPane().getDataPanel().repaintOverlays();
+        }
+    }
+
     public void revalidateDataPanels() {
         for (TrackPanel tp : mainPanel.getTrackPanels()) {
             tp.getScrollPane().getDataPanel().revalidate();
@@ -223,6 +223,9 @@ public class SearchCommand {
                 case ERROR:
                 default: {
                     message = "Cannot find feature or locus: " + searchString;
+                    if (FeatureDB.isLoadingFeatures()) {
+                        message += "<br>Gene names are still loading,  try again shortly.";
+                    }
                     success = false;
                     showMessage = true;
                 }
@@ -113,6 +113,26 @@ public class DataPanel extends JComponent implements Paintable {
     }
 
 
+    /**
+     * Repaint the panel after a change to its content,  e.g. a selection.  Cached track images of this panel's
+     * frame are discarded.
+     */
+    @Override
+    public void repaint() {
+        if (frame != null) {
+            TrackImageCache.getInstance().invalidate(frame);
+        }
+        super.repaint();
+    }
+
+    /**
+     * Repaint the panel for a change to an overlay drawn on top of the tracks,  e.g. the ruler or the
+     * highlighted region of interest.  Unlike {@link #repaint()} the cached track images are kept.
+     */
+    public void repaintOverlays() {
+        super.repaint(0, 0, 0, getWidth(), getHeight());
+    }
+
     @Override
     public void paintComponent(final Graphics g) {
 
@@ -150,7 +170,10 @@ public class DataPanel extends JComponent implements Paintable {
             int trackWidth = getWidth();
 
             computeMousableRegions(groups, trackWidth);
-            painter.paint(groups, context, trackWidth, getBackground(), damageRect);
+            TrackImageCache imageCache = Globals.isBatch() ? null : TrackImageCache.getInstance();
+            if (imageCache != null && !imageCache.isEnabled()) imageCache = null;
+            painter.paint(groups, context, trackWidth, getBackground(), damageRect, imageCache,
+                    TrackRenderScheduler.getInstance());
 
 
             // If there is a partial ROI in progress draw it first
@@ -580,7 +603,8 @@ public class DataPanel extends JComponent implements Paintable {
             updateTooltipText(e.getX(), e.getY());
 
             if(IGV.getInstance().isRulerEnabled()) {
-                IGV.getInstance().repaintDataPanels();
+                // Ruler only, track images are unchanged
+                IGV.getInstance().getContentPane().repaintDataPanelOverlays();
             }
 
         }
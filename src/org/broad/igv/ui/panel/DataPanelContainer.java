@@ -114,6 +114,18 @@ public class DataPanelContainer extends TrackPanelComponent implements Paintable
         }
     }
 
+    /**
+     * Repaint the data panels for a change to an overlay,  keeping cached track images.
+     * See {@link DataPanel#repaintOverlays()}.
+     */
+    public void repaintOverlays() {
+        for (Component c : this.getComponents()) {
+            if (c instanceof DataPanel) {
+                ((DataPanel) c).repaintOverlays();
+            }
+        }
+    }
+
     /**
      * Paint to an offscreen graphic, e.g. a graphic for an image or svg file.
      *
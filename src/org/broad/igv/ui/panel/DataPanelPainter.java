@@ -37,11 +37,16 @@ import org.apache.log4j.Logger;
 import org.broad.igv.feature.FeatureUtils;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.renderer.DataRange;
+import org.broad.igv.sam.AlignmentTrack;
 import org.broad.igv.track.*;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.UIConstants;
+import org.broad.igv.util.LoadScheduler;
 
+import javax.swing.*;
 import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.util.*;
 import java.util.List;
 
@@ -50,11 +55,30 @@ public class DataPanelPainter {
 
     private static Logger log = Logger.getLogger(DataPanelPainter.class);
 
+    private static final Color PLACEHOLDER_COLOR = new Color(240, 240, 240);
+
     public synchronized void paint(Collection<TrackGroup> groups,
                                    RenderContext context,
                                    int width,
                                    Color background,
                                    Rectangle visibleRect) {
+        paint(groups, context, width, background, visibleRect, null, null);
+    }
+
+    /**
+     * Paint the tracks,  drawing each from its cached image when the image is current.
+     *
+     * @param imageCache      cache of rendered track images,  or null to render every track directly
+     * @param renderScheduler scheduler to render missing images off the event dispatch thread,  or null to
+     *                        render them in this call.  Ignored if imageCache is null.
+     */
+    public synchronized void paint(Collection<TrackGroup> groups,
+                                   RenderContext context,
+                                   int width,
+                                   Color background,
+                                   Rectangle visibleRect,
+                                   TrackImageCache imageCache,
+                                   TrackRenderScheduler renderScheduler) {
 
         Graphics2D graphics2D = null;
 
@@ -64,7 +88,7 @@ public class DataPanelPainter {
             graphics2D.clearRect(visibleRect.x, visibleRect.y, visibleRect.width, visibleRect.height);
             graphics2D.setColor(Color.BLACK);
 
-            paintFrame(groups, context, width, visibleRect);
+            paintFrame(groups, context, width, background, visibleRect, imageCache, renderScheduler);
 
 
         } finally {
@@ -75,7 +99,10 @@ public class DataPanelPainter {
     private void paintFrame(Collection<TrackGroup> groups,
                             RenderContext context,
                             int width,
-                            Rectangle visibleRect) {
+                            Color background,
+                            Rectangle visibleRect,
+                            TrackImageCache imageCache,
+                            TrackRenderScheduler renderScheduler) {
 
 
         int trackX = 0;
@@ -120,7 +147,11 @@ public class DataPanelPainter {
 
                         if (track.isVisible()) {
                             Rectangle rect = new Rectangle(trackX, trackY, width, trackHeight);
-                            draw(track, rect, context);
+                            if (imageCache == null) {
+                                draw(track, rect, context);
+                            } else {
+                                drawCached(track, rect, context, background, imageCache, renderScheduler);
+                            }
                             trackY += trackHeight;
                         }
                     }
@@ -143,6 +174,10 @@ public class DataPanelPainter {
         // Get overlays
 
         List<Track> overlayTracks = IGV.getInstance().getOverlayTracks(track);
+        drawOverlays(track, overlayTracks, rect, context);
+    }
+
+    private void drawOverlays(Track track, List<Track> overlayTracks, Rectangle rect, RenderContext context) {
         if (overlayTracks != null) {
             for (Track overlayTrack : overlayTracks) {
 
@@ -155,6 +190,163 @@ public class DataPanelPainter {
 
     }
 
+    /**
+     * Draw the track from its cached image,  rendering and caching the image first if it is missing or stale.
+     * The image is rendered at device resolution,  and with the whole track visible,  so that it can be reused
+     * as the panel is scrolled.  Tracks too tall to cache whole are cached for the visible rectangle only.
+     * <p/>
+     * With a render scheduler the image is rendered on a worker thread.  Until it is ready the last image
+     * rendered for the same state,  or a placeholder,  is drawn.
+     */
+    private void drawCached(Track track, Rectangle rect, RenderContext context, Color background,
+                            TrackImageCache imageCache, TrackRenderScheduler renderScheduler) {
+
+        Graphics2D graphics = context.getGraphics();
+        AffineTransform transform = graphics.getTransform();
+        double scaleX = transform.getScaleX();
+        double scaleY = transform.getScaleY();
+        if (transform.getShearX() != 0 || transform.getShearY() != 0) {
+            draw(track, rect, context);
+            return;
+        }
+
+        Rectangle imageRect = rect;
+        if (!imageCache.isCacheable(getImageWidth(rect, scaleX), getImageHeight(rect, scaleY))) {
+            imageRect = rect.intersection(context.getVisibleRect());
+            if (imageRect.isEmpty() ||
+                    !imageCache.isCacheable(getImageWidth(imageRect, scaleX), getImageHeight(imageRect, scaleY))) {
+                draw(track, rect, context);
+                return;
+            }
+        }
+
+        ReferenceFrame frame = context.getReferenceFrame();
+        List<Track> overlayTracks = IGV.getInstance().getOverlayTracks(track);
+        List<Object> state = TrackImageCache.getState(track, frame, rect, imageRect, background, scaleX, scaleY,
+                overlayTracks);
+
+        BufferedImage image = imageCache.get(track, frame, state);
+        if (image == null) {
+            TrackImageTask task = new TrackImageTask(track, frame, context.getPanel(), rect, imageRect, state,
+                    overlayTracks, background, scaleX, scaleY, graphics, imageCache);
+            if (renderScheduler == null) {
+                image = task.renderImage(true);
+            } else {
+                renderScheduler.submit(track, context.getPanel(), task);
+                image = imageCache.getLatest(track, frame, state);
+                if (image == null) {
+                    Graphics2D g = context.getGraphic2DForColor(PLACEHOLDER_COLOR);
+                    g.fillRect(imageRect.x, imageRect.y, imageRect.width, imageRect.height);
+                    return;
+                }
+            }
+        }
+
+        graphics.drawImage(image, imageRect.x, imageRect.y, imageRect.width, imageRect.height, null);
+    }
+
+    private static int getImageWidth(Rectangle rect, double scaleX) {
+        return (int) Math.ceil(rect.width * scaleX);
+    }
+
+    private static int getImageHeight(Rectangle rect, double scaleY) {
+        return (int) Math.ceil(rect.height * scaleY);
+    }
+
+
+    /**
+     * Renders a track,  and its overlays,  into an image and caches it.  Everything read from the panel's
+     * graphics is captured on construction,  so the task can run off the event dispatch thread.
+     */
+    private class TrackImageTask implements TrackRenderScheduler.RenderTask {
+
+        final Track track;
+        final ReferenceFrame frame;
+        final JComponent panel;
+        final Rectangle rect;
+        final Rectangle imageRect;
+        final List<Object> state;
+        final List<Track> overlayTracks;
+        final Color background;
+        final double scaleX;
+        final double scaleY;
+        final RenderingHints hints;
+        final Color color;
+        final Font font;
+        final TrackImageCache imageCache;
+
+        TrackImageTask(Track track, ReferenceFrame frame, JComponent panel, Rectangle rect, Rectangle imageRect,
+                       List<Object> state, List<Track> overlayTracks, Color background, double scaleX,
+                       double scaleY, Graphics2D graphics, TrackImageCache imageCache) {
+            this.track = track;
+            this.frame = frame;
+            this.panel = panel;
+            this.rect = rect;
+            this.imageRect = imageRect;
+            this.state = state;
+            this.overlayTracks = overlayTracks;
+            this.background = background;
+            this.scaleX = scaleX;
+            this.scaleY = scaleY;
+            this.hints = (RenderingHints) graphics.getRenderingHints().clone();
+            this.color = graphics.getColor();
+            this.font = graphics.getFont();
+            this.imageCache = imageCache;
+        }
+
+        public boolean render() {
+            long generation = imageCache.getGeneration(track, frame);
+            renderImage(false);
+            return !isLoading() && imageCache.getGeneration(track, frame) == generation;
+        }
+
+        /**
+         * @return true if a load for the track is queued or running,  the image may be missing its data
+         */
+        boolean isLoading() {
+            Object owner = track instanceof AlignmentTrack ? ((AlignmentTrack) track).getDataManager() : track;
+            return LoadScheduler.getInstance().isPending(owner);
+        }
+
+        /**
+         * @param reuseBuffer reuse the track's stale image,  if any.  Only safe on the event dispatch thread,
+         *                    as the stale image may be drawn as a placeholder.
+         */
+        BufferedImage renderImage(boolean reuseBuffer) {
+
+            long generation = imageCache.getGeneration(track, frame);
+            int imageWidth = getImageWidth(imageRect, scaleX);
+            int imageHeight = getImageHeight(imageRect, scaleY);
+            BufferedImage image = reuseBuffer ? imageCache.removeBuffer(track, frame, imageWidth, imageHeight) : null;
+            if (image == null) {
+                image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+            }
+
+            Graphics2D imageGraphics = image.createGraphics();
+            RenderContext imageContext = null;
+            try {
+                imageGraphics.setRenderingHints(hints);
+                imageGraphics.setBackground(background);
+                imageGraphics.clearRect(0, 0, imageWidth, imageHeight);
+                imageGraphics.scale(scaleX, scaleY);
+                imageGraphics.translate(-imageRect.x, -imageRect.y);
+                imageGraphics.setColor(color);
+                imageGraphics.setFont(font);
+
+                imageContext = new RenderContext(panel, imageGraphics, frame, imageRect);
+                track.render(imageContext, rect);
+                drawOverlays(track, overlayTracks, rect, imageContext);
+            } finally {
+                if (imageContext != null) imageContext.dispose();
+                imageGraphics.dispose();
+            }
+
+            // Images rendered while the track is loading may be missing data,  keep them as stale buffers
+            imageCache.put(track, frame, state, image, isLoading() ? -1 : generation);
+            return image;
+        }
+    }
+
     private List<Track> getVisibleTracks(final Collection<TrackGroup> groups) {
         // Find the tracks that need loaded, we go to this bother to avoid loading tracks scrolled out of view
         final List<Track> visibleTracks = new ArrayList<Track>();
@@ -250,13 +250,13 @@ public class RegionOfInterestPanel extends JPanel {
                 setToolTipText(roi.getTooltip());
                 if (selectedRegion != roi) {
                     selectedRegion = roi;
-                    IGV.getInstance().repaintDataPanels();
+                    IGV.getInstance().getContentPane().repaintDataPanelOverlays();
                 }
 
             } else {
                 if (selectedRegion != null) {
                     selectedRegion = null;
-                    IGV.getInstance().repaintDataPanels();
+                    IGV.getInstance().getContentPane().repaintDataPanelOverlays();
                 }
                 setToolTipText("");
                 setCursor(Cursor.getDefaultCursor());
@@ -267,7 +267,7 @@ public class RegionOfInterestPanel extends JPanel {
         public void mouseExited(MouseEvent mouseEvent) {
             if (selectedRegion != null) {
                 selectedRegion = null;
-                IGV.getInstance().repaintDataPanels();
+                IGV.getInstance().getContentPane().repaintDataPanelOverlays();
             }
         }
 
@@ -0,0 +1,324 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.ui.panel;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.PreferenceManager;
+import org.broad.igv.renderer.DataRange;
+import org.broad.igv.track.Track;
+import org.broad.igv.ui.event.DataLoadedEvent;
+import org.broad.igv.ui.event.IGVEventBus;
+import org.broad.igv.ui.event.IGVEventObserver;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of rendered track images,  one per track and reference frame.  Repaints that leave the locus, the data,
+ * and the track's display properties unchanged (scrolling, tooltips, regions of interest, the ruler) blit the
+ * cached image rather than rendering the track again.
+ * <p/>
+ * An image is reused only if the locus, track bounds, and a snapshot of the track's display properties match
+ * those it was rendered with.  Changes the snapshot does not capture -- data loads, menu actions, selections --
+ * must invalidate the image,  as narrowly as they can:  one track in one frame,  one frame (e.g. on a
+ * {@link DataLoadedEvent} or a data panel repaint),  or everything (the IGV repaint and refresh methods).
+ */
+public class TrackImageCache implements IGVEventObserver {
+
+    private static Logger log = Logger.getLogger(TrackImageCache.class);
+
+    private static TrackImageCache instance;
+
+    private final long maxBytes;
+
+    private long totalBytes;
+
+    private final LinkedHashMap<EntryKey, Entry> entries = new LinkedHashMap<EntryKey, Entry>(16, 0.75f, true);
+
+    // An image's generation is the sum of these counters,  each only increases so any invalidation changes it
+    private final AtomicLong generation = new AtomicLong();
+    private final Map<ReferenceFrame, Long> frameGenerations = new WeakHashMap<ReferenceFrame, Long>();
+    private final Map<Track, Map<ReferenceFrame, Long>> trackGenerations =
+            new WeakHashMap<Track, Map<ReferenceFrame, Long>>();
+
+
+    public static synchronized TrackImageCache getInstance() {
+        if (instance == null) {
+            long maxBytes = PreferenceManager.getInstance().getAsInt(PreferenceManager.TRACK_IMAGE_CACHE_SIZE) * 1000000L;
+            instance = new TrackImageCache(Math.min(maxBytes, Runtime.getRuntime().maxMemory() / 8));
+            IGVEventBus.getInstance().subscribe(DataLoadedEvent.class, instance);
+        }
+        return instance;
+    }
+
+    TrackImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Mark all cached images as stale.  Stale images are not drawn again,  but their buffers are reused to render
+     * the replacement images.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Mark the images of all tracks in the frame as stale
+     */
+    public void invalidate(ReferenceFrame frame) {
+        synchronized (frameGenerations) {
+            Long g = frameGenerations.get(frame);
+            frameGenerations.put(frame, g == null ? 1 : g + 1);
+        }
+    }
+
+    /**
+     * Mark the image of the track in the frame as stale
+     */
+    public void invalidate(Track track, ReferenceFrame frame) {
+        synchronized (frameGenerations) {
+            Map<ReferenceFrame, Long> generations = trackGenerations.get(track);
+            if (generations == null) {
+                generations = new WeakHashMap<ReferenceFrame, Long>();
+                trackGenerations.put(track, generations);
+            }
+            Long g = generations.get(frame);
+            generations.put(frame, g == null ? 1 : g + 1);
+        }
+    }
+
+    public void receiveEvent(Object event) {
+        if (event instanceof DataLoadedEvent) {
+            ReferenceFrame frame = ((DataLoadedEvent) event).getReferenceFrame();
+            if (frame == null) {
+                invalidate();
+            } else {
+                invalidate(frame);
+            }
+        } else {
+            log.info("Unknown event type: " + event.getClass());
+        }
+    }
+
+    /**
+     * @return the generation to pass to {@link #put},  read before rendering the image
+     */
+    public long getGeneration(Track track, ReferenceFrame frame) {
+        long g = generation.get();
+        synchronized (frameGenerations) {
+            Long fg = frameGenerations.get(frame);
+            if (fg != null) g += fg;
+            Map<ReferenceFrame, Long> generations = trackGenerations.get(track);
+            Long tg = generations == null ? null : generations.get(frame);
+            if (tg != null) g += tg;
+        }
+        return g;
+    }
+
+    /**
+     * @return true if an image of the given size (in device pixels) is small enough to cache.  Very tall tracks,
+     * e.g. expanded alignments, are rendered directly.
+     */
+    public boolean isCacheable(int width, int height) {
+        return width > 0 && height > 0 && 4L * width * height <= maxBytes / 4;
+    }
+
+    /**
+     * @return the cached image for the track and frame,  or null if there is none or it is stale or was rendered
+     * with a different state
+     */
+    public BufferedImage get(Track track, ReferenceFrame frame, List<Object> state) {
+        synchronized (entries) {
+            Entry entry = entries.get(new EntryKey(track, frame));
+            return entry != null && entry.generation == getGeneration(track, frame) && entry.state.equals(state) ?
+                    entry.image : null;
+        }
+    }
+
+    /**
+     * @return the image for the track and frame rendered with the given state,  current or stale,  or null if
+     * there is none
+     */
+    public BufferedImage getLatest(Track track, ReferenceFrame frame, List<Object> state) {
+        synchronized (entries) {
+            Entry entry = entries.get(new EntryKey(track, frame));
+            return entry != null && entry.state.equals(state) ? entry.image : null;
+        }
+    }
+
+    /**
+     * Remove the image for the track and frame and return it for reuse if it has the given size.  This avoids
+     * allocating a new image for every track on every repaint while panning.
+     *
+     * @return the image,  or null if there is none of the right size
+     */
+    public BufferedImage removeBuffer(Track track, ReferenceFrame frame, int width, int height) {
+        synchronized (entries) {
+            EntryKey key = new EntryKey(track, frame);
+            Entry entry = entries.get(key);
+            if (entry == null || entry.image.getWidth() != width || entry.image.getHeight() != height) {
+                return null;
+            }
+            entries.remove(key);
+            totalBytes -= entry.bytes;
+            return entry.image;
+        }
+    }
+
+    /**
+     * Cache an image.  An image rendered across an invalidation is kept as a stale buffer.
+     *
+     * @param generation the result of {@link #getGeneration(Track, ReferenceFrame)} before the image was
+     *                   rendered,  or -1 to keep the image as a stale buffer
+     */
+    public void put(Track track, ReferenceFrame frame, List<Object> state, BufferedImage image, long generation) {
+        long bytes = 4L * image.getWidth() * image.getHeight();
+        synchronized (entries) {
+            Entry old = entries.put(new EntryKey(track, frame), new Entry(state, image, bytes, generation));
+            if (old != null) {
+                totalBytes -= old.bytes;
+            }
+            totalBytes += bytes;
+
+            Iterator<Entry> iter = entries.values().iterator();
+            while (totalBytes > maxBytes && iter.hasNext()) {
+                totalBytes -= iter.next().bytes;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all images.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            totalBytes = 0;
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Snapshot the state a track image depends on:  the locus, the track bounds, the device scale, and the
+     * track's display properties.
+     *
+     * @param rect      the track bounds
+     * @param imageRect the part of the track covered by the image
+     */
+    public static List<Object> getState(Track track, ReferenceFrame frame, Rectangle rect, Rectangle imageRect,
+                                        Color background, double scaleX, double scaleY, List<Track> overlayTracks) {
+
+        List<Object> state = new ArrayList<Object>(32);
+        state.add(frame.getChrName());
+        state.add(frame.getOrigin());
+        state.add(frame.getScale());
+        state.add(new Rectangle(rect));
+        state.add(new Rectangle(imageRect));
+        state.add(background);
+        state.add(scaleX);
+        state.add(scaleY);
+
+        state.add(track.getDisplayMode());
+        state.add(track.getColor());
+        state.add(track.getAltColor());
+        state.add(track.getWindowFunction());
+        state.add(track.getRenderer() == null ? null : track.getRenderer().getClass());
+        state.add(track.isSelected());
+        state.add(track.isShowDataRange());
+        state.add(track.getFontSize());
+        state.add(track.isItemRGB());
+        state.add(track.isUseScore());
+
+        DataRange dataRange = track.getDataRange();
+        if (dataRange != null) {
+            state.add(dataRange.getMinimum());
+            state.add(dataRange.getBaseline());
+            state.add(dataRange.getMaximum());
+            state.add(dataRange.isLog());
+            state.add(dataRange.isFlipAxis());
+            state.add(dataRange.isDrawBaseline());
+        }
+
+        if (overlayTracks != null) {
+            state.add(new ArrayList<Track>(overlayTracks));
+        }
+        return state;
+    }
+
+
+    private static class EntryKey {
+
+        final Track track;
+        final ReferenceFrame frame;
+
+        EntryKey(Track track, ReferenceFrame frame) {
+            this.track = track;
+            this.frame = frame;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EntryKey)) return false;
+            EntryKey other = (EntryKey) o;
+            return track == other.track && frame == other.frame;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(track) + System.identityHashCode(frame);
+        }
+    }
+
+    private static class Entry {
+
+        final List<Object> state;
+        final BufferedImage image;
+        final long bytes;
+        final long generation;
+
+        Entry(List<Object> state, BufferedImage image, long bytes, long generation) {
+            this.state = state;
+            this.image = image;
+            this.bytes = bytes;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.ui.panel;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.PreferenceManager;
+import org.broad.igv.track.Track;
+
+import javax.swing.*;
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders tracks into offscreen images on a pool of worker threads,  so that an expensive track does not stall
+ * the event dispatch thread.  The panel paints a placeholder until the image is ready,  then composites it.
+ * <p/>
+ * A track is rendered by at most one worker at a time.  A request for a track that is already being rendered,
+ * e.g. from a second gene list frame,  is coalesced with the running render,  and all requesting panels are
+ * repainted when it completes.
+ * <p/>
+ * Enabled by setting RENDER_THREAD_COUNT > 0.
+ */
+public class TrackRenderScheduler {
+
+    private static Logger log = Logger.getLogger(TrackRenderScheduler.class);
+
+    /**
+     * Delay before repainting with an image that was not current,  e.g. because its track was still loading
+     */
+    static final int RETRY_DELAY = 200;
+
+    private static TrackRenderScheduler instance;
+
+    private final ExecutorService executor;
+
+    private final Map<Track, Set<JComponent>> rendering = new IdentityHashMap<Track, Set<JComponent>>();
+
+
+    /**
+     * @return the scheduler,  or null if tracks are rendered on the event dispatch thread
+     */
+    public static synchronized TrackRenderScheduler getInstance() {
+        if (instance == null) {
+            int nThreads = PreferenceManager.getInstance().getAsInt(PreferenceManager.RENDER_THREAD_COUNT);
+            if (nThreads <= 0) {
+                return null;
+            }
+            instance = new TrackRenderScheduler(nThreads);
+        }
+        return instance;
+    }
+
+    TrackRenderScheduler(int nThreads) {
+        executor = Executors.newFixedThreadPool(nThreads, new RenderThreadFactory());
+    }
+
+    /**
+     * Render a track.  The render task returns true if its image is current,  in which case the requesting panels
+     * are repainted.  If not,  because the track was loading or the image was invalidated while rendering,  the
+     * panels are repainted after {@link #RETRY_DELAY} ms,  which renders the track again.  The repaint is not left
+     * to the load,  a cancelled load posts no event.
+     *
+     * @param panel the panel to repaint,  or null
+     * @return false if the track is already being rendered
+     */
+    public boolean submit(final Track track, JComponent panel, final RenderTask task) {
+
+        synchronized (rendering) {
+            Set<JComponent> panels = rendering.get(track);
+            boolean running = panels != null;
+            if (!running) {
+                panels = new HashSet<JComponent>();
+                rendering.put(track, panels);
+            }
+            if (panel != null) {
+                panels.add(panel);
+            }
+            if (running) {
+                return false;
+            }
+        }
+
+        executor.execute(new Runnable() {
+            public void run() {
+                boolean current = false;
+                try {
+                    current = task.render();
+                } catch (Exception e) {
+                    log.error("Error rendering track " + track.getName(), e);
+                } finally {
+                    Set<JComponent> panels;
+                    synchronized (rendering) {
+                        panels = rendering.remove(track);
+                    }
+                    if (current) {
+                        repaint(panels);
+                    } else {
+                        final Set<JComponent> retryPanels = panels;
+                        Timer timer = new Timer(RETRY_DELAY, new ActionListener() {
+                            public void actionPerformed(ActionEvent e) {
+                                repaint(retryPanels);
+                            }
+                        });
+                        timer.setRepeats(false);
+                        timer.start();
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    private static void repaint(Set<JComponent> panels) {
+        for (JComponent p : panels) {
+            // Region repaint,  unlike DataPanel.repaint() this keeps the cached images
+            p.repaint(0, 0, 0, p.getWidth(), p.getHeight());
+        }
+    }
+
+    /**
+     * @return true if the track is being rendered
+     */
+    public boolean isRendering(Track track) {
+        synchronized (rendering) {
+            return rendering.containsKey(track);
+        }
+    }
+
+
+    public interface RenderTask {
+
+        /**
+         * @return true if the rendered image is current
+         */
+        boolean render();
+    }
+
+
+    private static class RenderThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "IGV-render-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
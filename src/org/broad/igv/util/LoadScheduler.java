@@ -0,0 +1,248 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.Globals;
+import org.broad.igv.PreferenceManager;
+import org.broad.igv.ui.IGV;
+import org.broad.igv.ui.WaitCursorManager;
+import org.broad.igv.ui.WaitCursorManager.CursorToken;
+import org.broad.igv.ui.util.MessageUtils;
+
+import javax.swing.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduler for track data loads (features, alignments, etc).  Unlike {@link LongRunningTask}, which runs
+ * everything on a single thread, loads are executed on a small pool of workers so that one slow query does not
+ * block every other track.
+ * <p/>
+ * Tasks are identified by an owner (typically a track or data manager) and a key (typically frame + locus).
+ * A request for an owner/key pair that is already queued or running is coalesced with the existing task.
+ * Tasks for the visible frame are run ahead of prefetch tasks,  and all queued tasks for an owner can be
+ * cancelled when the owner is disposed.
+ */
+public class LoadScheduler {
+
+    private static Logger log = Logger.getLogger(LoadScheduler.class);
+
+    public enum Priority {VISIBLE, PREFETCH}
+
+    private static LoadScheduler instance;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Map<TaskKey, LoadTask> tasks = new HashMap<TaskKey, LoadTask>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public static synchronized LoadScheduler getInstance() {
+        if (instance == null) {
+            int nThreads = PreferenceManager.getInstance().getAsInt(PreferenceManager.LOAD_THREAD_COUNT);
+            instance = new LoadScheduler(nThreads);
+        }
+        return instance;
+    }
+
+    LoadScheduler(int nThreads) {
+        nThreads = Math.max(1, nThreads);
+        executor = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new LoadThreadFactory());
+    }
+
+    /**
+     * Submit a load.  As with {@link LongRunningTask#submit(Runnable)} the runnable is executed immediately
+     * on the calling thread in batch mode or when not called from the event dispatch thread.
+     *
+     * @return the future for the load,  or null if the load was run synchronously
+     */
+    public Future submit(Object owner, String key, Priority priority, NamedRunnable runnable) {
+        if (Globals.isBatch() || !SwingUtilities.isEventDispatchThread()) {
+            runnable.run();
+            return null;
+        } else {
+            return schedule(owner, key, priority, runnable);
+        }
+    }
+
+    /**
+     * Queue a load on the worker pool,  coalescing with an existing task for the same owner and key.
+     */
+    Future schedule(Object owner, String key, Priority priority, NamedRunnable runnable) {
+
+        TaskKey taskKey = new TaskKey(owner, key);
+        synchronized (tasks) {
+            LoadTask existing = tasks.get(taskKey);
+            if (existing != null) {
+                if (priority.ordinal() < existing.priority.ordinal() && executor.remove(existing)) {
+                    // Still queued -- promote it
+                    existing.priority = priority;
+                    executor.execute(existing);
+                }
+                return existing;
+            }
+
+            LoadTask task = new LoadTask(taskKey, priority, sequence.getAndIncrement(), runnable);
+            tasks.put(taskKey, task);
+            executor.execute(task);
+            return task;
+        }
+    }
+
+    /**
+     * Cancel all queued loads for the given owner.  Loads already running are allowed to finish,  interrupting
+     * a reader mid-query can close the underlying channel.
+     */
+    public void cancel(Object owner) {
+        List<LoadTask> cancelled = new ArrayList<LoadTask>();
+        synchronized (tasks) {
+            for (LoadTask task : tasks.values()) {
+                if (task.key.owner == owner && executor.remove(task)) {
+                    cancelled.add(task);
+                }
+            }
+        }
+        // FutureTask.cancel calls done(), which removes the task from the map
+        for (LoadTask task : cancelled) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * @return the number of loads queued or running
+     */
+    public int getPendingCount() {
+        synchronized (tasks) {
+            return tasks.size();
+        }
+    }
+
+    /**
+     * @return true if a load for the given owner is queued or running
+     */
+    public boolean isPending(Object owner) {
+        synchronized (tasks) {
+            for (TaskKey key : tasks.keySet()) {
+                if (key.owner == owner) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private void taskDone(LoadTask task) {
+        synchronized (tasks) {
+            if (tasks.get(task.key) == task) {
+                tasks.remove(task.key);
+            }
+        }
+    }
+
+
+    private class LoadTask extends FutureTask<Object> implements Comparable<LoadTask> {
+
+        final TaskKey key;
+        final long seq;
+        volatile Priority priority;
+
+        LoadTask(TaskKey key, Priority priority, long seq, final NamedRunnable runnable) {
+            super(new Callable<Object>() {
+                public Object call() throws Exception {
+                    CursorToken token = IGV.hasInstance() ? WaitCursorManager.showWaitCursor() : null;
+                    try {
+                        runnable.run();
+                    } catch (Exception e) {
+                        MessageUtils.showMessage("<html>Unexpected error: " + e.getMessage() + ".<br>See igv.log for more details");
+                        log.error("Exception running " + runnable.getName(), e);
+                    } finally {
+                        if (token != null) {
+                            WaitCursorManager.removeWaitCursor(token);
+                            synchronized (IGV.getInstance()) {
+                                IGV.getInstance().notifyAll();
+                            }
+                        }
+                    }
+                    return null;
+                }
+            });
+            this.key = key;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        protected void done() {
+            taskDone(this);
+        }
+
+        public int compareTo(LoadTask o) {
+            int c = priority.ordinal() - o.priority.ordinal();
+            return c != 0 ? c : (seq < o.seq ? -1 : (seq == o.seq ? 0 : 1));
+        }
+    }
+
+
+    private static class TaskKey {
+
+        final Object owner;
+        final String key;
+
+        TaskKey(Object owner, String key) {
+            this.owner = owner;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TaskKey)) return false;
+            TaskKey taskKey = (TaskKey) o;
+            return owner == taskKey.owner && key.equals(taskKey.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(owner) + key.hashCode();
+        }
+    }
+
+
+    private static class LoadThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "IGV-loader-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.collections;
+
+/**
+ * ArrayList type collection for byte types.  Companion to {@link IntArrayList},  used for pooled storage of
+ * read bases, qualities, and text.
+ */
+public class ByteArrayList {
+
+
+    private transient byte[] elements;
+
+    private int size;
+
+
+    public ByteArrayList() {
+        this(100);
+    }
+
+    public ByteArrayList(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal Capacity: " + initialCapacity);
+        this.elements = new byte[Math.max(1, initialCapacity)];
+    }
+
+    public void add(byte e) {
+        if (size + 1 >= elements.length) {
+            grow(size + 1);
+        }
+        elements[size++] = e;
+    }
+
+    public void addAll(byte[] args) {
+        addAll(args, 0, args.length);
+    }
+
+    public void addAll(byte[] args, int offset, int length) {
+        if (size + length >= elements.length) {
+            grow(size + length);
+        }
+        System.arraycopy(args, offset, elements, size, length);
+        size += length;
+    }
+
+    public byte get(int idx) {
+        return elements[idx];
+    }
+
+    /**
+     * Copy {@code length} elements starting at {@code idx} into a new array.
+     */
+    public byte[] get(int idx, int length) {
+        byte[] tmp = new byte[length];
+        System.arraycopy(elements, idx, tmp, 0, length);
+        return tmp;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Empty all elements.  This logically clears the collection but does not free up any space.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    private void grow(int minCapacity) {
+        int oldCapacity = elements.length;
+        int newCapacity;
+        if (oldCapacity < 10000000) {
+            newCapacity = oldCapacity * 2;
+        } else {
+            newCapacity = (oldCapacity * 3) / 2 + 1;
+        }
+        newCapacity = Math.max(newCapacity, minCapacity + 1);
+        byte[] tmp = new byte[newCapacity];
+        System.arraycopy(elements, 0, tmp, 0, size);
+        elements = tmp;
+    }
+
+    public byte[] toArray() {
+        trimToSize();
+        return elements;
+    }
+
+    /**
+     * Release unused capacity.
+     */
+    public void trimToSize() {
+        int oldCapacity = elements.length;
+        if (size < oldCapacity) {
+            byte[] tmp = new byte[size];
+            System.arraycopy(elements, 0, tmp, 0, size);
+            elements = tmp;
+        }
+    }
+}
@@ -102,6 +102,7 @@ public class IntArrayList {
         } else {
             newCapacity = (oldCapacity * 3) / 2 + 1;
         }
+        newCapacity = Math.max(10, newCapacity);   // Capacity is 0 after trimming an empty list
         int[] tmp = new int[newCapacity];
         System.arraycopy(elements, 0, tmp, 0, elements.length);
         elements = tmp;
@@ -114,7 +115,7 @@ public class IntArrayList {
     }
 
 
-    private void trimToSize() {
+    public void trimToSize() {
         int oldCapacity = elements.length;
         if (size < oldCapacity) {
             int[] tmp = new int[size];
@@ -37,21 +37,15 @@ public class LRUCache<K, V> {
 
     //Logger log = Logger.getLogger(LRUCache.class);
 
-    private AtomicInteger maxEntries;
+    private final AtomicInteger maxEntries;
 
-    private Map<K, V> map;
+    private final Map<K, V> map;
 
 
     public LRUCache(int max) {
         this.maxEntries = new AtomicInteger(max);
-    }
-
-    public void setMaxEntries(int max) {
-        this.maxEntries.set(max);
-    }
-
-    private void createMap() {
-        map = Collections.synchronizedMap(
+        // Created eagerly,  the cache is shared between threads
+        this.map = Collections.synchronizedMap(
                 new LinkedHashMap<K, V>(16, 0.75f, true) {
                     @Override
                     protected boolean removeEldestEntry(Map.Entry eldest) {
@@ -60,10 +54,11 @@ public class LRUCache<K, V> {
                 });
     }
 
+    public void setMaxEntries(int max) {
+        this.maxEntries.set(max);
+    }
+
     private Map<K, V> getMap() {
-        if (map == null) {
-            createMap();
-        }
         return map;
     }
 
@@ -91,6 +86,19 @@ public class LRUCache<K, V> {
         return getMap().keySet();
     }
 
+    /**
+     * @return a copy of the current keys,  safe to iterate while other threads use the cache
+     */
+    public List<K> keys() {
+        synchronized (map) {
+            return new ArrayList<K>(map.keySet());
+        }
+    }
+
+    public V remove(Object key) {
+        return getMap().remove(key);
+    }
+
     public Collection<V> values() {
         return getMap().values();
     }
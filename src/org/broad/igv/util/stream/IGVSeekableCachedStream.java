@@ -0,0 +1,341 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A SeekableStream that reads a remote file in aligned blocks through a {@link RemoteBlockCache}.  Blocks missing
+ * from the cache are fetched from the wrapped stream,  consecutive missing blocks with a single range request.
+ * Blocks are kept on disk,  or only in memory for streams that are not persistent.
+ * <p/>
+ * Readers that know which byte ranges a query will touch (e.g. from an index) can {@link #prefetch(java.util.List)}
+ * them first.  Nearby ranges are merged and fetched concurrently,  the reads that follow are then served from the
+ * cache.
+ *
+ * @see RemoteBlockCache#getCachedStream(java.net.URL, htsjdk.samtools.seekablestream.SeekableStream)
+ */
+public class IGVSeekableCachedStream extends SeekableStream {
+
+    private static Logger log = Logger.getLogger(IGVSeekableCachedStream.class);
+
+    /**
+     * Missing blocks separated by at most this many blocks are fetched in one request
+     */
+    static final int MAX_GAP_BLOCKS = 4;
+
+    /**
+     * Maximum number of blocks per prefetch request,  larger runs are split so they can be fetched in parallel
+     */
+    static final int MAX_REQUEST_BLOCKS = 32;
+
+    /**
+     * Maximum number of blocks prefetched for one call (16 MB),  the remainder is read on demand.  Prefetches into
+     * the memory cache are further limited by {@link RemoteBlockCache#MAX_MEMORY_PREFETCH_BLOCKS},  shared by all
+     * streams.
+     */
+    static final int MAX_PREFETCH_BLOCKS = 256;
+
+    /**
+     * Opens additional streams on the same resource for concurrent prefetch requests
+     */
+    interface SourceFactory {
+        SeekableStream newStream() throws IOException;
+    }
+
+    private final SeekableStream source;
+    private final SourceFactory sourceFactory;
+    private final String key;
+    private final long contentLength;
+    private final RemoteBlockCache cache;
+    private final boolean persistent;
+    private final int blockSize;
+    private long position = 0;
+
+    IGVSeekableCachedStream(SeekableStream source, String key, long contentLength, RemoteBlockCache cache) {
+        this(source, null, key, contentLength, cache, true);
+    }
+
+    /**
+     * @param persistent true to keep blocks in the disk cache,  false to keep them in memory only
+     */
+    IGVSeekableCachedStream(SeekableStream source, SourceFactory sourceFactory, String key, long contentLength,
+                            RemoteBlockCache cache, boolean persistent) {
+        this.source = source;
+        this.sourceFactory = sourceFactory;
+        this.key = key;
+        this.contentLength = contentLength;
+        this.cache = cache;
+        this.persistent = persistent;
+        this.blockSize = RemoteBlockCache.BLOCK_SIZE;
+    }
+
+    @Override
+    public long length() {
+        return contentLength;
+    }
+
+    @Override
+    public long position() throws IOException {
+        return position;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        this.position = position;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, contentLength - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean eof() throws IOException {
+        return position >= contentLength;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] tmp = new byte[1];
+        int n = read(tmp, 0, 1);
+        return n < 0 ? -1 : tmp[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= contentLength) {
+            return -1;
+        }
+
+        len = (int) Math.min(len, contentLength - position);
+        long firstBlock = position / blockSize;
+        long lastBlock = (position + len - 1) / blockSize;
+        byte[][] blocks = getBlocks(firstBlock, lastBlock);
+
+        int n = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            long blockStart = (firstBlock + i) * blockSize;
+            int blockOffset = (int) (position + n - blockStart);
+            int count = Math.min(len - n, blocks[i].length - blockOffset);
+            System.arraycopy(blocks[i], blockOffset, buffer, offset + n, count);
+            n += count;
+        }
+        position += n;
+        return n;
+    }
+
+    /**
+     * Return blocks {@code first} through {@code last} inclusive,  fetching any that are not cached
+     */
+    private byte[][] getBlocks(long first, long last) throws IOException {
+
+        int nBlocks = (int) (last - first + 1);
+        byte[][] blocks = new byte[nBlocks][];
+        for (int i = 0; i < nBlocks; i++) {
+            blocks[i] = persistent ? cache.get(key, first + i) : cache.getMemoryBlock(key, first + i);
+        }
+
+        int i = 0;
+        while (i < nBlocks) {
+            if (blocks[i] != null) {
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j + 1 < nBlocks && blocks[j + 1] == null) {
+                j++;
+            }
+            byte[][] fetched = fetchBlocks(source, first + i, first + j);
+            System.arraycopy(fetched, 0, blocks, i, fetched.length);
+            i = j + 1;
+        }
+        return blocks;
+    }
+
+    /**
+     * Read blocks {@code first} through {@code last} from {@code source} and store them in the cache
+     */
+    private byte[][] fetchBlocks(SeekableStream source, long first, long last) throws IOException {
+
+        long start = first * blockSize;
+        long end = Math.min((last + 1) * blockSize, contentLength);
+        byte[] bytes = new byte[(int) (end - start)];
+
+        source.seek(start);
+        int n = 0;
+        while (n < bytes.length) {
+            int count = source.read(bytes, n, bytes.length - n);
+            if (count < 0) {
+                throw new EOFException("Premature end of file reading " + source.getSource() + " at " + (start + n));
+            }
+            n += count;
+        }
+
+        byte[][] blocks = new byte[(int) (last - first + 1)][];
+        for (long b = first; b <= last; b++) {
+            int from = (int) ((b - first) * blockSize);
+            int to = Math.min(from + blockSize, bytes.length);
+            byte[] block = new byte[to - from];
+            System.arraycopy(bytes, from, block, 0, block.length);
+            if (persistent) {
+                cache.put(key, b, block);
+            } else {
+                cache.putMemoryBlock(key, b, block);
+            }
+            blocks[(int) (b - first)] = block;
+        }
+        return blocks;
+    }
+
+    /**
+     * Fetch the blocks covering the given byte ranges into the cache,  returning when they have all been fetched.
+     * Blocks already cached are skipped,  the remaining blocks are merged into a few range requests which are run
+     * concurrently.  Errors are logged,  not thrown,  blocks that failed are simply read on demand.
+     * <p/>
+     * The caller blocks until at most {@link #MAX_PREFETCH_BLOCKS} blocks have been fetched.  These are blocks it
+     * is about to read anyway,  prefetch only fetches them in parallel.
+     *
+     * @param ranges file offsets,  {start, end} with end exclusive
+     */
+    public void prefetch(List<long[]> ranges) {
+
+        if (sourceFactory == null || ranges.isEmpty()) {
+            return;
+        }
+
+        TreeSet<Long> missing = new TreeSet<Long>();
+        for (long[] r : ranges) {
+            long start = Math.max(0, r[0]);
+            long end = Math.min(r[1], contentLength);
+            if (end <= start) continue;
+            for (long b = start / blockSize; b <= (end - 1) / blockSize; b++) {
+                if (!(persistent ? cache.contains(key, b) : cache.containsMemoryBlock(key, b))) {
+                    missing.add(b);
+                    if (missing.size() >= MAX_PREFETCH_BLOCKS) break;
+                }
+            }
+            if (missing.size() >= MAX_PREFETCH_BLOCKS) break;
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        int reserved = 0;
+        if (!persistent) {
+            reserved = cache.reserveMemoryPrefetch(missing.size());
+            if (reserved == 0) {
+                // Other streams are prefetching the whole budget,  read on demand
+                return;
+            }
+            while (missing.size() > reserved) {
+                missing.pollLast();
+            }
+        }
+        try {
+            fetchMissing(missing);
+        } finally {
+            if (reserved > 0) {
+                cache.releaseMemoryPrefetch(reserved);
+            }
+        }
+    }
+
+    private void fetchMissing(TreeSet<Long> missing) {
+
+        List<long[]> requests = new ArrayList<long[]>();
+        long runStart = -1, runEnd = -1;
+        for (long b : missing) {
+            if (runStart >= 0 && (b - runEnd - 1 > MAX_GAP_BLOCKS || b - runStart >= MAX_REQUEST_BLOCKS)) {
+                requests.add(new long[]{runStart, runEnd});
+                runStart = -1;
+            }
+            if (runStart < 0) {
+                runStart = b;
+            }
+            runEnd = b;
+        }
+        requests.add(new long[]{runStart, runEnd});
+
+        if (requests.size() == 1) {
+            // Nothing to parallelize,  avoid the thread hop
+            try {
+                fetchBlocks(source, requests.get(0)[0], requests.get(0)[1]);
+            } catch (IOException e) {
+                log.error("Error prefetching " + getSource(), e);
+            }
+            return;
+        }
+
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(requests.size());
+        for (final long[] request : requests) {
+            futures.add(cache.getPrefetchExecutor().submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    SeekableStream stream = sourceFactory.newStream();
+                    try {
+                        fetchBlocks(stream, request[0], request[1]);
+                    } finally {
+                        stream.close();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Object> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.error("Error prefetching " + getSource(), e.getCause());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    @Override
+    public String getSource() {
+        return source.getSource();
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A SeekableStream over a memory-mapped local file.  Reads copy directly from the page cache,  there is no
+ * intermediate buffer to refill on backward seeks.  Files larger than 2 GB are mapped in chunks.
+ * <p/>
+ * The stream position is not thread safe,  but {@link #read(long, byte[], int, int)} may be called concurrently.
+ * The mappings are released on {@link #close()},  so the file is not held open (and locked,  on Windows) until
+ * the buffers are garbage collected.
+ */
+public class IGVSeekableMappedStream extends SeekableStream {
+
+    private static Logger log = Logger.getLogger(IGVSeekableMappedStream.class);
+
+    static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    private final File file;
+    private final long length;
+    private final int chunkSize;
+    private MappedByteBuffer[] chunks;
+    private long position = 0;
+
+    // Readers hold the read lock while touching the mappings,  close() takes the write lock to unmap them.
+    // Reading an unmapped buffer crashes the VM rather than throwing.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Open a mapped stream for the file,  or a plain file stream if the file cannot be mapped (e.g. address
+     * space is exhausted).
+     */
+    public static SeekableStream open(File file) throws IOException {
+        try {
+            return new IGVSeekableMappedStream(file);
+        } catch (IOException e) {
+            log.warn("Could not memory map " + file.getAbsolutePath() + ",  reading it as a stream: " + e.getMessage());
+            return new SeekableFileStream(file);
+        }
+    }
+
+    public IGVSeekableMappedStream(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    IGVSeekableMappedStream(File file, int chunkSize) throws IOException {
+        this.file = file;
+        this.chunkSize = chunkSize;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            length = channel.size();
+            int nChunks = (int) ((length + chunkSize - 1) / chunkSize);
+            MappedByteBuffer[] mapped = new MappedByteBuffer[nChunks];
+            try {
+                for (int i = 0; i < nChunks; i++) {
+                    long start = (long) i * chunkSize;
+                    long size = Math.min(chunkSize, length - start);
+                    mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                }
+            } catch (IOException e) {
+                unmap(mapped);
+                throw e;
+            }
+            chunks = mapped;
+        } finally {
+            // The mappings remain valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Read up to {@code len} bytes starting at file position {@code pos},  without changing the stream position.
+     *
+     * @return the number of bytes read,  or -1 if {@code pos} is at or past the end of the file
+     */
+    public int read(long pos, byte[] buffer, int offset, int len) throws IOException {
+        lock.readLock().lock();
+        try {
+            MappedByteBuffer[] chunks = this.chunks;
+            if (chunks == null) {
+                throw new IOException("Stream is closed: " + file.getAbsolutePath());
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= length) {
+                return -1;
+            }
+
+            int total = (int) Math.min(len, length - pos);
+            int remaining = total;
+            while (remaining > 0) {
+                int chunkIdx = (int) (pos / chunkSize);
+                int chunkOffset = (int) (pos % chunkSize);
+                ByteBuffer bb = chunks[chunkIdx].duplicate();
+                int n = Math.min(remaining, bb.limit() - chunkOffset);
+                bb.position(chunkOffset);
+                bb.get(buffer, offset, n);
+                pos += n;
+                offset += n;
+                remaining -= n;
+            }
+            return total;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long position() throws IOException {
+        return position;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        if (position < 0) {
+            throw new EOFException("Negative seek position: " + position);
+        }
+        this.position = position;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = read(position, buffer, offset, length);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (chunks == null) {
+                throw new IOException("Stream is closed: " + file.getAbsolutePath());
+            }
+            if (position >= length) {
+                return -1;
+            }
+            int b = chunks[(int) (position / chunkSize)].get((int) (position % chunkSize)) & 0xff;
+            position++;
+            return b;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, length - position));
+    }
+
+    /**
+     * Unmap the file.  Waits for reads in progress to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (chunks != null) {
+                unmap(chunks);
+                chunks = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean eof() throws IOException {
+        return position >= length;
+    }
+
+    @Override
+    public String getSource() {
+        return file.getAbsolutePath();
+    }
+
+    private static void unmap(MappedByteBuffer[] buffers) {
+        for (MappedByteBuffer b : buffers) {
+            if (b != null) unmap(b);
+        }
+    }
+
+    /**
+     * Unmap the buffer now rather than when it is garbage collected.  The JDK has no public API for this,  if the
+     * internal one is not available the buffer is left to the garbage collector.  The buffer must not be used
+     * afterwards.
+     */
+    public static void unmap(MappedByteBuffer buffer) {
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (NoSuchMethodException e) {
+            // Java 8,  fall through
+        } catch (Exception e) {
+            log.debug("Could not unmap buffer", e);
+            return;
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            log.debug("Could not unmap buffer", e);
+        }
+    }
+}
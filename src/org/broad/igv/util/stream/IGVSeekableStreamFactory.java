@@ -28,6 +28,7 @@ package org.broad.igv.util.stream;
 import htsjdk.samtools.seekablestream.ISeekableStreamFactory;
 import htsjdk.samtools.seekablestream.SeekableFileStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
+import org.broad.igv.PreferenceManager;
 import org.broad.igv.util.HttpUtils;
 
 import java.io.File;
@@ -65,7 +66,7 @@ public class IGVSeekableStreamFactory implements ISeekableStreamFactory {
                 final URL url = new URL(path);
                 boolean useByteRange = HttpUtils.getInstance().useByteRange(url);
                 if (useByteRange) {
-                    is = new IGVSeekableHTTPStream(url);
+                    is = RemoteBlockCache.getInstance().getCachedStream(url, new IGVSeekableHTTPStream(url));
                 } else {
                     is = new SeekableServiceStream(url);
                 }
@@ -73,17 +74,35 @@ public class IGVSeekableStreamFactory implements ISeekableStreamFactory {
                 final URL url = new URL(path);
                 is = new IGVSeekableFTPStream(url);
             } else {
-                is = new SeekableFileStream(new File(path));
+                File file = new File(path);
+                if (isMemoryMapEnabled() && file.isFile()) {
+                    is = IGVSeekableMappedStream.open(file);
+                } else {
+                    is = new SeekableFileStream(file);
+                }
             }
             return is;
         }
     }
 
+    /**
+     * Return true if local files should be opened as memory-mapped streams
+     */
+    public static boolean isMemoryMapEnabled() {
+        return PreferenceManager.getInstance().getAsBoolean(PreferenceManager.MEMORY_MAP_LOCAL_FILES);
+    }
+
     public SeekableStream getBufferedStream(SeekableStream stream){
         return getBufferedStream(stream, IGVSeekableBufferedStream.DEFAULT_BUFFER_SIZE);
     }
 
+    /**
+     * Wrap the stream in a read buffer.  Memory-mapped streams are returned as is,  buffering would only add a copy.
+     */
     public SeekableStream getBufferedStream(SeekableStream stream, int bufferSize){
+        if (stream instanceof IGVSeekableMappedStream) {
+            return stream;
+        }
         return new IGVSeekableBufferedStream(stream, bufferSize);
     }
 
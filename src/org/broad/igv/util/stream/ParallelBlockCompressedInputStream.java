@@ -0,0 +1,325 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
+import org.broad.igv.PreferenceManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream over the uncompressed content of a BGZF file,  restricted to a list of ranges of virtual file
+ * offsets (for example the chunks an index returns for a query).  The ranges are read as one contiguous stream.
+ * <p/>
+ * Compressed blocks are read on the calling thread and inflated on a shared worker pool.  Up to a fixed number of
+ * blocks are in flight ahead of the reader,  so inflating upcoming blocks overlaps with whatever the caller does
+ * with the data (typically decoding records).
+ */
+public class ParallelBlockCompressedInputStream extends InputStream {
+
+    private static Logger log = Logger.getLogger(ParallelBlockCompressedInputStream.class);
+
+    private static final int BLOCK_HEADER_LENGTH = 18;
+    private static final int BLOCK_FOOTER_LENGTH = 8;
+
+    /**
+     * Range end meaning "to the end of the file"
+     */
+    public static final long EOF = Long.MAX_VALUE;
+
+    private static ExecutorService executor;
+    private static int threadCount = -1;
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private final SeekableStream stream;
+    private final long[] ranges;
+    private final int maxPending;
+    private final ArrayDeque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+
+    private int rangeIndex = 0;
+    private long nextBlockAddress = -1;
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private final byte[] single = new byte[1];
+
+    /**
+     * @param stream the compressed stream,  closed when this stream is closed
+     * @param ranges pairs of virtual file offsets,  start inclusive and end exclusive.  An end of {@link #EOF} reads
+     *               to the end of the file.
+     */
+    public ParallelBlockCompressedInputStream(SeekableStream stream, long[] ranges) {
+        this.stream = stream;
+        this.ranges = ranges;
+        this.maxPending = 4 * Math.max(1, getThreadCount());
+    }
+
+    /**
+     * @return the number of inflater threads,  0 if parallel inflation is disabled
+     */
+    public static synchronized int getThreadCount() {
+        if (threadCount < 0) {
+            threadCount = Math.max(0, PreferenceManager.getInstance().getAsInt(PreferenceManager.BGZF_INFLATE_THREAD_COUNT));
+        }
+        return threadCount;
+    }
+
+    public static boolean isEnabled() {
+        return getThreadCount() > 0;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int nThreads = Math.max(1, getThreadCount());
+            executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "IGV-bgzf-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (buffer == null || position == limit) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (buffer == null || position == limit) {
+                if (!nextBlock()) {
+                    break;
+                }
+                continue;
+            }
+            int k = (int) Math.min(n - skipped, limit - position);
+            position += k;
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<Block> f : pending) {
+            f.cancel(false);
+        }
+        pending.clear();
+        stream.close();
+    }
+
+    private boolean nextBlock() throws IOException {
+        fill();
+        Future<Block> future = pending.poll();
+        if (future == null) {
+            return false;
+        }
+        Block block;
+        try {
+            block = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted inflating " + stream.getSource());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+        buffer = block.data;
+        position = block.from;
+        limit = block.to;
+        fill();
+        return true;
+    }
+
+    /**
+     * Read compressed blocks and queue them for inflation until the window is full or the ranges are exhausted
+     */
+    private void fill() throws IOException {
+        while (pending.size() < maxPending && rangeIndex < ranges.length) {
+
+            long start = ranges[rangeIndex];
+            long end = ranges[rangeIndex + 1];
+            long startBlock = start >>> 16;
+            long endBlock = end >>> 16;
+            int endOffset = (int) (end & 0xffff);
+
+            if (nextBlockAddress < 0) {
+                nextBlockAddress = startBlock;
+            }
+            byte[] compressed = null;
+            if (nextBlockAddress < endBlock || (nextBlockAddress == endBlock && endOffset > 0)) {
+                compressed = readBlock(nextBlockAddress);
+            }
+            if (compressed == null) {
+                // Done with this range
+                rangeIndex += 2;
+                nextBlockAddress = -1;
+                continue;
+            }
+
+            int from = nextBlockAddress == startBlock ? (int) (start & 0xffff) : 0;
+            int to = nextBlockAddress == endBlock ? endOffset : -1;
+            nextBlockAddress += compressed.length;
+            pending.add(getExecutor().submit(new InflateTask(compressed, from, to)));
+        }
+    }
+
+    /**
+     * Read the compressed block at the given file offset
+     *
+     * @return the block,  or null at the end of the file
+     */
+    private byte[] readBlock(long address) throws IOException {
+
+        if (stream.position() != address) {
+            stream.seek(address);
+        }
+
+        byte[] header = new byte[BLOCK_HEADER_LENGTH];
+        int n = readFully(header, 0, header.length);
+        if (n == 0) {
+            return null;
+        }
+        if (n < header.length || !isValidBlockHeader(header)) {
+            throw new IOException("Invalid BGZF block header at " + address + " in " + stream.getSource());
+        }
+
+        int blockSize = ((header[17] & 0xff) << 8 | (header[16] & 0xff)) + 1;
+        byte[] block = new byte[blockSize];
+        System.arraycopy(header, 0, block, 0, header.length);
+        if (readFully(block, header.length, blockSize - header.length) < blockSize - header.length) {
+            throw new IOException("Unexpected end of file in BGZF block at " + address + " in " + stream.getSource());
+        }
+        return block;
+    }
+
+    private int readFully(byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = stream.read(b, off + total, len - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static boolean isValidBlockHeader(byte[] header) {
+        return (header[0] & 0xff) == 31 && (header[1] & 0xff) == 139 &&
+                (header[3] & 4) != 0 && header[10] == 6 && header[12] == 'B' && header[13] == 'C';
+    }
+
+
+    private static class InflateTask implements Callable<Block> {
+
+        final byte[] compressed;
+        final int from;
+        final int to;
+
+        InflateTask(byte[] compressed, int from, int to) {
+            this.compressed = compressed;
+            this.from = from;
+            this.to = to;
+        }
+
+        public Block call() throws IOException {
+            int length = compressed.length;
+            int uncompressedSize = (compressed[length - 4] & 0xff) | (compressed[length - 3] & 0xff) << 8 |
+                    (compressed[length - 2] & 0xff) << 16 | (compressed[length - 1] & 0xff) << 24;
+            byte[] data = new byte[uncompressedSize];
+
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(compressed, BLOCK_HEADER_LENGTH, length - BLOCK_HEADER_LENGTH - BLOCK_FOOTER_LENGTH);
+            try {
+                int n = 0;
+                while (n < uncompressedSize && !inflater.finished()) {
+                    int k = inflater.inflate(data, n, uncompressedSize - n);
+                    if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    n += k;
+                }
+                if (n != uncompressedSize) {
+                    throw new IOException("Did not inflate expected amount of BGZF data");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt BGZF block", e);
+            }
+            return new Block(data, Math.min(from, uncompressedSize), to < 0 ? uncompressedSize : Math.min(to, uncompressedSize));
+        }
+    }
+
+    private static class Block {
+
+        final byte[] data;
+        final int from;
+        final int to;
+
+        Block(byte[] data, int from, int to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
+import org.broad.igv.DirectoryManager;
+import org.broad.igv.PreferenceManager;
+import org.broad.igv.ga4gh.OAuthUtils;
+import org.broad.igv.util.HttpUtils;
+import org.broad.igv.util.collections.LRUCache;
+
+import java.io.*;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent cache of fixed-size blocks of remote files,  stored in the IGV directory so that blocks survive a
+ * restart.  Blocks are keyed by URL and the server's validator (ETag,  or Last-Modified if there is no ETag),  so
+ * a modified remote file is never served from stale blocks.  Files without a validator or a known length are
+ * not cached.
+ * <p/>
+ * Blocks are stored unencrypted,  so URLs that may carry access rights are never cached:  URLs with user info or
+ * a query string (signed URLs,  access tokens),  and hosts IGV sends OAuth tokens to.
+ * <p/>
+ * Total size is capped by the REMOTE_BLOCK_CACHE_SIZE preference (MB),  least recently used blocks are evicted
+ * first.  Recency is persisted as the block file's modification time.  The cache is off by default.
+ * <p/>
+ * Streams that cannot use the disk cache can still keep blocks in a small in-memory cache for the session,
+ * see {@link #getMemoryCachedStream(java.net.URL, htsjdk.samtools.seekablestream.SeekableStream)}.
+ */
+public class RemoteBlockCache {
+
+    private static Logger log = Logger.getLogger(RemoteBlockCache.class);
+
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Maximum number of concurrent prefetch requests,  across all streams
+     */
+    static final int PREFETCH_THREADS = 4;
+
+    /**
+     * Number of blocks kept in memory for streams that are not cached on disk,  across all streams (32 MB)
+     */
+    static final int MEMORY_CACHE_BLOCKS = 512;
+
+    /**
+     * Maximum number of blocks being prefetched into the memory cache at once,  across all streams.  Kept well under
+     * the cache size so prefetched blocks are not evicted by other prefetches before they are read.
+     */
+    static final int MAX_MEMORY_PREFETCH_BLOCKS = MEMORY_CACHE_BLOCKS / 2;
+
+    private static RemoteBlockCache instance;
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * Block file name -> size,  in access order
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * Validator and length per URL,  fetched once per session
+     */
+    private final LRUCache<String, RemoteFileInfo> fileInfoCache = new LRUCache<String, RemoteFileInfo>(100);
+
+    /**
+     * Block name -> block,  for streams that are not cached on disk
+     */
+    private final LRUCache<String, byte[]> memoryBlocks = new LRUCache<String, byte[]>(MEMORY_CACHE_BLOCKS);
+
+    private ExecutorService prefetchExecutor;
+    private int memoryPrefetchBlocks = 0;
+
+    public static synchronized RemoteBlockCache getInstance() {
+        if (instance == null) {
+            long maxBytes = (long) PreferenceManager.getInstance().getAsInt(PreferenceManager.REMOTE_BLOCK_CACHE_SIZE) * 1024 * 1024;
+            File directory = maxBytes > 0 ? DirectoryManager.getBlockCacheDirectory() : null;
+            instance = new RemoteBlockCache(directory, maxBytes);
+        }
+        return instance;
+    }
+
+    RemoteBlockCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (isEnabled()) {
+            loadEntries();
+        }
+    }
+
+    public boolean isEnabled() {
+        return directory != null && maxBytes > 0;
+    }
+
+    /**
+     * Return a stream that reads through the cache,  or {@code stream} itself if the file cannot be cached.
+     */
+    public SeekableStream getCachedStream(final URL url, SeekableStream stream) {
+        if (!isEnabled() || !isCacheable(url)) {
+            return stream;
+        }
+        RemoteFileInfo info = getFileInfo(url);
+        if (info.validator == null || info.contentLength <= 0) {
+            return stream;
+        }
+        IGVSeekableCachedStream.SourceFactory sourceFactory = new IGVSeekableCachedStream.SourceFactory() {
+            public SeekableStream newStream() {
+                return new IGVSeekableHTTPStream(url);
+            }
+        };
+        return new IGVSeekableCachedStream(stream, sourceFactory, getKey(url.toExternalForm(), info.validator),
+                info.contentLength, this, true);
+    }
+
+    /**
+     * Return a stream that reads through the cache,  in memory if the file cannot be cached on disk.  Used by
+     * readers that prefetch (see {@link IGVSeekableCachedStream#prefetch(java.util.List)}),  which need somewhere
+     * to put the prefetched blocks whether or not the disk cache is enabled.  Blocks kept in memory are never
+     * written to disk.
+     *
+     * @return the cached stream,  or {@code stream} itself if the URL may carry credentials or the file length
+     * cannot be determined
+     */
+    public SeekableStream getMemoryCachedStream(final URL url, SeekableStream stream) {
+        if (!isCacheable(url)) {
+            return stream;
+        }
+        SeekableStream cachedStream = getCachedStream(url, stream);
+        if (cachedStream != stream) {
+            return cachedStream;
+        }
+        RemoteFileInfo info = getFileInfo(url);
+        if (info.contentLength <= 0) {
+            return stream;
+        }
+        IGVSeekableCachedStream.SourceFactory sourceFactory = new IGVSeekableCachedStream.SourceFactory() {
+            public SeekableStream newStream() {
+                return new IGVSeekableHTTPStream(url);
+            }
+        };
+        // Validator is irrelevant,  memory blocks do not outlive the session
+        return new IGVSeekableCachedStream(stream, sourceFactory, getKey(url.toExternalForm(), ""),
+                info.contentLength, this, false);
+    }
+
+    /**
+     * @return false if the URL may carry credentials,  whose data must not be written to disk
+     */
+    static boolean isCacheable(URL url) {
+        return url.getUserInfo() == null && url.getQuery() == null && !OAuthUtils.isGoogleCloud(url.toExternalForm());
+    }
+
+    synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newFixedThreadPool(PREFETCH_THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "IGV-prefetch-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return prefetchExecutor;
+    }
+
+    /**
+     * Reserve up to {@code n} blocks of the memory prefetch budget
+     *
+     * @return the number of blocks reserved,  possibly 0
+     */
+    synchronized int reserveMemoryPrefetch(int n) {
+        int reserved = Math.max(0, Math.min(n, MAX_MEMORY_PREFETCH_BLOCKS - memoryPrefetchBlocks));
+        memoryPrefetchBlocks += reserved;
+        return reserved;
+    }
+
+    synchronized void releaseMemoryPrefetch(int n) {
+        memoryPrefetchBlocks -= n;
+    }
+
+    private RemoteFileInfo getFileInfo(URL url) {
+        String urlString = url.toExternalForm();
+        RemoteFileInfo info = fileInfoCache.get(urlString);
+        if (info == null) {
+            String validator = null;
+            long contentLength = -1;
+            try {
+                String[] headers = HttpUtils.getInstance().getHeaderFields(url, "ETag", "Last-Modified", "Content-Length");
+                validator = headers[0] != null ? headers[0] : headers[1];
+                if (headers[2] != null) {
+                    contentLength = Long.parseLong(headers[2]);
+                }
+            } catch (Exception e) {
+                log.info("Could not determine validator for " + urlString + ",  block cache disabled for this file");
+            }
+            info = new RemoteFileInfo(validator, contentLength);
+            fileInfoCache.put(urlString, info);
+        }
+        return info;
+    }
+
+    byte[] getMemoryBlock(String key, long blockNumber) {
+        return memoryBlocks.get(blockName(key, blockNumber));
+    }
+
+    boolean containsMemoryBlock(String key, long blockNumber) {
+        return memoryBlocks.containsKey(blockName(key, blockNumber));
+    }
+
+    void putMemoryBlock(String key, long blockNumber, byte[] bytes) {
+        memoryBlocks.put(blockName(key, blockNumber), bytes);
+    }
+
+    boolean contains(String key, long blockNumber) {
+        synchronized (entries) {
+            return entries.containsKey(blockName(key, blockNumber));
+        }
+    }
+
+    /**
+     * Return the cached block,  or null if it is not in the cache
+     */
+    byte[] get(String key, long blockNumber) {
+        String name = blockName(key, blockNumber);
+        synchronized (entries) {
+            if (entries.get(name) == null) {
+                return null;
+            }
+        }
+        File file = new File(directory, name);
+        try {
+            byte[] bytes = readFile(file);
+            file.setLastModified(System.currentTimeMillis());
+            return bytes;
+        } catch (IOException e) {
+            // Evicted (or removed by another process) since the lookup
+            remove(name);
+            return null;
+        }
+    }
+
+    void put(String key, long blockNumber, byte[] bytes) {
+        String name = blockName(key, blockNumber);
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile(name, TMP_SUFFIX, directory);
+            OutputStream os = new FileOutputStream(tmpFile);
+            try {
+                os.write(bytes);
+            } finally {
+                os.close();
+            }
+            File file = new File(directory, name);
+            if (!tmpFile.renameTo(file)) {
+                // Another thread or process wrote the block first,  either copy is fine
+                tmpFile.delete();
+                if (!file.exists()) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error writing block cache file " + name, e);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            return;
+        }
+
+        List<String> evicted = new ArrayList<String>();
+        synchronized (entries) {
+            Long previous = entries.put(name, (long) bytes.length);
+            totalBytes += bytes.length - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && iter.hasNext()) {
+                Map.Entry<String, Long> entry = iter.next();
+                if (entry.getKey().equals(name)) continue;
+                totalBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                iter.remove();
+            }
+        }
+        for (String evictedName : evicted) {
+            new File(directory, evictedName).delete();
+        }
+    }
+
+    /**
+     * @return the total size of cached blocks in bytes
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * Delete all cached blocks
+     */
+    public void clear() {
+        List<String> names;
+        synchronized (entries) {
+            names = new ArrayList<String>(entries.keySet());
+            entries.clear();
+            totalBytes = 0;
+        }
+        for (String name : names) {
+            new File(directory, name).delete();
+        }
+    }
+
+    private void remove(String name) {
+        synchronized (entries) {
+            Long size = entries.remove(name);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+    }
+
+    /**
+     * Index the blocks already on disk,  oldest first.  Leftover temporary files are deleted.
+     */
+    private void loadEntries() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        List<File> blockFiles = new ArrayList<File>();
+        for (File f : files) {
+            if (f.getName().endsWith(TMP_SUFFIX)) {
+                f.delete();
+            } else if (f.isFile()) {
+                blockFiles.add(f);
+            }
+        }
+        final Map<File, Long> lastModified = new HashMap<File, Long>();
+        for (File f : blockFiles) {
+            lastModified.put(f, f.lastModified());
+        }
+        Collections.sort(blockFiles, new Comparator<File>() {
+            public int compare(File o1, File o2) {
+                long t1 = lastModified.get(o1);
+                long t2 = lastModified.get(o2);
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        synchronized (entries) {
+            for (File f : blockFiles) {
+                long size = f.length();
+                entries.put(f.getName(), size);
+                totalBytes += size;
+            }
+        }
+    }
+
+    static String getKey(String url, String validator) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest((url + "|" + validator).getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String blockName(String key, long blockNumber) {
+        return key + "." + blockNumber;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            HttpUtils.readFully(is, bytes);
+            return bytes;
+        } finally {
+            is.close();
+        }
+    }
+
+    private static class RemoteFileInfo {
+        final String validator;
+        final long contentLength;
+
+        RemoteFileInfo(String validator, long contentLength) {
+            this.validator = validator;
+            this.contentLength = contentLength;
+        }
+    }
+}
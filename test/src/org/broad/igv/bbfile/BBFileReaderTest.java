@@ -29,6 +29,8 @@ import org.broad.igv.util.TestUtils;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
 
 import static org.junit.Assert.*;
 
@@ -73,4 +75,100 @@ public class BBFileReaderTest {
     }
 
 
+    /**
+     * Queries from multiple threads on a shared reader should return the same features as serial queries
+     */
+    @Test
+    public void testConcurrentBigBedQueries() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "bb/chr21.refseq.bb";
+        final BBFileReader bbReader = new BBFileReader(path);
+
+        final String chr = "chr21";
+        final int nWindows = 16;
+        final int start = 26490012;
+        final int step = (42182827 - start) / nWindows;
+
+        final List<String> expected = new ArrayList<String>();
+        for (int w = 0; w < nWindows; w++) {
+            expected.add(queryBigBed(bbReader, chr, start + w * step, start + (w + 1) * step));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        List<Integer> order = new ArrayList<Integer>();
+                        for (int w = 0; w < nWindows; w++) order.add(w);
+                        Collections.shuffle(order, new Random(seed));
+                        for (int w : order) {
+                            String features = queryBigBed(bbReader, chr, start + w * step, start + (w + 1) * step);
+                            if (!expected.get(w).equals(features)) return false;
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+            bbReader.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentBigWigQueries() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "wig/test_fixedStep.bigwig";
+        final BBFileReader bbReader = new BBFileReader(path);
+        assertTrue(bbReader.isBigWigFile());
+
+        final String chr = bbReader.getChromosomeNames().get(0);
+        final String expected = queryBigWig(bbReader, chr);
+        assertTrue(expected.length() > 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return queryBigWig(bbReader, chr);
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+            bbReader.close();
+        }
+    }
+
+    private static String queryBigBed(BBFileReader reader, String chr, int start, int end) {
+        StringBuilder buf = new StringBuilder();
+        BigBedIterator iter = reader.getBigBedIterator(chr, start, chr, end, false);
+        while (iter.hasNext()) {
+            BedFeature f = iter.next();
+            buf.append(f.getStartBase()).append('-').append(f.getEndBase()).append(Arrays.toString(f.getRestOfFields()));
+        }
+        return buf.toString();
+    }
+
+    private static String queryBigWig(BBFileReader reader, String chr) {
+        StringBuilder buf = new StringBuilder();
+        BigWigIterator iter = reader.getBigWigIterator(chr, 0, chr, Integer.MAX_VALUE, false);
+        while (iter.hasNext()) {
+            WigItem item = iter.next();
+            buf.append(item.getStartBase()).append('-').append(item.getEndBase()).append(':').append(item.getWigValue()).append(' ');
+        }
+        return buf.toString();
+    }
+
 }
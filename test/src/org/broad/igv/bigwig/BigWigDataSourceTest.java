@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bigwig;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.bbfile.BBFileReader;
+import org.broad.igv.bbfile.BigWigIterator;
+import org.broad.igv.bbfile.WigItem;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BigWigDataSourceTest extends AbstractHeadlessTest {
+
+    /**
+     * test_fixedStep.bigwig has zoom levels at 22 and 88 bp,  at lower resolutions the zoom records are summarized
+     * into pixel bins.  Min and max of the bins are exact.
+     */
+    @Test
+    public void testOnTheFlySummary() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "wig/test_fixedStep.bigwig";
+        BBFileReader reader = new BBFileReader(path);
+        BigWigDataSource dataSource = new BigWigDataSource(reader, genome);
+
+        String chr = "chr19";
+        int start = 0;
+        int end = genome.getChromosome(chr).getLength();
+
+        float rawMin = Float.MAX_VALUE;
+        float rawMax = -Float.MAX_VALUE;
+        BigWigIterator iter = reader.getBigWigIterator(chr, start, chr, end, false);
+        while (iter.hasNext()) {
+            WigItem item = iter.next();
+            rawMin = Math.min(rawMin, item.getWigValue());
+            rawMax = Math.max(rawMax, item.getWigValue());
+        }
+
+        // Whole chromosome,  ~ 90 kb per pixel
+        int zoom = 0;
+
+        dataSource.setWindowFunction(WindowFunction.max);
+        List<LocusScore> maxScores = dataSource.getSummaryScoresForRange(chr, start, end, zoom);
+        assertTrue(maxScores.size() > 0 && maxScores.size() <= 700);
+        float max = -Float.MAX_VALUE;
+        int lastEnd = 0;
+        for (LocusScore score : maxScores) {
+            assertTrue(score.getStart() >= lastEnd);
+            lastEnd = score.getEnd();
+            max = Math.max(max, score.getScore());
+        }
+        assertEquals(rawMax, max, 1.0e-6);
+
+        // Cached
+        assertSame(maxScores.get(0), dataSource.getSummaryScoresForRange(chr, start, end, zoom).get(0));
+
+        dataSource.setWindowFunction(WindowFunction.min);
+        float min = Float.MAX_VALUE;
+        for (LocusScore score : dataSource.getSummaryScoresForRange(chr, start, end, zoom)) {
+            min = Math.min(min, score.getScore());
+        }
+        assertEquals(rawMin, min, 1.0e-6);
+
+        dataSource.dispose();
+    }
+}
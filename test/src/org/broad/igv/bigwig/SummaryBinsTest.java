@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bigwig;
+
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.track.WindowFunction;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SummaryBinsTest {
+
+    @Test
+    public void testRawRecords() {
+
+        // 10 bins of 10 bp
+        SummaryBins bins = new SummaryBins(1000, 1100, 10);
+        bins.add(1000, 1005, 1);
+        bins.add(1005, 1010, 3);
+        bins.add(1015, 1035, 2);     // spans bins 1 - 3
+        bins.add(1095, 1200, 5);     // extends past the end
+        bins.add(900, 950, 100);     // before the start,  ignored
+
+        List<LocusScore> mean = bins.getScores(WindowFunction.mean);
+        assertEquals(5, mean.size());
+        assertScore(mean.get(0), 1000, 1010, 2);
+        assertScore(mean.get(1), 1015, 1020, 2);
+        assertScore(mean.get(2), 1020, 1030, 2);
+        assertScore(mean.get(3), 1030, 1035, 2);
+        assertScore(mean.get(4), 1095, 1100, 5);
+
+        List<LocusScore> max = bins.getScores(WindowFunction.max);
+        assertScore(max.get(0), 1000, 1010, 3);
+
+        List<LocusScore> min = bins.getScores(WindowFunction.min);
+        assertScore(min.get(0), 1000, 1010, 1);
+    }
+
+    @Test
+    public void testSummaryRecords() {
+
+        SummaryBins bins = new SummaryBins(0, 100, 1);
+
+        // Two zoom records,  the first covers only half its bases
+        bins.add(0, 40, 1, 5, 40, 20);
+        bins.add(40, 100, 0, 2, 30, 60);
+
+        List<LocusScore> scores = bins.getScores(WindowFunction.mean);
+        assertEquals(1, scores.size());
+        assertScore(scores.get(0), 0, 100, 70f / 80);
+        assertEquals(0, bins.getScores(WindowFunction.min).get(0).getScore(), 0);
+        assertEquals(5, bins.getScores(WindowFunction.max).get(0).getScore(), 0);
+    }
+
+    @Test
+    public void testFractionalBinSize() {
+
+        // 7 bins of 100/7 bp,  every position is counted in exactly one bin
+        SummaryBins bins = new SummaryBins(0, 100, 7);
+        for (int i = 0; i < 100; i++) {
+            bins.add(i, i + 1, 1);
+        }
+        List<LocusScore> scores = bins.getScores(WindowFunction.mean);
+        assertEquals(7, scores.size());
+        int expectedStart = 0;
+        for (LocusScore score : scores) {
+            assertEquals(expectedStart, score.getStart());
+            assertEquals(1, score.getScore(), 1.0e-6);
+            expectedStart = score.getEnd();
+        }
+        assertEquals(100, expectedStart);
+    }
+
+    private static void assertScore(LocusScore score, int start, int end, float value) {
+        assertEquals(start, score.getStart());
+        assertEquals(end, score.getEnd());
+        assertEquals(value, score.getScore(), 1.0e-6);
+    }
+}
@@ -29,6 +29,7 @@ import org.broad.igv.AbstractHeadlessTest;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.TrackType;
+import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
 import org.junit.Test;
@@ -129,6 +130,70 @@ public class AbstractDataSourceTest extends AbstractHeadlessTest {
     }
 
 
+    /**
+     * Tiles computed in parallel must match tiles computed serially
+     */
+    @Test
+    public void testParallelSummaryTiles() throws Exception {
+
+        ResourceLocator locator = new ResourceLocator(TestUtils.DATA_DIR + "cn/multi_snp.cn");
+        Genome genome = TestUtils.loadGenome();
+        IGVDataset ds = new IGVDataset(locator, genome);
+        DatasetDataSource parallelSource = new DatasetDataSource("Sample1", ds, genome);
+        DatasetDataSource serialSource = new DatasetDataSource("Sample1", ds, genome) {
+            @Override
+            protected boolean isConcurrentRawDataSupported() {
+                return false;
+            }
+        };
+
+        String chr = "chr10";
+        int chrLength = genome.getChromosome(chr).getLength();
+        int zoom = 6;
+        List<SummaryTile> parallelTiles = parallelSource.getSummaryTilesForRange(chr, 0, chrLength, zoom);
+        List<SummaryTile> serialTiles = serialSource.getSummaryTilesForRange(chr, 0, chrLength, zoom);
+
+        assertEquals(serialTiles.size(), parallelTiles.size());
+        for (int i = 0; i < serialTiles.size(); i++) {
+            List<LocusScore> expected = serialTiles.get(i).getScores();
+            List<LocusScore> actual = parallelTiles.get(i).getScores();
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).getStart(), actual.get(j).getStart());
+                assertEquals(expected.get(j).getEnd(), actual.get(j).getEnd());
+                assertEquals(expected.get(j).getScore(), actual.get(j).getScore(), 0);
+            }
+        }
+
+        // Second request is served from the cache
+        List<SummaryTile> cachedTiles = parallelSource.getSummaryTilesForRange(chr, 0, chrLength, zoom);
+        for (int i = 0; i < cachedTiles.size(); i++) {
+            assertTrue(cachedTiles.get(i) == parallelTiles.get(i));
+        }
+    }
+
+    @Test
+    public void testSummaryTileCacheBound() {
+
+        SummaryTile tile = new SummaryTile();
+        for (int i = 0; i < 100; i++) {
+            tile.addScore(new BasicScore(i, i + 1, i));
+        }
+        long tileBytes = AbstractDataSource.SummaryTileCache.estimateSize(tile);
+
+        AbstractDataSource.SummaryTileCache cache = new AbstractDataSource.SummaryTileCache(5 * tileBytes);
+        for (int t = 0; t < 20; t++) {
+            cache.put(new AbstractDataSource.SummaryTileKey("chr1", 3, t, WindowFunction.mean), tile);
+        }
+        assertEquals(5, cache.size());
+        assertTrue(cache.getSizeInBytes() <= 5 * tileBytes);
+
+        // Least recently used tiles are evicted
+        assertTrue(cache.get(new AbstractDataSource.SummaryTileKey("chr1", 3, 19, WindowFunction.mean)) == tile);
+        assertTrue(cache.get(new AbstractDataSource.SummaryTileKey("chr1", 3, 0, WindowFunction.mean)) == null);
+        assertTrue(cache.get(new AbstractDataSource.SummaryTileKey("chr1", 3, 19, WindowFunction.max)) == null);
+    }
+
     public class TestDataSource extends AbstractDataSource {
 
 
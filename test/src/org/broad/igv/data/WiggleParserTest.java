@@ -26,14 +26,20 @@
 package org.broad.igv.data;
 
 import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.Globals;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author jacob
@@ -87,5 +93,58 @@ public class WiggleParserTest extends AbstractHeadlessTest{
         assertEquals(0.89, ds.percent90, 0.01);
     }
 
+    @Test
+    public void testByteLineReader() throws Exception {
+
+        String[] lines = {"chr1\t10  20\t\t0.15244511", "  fixedStep chrom=chr1 ", "1.5\t\t", "-0.125 1e-3 3.4028235E38 .5 7."};
+        String text = lines[0] + "\r\n" + lines[1] + "\n" + lines[2] + "\n" + lines[3];
+        ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(text.getBytes("US-ASCII")));
+
+        for (String line : lines) {
+            assertTrue(reader.next());
+            assertEquals(line, reader.getLine());
+            String[] expected = Globals.singleTabMultiSpacePattern.split(line);
+            assertEquals(expected.length, reader.tokenize());
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i].trim(), reader.getToken(i));
+            }
+        }
+        assertFalse(reader.next());
+
+        String[] numbers = {"0.15244511", "-0.125", "1e-3", "3.4028235E38", ".5", "7.", "0.9998707", "123456.7", "0.0000012345"};
+        for (String n : numbers) {
+            reader = new ByteLineReader(new ByteArrayInputStream(n.getBytes("US-ASCII")));
+            reader.next();
+            reader.tokenize();
+            assertEquals(n, Float.parseFloat(n), reader.getFloat(0), 0);
+        }
+    }
 
+    @Test
+    public void testParseInBackground() throws Exception {
+
+        String filepath = TestUtils.DATA_DIR + "wig/hg18_var_sample.wig";
+        WiggleDataset expected = (new WiggleParser(new ResourceLocator(filepath))).parse();
+
+        WiggleDataset ds = (new WiggleParser(new ResourceLocator(filepath))).parseInBackground();
+        assertTrue(ds.getChromosomes().length > 0);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        ds.addLoadListener(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        assertFalse(ds.isLoading());
+
+        assertEquals(expected.getChromosomes().length, ds.getChromosomes().length);
+        for (String chr : expected.getChromosomes()) {
+            assertTrue(ds.isChromosomeComplete(chr));
+            assertArrayEquals(expected.getStartLocations(chr), ds.getStartLocations(chr));
+            assertArrayEquals(expected.getEndLocations(chr), ds.getEndLocations(chr));
+            assertArrayEquals(expected.getData("", chr), ds.getData("", chr), 0);
+        }
+        assertEquals(expected.getDataMax(), ds.getDataMax(), 0);
+    }
 }
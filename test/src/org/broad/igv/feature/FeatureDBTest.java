@@ -31,9 +31,12 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import javax.swing.*;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.FutureTask;
 
 import static junit.framework.Assert.*;
 
@@ -155,6 +158,31 @@ public class FeatureDBTest extends AbstractHeadlessTest {
 
     }
 
+    /**
+     * Lookups on the event dispatch thread must not wait for features being loaded in the background
+     */
+    @Test
+    public void testPendingFeaturesDoNotBlockEDT() throws Exception {
+        FutureTask<Object> pending = new FutureTask<Object>(new Runnable() {
+            public void run() {
+            }
+        }, null);
+        FeatureDB.setPendingFeatures(pending);
+        try {
+            final List<List<NamedFeature>> results = new ArrayList<List<NamedFeature>>();
+            SwingUtilities.invokeAndWait(new Runnable() {
+                public void run() {
+                    results.add(FeatureDB.getFeaturesList(CHECK_STR, 3));
+                }
+            });
+            assertEquals(3, results.get(0).size());
+            assertTrue(FeatureDB.isLoadingFeatures());
+        } finally {
+            FeatureDB.setPendingFeatures(null);
+        }
+        assertFalse(FeatureDB.isLoadingFeatures());
+    }
+
     @Test
     public void testMultiRetrieve() throws Exception {
         String checkstr = "EGFLAM";
@@ -0,0 +1,172 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.feature;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.Globals;
+import org.broad.igv.feature.tribble.CodecFactory;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FeatureNameIndexTest extends AbstractHeadlessTest {
+
+    private static final String PATH = TestUtils.DATA_DIR + "bed/Unigene.sample.bed";
+
+    private FeatureNameIndex createIndex() throws Exception {
+        File dataFile = new File(PATH);
+        File indexFile = new File(TestUtils.TMP_OUTPUT_DIR, "Unigene.sample.bed.names");
+        FeatureNameIndex.create(dataFile, CodecFactory.getCodec(PATH, null), indexFile);
+        return new FeatureNameIndex(indexFile, dataFile, genome);
+    }
+
+    @Test
+    public void testGetFeatures() throws Exception {
+        FeatureNameIndex index = createIndex();
+        try {
+            List<NamedFeature> features = index.getFeatures("HS.377257");
+            assertEquals(1, features.size());
+            assertEquals("chr2", features.get(0).getChr());
+            assertEquals(178709699, features.get(0).getStart());
+
+            // Duplicates,  longest first
+            features = index.getFeatures("HS.610180");
+            assertEquals(2, features.size());
+            assertEquals(179531674, features.get(0).getStart());
+
+            assertEquals(0, index.getFeatures("HS.3").size());
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        FeatureNameIndex index = createIndex();
+        try {
+            LinkedHashMap<String, List<NamedFeature>> results = index.search("HS.6", 100);
+            assertEquals(39 - 1, results.size());
+            String last = "";
+            for (String name : results.keySet()) {
+                assertTrue(name.startsWith("HS.6"));
+                assertTrue(name.compareTo(last) > 0);
+                last = name;
+            }
+            assertEquals(5, index.search("HS.6", 5).size());
+            assertEquals(0, index.search("XYZ", 5).size());
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testRetire() throws Exception {
+        FeatureNameIndex index = createIndex();
+        assertTrue(index.acquire());
+        index.retire();
+        // Still open for the search in progress,  closed to new ones
+        assertEquals(1, index.getFeatures("HS.377257").size());
+        assertFalse(index.acquire());
+        index.release();
+        assertFalse(index.acquire());
+    }
+
+    @Test
+    public void testFeatureDB() throws Exception {
+        FeatureDB.clearFeatures();
+        FeatureDB.addNameIndex(createIndex());
+        try {
+            NamedFeature f = FeatureDB.getFeature("hs.377257");
+            assertNotNull(f);
+            assertEquals(178709699, f.getStart());
+            assertEquals(5, FeatureDB.getFeaturesList("HS.6", 5).size());
+        } finally {
+            FeatureDB.clearFeatures();
+        }
+    }
+
+    @Test
+    public void testFeatureDBMerge() throws Exception {
+        FeatureDB.clearFeatures();
+        FeatureDB.addNameIndex(createIndex());
+        try {
+            // Longer than the indexed features with this name,  so preferred
+            BasicFeature longest = new BasicFeature("chr2", 100, 300000000);
+            longest.setName("Hs.610180");
+            FeatureDB.addFeature(longest, genome);
+
+            List<NamedFeature> features = FeatureDB.getFeaturesList("HS.610180", 1, false);
+            assertEquals(3, features.size());
+            assertSame(longest, features.get(0));
+            assertSame(longest, FeatureDB.getFeature("hs.610180"));
+            assertEquals(179531674, features.get(1).getStart());
+        } finally {
+            FeatureDB.clearFeatures();
+        }
+    }
+
+    /**
+     * Duplicates on chromosomes not in the genome must not use up the duplicate limit
+     */
+    @Test
+    public void testDuplicatesFilteredBeforeLimit() throws Exception {
+        File dataFile = new File(TestUtils.TMP_OUTPUT_DIR, "duplicates.bed");
+        PrintWriter pw = new PrintWriter(dataFile);
+        try {
+            // Shorter chromosome names sort first
+            for (int i = 0; i < FeatureDB.MAX_DUPLICATE_COUNT + 5; i++) {
+                pw.println("c9\t" + (100 * i) + "\t" + (100 * i + 50) + "\tDUP");
+            }
+            pw.println("chr1\t1000\t2000\tDUP");
+            pw.println("chr1\t3000\t4000\tDUP");
+        } finally {
+            pw.close();
+        }
+        File indexFile = new File(TestUtils.TMP_OUTPUT_DIR, "duplicates.bed.names");
+        FeatureNameIndex.create(dataFile, CodecFactory.getCodec(dataFile.getAbsolutePath(), null), indexFile);
+
+        FeatureNameIndex index = new FeatureNameIndex(indexFile, dataFile, genome);
+        boolean headless = Globals.isHeadless();
+        Globals.setHeadless(false);
+        try {
+            List<NamedFeature> features = index.getFeatures("DUP");
+            assertEquals(2, features.size());
+            for (NamedFeature f : features) {
+                assertEquals("chr1", f.getChr());
+            }
+            assertEquals(2, index.search("DU", 10).get("DUP").size());
+        } finally {
+            Globals.setHeadless(headless);
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.feature.genome;
+
+import htsjdk.tribble.Feature;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.feature.IGVFeature;
+import org.broad.igv.track.TribbleFeatureSource;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class GeneFileCacheTest extends AbstractHeadlessTest {
+
+    @Test
+    public void testIsIndexable() throws Exception {
+        assertTrue(GeneFileCache.isIndexable("hg18_refGene.txt"));
+        assertTrue(GeneFileCache.isIndexable("genes.bed.gz"));
+        assertTrue(GeneFileCache.isIndexable("genes.gtf"));
+        assertFalse(GeneFileCache.isIndexable("genes.gbk"));
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+
+        File archiveFile = new File(TestUtils.DATA_DIR + "genomes/hg18.unittest.genome");
+        File cachedFile = new File(TestUtils.TMP_OUTPUT_DIR, "hg18_refGene.txt");
+
+        GenomeDescriptor descriptor = GenomeManager.parseGenomeArchiveFile(archiveFile);
+        InputStream is = descriptor.getGeneStream();
+        try {
+            GeneFileCache.create(is, cachedFile);
+        } finally {
+            is.close();
+            descriptor.close();
+        }
+
+        assertTrue(GeneFileCache.getIndexFile(cachedFile).exists());
+        assertFalse(new File(cachedFile.getAbsolutePath() + ".unsorted").exists());
+        assertTrue(GeneFileCache.isCurrent(cachedFile, archiveFile));
+
+        // EGFR
+        TribbleFeatureSource source = TribbleFeatureSource.getFeatureSource(
+                new ResourceLocator(cachedFile.getAbsolutePath()), null);
+        Iterator<Feature> iter = source.getFeatures("chr7", 55054219, 55242525);
+        boolean found = false;
+        while (iter.hasNext()) {
+            Feature f = iter.next();
+            assertEquals("chr7", f.getChr());
+            if ("EGFR".equals(((IGVFeature) f).getName())) found = true;
+        }
+        assertTrue(found);
+    }
+
+    /**
+     * refFlat tables start with the gene name,  not a bin column
+     */
+    @Test
+    public void testCreateRefFlat() throws Exception {
+        String refFlat =
+                "GENEB\tNM_2\tchr2\t+\t5000\t6000\t5000\t6000\t1\t5000,\t6000,\n" +
+                "GENEA\tNM_1\tchr1\t+\t9000\t9500\t9000\t9500\t1\t9000,\t9500,\n" +
+                "GENEC\tNM_3\tchr1\t-\t100\t800\t100\t800\t1\t100,\t800,\n";
+        File cachedFile = new File(TestUtils.TMP_OUTPUT_DIR, "test_refFlat.txt");
+        GeneFileCache.create(new ByteArrayInputStream(refFlat.getBytes("UTF-8")), cachedFile);
+
+        TribbleFeatureSource source = TribbleFeatureSource.getFeatureSource(
+                new ResourceLocator(cachedFile.getAbsolutePath()), null);
+        Iterator<Feature> iter = source.getFeatures("chr1", 0, 10000);
+        assertEquals("GENEC", ((IGVFeature) iter.next()).getName());
+        assertEquals("GENEA", ((IGVFeature) iter.next()).getName());
+        assertFalse(iter.hasNext());
+        iter = source.getFeatures("chr2", 0, 10000);
+        assertEquals("GENEB", ((IGVFeature) iter.next()).getName());
+    }
+}
@@ -112,6 +112,40 @@ public class AlignmentDataManagerTest extends AbstractHeadlessTest {
 
     }
 
+    @Test
+    public void testIntervalCache() throws Exception {
+
+        // Room for 3 intervals of 1kb,  no alignments
+        long intervalBytes = 1000 * AlignmentDataManager.IntervalCache.COUNTS_BYTES;
+        AlignmentDataManager.IntervalCache cache = new AlignmentDataManager.IntervalCache(1, 3 * intervalBytes);
+
+        AlignmentInterval i1 = new AlignmentInterval("chr1", 0, 1000, null, null, null, null);
+        AlignmentInterval i2 = new AlignmentInterval("chr1", 5000, 6000, null, null, null, null);
+        AlignmentInterval i3 = new AlignmentInterval("chr2", 0, 1000, null, null, null, null);
+        cache.add(i1);
+        cache.add(i2);
+        cache.add(i3);
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(3 * intervalBytes, cache.getSizeInBytes());
+
+        // Touch i1,  then overflow.  i2 is least recently used
+        Assert.assertSame(i1, cache.lookup(new Range("chr1", 100, 200)));
+        Assert.assertNull(cache.lookup(new Range("chr1", 2000, 3000)));
+        cache.add(new AlignmentInterval("chr1", 2000, 3000, null, null, null, null));
+        Assert.assertEquals(3, cache.size());
+        Assert.assertNull(cache.getIntervalForRange(new Range("chr1", 5100, 5200)));
+        Assert.assertSame(i1, cache.getIntervalForRange(new Range("chr1", 100, 200)));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        // An interval containing others replaces them.  It fills the budget on its own,  so chr2 is evicted too
+        AlignmentInterval big = new AlignmentInterval("chr1", 0, 3000, null, null, null, null);
+        cache.add(big);
+        Assert.assertSame(big, cache.getIntervalForRange(new Range("chr1", 100, 200)));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(3 * intervalBytes, cache.getSizeInBytes());
+    }
+
     private static void assertManagerHasInterval(AlignmentDataManager manager, String chr, int start, int end) {
         Range range = new Range(chr, start, end);
         AlignmentInterval interval = manager.getLoadedInterval(range);
@@ -419,6 +453,68 @@ public class AlignmentDataManagerTest extends AbstractHeadlessTest {
         }
     }
 
+    /**
+     * Extending a loaded interval by its flank should give the same alignments and coverage as loading
+     * the new range from scratch
+     */
+    @Test
+    public void testExtendInterval() throws Exception {
+        String filepath = TestUtils.DATA_DIR + "sam/NA12878.muc1.test.sam";
+        String chr = "chr1";
+        int start = 153426000;
+        int end = 153426300;
+
+        AlignmentDataManager manager = new AlignmentDataManager(new ResourceLocator(filepath), genome);
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+        AlignmentInterval expected = manager.loadInterval(chr, start, end, renderOptions);
+
+        // Pan right
+        AlignmentInterval loaded = manager.loadInterval(chr, start - 10, end - 100, renderOptions);
+        AlignmentInterval extended = manager.extendInterval(loaded, start, end, renderOptions);
+        assertIntervalsEqual(expected, extended);
+
+        // Pan left
+        loaded = manager.loadInterval(chr, start + 100, end + 10, renderOptions);
+        extended = manager.extendInterval(loaded, start, end, renderOptions);
+        assertIntervalsEqual(expected, extended);
+
+        // Flank too large
+        loaded = manager.loadInterval(chr, start - 100, start + 50, renderOptions);
+        Assert.assertNull(manager.extendInterval(loaded, start, end, renderOptions));
+    }
+
+    private void assertIntervalsEqual(AlignmentInterval expected, AlignmentInterval actual) {
+        assertNotNull(actual);
+        Assert.assertEquals(expected.getStart(), actual.getStart());
+        Assert.assertEquals(expected.getEnd(), actual.getEnd());
+
+        List<Alignment> expAlignments = new ArrayList<Alignment>(expected.getAlignments());
+        List<Alignment> actAlignments = new ArrayList<Alignment>(actual.getAlignments());
+        Assert.assertTrue(expAlignments.size() > 0);
+        Assert.assertEquals(expAlignments.size(), actAlignments.size());
+        for (int i = 1; i < actAlignments.size(); i++) {
+            assertTrue(actAlignments.get(i - 1).getStart() <= actAlignments.get(i).getStart());
+        }
+        Collections.sort(expAlignments, new StartEndSorter());
+        Collections.sort(actAlignments, new StartEndSorter());
+        for (int i = 0; i < expAlignments.size(); i++) {
+            Assert.assertEquals(expAlignments.get(i).getReadName(), actAlignments.get(i).getReadName());
+            Assert.assertEquals(expAlignments.get(i).getStart(), actAlignments.get(i).getStart());
+        }
+
+        AlignmentCounts expCounts = expected.getCounts();
+        AlignmentCounts actCounts = actual.getCounts();
+        for (int pos = expected.getStart(); pos < expected.getEnd(); pos++) {
+            Assert.assertEquals(expCounts.getTotalCount(pos), actCounts.getTotalCount(pos));
+            Assert.assertEquals(expCounts.getDelCount(pos), actCounts.getDelCount(pos));
+            for (char c : BaseAlignmentCounts.nucleotides) {
+                Assert.assertEquals(expCounts.getCount(pos, (byte) c), actCounts.getCount(pos, (byte) c));
+            }
+        }
+        Assert.assertEquals(expCounts.getMaxCount(expected.getStart(), expected.getEnd()),
+                actCounts.getMaxCount(expected.getStart(), expected.getEnd()));
+    }
+
     /**
      * Load alignment interval. Here for other tests, so we don't need to expose
      * {@link AlignmentDataManager#loadInterval(String, int, int, AlignmentTrack.RenderOptions)}
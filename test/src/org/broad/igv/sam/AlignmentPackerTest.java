@@ -30,12 +30,17 @@
 
 package org.broad.igv.sam;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import org.broad.igv.AbstractHeadlessTest;
 import org.broad.igv.sam.reader.AlignmentReader;
 import org.broad.igv.sam.reader.AlignmentReaderFactory;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
+import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.*;
@@ -117,5 +122,136 @@ public class AlignmentPackerTest extends AbstractHeadlessTest {
 
     }
 
+    /**
+     * Interval packing must produce the same rows as the original bucket packing
+     */
+    @Test
+    public void testIntervalPackingMatchesBuckets() throws Exception {
+
+        List<Alignment> alignments = randomAlignments(20000, 20000, new Random(42));
+
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+        renderOptions.groupByOption = null;
+        assertSamePacking(alignments, renderOptions);
+
+        // The bucket queues order pairs by their extent when the first mate is added,  the extent grows when the
+        // second is.  Use distinct start positions so the order within a bucket does not matter.
+        renderOptions.setViewPairs(true);
+        assertSamePacking(randomAlignments(20000, 0, new Random(11)), renderOptions);
+
+        renderOptions.setViewPairs(false);
+        renderOptions.groupByOption = AlignmentTrack.GroupOption.STRAND;
+        assertSamePacking(alignments, renderOptions);
+
+        // Sparse,  > 10 mb
+        List<Alignment> sparse = randomAlignments(2000, 20000000, new Random(7));
+        renderOptions.groupByOption = null;
+        assertSamePacking(sparse, renderOptions);
+    }
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void benchmarkPacking() throws Exception {
+        // Deep coverage over a small window,  and moderate coverage over a wide one
+        tstBenchmarkPacking(500000, 100000);
+        tstBenchmarkPacking(500000, 5000000);
+    }
+
+    private void tstBenchmarkPacking(int nReads, int span) {
+
+        List<Alignment> alignments = randomAlignments(nReads, span, new Random(1));
+        AlignmentInterval interval = new AlignmentInterval("chr1", 0, span + 1000, alignments, null, null, null);
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+        renderOptions.groupByOption = null;
+
+        System.out.println(nReads + " reads over " + span + " bp");
+        for (int trial = 0; trial < 3; trial++) {
+            for (boolean buckets : new boolean[]{true, false}) {
+                System.gc();
+                long t0 = System.nanoTime();
+                Map<String, List<Row>> result = new AlignmentPacker(buckets).packAlignments(interval, renderOptions);
+                long dt = System.nanoTime() - t0;
+                System.out.println((buckets ? "Bucket packing:   " : "Interval packing: ") + (dt / 1000000) + " ms  " +
+                        result.get("").size() + " rows");
+            }
+        }
+    }
+
+    private void assertSamePacking(List<Alignment> alignments, AlignmentTrack.RenderOptions renderOptions) {
 
-}
\ No newline at end of file
+        AlignmentInterval interval = new AlignmentInterval("chr1", 0, Integer.MAX_VALUE, alignments, null, null, null);
+        Map<String, List<Row>> expected = new AlignmentPacker(true).packAlignments(interval, renderOptions);
+        Map<String, List<Row>> result = new AlignmentPacker(false).packAlignments(interval, renderOptions);
+
+        assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(result.keySet()));
+        for (String key : expected.keySet()) {
+            List<Row> expectedRows = expected.get(key);
+            List<Row> rows = result.get(key);
+            assertEquals(expectedRows.size(), rows.size());
+            for (int r = 0; r < rows.size(); r++) {
+                // Alignments with the same start and end are interchangeable,  compare extents
+                List<Alignment> expectedRow = expectedRows.get(r).alignments;
+                List<Alignment> row = rows.get(r).alignments;
+                assertEquals(expectedRow.size(), row.size());
+                for (int i = 0; i < row.size(); i++) {
+                    assertEquals(expectedRow.get(i).getStart(), row.get(i).getStart());
+                    assertEquals(expectedRow.get(i).getEnd(), row.get(i).getEnd());
+                }
+            }
+        }
+    }
+
+    /**
+     * Random alignments sorted by start,  with a mix of lengths,  deletions,  shared start positions and mates.
+     * If span is zero reads start at distinct positions,  mates excepted.
+     */
+    private List<Alignment> randomAlignments(int nReads, int span, Random random) {
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord("chr1", Math.max(span, 3 * nReads) + 10000))));
+
+        List<SAMRecord> records = new ArrayList<SAMRecord>(nReads);
+        for (int i = 0; i < nReads; i++) {
+            int start = span == 0 ? 1 + 3 * i : 1 + random.nextInt(span);
+            int length = 50 + random.nextInt(3) * 50;
+            String cigar = random.nextInt(10) == 0 ? (length / 2) + "M" + (1 + random.nextInt(20)) + "D" + (length / 2) + "M" : length + "M";
+            boolean paired = random.nextBoolean();
+            int mateStart = start + 200 + 3 * random.nextInt(70) + 1;
+
+            records.add(newRecord(header, "read" + i, start, cigar, paired, true, mateStart));
+            if (paired) {
+                records.add(newRecord(header, "read" + i, mateStart, length + "M", true, false, start));
+            }
+        }
+
+        Collections.sort(records, new Comparator<SAMRecord>() {
+            public int compare(SAMRecord o1, SAMRecord o2) {
+                return o1.getAlignmentStart() - o2.getAlignmentStart();
+            }
+        });
+        List<Alignment> alignments = new ArrayList<Alignment>(records.size());
+        for (SAMRecord record : records) {
+            alignments.add(new PicardAlignment(record));
+        }
+        return alignments;
+    }
+
+    private SAMRecord newRecord(SAMFileHeader header, String name, int start, String cigar, boolean paired,
+                                boolean first, int mateStart) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName(name);
+        record.setReferenceName("chr1");
+        record.setAlignmentStart(start);
+        record.setCigarString(cigar);
+        record.setReadNegativeStrandFlag(!first);
+        if (paired) {
+            record.setReadPairedFlag(true);
+            record.setFirstOfPairFlag(first);
+            record.setSecondOfPairFlag(!first);
+            record.setMateReferenceName("chr1");
+            record.setMateAlignmentStart(mateStart);
+            record.setMateNegativeStrandFlag(first);
+        }
+        return record;
+    }
+}
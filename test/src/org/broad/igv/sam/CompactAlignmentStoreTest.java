@@ -0,0 +1,198 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompactAlignmentStoreTest extends AbstractHeadlessTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        tstRoundTrip(TestUtils.DATA_DIR + "sam/NA12878.muc1.test.sam");
+        tstRoundTrip(TestUtils.DATA_DIR + "sam/cufflinks_test_data.sam");
+    }
+
+    private void tstRoundTrip(String path) throws Exception {
+
+        AlignmentReader reader = AlignmentReaderFactory.getReader(path, false);
+        CloseableIterator<Alignment> iter = reader.iterator();
+        List<Alignment> originals = new ArrayList<Alignment>();
+        List<Alignment> compact = new ArrayList<Alignment>();
+        CompactAlignmentStore store = new CompactAlignmentStore(10);
+        while (iter.hasNext()) {
+            Alignment a = iter.next();
+            if (!a.isMapped()) continue;
+            originals.add(a);
+            compact.add(store.add(a));
+        }
+        iter.close();
+        store.trimToSize();
+
+        assertTrue(originals.size() > 0);
+        assertEquals(originals.size(), store.size());
+        for (int i = 0; i < originals.size(); i++) {
+            assertSameAlignment(originals.get(i), compact.get(i));
+        }
+    }
+
+    private void assertSameAlignment(Alignment exp, Alignment act) {
+
+        assertEquals(exp.getReadName(), act.getReadName());
+        assertEquals(exp.getChr(), act.getChr());
+        assertEquals(exp.getStart(), act.getStart());
+        assertEquals(exp.getEnd(), act.getEnd());
+        assertEquals(exp.getAlignmentStart(), act.getAlignmentStart());
+        assertEquals(exp.getAlignmentEnd(), act.getAlignmentEnd());
+        assertEquals(exp.getCigarString(), act.getCigarString());
+        assertEquals(exp.getMappingQuality(), act.getMappingQuality());
+        assertEquals(exp.getInferredInsertSize(), act.getInferredInsertSize());
+        assertEquals(exp.isNegativeStrand(), act.isNegativeStrand());
+        assertEquals(exp.isPaired(), act.isPaired());
+        assertEquals(exp.isProperPair(), act.isProperPair());
+        assertEquals(exp.isFirstOfPair(), act.isFirstOfPair());
+        assertEquals(exp.isSecondOfPair(), act.isSecondOfPair());
+        assertEquals(exp.isDuplicate(), act.isDuplicate());
+        assertEquals(exp.isPrimary(), act.isPrimary());
+        assertEquals(exp.isSupplementary(), act.isSupplementary());
+        assertEquals(exp.isVendorFailedRead(), act.isVendorFailedRead());
+        assertEquals(exp.getPairOrientation(), act.getPairOrientation());
+        assertEquals(exp.getFirstOfPairStrand(), act.getFirstOfPairStrand());
+        assertEquals(exp.getSecondOfPairStrand(), act.getSecondOfPairStrand());
+        assertEquals(exp.getReadGroup(), act.getReadGroup());
+        assertEquals(exp.getSample(), act.getSample());
+        assertEquals(exp.getLibrary(), act.getLibrary());
+        assertEquals(exp.getAttribute("XS"), act.getAttribute("XS"));
+
+        ReadMate expMate = exp.getMate();
+        if (expMate == null) {
+            assertNull(act.getMate());
+        } else {
+            ReadMate actMate = act.getMate();
+            assertEquals(expMate.getChr(), actMate.getChr());
+            assertEquals(expMate.getStart(), actMate.getStart());
+            assertEquals(expMate.isMapped(), actMate.isMapped());
+            assertEquals(expMate.isNegativeStrand(), actMate.isNegativeStrand());
+        }
+
+        assertSameBlocks(exp.getAlignmentBlocks(), act.getAlignmentBlocks());
+        assertSameBlocks(exp.getInsertions(), act.getInsertions());
+
+        List<Gap> expGaps = exp.getGaps();
+        List<Gap> actGaps = act.getGaps();
+        if (expGaps == null || expGaps.isEmpty()) {
+            assertTrue(actGaps == null || actGaps.isEmpty());
+        } else {
+            assertEquals(expGaps.size(), actGaps.size());
+            for (int i = 0; i < expGaps.size(); i++) {
+                assertEquals(expGaps.get(i).getStart(), actGaps.get(i).getStart());
+                assertEquals(expGaps.get(i).getnBases(), actGaps.get(i).getnBases());
+                assertEquals(expGaps.get(i).getType(), actGaps.get(i).getType());
+                assertEquals(expGaps.get(i) instanceof SpliceGap, actGaps.get(i) instanceof SpliceGap);
+            }
+        }
+
+        for (int pos = exp.getStart(); pos < exp.getEnd(); pos++) {
+            assertEquals(exp.getBase(pos), act.getBase(pos));
+            assertEquals(exp.getPhred(pos), act.getPhred(pos));
+        }
+    }
+
+    private void assertSameBlocks(AlignmentBlock[] exp, AlignmentBlock[] act) {
+        int expLength = exp == null ? 0 : exp.length;
+        int actLength = act == null ? 0 : act.length;
+        assertEquals(expLength, actLength);
+        for (int i = 0; i < expLength; i++) {
+            assertEquals(exp[i].getStart(), act[i].getStart());
+            assertEquals(exp[i].getLength(), act[i].getLength());
+            assertEquals(exp[i].isSoftClipped(), act[i].isSoftClipped());
+            assertArrayEquals(exp[i].getBases(), act[i].getBases());
+            assertArrayEquals(exp[i].getQualities(), act[i].getQualities());
+        }
+    }
+
+    @Test
+    public void testPixelRange() throws Exception {
+
+        AlignmentReader reader = AlignmentReaderFactory.getReader(TestUtils.DATA_DIR + "sam/NA12878.muc1.test.sam", false);
+        CloseableIterator<Alignment> iter = reader.iterator();
+        CompactAlignmentStore store = new CompactAlignmentStore();
+        Alignment a = store.add(iter.next());
+        Alignment b = store.add(iter.next());
+        iter.close();
+
+        // Pixel ranges are held by the store,  so survive re-fetching the blocks
+        a.getAlignmentBlocks()[0].setPixelRange(10, 20);
+        assertTrue(a.getAlignmentBlocks()[0].containsPixel(15));
+        assertFalse(a.getAlignmentBlocks()[0].containsPixel(25));
+        assertFalse(b.getAlignmentBlocks()[0].containsPixel(15));
+    }
+
+    /**
+     * Compacting after downsampling keeps only the listed alignments, in a store of their size
+     */
+    @Test
+    public void testCompact() throws Exception {
+
+        AlignmentReader reader = AlignmentReaderFactory.getReader(TestUtils.DATA_DIR + "sam/NA12878.muc1.test.sam", false);
+        CloseableIterator<Alignment> iter = reader.iterator();
+        List<Alignment> originals = new ArrayList<Alignment>();
+        List<Alignment> kept = new ArrayList<Alignment>();
+        CompactAlignmentStore store = new CompactAlignmentStore(10);
+        int n = 0;
+        while (iter.hasNext()) {
+            Alignment a = iter.next();
+            if (!a.isMapped()) continue;
+            Alignment view = store.add(a);
+            if (n++ % 3 == 0) {
+                originals.add(a);
+                kept.add(view);
+            }
+        }
+        iter.close();
+
+        CompactAlignmentStore compacted = store.compact(kept);
+        assertEquals(kept.size(), compacted.size());
+        assertTrue(compacted.getSizeInBytes() < store.getSizeInBytes());
+        for (int i = 0; i < originals.size(); i++) {
+            assertSameAlignment(originals.get(i), kept.get(i));
+        }
+
+        // Block views are reused
+        Alignment a = kept.get(0);
+        assertSame(a.getAlignmentBlocks(), a.getAlignmentBlocks());
+        assertSame(a.getInsertions(), a.getInsertions());
+    }
+}
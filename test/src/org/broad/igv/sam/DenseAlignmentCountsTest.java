@@ -25,9 +25,22 @@
 
 package org.broad.igv.sam;
 
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
 import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.PreferenceManager;
+import org.broad.igv.util.TestUtils;
 import org.junit.Test;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
 /**
  * @author jacob
  * @date 2013-Oct-31
@@ -70,4 +83,78 @@ public class DenseAlignmentCountsTest extends AbstractHeadlessTest {
         }
 
     }
+
+    /**
+     * Alignments that have not built their blocks are counted directly from the record,  the counts must
+     * be identical to those computed from the blocks
+     */
+    @Test
+    public void testCountsWithoutBlocks() throws Exception {
+
+        String[] files = {"sam/hardSoftClip.sam", "sam/has_padding.sam", "sam/test_padding.sam",
+                "sam/NA12878.muc1.test.sam", "sam/cufflinks_test_data.sam", "sam/test_2.sam"};
+
+        PreferenceManager prefs = PreferenceManager.getInstance();
+        boolean showSoftClipped = prefs.getAsBoolean(PreferenceManager.SAM_SHOW_SOFT_CLIPPED);
+        try {
+            for (boolean softClipped : new boolean[]{false, true}) {
+                prefs.put(PreferenceManager.SAM_SHOW_SOFT_CLIPPED, String.valueOf(softClipped));
+                for (String file : files) {
+                    tstCountsWithoutBlocks(TestUtils.DATA_DIR + file);
+                }
+            }
+        } finally {
+            prefs.put(PreferenceManager.SAM_SHOW_SOFT_CLIPPED, String.valueOf(showSoftClipped));
+        }
+    }
+
+    private void tstCountsWithoutBlocks(String path) throws Exception {
+
+        List<SAMRecord> records = new ArrayList<SAMRecord>();
+        SamReader reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(new File(path));
+        int min = Integer.MAX_VALUE, max = 0;
+        for (SAMRecord record : reader) {
+            if (record.getReadUnmappedFlag() ||
+                    (records.size() > 0 && !record.getReferenceName().equals(records.get(0).getReferenceName()))) {
+                continue;
+            }
+            records.add(record);
+            min = Math.min(min, record.getUnclippedStart());
+            max = Math.max(max, record.getUnclippedEnd());
+        }
+        reader.close();
+
+        // Full range,  and a window clipping reads at both ends
+        int mid = (min + max) / 2;
+        int[][] ranges = {{min - 10, max + 10}, {mid - 20, mid + 20}};
+        for (int[] range : ranges) {
+            DenseAlignmentCounts expected = new DenseAlignmentCounts(range[0], range[1], null);
+            DenseAlignmentCounts counts = new DenseAlignmentCounts(range[0], range[1], null);
+            for (SAMRecord record : records) {
+                PicardAlignment decoded = new PicardAlignment(record);
+                decoded.getAlignmentBlocks();
+                expected.incCounts(decoded);
+
+                PicardAlignment alignment = new PicardAlignment(record);
+                counts.incCounts(alignment);
+                assertNull(alignment.alignmentBlocks);
+                assertEquals(decoded.getStart(), alignment.getStart());
+                assertEquals(decoded.getEnd(), alignment.getEnd());
+            }
+            expected.finish();
+            counts.finish();
+
+            for (int pos = range[0]; pos < range[1]; pos++) {
+                String msg = path + " " + pos;
+                assertEquals(msg, expected.getTotalCount(pos), counts.getTotalCount(pos));
+                assertEquals(msg, expected.getDelCount(pos), counts.getDelCount(pos));
+                assertEquals(msg, expected.getInsCount(pos), counts.getInsCount(pos));
+                for (byte b : new byte[]{'a', 'c', 'g', 't', 'n'}) {
+                    assertEquals(msg, expected.getPosCount(pos, b), counts.getPosCount(pos, b));
+                    assertEquals(msg, expected.getNegCount(pos, b), counts.getNegCount(pos, b));
+                    assertEquals(msg, expected.getQuality(pos, b), counts.getQuality(pos, b));
+                }
+            }
+        }
+    }
 }
@@ -32,22 +32,33 @@ package org.broad.igv.sam;
 
 //~--- non-JDK imports --------------------------------------------------------
 
+import htsjdk.samtools.Cigar;
 import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.TextCigarCodec;
 import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.PreferenceManager;
 import org.broad.igv.sam.reader.AlignmentReader;
 import org.broad.igv.sam.reader.AlignmentReaderFactory;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
 
 /**
  * @author jrobinso
@@ -136,4 +147,164 @@ public class PicardAlignmentTest extends AbstractHeadlessTest {
         }
     }
 
+    /**
+     * Blocks and tags should only be decoded when first needed
+     */
+    @Test
+    public void testLazyDecode() throws Exception {
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSequenceDictionary(new SAMSequenceDictionary(java.util.Arrays.asList(new SAMSequenceRecord("chr1", 100000))));
+        SAMReadGroupRecord rg = new SAMReadGroupRecord("rg1");
+        rg.setSample("sample1");
+        rg.setLibrary("lib1");
+        header.addReadGroup(rg);
+
+        final int[] decodeCount = new int[1];
+        SAMRecord record = new SAMRecord(header) {
+            @Override
+            public Cigar getCigar() {
+                decodeCount[0]++;
+                return super.getCigar();
+            }
+
+            @Override
+            public Object getAttribute(String tag) {
+                decodeCount[0]++;
+                return super.getAttribute(tag);
+            }
+        };
+        record.setReadName("read1");
+        record.setReferenceName("chr1");
+        record.setAlignmentStart(1001);
+        record.setCigarString("10M5D10M");
+        record.setReadBases("ACGTACGTACGTACGTACGT".getBytes());
+        record.setBaseQualities("IIIIIIIIIIIIIIIIIIII".getBytes());
+        record.setMappingQuality(30);
+        record.setDuplicateReadFlag(true);
+        record.setAttribute("RG", "rg1");
+        record.setAttribute("YC", "255,0,0");
+        decodeCount[0] = 0;
+
+        PicardAlignment alignment = new PicardAlignment(record);
+        assertTrue(alignment.isDuplicate());
+        assertEquals(30, alignment.getMappingQuality());
+        assertEquals(1000, alignment.getAlignmentStart());
+        assertEquals("read1", alignment.getReadName());
+        assertEquals(0, decodeCount[0]);
+
+        assertEquals(2, alignment.getAlignmentBlocks().length);
+        assertEquals(1, alignment.getGaps().size());
+        assertEquals(1000, alignment.getStart());
+        assertEquals(1025, alignment.getEnd());
+        assertEquals('C', (char) alignment.getBase(1001));
+        assertFalse(decodeCount[0] == 0);
+
+        assertEquals("sample1", alignment.getSample());
+        assertEquals("lib1", alignment.getLibrary());
+        assertEquals(new Color(255, 0, 0), alignment.getColor());
+    }
+
+    /**
+     * Building the blocks must not change the soft clipped bounds,  which other threads may be reading
+     */
+    @Test
+    public void testSoftClippedBounds() throws Exception {
+
+        PreferenceManager prefs = PreferenceManager.getInstance();
+        prefs.put(PreferenceManager.SAM_SHOW_SOFT_CLIPPED, true);
+        try {
+            SAMFileHeader header = new SAMFileHeader();
+            header.setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord("chr1", 100000))));
+            SAMRecord record = new SAMRecord(header);
+            record.setReadName("read1");
+            record.setReferenceName("chr1");
+            record.setAlignmentStart(1001);
+            record.setCigarString("2H5S20M3S");
+            record.setReadBases("ACGTACGTACGTACGTACGTACGTACGT".getBytes());
+            record.setBaseQualities("IIIIIIIIIIIIIIIIIIIIIIIIIIII".getBytes());
+
+            PicardAlignment alignment = new PicardAlignment(record);
+            assertEquals(995, alignment.getStart());
+            assertEquals(1023, alignment.getEnd());
+
+            AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
+            assertEquals(3, blocks.length);
+            assertEquals(995, blocks[0].getStart());
+            assertTrue(blocks[0].isSoftClipped());
+            assertEquals(1000, blocks[1].getStart());
+            assertEquals(1020, blocks[2].getStart());
+            assertEquals(995, alignment.getStart());
+            assertEquals(1023, alignment.getEnd());
+        } finally {
+            prefs.remove(PreferenceManager.SAM_SHOW_SOFT_CLIPPED);
+        }
+    }
+
+    private static final String[] CIGARS = {"100M", "5H10S50M2I10M3D20M1N30M5S3H", "10M5P10M", "10M10M5I", "20S",
+            "3H", "3H10S", "10=5X5=", "5S20M", "20M5S2H"};
+
+    @Test
+    public void testBuildOperatorsFromCigar() {
+
+        for (String cigarString : CIGARS) {
+            Cigar cigar = TextCigarCodec.decode(cigarString);
+
+            List<SAMAlignment.CigarOperator> expected = SAMAlignment.buildOperators(cigarString);
+            List<SAMAlignment.CigarOperator> operators = SAMAlignment.buildOperators(cigar);
+            assertEquals(cigarString, expected.size(), operators.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(cigarString, expected.get(i).operator, operators.get(i).operator);
+                assertEquals(cigarString, expected.get(i).nBases, operators.get(i).nBases);
+            }
+
+            Assert.assertArrayEquals(cigarString, SAMAlignment.getClipping(cigarString), SAMAlignment.getClipping(cigar));
+        }
+    }
+
+    /**
+     * Micro-benchmark of the bytes allocated per read to build cigar operators,  comparing the CIGAR string
+     * round trip (htsjdk formats the binary cigar,  IGV parses it) with building directly from the cigar elements.
+     */
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void testCigarOperatorAllocation() {
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        Cigar[] cigars = new Cigar[CIGARS.length];
+        for (int i = 0; i < CIGARS.length; i++) {
+            cigars[i] = TextCigarCodec.decode(CIGARS[i]);
+        }
+
+        int nTrials = 200000;
+        long sink = 0;
+
+        // Warm up both paths so the measurement is not dominated by class loading and interpretation
+        for (int i = 0; i < nTrials; i++) {
+            Cigar cigar = cigars[i % cigars.length];
+            sink += SAMAlignment.buildOperators(TextCigarCodec.encode(cigar)).size();
+            sink += SAMAlignment.buildOperators(cigar).size();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < nTrials; i++) {
+            sink += SAMAlignment.buildOperators(TextCigarCodec.encode(cigars[i % cigars.length])).size();
+        }
+        long stringBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+        startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < nTrials; i++) {
+            sink += SAMAlignment.buildOperators(cigars[i % cigars.length]).size();
+        }
+        long binaryBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+        assertTrue(String.format("Expected fewer bytes allocated per read building from cigar elements.  " +
+                        "String: %d  Binary: %d  (%d)", stringBytes / nTrials, binaryBytes / nTrials, sink),
+                binaryBytes < stringBytes);
+    }
 }
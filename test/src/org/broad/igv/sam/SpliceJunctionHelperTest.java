@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.feature.SpliceJunctionFeature;
+import org.broad.igv.feature.Strand;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpliceJunctionHelperTest extends AbstractHeadlessTest {
+
+    private static SpliceJunctionFeature addJunction(SpliceJunctionHelper helper, int junctionStart, int junctionEnd,
+                                                     int flankingStart, int flankingEnd) {
+        SpliceJunctionFeature junction = new SpliceJunctionFeature("chr1", junctionStart, junctionEnd, Strand.POSITIVE);
+        junction.addRead(flankingStart, flankingEnd);
+        helper.posStartEndJunctionsMap.put(junctionStart, junctionEnd, junction);
+        helper.allSpliceJunctionFeatures.add(junction);
+        return junction;
+    }
+
+    /**
+     * Copied junctions are trimmed to the new range,  and are independent of the originals
+     */
+    @Test
+    public void testCopy() throws Exception {
+        SpliceJunctionHelper helper = new SpliceJunctionHelper(new SpliceJunctionHelper.LoadOptions(1, 0));
+        SpliceJunctionFeature near = addJunction(helper, 200, 300, 150, 350);
+        addJunction(helper, 5000, 5100, 4950, 5150);
+
+        SpliceJunctionHelper copy = new SpliceJunctionHelper(helper, 0, 1000);
+        List<SpliceJunctionFeature> junctions = copy.getFilteredJunctions(SpliceJunctionTrack.StrandOption.FORWARD);
+        assertEquals(1, junctions.size());
+        assertEquals(1, copy.allSpliceJunctionFeatures.size());
+
+        SpliceJunctionFeature copied = junctions.get(0);
+        assertNotSame(near, copied);
+        assertEquals(200, copied.getJunctionStart());
+        assertEquals(1, copied.getJunctionDepth());
+
+        copied.addRead(100, 400);
+        assertEquals(2, copied.getJunctionDepth());
+        assertEquals(100, copied.getStart());
+        assertEquals(2, copied.getStartFlankingRegionDepthArray()[99]);
+        assertEquals(1, near.getJunctionDepth());
+        assertEquals(150, near.getStart());
+        assertEquals(1, near.getStartFlankingRegionDepthArray()[49]);
+    }
+}
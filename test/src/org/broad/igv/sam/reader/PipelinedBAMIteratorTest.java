@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam.reader;
+
+import htsjdk.samtools.*;
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.sam.PicardAlignment;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PipelinedBAMIteratorTest extends AbstractHeadlessTest {
+
+    static File bamFile;
+    static File indexFile;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        AbstractHeadlessTest.setUpClass();
+        bamFile = new File(TestUtils.DATA_DIR + "samtools/index_test.bam");
+        indexFile = File.createTempFile("index_test", ".bai");
+        SamReader reader = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS)
+                .validationStringency(ValidationStringency.SILENT).open(bamFile);
+        BAMIndexer.createIndex(reader, indexFile);
+        reader.close();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        indexFile.delete();
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+
+        ResourceLocator locator = new ResourceLocator(bamFile.getAbsolutePath());
+        locator.setIndexPath(indexFile.getAbsolutePath());
+        BAMReader bamReader = new BAMReader(locator, true);
+
+        SamReader samReader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT)
+                .open(SamInputResource.of(bamFile).index(indexFile));
+
+        int count = 0;
+        for (SAMSequenceRecord seq : samReader.getFileHeader().getSequenceDictionary().getSequences()) {
+            String chr = seq.getSequenceName();
+            int length = seq.getSequenceLength();
+            int[][] intervals = {{0, length}, {length / 3, length / 3 + 10000}, {length / 2, length / 2 + 1}};
+            for (int[] interval : intervals) {
+                for (boolean contained : new boolean[]{false, true}) {
+                    List<String> expected = readNames(samReader.query(chr, interval[0] + 1, interval[1], contained));
+                    List<String> actual = new ArrayList<String>();
+                    CloseableIterator<PicardAlignment> iter = bamReader.query(chr, interval[0], interval[1], contained);
+                    while (iter.hasNext()) {
+                        PicardAlignment a = iter.next();
+                        actual.add(a.getReadName() + ":" + a.getStart() + ":" + a.getCigarString());
+                    }
+                    iter.close();
+                    assertEquals(chr + ":" + interval[0] + "-" + interval[1], expected, actual);
+                    count += actual.size();
+                }
+            }
+        }
+        assertTrue(count > 0);
+
+        samReader.close();
+        bamReader.close();
+    }
+
+    @Test
+    public void testIterator() throws Exception {
+
+        BAMReader bamReader = new BAMReader(new ResourceLocator(bamFile.getAbsolutePath()), false);
+        SamReader samReader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(bamFile);
+
+        List<String> expected = readNames(samReader.iterator());
+        List<String> actual = new ArrayList<String>();
+        CloseableIterator<PicardAlignment> iter = bamReader.iterator();
+        while (iter.hasNext()) {
+            PicardAlignment a = iter.next();
+            actual.add(a.getReadName() + ":" + a.getStart() + ":" + a.getCigarString());
+        }
+        iter.close();
+
+        assertFalse(actual.isEmpty());
+        assertEquals(expected, actual);
+
+        samReader.close();
+        bamReader.close();
+    }
+
+    private static List<String> readNames(CloseableIterator<SAMRecord> iter) {
+        List<String> names = new ArrayList<String>();
+        while (iter.hasNext()) {
+            SAMRecord record = iter.next();
+            names.add(record.getReadName() + ":" + (record.getAlignmentStart() - 1) + ":" + record.getCigarString());
+        }
+        iter.close();
+        return names;
+    }
+}
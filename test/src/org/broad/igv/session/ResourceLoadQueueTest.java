@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.session;
+
+import org.broad.igv.util.ResourceLocator;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ResourceLoadQueueTest {
+
+    @Test
+    public void testPriority() throws Exception {
+
+        ResourceLoadQueue queue = new ResourceLoadQueue(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        // Occupy the only thread until everything is queued
+        final CountDownLatch started = new CountDownLatch(1);
+        queue.submit(new ResourceLocator("first"), Arrays.asList("first"), 10, new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                order.add("first");
+            }
+        });
+        queue.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        submit(queue, "c", 5, order, null);
+        submit(queue, "a", 1, order, null);
+        submit(queue, "b", 3, order, null);
+        submit(queue, "d", 5, order, null);
+        latch.countDown();
+
+        assertTrue(queue.waitFor("a_track"));
+        assertTrue(order.contains("a"));
+        assertFalse(queue.waitFor("x_track"));
+
+        queue.waitForAll();
+        assertEquals(Arrays.asList("first", "a", "b", "c", "d"), order);
+    }
+
+    /**
+     * Nothing runs until the queue is started,  so the first loads submitted are ordered too
+     */
+    @Test
+    public void testPriorityBeforeStart() throws Exception {
+
+        ResourceLoadQueue queue = new ResourceLoadQueue(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        submit(queue, "c", 5, order, null);
+        submit(queue, "d", 7, order, null);
+        submit(queue, "a", 1, order, null);
+        submit(queue, "b", 3, order, null);
+        Thread.sleep(100);
+        assertTrue(order.isEmpty());
+
+        queue.start();
+        queue.waitForAll();
+        assertEquals(Arrays.asList("a", "b", "c", "d"), order);
+    }
+
+    private static void submit(ResourceLoadQueue queue, final String path, int priority,
+                               final List<String> order, final CountDownLatch latch) {
+        queue.submit(new ResourceLocator(path), Arrays.asList(path), priority, new Runnable() {
+            public void run() {
+                try {
+                    if (latch != null) latch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                order.add(path);
+            }
+        });
+    }
+}
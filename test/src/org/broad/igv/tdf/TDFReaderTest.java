@@ -26,9 +26,16 @@
 package org.broad.igv.tdf;
 
 import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
@@ -70,4 +77,69 @@ public class TDFReaderTest {
         assertNotNull(tile);
 
     }
+
+    /**
+     * Read all tiles of all datasets from several threads at once and compare to a serial read
+     */
+    @Test
+    public void testConcurrentTileReads() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "tdf/NA12878.SLX.egfr.sam.tdf";
+
+        TDFReader serialReader = new TDFReader(new ResourceLocator(path));
+        final List<String> keys = new ArrayList<String>();
+        final List<TDFTile> expected = new ArrayList<TDFTile>();
+        for (String name : serialReader.getDatasetNames()) {
+            TDFDataset ds = serialReader.getDataset(name);
+            for (int t = 0; t < ds.nTiles; t++) {
+                keys.add(name + "\t" + t);
+                expected.add(serialReader.readTile(ds, t));
+            }
+        }
+        serialReader.close();
+        assertTrue(keys.size() > 0);
+
+        final TDFReader reader = new TDFReader(new ResourceLocator(path));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<TDFTile>>> futures = new ArrayList<Future<List<TDFTile>>>();
+            for (int n = 0; n < 8; n++) {
+                futures.add(executor.submit(new Callable<List<TDFTile>>() {
+                    public List<TDFTile> call() throws Exception {
+                        List<TDFTile> tiles = new ArrayList<TDFTile>();
+                        for (String key : keys) {
+                            String[] tokens = key.split("\t");
+                            TDFDataset ds = reader.getDataset(tokens[0]);
+                            tiles.add(ds.getTile(Integer.parseInt(tokens[1])));
+                        }
+                        return tiles;
+                    }
+                }));
+            }
+
+            for (Future<List<TDFTile>> f : futures) {
+                List<TDFTile> tiles = f.get();
+                for (int i = 0; i < expected.size(); i++) {
+                    assertTilesEqual(expected.get(i), tiles.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+            reader.close();
+        }
+    }
+
+    private static void assertTilesEqual(TDFTile expected, TDFTile actual) {
+        if (expected == null) {
+            assertTrue(actual == null);
+            return;
+        }
+        assertNotNull(actual);
+        assertEquals(expected.getSize(), actual.getSize());
+        for (int i = 0; i < expected.getSize(); i++) {
+            assertEquals(expected.getStartPosition(i), actual.getStartPosition(i));
+            assertEquals(expected.getEndPosition(i), actual.getEndPosition(i));
+            assertEquals(expected.getValue(0, i), actual.getValue(0, i));
+        }
+    }
 }
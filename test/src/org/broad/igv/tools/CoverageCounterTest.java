@@ -25,6 +25,10 @@
 
 package org.broad.igv.tools;
 
+import htsjdk.samtools.BAMIndexer;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import org.apache.commons.io.FileUtils;
 import org.broad.igv.AbstractHeadlessTest;
 import org.broad.igv.PreferenceManager;
 import org.broad.igv.feature.genome.Genome;
@@ -38,10 +42,12 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 
 
 public class CoverageCounterTest extends AbstractHeadlessTest {
@@ -248,6 +254,55 @@ public class CoverageCounterTest extends AbstractHeadlessTest {
     }
 
 
+    /**
+     * Parallel counting of an indexed file should produce exactly the same output,  in the same order,  as the
+     * serial path.
+     */
+    @Test
+    public void testParallelMatchesSerial() throws Exception {
+
+        File dir = new File(TestUtils.TMP_OUTPUT_DIR);
+        dir.mkdirs();
+        File bamFile = new File(dir, "chr1_chr2.parallel.bam");
+        FileUtils.copyFile(new File(TestUtils.DATA_DIR + "bam/chr1_chr2.hg18.bam"), bamFile);
+        File indexFile = new File(bamFile.getAbsolutePath() + ".bai");
+        SamReader samReader = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS)
+                .open(bamFile);
+        BAMIndexer.createIndex(samReader, indexFile);
+        samReader.close();
+
+        try {
+            int[] countFlags = {0, CoverageCounter.STRANDS_BY_READ + CoverageCounter.BASES};
+            for (int flags : countFlags) {
+                for (int windowSize : new int[]{1, 25}) {
+                    TestDataConsumer serial = new TestDataConsumer();
+                    new CoverageCounter(bamFile.getAbsolutePath(), serial, windowSize, 50, null, genome, null, 0, flags).parse();
+
+                    TestDataConsumer parallel = new TestDataConsumer();
+                    CoverageCounter cc = new CoverageCounter(bamFile.getAbsolutePath(), parallel, windowSize, 50, null, genome, null, 0, flags);
+                    cc.setThreadCount(4);
+                    cc.parse();
+
+                    assertTrue(serial.testDatas.size() > 0);
+                    assertEquals(serial.attributes.get("totalCount"), parallel.attributes.get("totalCount"));
+                    assertEquals(serial.testDatas.size(), parallel.testDatas.size());
+                    for (int i = 0; i < serial.testDatas.size(); i++) {
+                        TestData exp = serial.testDatas.get(i);
+                        TestData act = parallel.testDatas.get(i);
+                        assertEquals(exp.chr, act.chr);
+                        assertEquals(exp.start, act.start);
+                        assertEquals(exp.end, act.end);
+                        assertTrue(Arrays.equals(exp.data, act.data));
+                    }
+                }
+            }
+        } finally {
+            indexFile.delete();
+            bamFile.delete();
+        }
+    }
+
+
     static class TestDataConsumer implements DataConsumer {
 
         Map<String, String> attributes = new HashMap<String, String>();
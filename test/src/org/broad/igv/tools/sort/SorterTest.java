@@ -36,9 +36,8 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.InterruptedIOException;
+import java.util.*;
 
 import static org.junit.Assert.*;
 
@@ -88,6 +87,247 @@ public class SorterTest extends AbstractHeadlessTest {
         testSort(path, 0, 1, 10, 100, 1);
     }
 
+    /**
+     * Sort with a memory budget small enough to spill hundreds of runs,  and force intermediate merges.  The
+     * output should match a stable in-memory sort.
+     */
+    @Test
+    public void testParallelExternalSort() throws Exception {
+
+        File ifile = new File(TestUtils.DATA_DIR + "bed/GSM1004654_10k.bed");
+        File ofile = new File(TestUtils.TMP_OUTPUT_DIR, "GSM1004654_10k.parallel.sorted.bed");
+        ofile.deleteOnExit();
+
+        int maxMergeRuns = ParallelSortingCollection.MAX_MERGE_RUNS;
+        try {
+            ParallelSortingCollection.MAX_MERGE_RUNS = 4;
+            AsciiSorter sorter = (AsciiSorter) SorterFactory.getSorter(ifile, ofile);
+            sorter.setMaxMemory(20000);
+            sorter.setThreadCount(4);
+            sorter.run();
+        } finally {
+            ParallelSortingCollection.MAX_MERGE_RUNS = maxMergeRuns;
+        }
+
+        Parser parser = new Parser(0, 1);
+        List<SortableRecord> expected = new ArrayList<SortableRecord>();
+        for (String line : readLines(ifile)) {
+            expected.add(parser.createRecord(line));
+        }
+        Collections.sort(expected, AsciiSorter.getDefaultComparator());
+
+        List<String> actual = readLines(ofile);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(expected.get(i).getText(), actual.get(i));
+        }
+    }
+
+    /**
+     * A sort on an interrupted thread is abandoned,  e.g. when switching genomes while a gene file is sorted
+     */
+    @Test
+    public void testInterrupted() throws Exception {
+        File ifile = new File(TestUtils.DATA_DIR + "bed/GSM1004654_10k.bed");
+        File ofile = new File(TestUtils.TMP_OUTPUT_DIR, "GSM1004654_10k.interrupted.sorted.bed");
+        ofile.deleteOnExit();
+        Sorter sorter = SorterFactory.getSorter(ifile, ofile);
+        Thread.currentThread().interrupt();
+        try {
+            sorter.run();
+            fail("Expected InterruptedIOException");
+        } catch (InterruptedIOException e) {
+            // Expected
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Cleanup should delete runs spilled by worker threads,  including runs that were never collected.
+     */
+    @Test
+    public void testCleanupDeletesPendingRuns() throws Exception {
+
+        File tmpDir = new File(TestUtils.TMP_OUTPUT_DIR, "sortCleanup");
+        tmpDir.mkdirs();
+        for (File file : tmpDir.listFiles()) {
+            file.delete();
+        }
+
+        ParallelSortingCollection cltn = new ParallelSortingCollection(new Parser(0, 1),
+                AsciiSorter.getDefaultComparator(), tmpDir, 20000, -1, 4);
+        try {
+            for (String line : readLines(new File(TestUtils.DATA_DIR + "bed/GSM1004654_10k.bed"))) {
+                cltn.add(line);
+            }
+            cltn.awaitPendingRuns();
+            assertTrue(tmpDir.listFiles().length > 0);
+        } finally {
+            cltn.cleanup();
+        }
+        assertEquals(0, tmpDir.listFiles().length);
+    }
+
+    /**
+     * Input made of sorted chromosome blocks in the wrong order,  with a few records out of place,  is streamed
+     * rather than sorted.  The output should match a stable in-memory sort.
+     */
+    @Test
+    public void testPresortedInput() throws Exception {
+
+        Parser parser = new Parser(0, 1);
+        Comparator<SortableRecord> comparator = AsciiSorter.getDefaultComparator();
+
+        // Sorted blocks per chromosome,  in reverse chromosome order
+        List<SortableRecord> records = new ArrayList<SortableRecord>();
+        for (String line : readLines(new File(TestUtils.DATA_DIR + "bed/GSM1004654_10k.bed"))) {
+            records.add(parser.createRecord(line));
+        }
+        Collections.sort(records, comparator);
+        Collections.reverse(records);
+        List<String> lines = new ArrayList<String>();
+        int blockStart = 0;
+        for (int i = 1; i <= records.size(); i++) {
+            if (i == records.size() || !records.get(i).getChromosome().equals(records.get(blockStart).getChromosome())) {
+                for (int j = i - 1; j >= blockStart; j--) {
+                    lines.add(records.get(j).getText());
+                }
+                blockStart = i;
+            }
+        }
+        // Move every 100th record to the end
+        List<String> displaced = new ArrayList<String>();
+        for (int i = lines.size() - 1; i >= 0; i -= 100) {
+            displaced.add(lines.remove(i));
+        }
+        lines.addAll(displaced);
+
+        File tmpDir = new File(TestUtils.TMP_OUTPUT_DIR);
+        PresortedSortingCollection cltn = new PresortedSortingCollection(parser, comparator, tmpDir, 100000, -1, 2);
+        List<SortableRecord> actual = new ArrayList<SortableRecord>();
+        try {
+            for (String line : lines) {
+                cltn.add(line);
+            }
+            assertTrue(cltn.isStreaming());
+            Iterator<SortableRecord> iter = cltn.iterator();
+            while (iter.hasNext()) {
+                actual.add(iter.next());
+            }
+        } finally {
+            cltn.cleanup();
+        }
+
+        List<SortableRecord> expected = new ArrayList<SortableRecord>();
+        for (String line : lines) {
+            expected.add(parser.createRecord(line));
+        }
+        Collections.sort(expected, comparator);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(expected.get(i).getText(), actual.get(i).getText());
+        }
+    }
+
+    /**
+     * Input alternating between chromosomes starts a segment per record,  segments past the limits are sorted
+     */
+    @Test
+    public void testSegmentLimit() throws Exception {
+
+        Parser parser = new Parser(0, 1);
+        Comparator<SortableRecord> comparator = AsciiSorter.getDefaultComparator();
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            lines.add("chr" + (1 + i % 3) + "\t" + (1000 + i) + "\t" + (1001 + i));
+        }
+
+        int minRecords = PresortedSortingCollection.MIN_RECORDS;
+        int maxChromosomeSegments = PresortedSortingCollection.MAX_CHROMOSOME_SEGMENTS;
+        int maxSegments = PresortedSortingCollection.MAX_SEGMENTS;
+        File tmpDir = new File(TestUtils.TMP_OUTPUT_DIR);
+        PresortedSortingCollection cltn = new PresortedSortingCollection(parser, comparator, tmpDir, 100000, -1, 2);
+        List<SortableRecord> actual = new ArrayList<SortableRecord>();
+        try {
+            PresortedSortingCollection.MIN_RECORDS = Integer.MAX_VALUE;
+            PresortedSortingCollection.MAX_CHROMOSOME_SEGMENTS = 5;
+            PresortedSortingCollection.MAX_SEGMENTS = 12;
+            for (String line : lines) {
+                cltn.add(line);
+            }
+            assertTrue(cltn.isStreaming());
+            assertEquals(12, cltn.getSegmentCount());
+            Iterator<SortableRecord> iter = cltn.iterator();
+            while (iter.hasNext()) {
+                actual.add(iter.next());
+            }
+        } finally {
+            PresortedSortingCollection.MIN_RECORDS = minRecords;
+            PresortedSortingCollection.MAX_CHROMOSOME_SEGMENTS = maxChromosomeSegments;
+            PresortedSortingCollection.MAX_SEGMENTS = maxSegments;
+            cltn.cleanup();
+        }
+
+        List<SortableRecord> expected = new ArrayList<SortableRecord>();
+        for (String line : lines) {
+            expected.add(parser.createRecord(line));
+        }
+        Collections.sort(expected, comparator);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(expected.get(i).getText(), actual.get(i).getText());
+        }
+    }
+
+    @Test
+    public void testUnsortedInputNotStreamed() throws Exception {
+
+        Parser parser = new Parser(0, 1);
+        File tmpDir = new File(TestUtils.TMP_OUTPUT_DIR);
+        PresortedSortingCollection cltn = new PresortedSortingCollection(parser, AsciiSorter.getDefaultComparator(),
+                tmpDir, 100000, -1, 2);
+        int count = 0;
+        int minRecords = PresortedSortingCollection.MIN_RECORDS;
+        try {
+            PresortedSortingCollection.MIN_RECORDS = 1000;
+            for (String line : readLines(new File(TestUtils.DATA_DIR + "bed/GSM1004654_10k.bed"))) {
+                cltn.add(line);
+            }
+            assertFalse(cltn.isStreaming());
+            Iterator<SortableRecord> iter = cltn.iterator();
+            SortableRecord last = null;
+            while (iter.hasNext()) {
+                SortableRecord record = iter.next();
+                if (last != null) {
+                    assertTrue(AsciiSorter.getDefaultComparator().compare(last, record) <= 0);
+                }
+                last = record;
+                count++;
+            }
+        } finally {
+            PresortedSortingCollection.MIN_RECORDS = minRecords;
+            cltn.cleanup();
+        }
+        assertEquals(10000, count);
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String nextLine;
+            while ((nextLine = reader.readLine()) != null) {
+                lines.add(nextLine);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
     public void testSort(String infile, int chrCol, int startCol) throws IOException {
         testSort(infile, chrCol, startCol, 10, null, 0);
     }
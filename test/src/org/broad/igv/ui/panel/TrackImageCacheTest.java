@@ -0,0 +1,175 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.ui.panel;
+
+import org.broad.igv.AbstractHeadlessTest;
+import org.broad.igv.track.AbstractTrack;
+import org.broad.igv.track.RenderContext;
+import org.broad.igv.track.Track;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackImageCacheTest extends AbstractHeadlessTest {
+
+    @Test
+    public void testGetPut() throws Exception {
+        TrackImageCache cache = new TrackImageCache(1000000);
+        Track track = new TestTrack("t1");
+        ReferenceFrame frame = new ReferenceFrame("testFrame");
+        List<Object> state = Arrays.<Object>asList("chr1", 100.0, 1.0);
+        BufferedImage image = new BufferedImage(100, 10, BufferedImage.TYPE_INT_RGB);
+
+        assertNull(cache.get(track, frame, state));
+        cache.put(track, frame, state, image, cache.getGeneration(track, frame));
+        assertSame(image, cache.get(track, frame, Arrays.<Object>asList("chr1", 100.0, 1.0)));
+
+        // Different locus, track, or frame
+        assertNull(cache.get(track, frame, Arrays.<Object>asList("chr1", 200.0, 1.0)));
+        assertNull(cache.get(new TestTrack("t2"), frame, state));
+        assertNull(cache.get(track, new ReferenceFrame("otherFrame"), state));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        TrackImageCache cache = new TrackImageCache(1000000);
+        Track track = new TestTrack("t1");
+        ReferenceFrame frame = new ReferenceFrame("testFrame");
+        List<Object> state = Arrays.<Object>asList("chr1", 100.0, 1.0);
+        BufferedImage image = new BufferedImage(100, 10, BufferedImage.TYPE_INT_RGB);
+
+        long generation = cache.getGeneration(track, frame);
+        cache.put(track, frame, state, image, generation);
+        cache.invalidate();
+        assertNull(cache.get(track, frame, state));
+
+        // An image rendered across an invalidation is never drawn
+        cache.put(track, frame, state, image, generation);
+        assertNull(cache.get(track, frame, state));
+
+        // ... but its buffer can be reused
+        assertNull(cache.removeBuffer(track, frame, 100, 20));
+        assertSame(image, cache.removeBuffer(track, frame, 100, 10));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Invalidating a frame,  or a track in a frame,  leaves the other images current
+     */
+    @Test
+    public void testInvalidateFrameAndTrack() throws Exception {
+        TrackImageCache cache = new TrackImageCache(1000000);
+        Track t1 = new TestTrack("t1");
+        Track t2 = new TestTrack("t2");
+        ReferenceFrame frame1 = new ReferenceFrame("frame1");
+        ReferenceFrame frame2 = new ReferenceFrame("frame2");
+        List<Object> state = Arrays.<Object>asList("chr1", 100.0, 1.0);
+        for (Track track : Arrays.asList(t1, t2)) {
+            for (ReferenceFrame frame : Arrays.asList(frame1, frame2)) {
+                cache.put(track, frame, state, new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB),
+                        cache.getGeneration(track, frame));
+            }
+        }
+
+        cache.invalidate(t1, frame1);
+        assertNull(cache.get(t1, frame1, state));
+        assertNotNull(cache.get(t1, frame2, state));
+        assertNotNull(cache.get(t2, frame1, state));
+
+        cache.invalidate(frame2);
+        assertNull(cache.get(t1, frame2, state));
+        assertNull(cache.get(t2, frame2, state));
+        assertNotNull(cache.get(t2, frame1, state));
+
+        // An image rendered across a track invalidation is stale
+        long generation = cache.getGeneration(t2, frame1);
+        cache.invalidate(t2, frame1);
+        cache.put(t2, frame1, state, new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), generation);
+        assertNull(cache.get(t2, frame1, state));
+    }
+
+    @Test
+    public void testMemoryBound() throws Exception {
+        // Room for two 100 x 10 images
+        TrackImageCache cache = new TrackImageCache(8000);
+        ReferenceFrame frame = new ReferenceFrame("testFrame");
+        List<Object> state = Arrays.<Object>asList("chr1", 100.0, 1.0);
+        assertFalse(cache.isCacheable(100, 10));
+        assertTrue(cache.isCacheable(10, 10));
+
+        Track t1 = new TestTrack("t1");
+        Track t2 = new TestTrack("t2");
+        Track t3 = new TestTrack("t3");
+        cache.put(t1, frame, state, new BufferedImage(100, 10, BufferedImage.TYPE_INT_RGB),
+                cache.getGeneration(t1, frame));
+        cache.put(t2, frame, state, new BufferedImage(100, 10, BufferedImage.TYPE_INT_RGB),
+                cache.getGeneration(t2, frame));
+        assertNotNull(cache.get(t1, frame, state));
+        cache.put(t3, frame, state, new BufferedImage(100, 10, BufferedImage.TYPE_INT_RGB),
+                cache.getGeneration(t3, frame));
+
+        // Least recently used image is evicted
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(t1, frame, state));
+        assertNull(cache.get(t2, frame, state));
+        assertNotNull(cache.get(t3, frame, state));
+    }
+
+    @Test
+    public void testState() throws Exception {
+        Track track = new TestTrack("t1");
+        ReferenceFrame frame = new ReferenceFrame("testFrame");
+        frame.setBounds(0, 500);
+        Rectangle rect = new Rectangle(0, 0, 500, 40);
+
+        List<Object> state = TrackImageCache.getState(track, frame, rect, rect, Color.white, 1, 1, null);
+        assertEquals(state, TrackImageCache.getState(track, frame, new Rectangle(rect), rect, Color.white, 1, 1, null));
+
+        track.setColor(Color.red);
+        List<Object> colorState = TrackImageCache.getState(track, frame, rect, rect, Color.white, 1, 1, null);
+        assertFalse(state.equals(colorState));
+
+        track.setHeight(80, true);
+        assertFalse(colorState.equals(TrackImageCache.getState(track, frame, new Rectangle(0, 0, 500, 80),
+                rect, Color.white, 1, 1, null)));
+        assertFalse(colorState.equals(TrackImageCache.getState(track, frame, rect, rect, Color.white, 2, 2, null)));
+    }
+
+    private static class TestTrack extends AbstractTrack {
+
+        TestTrack(String id) {
+            super(id);
+        }
+
+        public void render(RenderContext context, Rectangle rect) {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.ui.panel;
+
+import org.broad.igv.track.AbstractTrack;
+import org.broad.igv.track.RenderContext;
+import org.broad.igv.track.Track;
+import org.junit.Test;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TrackRenderSchedulerTest {
+
+    @Test
+    public void testCoalesce() throws Exception {
+
+        TrackRenderScheduler scheduler = new TrackRenderScheduler(2);
+        Track track = new TestTrack("t1");
+        Track otherTrack = new TestTrack("t2");
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicInteger renderCount = new AtomicInteger();
+
+        TrackRenderScheduler.RenderTask blockingTask = new TrackRenderScheduler.RenderTask() {
+            public boolean render() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                renderCount.incrementAndGet();
+                done.countDown();
+                return true;
+            }
+        };
+        TrackRenderScheduler.RenderTask task = new TrackRenderScheduler.RenderTask() {
+            public boolean render() {
+                renderCount.incrementAndGet();
+                done.countDown();
+                return true;
+            }
+        };
+
+        assertTrue(scheduler.submit(track, null, blockingTask));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(scheduler.isRendering(track));
+
+        // A second request for the same track is coalesced,  other tracks render concurrently
+        assertFalse(scheduler.submit(track, null, task));
+        assertTrue(scheduler.submit(otherTrack, null, task));
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, renderCount.get());
+
+        long t0 = System.currentTimeMillis();
+        while (scheduler.isRendering(track) && System.currentTimeMillis() - t0 < 10000) {
+            Thread.sleep(10);
+        }
+        assertFalse(scheduler.isRendering(track));
+        assertTrue(scheduler.submit(track, null, task));
+    }
+
+    /**
+     * An image that is not current,  e.g. rendered while its track was loading,  still gets the panel repainted
+     */
+    @Test
+    public void testRepaintWhenNotCurrent() throws Exception {
+
+        TrackRenderScheduler scheduler = new TrackRenderScheduler(1);
+        final CountDownLatch repainted = new CountDownLatch(1);
+        JPanel panel = new JPanel() {
+            @Override
+            public void repaint(long tm, int x, int y, int width, int height) {
+                repainted.countDown();
+            }
+        };
+
+        scheduler.submit(new TestTrack("t1"), panel, new TrackRenderScheduler.RenderTask() {
+            public boolean render() {
+                return false;
+            }
+        });
+        assertTrue(repainted.await(10, TimeUnit.SECONDS));
+    }
+
+    private static class TestTrack extends AbstractTrack {
+
+        TestTrack(String id) {
+            super(id);
+        }
+
+        public void render(RenderContext context, Rectangle rect) {
+        }
+    }
+}
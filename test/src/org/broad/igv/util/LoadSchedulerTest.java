@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LoadSchedulerTest {
+
+    @Test
+    public void testCoalesce() throws Exception {
+        LoadScheduler scheduler = new LoadScheduler(1);
+        Object owner = new Object();
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        // Block the single worker
+        scheduler.schedule(new Object(), "block", LoadScheduler.Priority.VISIBLE, new GateRunnable("block", gate, null));
+
+        List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        Future f1 = scheduler.schedule(owner, "chr1:1-100", LoadScheduler.Priority.VISIBLE, new GateRunnable("chr1:1-100", null, log));
+        Future f2 = scheduler.schedule(owner, "chr1:1-100", LoadScheduler.Priority.VISIBLE, new GateRunnable("chr1:1-100", null, log));
+        assertSame(f1, f2);
+
+        gate.countDown();
+        f1.get(5, TimeUnit.SECONDS);
+        assertEquals(1, log.size());
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        LoadScheduler scheduler = new LoadScheduler(1);
+        Object owner = new Object();
+        final CountDownLatch gate = new CountDownLatch(1);
+        scheduler.schedule(new Object(), "block", LoadScheduler.Priority.VISIBLE, new GateRunnable("block", gate, null));
+
+        List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        scheduler.schedule(owner, "prefetch", LoadScheduler.Priority.PREFETCH, new GateRunnable("prefetch", null, log));
+        Future visible = scheduler.schedule(owner, "visible", LoadScheduler.Priority.VISIBLE, new GateRunnable("visible", null, log));
+
+        // Promote a queued prefetch
+        scheduler.schedule(owner, "prefetch2", LoadScheduler.Priority.PREFETCH, new GateRunnable("prefetch2", null, log));
+        Future promoted = scheduler.schedule(owner, "prefetch2", LoadScheduler.Priority.VISIBLE, new GateRunnable("prefetch2", null, log));
+
+        gate.countDown();
+        visible.get(5, TimeUnit.SECONDS);
+        promoted.get(5, TimeUnit.SECONDS);
+        while (scheduler.getPendingCount() > 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, log.size());
+        assertEquals("visible", log.get(0));
+        assertEquals("prefetch2", log.get(1));
+        assertEquals("prefetch", log.get(2));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        LoadScheduler scheduler = new LoadScheduler(1);
+        Object owner = new Object();
+        final CountDownLatch gate = new CountDownLatch(1);
+        Future blocker = scheduler.schedule(new Object(), "block", LoadScheduler.Priority.VISIBLE, new GateRunnable("block", gate, null));
+
+        List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        Future f = scheduler.schedule(owner, "chr1:1-100", LoadScheduler.Priority.VISIBLE, new GateRunnable("chr1:1-100", null, log));
+        assertTrue(scheduler.isPending(owner));
+        scheduler.cancel(owner);
+        assertTrue(f.isCancelled());
+        assertFalse(scheduler.isPending(owner));
+
+        gate.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        assertEquals(0, log.size());
+    }
+
+    private static class GateRunnable implements NamedRunnable {
+
+        CountDownLatch gate;
+        List<String> log;
+        String name;
+
+        GateRunnable(String name, CountDownLatch gate, List<String> log) {
+            this.name = name;
+            this.gate = gate;
+            this.log = log;
+        }
+
+        public void run() {
+            try {
+                if (gate != null) gate.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (log != null) log.add(name);
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -92,4 +92,15 @@ public class IntArrayListTest {
     }
 
 
-}
\ No newline at end of file
+
+    @Test
+    public void testAddAfterTrimEmpty() {
+        IntArrayList aList = new IntArrayList(10);
+        aList.trimToSize();
+        aList.add(1);
+        aList.set(5, 2);
+        assertEquals(6, aList.size());
+        assertEquals(1, aList.get(0));
+        assertEquals(2, aList.get(5));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import org.broad.igv.PreferenceManager;
+import org.broad.igv.util.TestUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IGVSeekableMappedStreamTest {
+
+    static File testFile;
+    static byte[] expectedBytes;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        expectedBytes = new byte[20000];
+        new Random(1).nextBytes(expectedBytes);
+        testFile = new File(TestUtils.TMP_OUTPUT_DIR, "mappedStreamTest.dat");
+        testFile.getParentFile().mkdirs();
+        testFile.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(testFile);
+        fos.write(expectedBytes);
+        fos.close();
+    }
+
+    /**
+     * Random seeks and reads,  with a chunk size small enough that many reads span chunks
+     */
+    @Test
+    public void testRandomReads() throws Exception {
+        IGVSeekableMappedStream stream = new IGVSeekableMappedStream(testFile, 1000);
+        assertEquals(expectedBytes.length, stream.length());
+
+        Random random = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            int pos = random.nextInt(expectedBytes.length);
+            int len = random.nextInt(3000);
+            byte[] buffer = new byte[len];
+            stream.seek(pos);
+            int n = stream.read(buffer, 0, len);
+            int expectedN = len == 0 ? 0 : Math.min(len, expectedBytes.length - pos);
+            assertEquals(expectedN, n);
+            assertArrayEquals(Arrays.copyOfRange(expectedBytes, pos, pos + n), Arrays.copyOf(buffer, n));
+            assertEquals(pos + n, stream.position());
+
+            if (pos + n < expectedBytes.length) {
+                assertEquals(expectedBytes[pos + n] & 0xff, stream.read());
+            }
+        }
+        stream.close();
+    }
+
+    @Test
+    public void testEof() throws Exception {
+        IGVSeekableMappedStream stream = new IGVSeekableMappedStream(testFile, 1000);
+        stream.seek(expectedBytes.length - 1);
+        assertFalse(stream.eof());
+        assertEquals(expectedBytes[expectedBytes.length - 1] & 0xff, stream.read());
+        assertTrue(stream.eof());
+        assertEquals(-1, stream.read());
+        assertEquals(-1, stream.read(new byte[10], 0, 10));
+        stream.close();
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        IGVSeekableMappedStream stream = new IGVSeekableMappedStream(testFile, 1000);
+        assertEquals(expectedBytes[0] & 0xff, stream.read());
+        stream.close();
+        stream.close();
+        try {
+            stream.read(0, new byte[10], 0, 10);
+            fail("Expected IOException reading a closed stream");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testFactoryStream() throws Exception {
+        PreferenceManager prefs = PreferenceManager.getInstance();
+        prefs.put(PreferenceManager.MEMORY_MAP_LOCAL_FILES, true);
+        try {
+            assertTrue(IGVSeekableStreamFactory.getInstance().getStreamFor(testFile.getAbsolutePath())
+                    instanceof IGVSeekableMappedStream);
+        } finally {
+            prefs.remove(PreferenceManager.MEMORY_MAP_LOCAL_FILES);
+        }
+
+        // Reading through the mapped stream must match the plain file stream
+        IGVSeekableMappedStream mapped = new IGVSeekableMappedStream(testFile);
+        SeekableFileStream plain = new SeekableFileStream(testFile);
+        byte[] b1 = new byte[expectedBytes.length];
+        byte[] b2 = new byte[expectedBytes.length];
+        mapped.readFully(b1);
+        plain.readFully(b2);
+        assertArrayEquals(b2, b1);
+        mapped.close();
+        plain.close();
+    }
+}
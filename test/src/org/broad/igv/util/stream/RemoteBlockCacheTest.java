@@ -0,0 +1,280 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.broad.igv.util.TestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RemoteBlockCacheTest {
+
+    static final int FILE_SIZE = 5 * RemoteBlockCache.BLOCK_SIZE + 1234;
+
+    File dataFile;
+    File cacheDir;
+    byte[] expectedBytes;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = new File(TestUtils.TMP_OUTPUT_DIR);
+        dir.mkdirs();
+
+        expectedBytes = new byte[FILE_SIZE];
+        new Random(1).nextBytes(expectedBytes);
+        dataFile = new File(dir, "blockCacheTest.dat");
+        dataFile.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(dataFile);
+        fos.write(expectedBytes);
+        fos.close();
+
+        cacheDir = new File(dir, "blockCache");
+        cacheDir.mkdirs();
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+    }
+
+    @Test
+    public void testReadThroughCache() throws Exception {
+
+        RemoteBlockCache cache = new RemoteBlockCache(cacheDir, 100 * RemoteBlockCache.BLOCK_SIZE);
+        CountingStream source = new CountingStream(dataFile);
+        String key = RemoteBlockCache.getKey("http://host/test.bam", "etag1");
+        IGVSeekableCachedStream stream = new IGVSeekableCachedStream(source, key, FILE_SIZE, cache);
+
+        Random random = new Random(2);
+        for (int i = 0; i < 200; i++) {
+            int pos = random.nextInt(FILE_SIZE);
+            int len = 1 + random.nextInt(3 * RemoteBlockCache.BLOCK_SIZE);
+            byte[] buffer = new byte[len];
+            stream.seek(pos);
+            int n = stream.read(buffer, 0, len);
+            assertEquals(Math.min(len, FILE_SIZE - pos), n);
+            assertArrayEquals(Arrays.copyOfRange(expectedBytes, pos, pos + n), Arrays.copyOf(buffer, n));
+        }
+        stream.seek(FILE_SIZE);
+        assertEquals(-1, stream.read());
+
+        // Every block fetched exactly once
+        assertEquals(FILE_SIZE, source.bytesRead);
+        assertEquals(FILE_SIZE, cache.getSize());
+
+        // A new cache over the same directory (e.g. after a restart) serves everything from disk
+        RemoteBlockCache cache2 = new RemoteBlockCache(cacheDir, 100 * RemoteBlockCache.BLOCK_SIZE);
+        CountingStream source2 = new CountingStream(dataFile);
+        IGVSeekableCachedStream stream2 = new IGVSeekableCachedStream(source2, key, FILE_SIZE, cache2);
+        byte[] all = new byte[FILE_SIZE];
+        stream2.readFully(all);
+        assertArrayEquals(expectedBytes, all);
+        assertEquals(0, source2.bytesRead);
+
+        // A different validator does not see the cached blocks
+        CountingStream source3 = new CountingStream(dataFile);
+        String key3 = RemoteBlockCache.getKey("http://host/test.bam", "etag2");
+        IGVSeekableCachedStream stream3 = new IGVSeekableCachedStream(source3, key3, FILE_SIZE, cache2);
+        stream3.readFully(new byte[100]);
+        assertEquals(RemoteBlockCache.BLOCK_SIZE, source3.bytesRead);
+    }
+
+    @Test
+    public void testIsCacheable() throws Exception {
+        assertTrue(RemoteBlockCache.isCacheable(new URL("https://data.example.org/igv/test.bam")));
+        assertFalse(RemoteBlockCache.isCacheable(new URL("https://user:pw@data.example.org/igv/test.bam")));
+        assertFalse(RemoteBlockCache.isCacheable(
+                new URL("https://bucket.s3.amazonaws.com/test.bam?X-Amz-Signature=abc&X-Amz-Expires=60")));
+        assertFalse(RemoteBlockCache.isCacheable(new URL("https://www.googleapis.com/storage/v1/b/bucket/o/test.bam")));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+
+        long maxBytes = 2 * RemoteBlockCache.BLOCK_SIZE;
+        RemoteBlockCache cache = new RemoteBlockCache(cacheDir, maxBytes);
+        String key = RemoteBlockCache.getKey("http://host/test.bam", "etag1");
+        IGVSeekableCachedStream stream = new IGVSeekableCachedStream(new CountingStream(dataFile), key, FILE_SIZE, cache);
+
+        byte[] all = new byte[FILE_SIZE];
+        stream.readFully(all);
+        assertArrayEquals(expectedBytes, all);
+        assertTrue(cache.getSize() <= maxBytes);
+        assertEquals(2, cacheDir.listFiles().length);
+
+        // The most recently read blocks are the ones retained
+        assertNotNull(cache.get(key, 5));
+        assertNull(cache.get(key, 0));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+
+        final int bs = RemoteBlockCache.BLOCK_SIZE;
+        int fileSize = 200 * bs;
+        byte[] bytes = new byte[fileSize];
+        new Random(3).nextBytes(bytes);
+        final File bigFile = new File(TestUtils.TMP_OUTPUT_DIR, "blockCachePrefetchTest.dat");
+        bigFile.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(bigFile);
+        fos.write(bytes);
+        fos.close();
+
+        RemoteBlockCache cache = new RemoteBlockCache(cacheDir, 1000 * bs);
+        final List<CountingStream> opened = Collections.synchronizedList(new ArrayList<CountingStream>());
+        IGVSeekableCachedStream.SourceFactory sourceFactory = new IGVSeekableCachedStream.SourceFactory() {
+            public SeekableStream newStream() throws IOException {
+                CountingStream s = new CountingStream(bigFile);
+                opened.add(s);
+                return s;
+            }
+        };
+        CountingStream source = new CountingStream(bigFile);
+        String key = RemoteBlockCache.getKey("http://host/prefetch.bam", "etag1");
+        IGVSeekableCachedStream stream = new IGVSeekableCachedStream(source, sourceFactory, key, fileSize, cache, true);
+
+        // Small chunks,  close together,  in two clusters far apart
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (int i = 0; i < 10; i++) {
+            ranges.add(new long[]{(long) i * 2 * bs + 100, (long) i * 2 * bs + 200});
+            ranges.add(new long[]{(long) (150 + i) * bs + 100, (long) (150 + i) * bs + 200});
+        }
+        stream.prefetch(ranges);
+
+        // 20 ranges merged into one request per cluster
+        assertEquals(2, opened.size());
+
+        for (long[] r : ranges) {
+            byte[] buffer = new byte[(int) (r[1] - r[0])];
+            stream.seek(r[0]);
+            stream.readFully(buffer);
+            assertArrayEquals(Arrays.copyOfRange(bytes, (int) r[0], (int) r[1]), buffer);
+        }
+        assertEquals(0, source.bytesRead);
+
+        // A second prefetch of the same ranges is a no-op
+        stream.prefetch(ranges);
+        assertEquals(2, opened.size());
+    }
+
+    /**
+     * Prefetch without the disk cache keeps the blocks in memory
+     */
+    @Test
+    public void testPrefetchInMemory() throws Exception {
+
+        final int bs = RemoteBlockCache.BLOCK_SIZE;
+        RemoteBlockCache cache = new RemoteBlockCache(null, 0);
+        assertFalse(cache.isEnabled());
+        IGVSeekableCachedStream.SourceFactory sourceFactory = new IGVSeekableCachedStream.SourceFactory() {
+            public SeekableStream newStream() throws IOException {
+                return new CountingStream(dataFile);
+            }
+        };
+        CountingStream source = new CountingStream(dataFile);
+        String key = RemoteBlockCache.getKey("http://host/memory.bam", "");
+        IGVSeekableCachedStream stream = new IGVSeekableCachedStream(source, sourceFactory, key, FILE_SIZE, cache,
+                false);
+
+        List<long[]> ranges = new ArrayList<long[]>();
+        ranges.add(new long[]{100, 200});
+        ranges.add(new long[]{4 * bs + 100, 4 * bs + 200});
+        stream.prefetch(ranges);
+        long prefetched = source.bytesRead;
+
+        for (long[] r : ranges) {
+            byte[] buffer = new byte[(int) (r[1] - r[0])];
+            stream.seek(r[0]);
+            stream.readFully(buffer);
+            assertArrayEquals(Arrays.copyOfRange(expectedBytes, (int) r[0], (int) r[1]), buffer);
+        }
+        assertEquals(prefetched, source.bytesRead);
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cacheDir.listFiles().length);
+    }
+
+    /**
+     * Prefetches into the memory cache share a budget,  a prefetch with no budget left reads nothing
+     */
+    @Test
+    public void testMemoryPrefetchBudget() throws Exception {
+
+        RemoteBlockCache cache = new RemoteBlockCache(null, 0);
+        IGVSeekableCachedStream.SourceFactory sourceFactory = new IGVSeekableCachedStream.SourceFactory() {
+            public SeekableStream newStream() throws IOException {
+                return new CountingStream(dataFile);
+            }
+        };
+        CountingStream source = new CountingStream(dataFile);
+        String key = RemoteBlockCache.getKey("http://host/budget.bam", "");
+        IGVSeekableCachedStream stream = new IGVSeekableCachedStream(source, sourceFactory, key, FILE_SIZE, cache,
+                false);
+        List<long[]> ranges = new ArrayList<long[]>();
+        ranges.add(new long[]{100, 200});
+
+        int reserved = cache.reserveMemoryPrefetch(Integer.MAX_VALUE);
+        assertEquals(RemoteBlockCache.MAX_MEMORY_PREFETCH_BLOCKS, reserved);
+        stream.prefetch(ranges);
+        assertEquals(0, source.bytesRead);
+
+        cache.releaseMemoryPrefetch(reserved);
+        stream.prefetch(ranges);
+        assertTrue(source.bytesRead > 0);
+        assertEquals(RemoteBlockCache.MAX_MEMORY_PREFETCH_BLOCKS, cache.reserveMemoryPrefetch(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testMemoryCachedStreamSkipsCredentialedUrls() throws Exception {
+        RemoteBlockCache cache = new RemoteBlockCache(null, 0);
+        SeekableStream stream = new CountingStream(dataFile);
+        URL url = new URL("https://bucket.s3.amazonaws.com/test.bam?X-Amz-Signature=abc&X-Amz-Expires=60");
+        assertSame(stream, cache.getMemoryCachedStream(url, stream));
+    }
+
+    static class CountingStream extends SeekableFileStream {
+
+        long bytesRead = 0;
+
+        CountingStream(File file) throws IOException {
+            super(file);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) bytesRead += n;
+            return n;
+        }
+    }
+}